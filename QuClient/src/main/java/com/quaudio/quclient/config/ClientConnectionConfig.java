@@ -1,5 +1,8 @@
 package com.quaudio.quclient.config;
 
+import com.quaudio.quclient.server.ActionCompression;
+import com.quaudio.quclient.server.ActionEncoding;
+
 /**
  * 
  * @author Nikolas Howard
@@ -9,6 +12,10 @@ public class ClientConnectionConfig {
     private String clientId;
     private String clientName;
     private String accessPassword = "";
+    // The ActionEncoding we ask the server for, servers that don't support it will fall back to JSON.
+    private ActionEncoding actionEncoding = ActionEncoding.BINARY;
+    // Whether we ask the server to compress large actions, such as the playlist, servers that don't support it will send them as they are.
+    private ActionCompression actionCompression = ActionCompression.DEFLATE;
     private boolean locked = false;
 
     public String getClientId() {
@@ -47,6 +54,30 @@ public class ClientConnectionConfig {
         this.accessPassword = accessPassword;
     }
 
+    public ActionEncoding getActionEncoding() {
+        return actionEncoding;
+    }
+
+    public void setActionEncoding(ActionEncoding actionEncoding) {
+        // Has this ClientConfig object been locked?
+        if(locked) {
+            throw new RuntimeException("this ClientConfig object is locked");
+        }
+        this.actionEncoding = actionEncoding;
+    }
+
+    public ActionCompression getActionCompression() {
+        return actionCompression;
+    }
+
+    public void setActionCompression(ActionCompression actionCompression) {
+        // Has this ClientConfig object been locked?
+        if(locked) {
+            throw new RuntimeException("this ClientConfig object is locked");
+        }
+        this.actionCompression = actionCompression;
+    }
+
     /**
      * Sets a flag that stops the user from being able to alter any variables of this object.
      * Called when initialising a device object as the information this class contains cannot
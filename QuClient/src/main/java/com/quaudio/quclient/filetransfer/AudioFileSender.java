@@ -1,22 +1,37 @@
 package com.quaudio.quclient.filetransfer;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
- * 
+ * Sends audio files to the Qu server's AudioFileReceiver, normally driven by an UploadManager.
  * @author Nikolas Howard
  *
  */
 public class AudioFileSender {
+    // The number of bytes sent in each chunk, this must not be more than the server's DataTransfer.MAX_CHUNK_SIZE.
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // The number of times we try an upload while the server is busy, and how long to wait if it doesn't say.
+    private static final int MAX_UPLOAD_ATTEMPTS = 5;
+    private static final long DEFAULT_RETRY_AFTER = 5000;
+    // How long to wait before carrying on with an upload that got cut off.
+    private static final long RESUME_RETRY_AFTER = 1000;
+    // The least time between progress events for an upload.
+    private static final long PROGRESS_INTERVAL = 250;
     private int afrPort;
     private String targetAddress;
 
@@ -26,7 +41,7 @@ public class AudioFileSender {
     }
 
     /**
-     * Uploads an audio file to the Qu server's AudioFileReceiver
+     * Uploads an audio file to the Qu server's AudioFileReceiver on a new thread.
      * @param audioFile
      * @param clientId
      * @param format
@@ -37,44 +52,155 @@ public class AudioFileSender {
      * @throws UnknownHostException
      */
     public void upload(final File audioFile, final String clientId, final String format, final String name, final String artist, final String album) throws UnknownHostException, IOException {
+        final Upload upload = new Upload(audioFile, FileFormat.valueOf(format), name, artist, album);
         // Start the upload on a new thread
         new Thread(new Runnable() {
 
             @Override
             public void run() {
-                // Create a new socket with which to connect to the server
-                Socket afrSocket = null;
-                try {
-                    afrSocket = new Socket(targetAddress, afrPort);
-                } catch (UnknownHostException e) {
-                    // Failed to get connection to server AudioFileReceiver, bow out
-                    e.printStackTrace();
-                    return;
-                } catch (IOException e) {
-                    // Failed to get connection to server AudioFileReceiver, bow out
-                    e.printStackTrace();
-                    return;
-                }
-                // Attempt to send the JSON defining the audio track to the server
-                try {
-                    boolean infoJSONSent = sendInfoJSON(afrSocket, clientId, format, name, artist, album);
-                    if(infoJSONSent) {
-                        // Send the physical file
-                        sendPhysicalFile(afrSocket, audioFile);
-                    }
-                } catch (IOException e) {
-
-                } finally {
-                    if(afrSocket != null) {
-                        try {
-                            // Whatever happens, close the socket!
-                            afrSocket.close();
-                        } catch (IOException e) {}
+                send(upload, clientId, null);
+            }
+
+        }).start();
+    }
+
+    /**
+     * Sends an upload to the Qu server's AudioFileReceiver, returning once it has finished one way or another.
+     * @param upload
+     * @param clientId
+     * @param uploadListener notified of progress, may be null
+     * @return the state the upload finished in
+     */
+    public UploadState send(Upload upload, String clientId, UploadListener uploadListener) {
+        // The server uses the hash to spot files it already has and to check what we send it.
+        String contentHash = null;
+        try {
+            contentHash = hashFile(upload.getFile());
+        } catch (IOException e) {
+            // We can't read the file, bow out
+            e.printStackTrace();
+            upload.setState(UploadState.FAILED);
+        }
+        // The server may be too busy to take our upload, in which case it tells us when to try again.
+        // If we get cut off part way through then the next attempt carries on from where we got to.
+        for(int attempt = 1; contentHash != null && attempt <= MAX_UPLOAD_ATTEMPTS; attempt++) {
+            long retryAfter = attemptUpload(upload, contentHash, clientId, uploadListener);
+            if(retryAfter < 0) {
+                break;
+            }
+            upload.setState(UploadState.WAITING);
+            notifyProgress(upload, uploadListener);
+            try {
+                Thread.sleep(retryAfter);
+            } catch (InterruptedException e) {
+                upload.cancel();
+            }
+            if(upload.isCancelled()) {
+                upload.setState(UploadState.CANCELLED);
+                break;
+            }
+        }
+        // If we ran out of attempts then give up.
+        if(!upload.isFinished()) {
+            upload.setState(UploadState.FAILED);
+        }
+        if(uploadListener != null) {
+            uploadListener.onUploadFinished(upload);
+        }
+        return upload.getState();
+    }
+
+    /**
+     * Makes a single attempt at sending an upload, setting its state if it finishes.
+     * @param upload
+     * @param contentHash
+     * @param clientId
+     * @param uploadListener
+     * @return how long to wait in milliseconds before trying again if the server was busy or we were cut off, otherwise -1
+     */
+    private long attemptUpload(Upload upload, String contentHash, String clientId, UploadListener uploadListener) {
+        // Create a new socket with which to connect to the server
+        Socket afrSocket = null;
+        try {
+            afrSocket = new Socket(targetAddress, afrPort);
+        } catch (UnknownHostException e) {
+            // Failed to get connection to server AudioFileReceiver, bow out
+            e.printStackTrace();
+            upload.setState(UploadState.FAILED);
+            return -1;
+        } catch (IOException e) {
+            // Failed to get connection to server AudioFileReceiver, bow out
+            e.printStackTrace();
+            upload.setState(UploadState.FAILED);
+            return -1;
+        }
+        // Attempt to send the JSON defining the audio track to the server
+        boolean sendingChunks = false;
+        try {
+            boolean infoJSONSent = sendInfoJSON(afrSocket, clientId, upload.getFormat().toString(), upload.getName(), upload.getArtist(), 
+                    upload.getAlbum(), upload.getTotalBytes(), contentHash);
+            if(infoJSONSent) {
+                // Wait for the server to tell us whether it is ready for the file.
+                BufferedReader statusReader = new BufferedReader(new InputStreamReader(afrSocket.getInputStream(), "UTF-8"));
+                JSONObject status = readStatusJSON(statusReader);
+                String statusValue = status.optString("status");
+                if(statusValue.equals("ACCEPTED")) {
+                    // Send the file from wherever the server got up to last time.
+                    sendingChunks = true;
+                    upload.startSending(status.optLong("offset", 0));
+                    notifyProgress(upload, uploadListener);
+                    if(!sendChunks(afrSocket, upload, uploadListener)) {
+                        upload.setState(UploadState.CANCELLED);
+                        return -1;
                     }
+                    // The server checks the whole file before telling us it is complete.
+                    boolean complete = readStatusJSON(statusReader).optString("status").equals("COMPLETE");
+                    upload.setState(complete ? UploadState.COMPLETE : UploadState.FAILED);
+                    return -1;
+                } else if(statusValue.equals("BUSY")) {
+                    return status.optLong("retry_after", DEFAULT_RETRY_AFTER);
+                } else if(statusValue.equals("DUPLICATE")) {
+                    // The server already has the file.
+                    upload.setState(UploadState.DUPLICATE);
+                    return -1;
                 }
             }
+        } catch (IOException e) {
+            if(sendingChunks) {
+                // We got cut off, the server keeps what it has so far so we can carry on.
+                return RESUME_RETRY_AFTER;
+            }
+        } catch (JSONException e) {
+            // The server sent us a status we don't understand.
+        } finally {
+            try {
+                // Whatever happens, close the socket!
+                afrSocket.close();
+            } catch (IOException e) {}
+        }
+        // Something is wrong that retrying won't fix.
+        upload.setState(UploadState.FAILED);
+        return -1;
+    }
 
-        }).start();
+    private void notifyProgress(Upload upload, UploadListener uploadListener) {
+        if(uploadListener != null) {
+            uploadListener.onUploadProgress(upload);
+        }
+    }
+
+    /**
+     * Reads a line of status JSON from the server.
+     * @param reader
+     * @return status JSON
+     * @throws IOException
+     */
+    private JSONObject readStatusJSON(BufferedReader reader) throws IOException {
+        String rawStatus = reader.readLine();
+        if(rawStatus == null) {
+            throw new IOException("server closed the connection without sending a status");
+        }
+        return new JSONObject(rawStatus);
     }
 
     /**
@@ -85,9 +211,11 @@ public class AudioFileSender {
      * @param name
      * @param artist
      * @param album
+     * @param fileLength
+     * @param contentHash
      * @return Returns true/false depending on whether sending the JSON string was a success
      */
-    private boolean sendInfoJSON(Socket socket, String clientId, String format, String name, String artist, String album) throws IOException {
+    private boolean sendInfoJSON(Socket socket, String clientId, String format, String name, String artist, String album, long fileLength, String contentHash) throws IOException {
         PrintWriter pw = null;
         try {
             JSONObject jO = new JSONObject();
@@ -96,6 +224,10 @@ public class AudioFileSender {
             jO.put("artist", artist);
             jO.put("album", album);
             jO.put("format", format);
+            // Letting the server know the size up front allows it to set aside the space and spot a truncated upload.
+            jO.put("file_length", fileLength);
+            // Sending the hash means the file goes in verified chunks, and not at all if the server already has it.
+            jO.put("content_hash", contentHash);
 
             try {
                 pw = new PrintWriter(socket.getOutputStream());
@@ -118,27 +250,80 @@ public class AudioFileSender {
     }
 
     /**
-     * Sends the physical audio file to the server to be picked up by the AudioFileReceiver
+     * Sends the upload's file to the server from where the server got up to as a series of chunks, each an int length, 
+     * the bytes and then their SHA-256. A zero length chunk tells the server we are done.
      * @param socket
-     * @param source
+     * @param upload
+     * @param uploadListener
+     * @return false if the upload was cancelled part way through
+     * @throws IOException
      */
-    private void sendPhysicalFile(Socket socket, File source) throws IOException {
-        FileInputStream fis = null;
-
+    private boolean sendChunks(Socket socket, Upload upload, UploadListener uploadListener) throws IOException {
+        MessageDigest chunkDigest = createDigest();
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE + 64));
+        RandomAccessFile input = new RandomAccessFile(upload.getFile(), "r");
         try {
-            fis = new FileInputStream(source);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            long position = upload.getBytesSent();
+            long lastProgress = System.currentTimeMillis();
+            input.seek(position);
+            int count;
+            byte[] bytes = new byte[CHUNK_SIZE];
+            while ((count = input.read(bytes)) > 0) {
+                if(upload.isCancelled()) {
+                    // Just stop, the server keeps the chunks it already has.
+                    return false;
+                }
+                chunkDigest.update(bytes, 0, count);
+                output.writeInt(count);
+                output.write(bytes, 0, count);
+                output.write(chunkDigest.digest());
+                position += count;
+                upload.setBytesSent(position);
+                // Don't flood listeners with an event for every chunk.
+                if(System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL) {
+                    lastProgress = System.currentTimeMillis();
+                    notifyProgress(upload, uploadListener);
+                }
+            }
+            output.writeInt(0);
+            output.flush();
+        } finally {
+            input.close();
         }
+        return true;
+    }
 
-        OutputStream output = socket.getOutputStream();
+    /**
+     * Works out the hex SHA-256 of a file.
+     * @param file
+     * @return content hash
+     * @throws IOException
+     */
+    private String hashFile(File file) throws IOException {
+        MessageDigest fileDigest = createDigest();
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int count;
+            byte[] bytes = new byte[CHUNK_SIZE];
+            while ((count = fis.read(bytes)) > 0) {
+                fileDigest.update(bytes, 0, count);
+            }
+        } finally {
+            fis.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for(byte b : fileDigest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
 
-        int count;
-        byte[] bytes = new byte[2048];
-        while ((count = fis.read(bytes)) > 0) {
-            output.write(bytes, 0, count);
+    private MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has to support SHA-256.
+            throw new RuntimeException(e);
         }
-        output.flush();
-        output.close();
     }
 }
@@ -5,5 +5,6 @@ public enum FileFormat {
 	FLAC,
 	MP4,
 	WAV,
-	GP3
+	GP3,
+	OGG
 }
@@ -0,0 +1,125 @@
+package com.quaudio.quclient.filetransfer;
+
+import java.io.File;
+
+/**
+ * An audio file to be uploaded to the Qu server, along with how far the upload has got.
+ * @author Nikolas Howard
+ *
+ */
+public class Upload {
+    private final File file;
+    private final FileFormat format;
+    private final String name;
+    private final String artist;
+    private final String album;
+    private final long totalBytes;
+    private volatile UploadState state = UploadState.QUEUED;
+    private volatile long bytesSent = 0;
+    private volatile boolean cancelled = false;
+    // When we started sending and how much the server already had, used to work out throughput.
+    private volatile long sendStartTime = 0;
+    private volatile long sendStartOffset = 0;
+
+    public Upload(File file, FileFormat format, String name, String artist, String album) {
+        this.file = file;
+        this.format = format;
+        this.name = name;
+        this.artist = artist;
+        this.album = album;
+        this.totalBytes = file.length();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public FileFormat getFormat() {
+        return format;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public UploadState getState() {
+        return state;
+    }
+
+    /**
+     * Get the number of bytes of the file the server has, including any it had from an earlier attempt.
+     * @return bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Get how much of the file the server has, from 0 to 1.
+     * @return progress
+     */
+    public double getProgress() {
+        if(state == UploadState.COMPLETE || state == UploadState.DUPLICATE) {
+            return 1;
+        }
+        return totalBytes == 0 ? 0 : bytesSent / (double) totalBytes;
+    }
+
+    /**
+     * Get the rate at which we have been sending the file since we last started.
+     * @return bytes per second
+     */
+    public double getThroughput() {
+        long elapsed = System.currentTimeMillis() - sendStartTime;
+        if(sendStartTime == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return (bytesSent - sendStartOffset) * 1000.0 / elapsed;
+    }
+
+    /**
+     * Returns true if this upload has finished, one way or another.
+     * @return isFinished
+     */
+    public boolean isFinished() {
+        return state == UploadState.COMPLETE || state == UploadState.DUPLICATE || state == UploadState.CANCELLED || state == UploadState.FAILED;
+    }
+
+    /**
+     * Cancel this upload, if it is part way through then the server keeps what it has and a later upload of the same file carries on from there.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void setState(UploadState state) {
+        this.state = state;
+    }
+
+    void setBytesSent(long bytesSent) {
+        this.bytesSent = bytesSent;
+    }
+
+    void startSending(long offset) {
+        this.bytesSent = offset;
+        this.sendStartOffset = offset;
+        this.sendStartTime = System.currentTimeMillis();
+        this.state = UploadState.SENDING;
+    }
+}
@@ -0,0 +1,21 @@
+package com.quaudio.quclient.filetransfer;
+
+/**
+ * An observer for the progress of uploads.
+ * @author Nikolas Howard
+ *
+ */
+public interface UploadListener {
+
+    /**
+     * Called when an upload changes state or has sent more of its file.
+     * @param upload
+     */
+    public void onUploadProgress(Upload upload);
+
+    /**
+     * Called once an upload is COMPLETE, DUPLICATE, CANCELLED or FAILED.
+     * @param upload
+     */
+    public void onUploadFinished(Upload upload);
+}
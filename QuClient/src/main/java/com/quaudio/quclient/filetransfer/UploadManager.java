@@ -0,0 +1,123 @@
+package com.quaudio.quclient.filetransfer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues any number of uploads and sends them to the Qu server a few at a time, reporting their progress to an UploadListener.
+ * @author Nikolas Howard
+ *
+ */
+public class UploadManager {
+    // The default number of uploads sent at the same time, the server only lets each client have a couple on the go.
+    public static final int DEFAULT_CONCURRENT_UPLOADS = 2;
+    private final AudioFileSender audioFileSender;
+    private final String clientId;
+    private final UploadListener uploadListener;
+    private final ThreadPoolExecutor uploadExecutor;
+    // The uploads that are queued or being sent.
+    private final LinkedList<Upload> uploads = new LinkedList<Upload>();
+
+    public UploadManager(String afrAddress, int afrPort, String clientId, UploadListener uploadListener) {
+        this.audioFileSender = new AudioFileSender(afrAddress, afrPort);
+        this.clientId = clientId;
+        this.uploadListener = uploadListener;
+        ThreadFactory uploadThreadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread uploadThread = new Thread(runnable, "qu-upload");
+                uploadThread.setDaemon(true);
+                return uploadThread;
+            }
+        };
+        this.uploadExecutor = new ThreadPoolExecutor(DEFAULT_CONCURRENT_UPLOADS, DEFAULT_CONCURRENT_UPLOADS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), uploadThreadFactory);
+    }
+
+    /**
+     * Queues an upload to be sent once one of the upload threads is free.
+     * @param upload
+     * @return upload
+     */
+    public Upload queue(final Upload upload) {
+        synchronized(uploads) {
+            uploads.add(upload);
+        }
+        uploadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // The upload may have been cancelled while it was queued.
+                    if(upload.isCancelled()) {
+                        upload.setState(UploadState.CANCELLED);
+                        uploadListener.onUploadFinished(upload);
+                    } else {
+                        audioFileSender.send(upload, clientId, uploadListener);
+                    }
+                } finally {
+                    synchronized(uploads) {
+                        uploads.remove(upload);
+                    }
+                }
+            }
+        });
+        return upload;
+    }
+
+    /**
+     * Queues a batch of uploads, they are sent in the order given.
+     * @param batch
+     */
+    public void queueAll(Collection<Upload> batch) {
+        for(Upload upload : batch) {
+            queue(upload);
+        }
+    }
+
+    /**
+     * Set how many uploads are sent at the same time.
+     * @param concurrentUploads
+     */
+    public synchronized void setConcurrentUploads(int concurrentUploads) {
+        if(concurrentUploads < 1) {
+            throw new IllegalArgumentException("must allow at least one upload at a time");
+        }
+        // The core size can never be more than the maximum, so change them in the right order.
+        if(concurrentUploads > uploadExecutor.getMaximumPoolSize()) {
+            uploadExecutor.setMaximumPoolSize(concurrentUploads);
+            uploadExecutor.setCorePoolSize(concurrentUploads);
+        } else {
+            uploadExecutor.setCorePoolSize(concurrentUploads);
+            uploadExecutor.setMaximumPoolSize(concurrentUploads);
+        }
+    }
+
+    public synchronized int getConcurrentUploads() {
+        return uploadExecutor.getCorePoolSize();
+    }
+
+    /**
+     * Get the uploads that are queued or being sent.
+     * @return uploads
+     */
+    public List<Upload> getUploads() {
+        synchronized(uploads) {
+            return new ArrayList<Upload>(uploads);
+        }
+    }
+
+    /**
+     * Cancels every upload that is queued or being sent.
+     */
+    public void cancelAll() {
+        for(Upload upload : getUploads()) {
+            upload.cancel();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.quaudio.quclient.filetransfer;
+
+/**
+ * The states an Upload goes through.
+ * @author Nikolas Howard
+ *
+ */
+public enum UploadState {
+    QUEUED,
+    SENDING,
+    WAITING,
+    COMPLETE,
+    DUPLICATE,
+    CANCELLED,
+    FAILED
+}
@@ -18,6 +18,9 @@ public class Track {
     private String artist;
     private String name;
     private TrackState trackState;
+    // In seconds, a duration of 0 means the server doesn't know it.
+    private double duration;
+    private double position;
     private Device device;
 
     public Track(Device parentDevice) {
@@ -70,6 +73,28 @@ public class Track {
         }
     }
 
+    /**
+     * Skip to a position in this track, in seconds, as long as the current client has the right permissions.
+     * @param position
+     */
+    public void skipTo(double position) {
+        // Check that we have permission to do this! (is this track ours? are we super user?)
+        if(canInteract()) {
+            // Create a new SKIP OutgoingAction
+            JSONObject jsoSkip = new JSONObject();
+            try {
+                jsoSkip.put("track_id", trackId);
+                jsoSkip.put("position", Math.max(0, position));
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            // Queue this OutgoingAction
+            device.sendAction(new OutgoingAction(OutgoingActionType.SKIP, jsoSkip));
+        } else {
+            throw new RuntimeException("cannot manipulate this track, user is neither track owner nor super user");
+        }
+    }
+
     /**
      * Stop this track as long as the current client has the right permissions.
      */
@@ -165,4 +190,28 @@ public class Track {
     public void setTrackState(TrackState trackState) {
         this.trackState = trackState;
     }
+
+    /**
+     * Get the length of this track in seconds, 0 if the server doesn't know it.
+     * @return duration
+     */
+    public double getDuration() {
+        return duration;
+    }
+
+    public void setDuration(double duration) {
+        this.duration = duration;
+    }
+
+    /**
+     * Get how far through this track playback had got, in seconds, when the server last told us.
+     * @return position
+     */
+    public double getPosition() {
+        return position;
+    }
+
+    public void setPosition(double position) {
+        this.position = position;
+    }
 }
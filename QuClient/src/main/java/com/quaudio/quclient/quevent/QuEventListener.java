@@ -1,5 +1,6 @@
 package com.quaudio.quclient.quevent;
 
+import com.quaudio.quclient.filetransfer.Upload;
 import com.quaudio.quclient.netprobe.ReachableQuDevice;
 import com.quaudio.quclient.server.Device;
 import com.quaudio.quclient.server.HandshakeResponse;
@@ -47,4 +48,18 @@ public interface QuEventListener {
      * @param handshakeResponse
      */
     public void onQuLinkFailure(ReachableQuDevice device, HandshakeResponse handshakeResponse);
+
+    /**
+     * Called when one of our uploads changes state or has sent more of its file.
+     * @param sourceDevice
+     * @param upload
+     */
+    public void onQuUploadProgress(Device sourceDevice, Upload upload);
+
+    /**
+     * Called when one of our uploads has finished, successfully or not.
+     * @param sourceDevice
+     * @param upload
+     */
+    public void onQuUploadFinished(Device sourceDevice, Upload upload);
 }
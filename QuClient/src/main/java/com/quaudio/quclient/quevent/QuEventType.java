@@ -11,5 +11,7 @@ public enum QuEventType {
     VOLUME_UPDATED,
     DISCONNECTION,
     CONNECTION,
-    FAILED_CONNECTION
+    FAILED_CONNECTION,
+    UPLOAD_PROGRESS,
+    UPLOAD_FINISHED
 }
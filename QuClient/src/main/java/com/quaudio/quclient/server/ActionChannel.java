@@ -1,8 +1,13 @@
 package com.quaudio.quclient.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
@@ -27,10 +32,18 @@ public class ActionChannel {
     private Socket actionChannelSocket;
     // PrintWriter used to send OutgoingAction JSON objects via our actionChannelSocket OutputStream
     private PrintWriter outgoingActionWriter;
+    // The stream that OutgoingAction frames are written to if the server agreed to the BINARY ActionEncoding.
+    private OutputStream outgoingActionStream;
+    // How actions are framed, as agreed with the server during the handshake.
+    private volatile ActionEncoding actionEncoding = ActionEncoding.JSON;
+    // Whether the server compresses large actions, as agreed during the handshake.
+    private volatile ActionCompression actionCompression = ActionCompression.NONE;
     // The handshake response that we get when we attempt to initialise the ActionChannel.
     private HandshakeResponse initialisationThreadResponse = HandshakeResponse.UNIDENTIFIED;
     // The BufferedReader that we first use to get handshake response from server, kept to pass to listener.
     private BufferedReader actionChannelReader = null;
+    // Or, if we are using the BINARY ActionEncoding or compression, the stream that the listener will read frames from.
+    private InputStream actionChannelInput = null;
 
     /**
      * Constructor
@@ -38,6 +51,23 @@ public class ActionChannel {
      * @throws UnknownHostException
      */
     public ActionChannel(final String serverAddress, final int serverClientManagerPort, final String clientId, final String clientName, final String accessPassword) {
+        this(serverAddress, serverClientManagerPort, clientId, clientName, accessPassword, ActionEncoding.JSON);
+    }
+
+    /**
+     * Constructor, asking the server to use the given ActionEncoding. The server may not agree, in which case JSON is used.
+     */
+    public ActionChannel(final String serverAddress, final int serverClientManagerPort, final String clientId, final String clientName, final String accessPassword,
+                         final ActionEncoding requestedEncoding) {
+        this(serverAddress, serverClientManagerPort, clientId, clientName, accessPassword, requestedEncoding, ActionCompression.NONE);
+    }
+
+    /**
+     * Constructor, asking the server to use the given ActionEncoding and ActionCompression. The server may agree to neither,
+     * in which case JSON is used without compression.
+     */
+    public ActionChannel(final String serverAddress, final int serverClientManagerPort, final String clientId, final String clientName, final String accessPassword,
+                         final ActionEncoding requestedEncoding, final ActionCompression requestedCompression) {
         final ActionChannel newActionChannel = this;
         // Attempt to establish a connection to the server ClientManager
         Thread actionChannelInitialisationThread = new Thread(new Runnable() {
@@ -47,13 +77,20 @@ public class ActionChannel {
                     actionChannelSocket = new Socket(serverAddress, serverClientManagerPort);
                     // Initialise our PrintWriter
                     outgoingActionWriter = new PrintWriter(actionChannelSocket.getOutputStream());
-                    // Initialise the BufferedReader that will be used to get our handshake response, and
-                    // (if the connection is successful) will be passed to a new instance of ActionChannelListener
-                    BufferedReader socketBufferedReader = new BufferedReader(new InputStreamReader(actionChannelSocket.getInputStream()));
-                    // Send connection handshake and handle response
-                    HandshakeResponse serverHandshakeResponse = sendHandshake(clientId, clientName, accessPassword, socketBufferedReader);
+                    // Send connection handshake and handle response. The response is read straight from the socket so
+                    // that nothing after it is buffered before we know how the actions that follow are framed.
+                    HandshakeResponse serverHandshakeResponse = sendHandshake(clientId, clientName, accessPassword, requestedEncoding,
+                            requestedCompression, actionChannelSocket.getInputStream());
+                    // Initialise whatever (if the connection is successful) will be passed to a new instance of ActionChannelListener
+                    if(actionEncoding == ActionEncoding.BINARY) {
+                        outgoingActionStream = new BufferedOutputStream(actionChannelSocket.getOutputStream());
+                    }
+                    if(actionEncoding == ActionEncoding.BINARY || actionCompression != ActionCompression.NONE) {
+                        actionChannelInput = new BufferedInputStream(actionChannelSocket.getInputStream());
+                    } else {
+                        newActionChannel.setActionChannelReader(new BufferedReader(new InputStreamReader(actionChannelSocket.getInputStream())));
+                    }
                     newActionChannel.setHandshakeResponse(serverHandshakeResponse);
-                    newActionChannel.setActionChannelReader(socketBufferedReader);
                 } catch (IOException e) {
                     newActionChannel.setHandshakeResponse(HandshakeResponse.CONNECTION_FAILED);
                 }
@@ -68,7 +105,11 @@ public class ActionChannel {
         // Were we accepted by the server?
         if(this.initialisationThreadResponse == HandshakeResponse.ACCEPTED) {
             // The handshake was a success, continue
-            actionChannelListener = new ActionChannelListener(newActionChannel, this.actionChannelReader);
+            if(actionChannelInput != null) {
+                actionChannelListener = new ActionChannelListener(newActionChannel, this.actionChannelInput, actionEncoding, actionCompression);
+            } else {
+                actionChannelListener = new ActionChannelListener(newActionChannel, this.actionChannelReader);
+            }
             // Set this ActionChannel as being connected to the server
             isConnected = true;
         }
@@ -79,14 +120,25 @@ public class ActionChannel {
      * @param clientId
      * @param clientName
      * @param accessPassword
+     * @param requestedEncoding
+     * @param requestedCompression
+     * @param socketInput
      */
-    private HandshakeResponse sendHandshake(String clientId, String clientName, String accessPassword, BufferedReader socketBufferedReader) {
+    private HandshakeResponse sendHandshake(String clientId, String clientName, String accessPassword, ActionEncoding requestedEncoding,
+                                            ActionCompression requestedCompression, InputStream socketInput) {
         // Send a handshake as a JSON object to the server ClientManager
         JSONObject handshakeJSONObject = new JSONObject();
         try {
             handshakeJSONObject.put("client_id", clientId);
             handshakeJSONObject.put("client_name", clientName);
             handshakeJSONObject.put("access_password", accessPassword == null ? "" : accessPassword);
+            if(requestedEncoding != ActionEncoding.JSON) {
+                // Older servers ignore this and answer with a plain 'ACCEPTED'.
+                handshakeJSONObject.put("action_encoding", requestedEncoding.toString());
+            }
+            if(requestedCompression != ActionCompression.NONE) {
+                handshakeJSONObject.put("action_compression", requestedCompression.toString());
+            }
         } catch(JSONException j) {
             // We were given some badly formatted connection details.
             System.out.println("error: handed badly formatted connection details");
@@ -96,17 +148,36 @@ public class ActionChannel {
         outgoingActionWriter.println(handshakeJSONObject.toString());
         outgoingActionWriter.flush();
         // Get the servers response (will be a string in the form of "ACCEPTED","DECLINED" or "WRONG_ACCESS_PASSWORD")
+        // An accepted response may also name the ActionEncoding and ActionCompression that the server agreed to,
+        // e.g. "ACCEPTED:BINARY" or "ACCEPTED:JSON:DEFLATE"
         String rawHandshakeResponse = "";
         try {
-            rawHandshakeResponse = socketBufferedReader.readLine();
+            rawHandshakeResponse = readResponseLine(socketInput);
         } catch (IOException e) {
             // We had a connection failure during the handshake, return the appropriate HandshakeResponse
             return HandshakeResponse.CONNECTION_FAILED;
         }
+        if(rawHandshakeResponse == null) {
+            return HandshakeResponse.CONNECTION_FAILED;
+        }
+        rawHandshakeResponse = rawHandshakeResponse.trim();
+        String[] responseParts = rawHandshakeResponse.split(":");
+        if(responseParts.length > 1) {
+            try {
+                actionEncoding = ActionEncoding.valueOf(responseParts[1]);
+                if(responseParts.length > 2) {
+                    actionCompression = ActionCompression.valueOf(responseParts[2]);
+                }
+            } catch (IllegalArgumentException ile) {
+                // We can't talk to the server in an encoding we don't know.
+                return HandshakeResponse.UNIDENTIFIED;
+            }
+            rawHandshakeResponse = responseParts[0];
+        }
         HandshakeResponse response = null;
         // Cast the returned response as a HandshakeResponse enum
         try {
-            response = HandshakeResponse.valueOf(rawHandshakeResponse.trim());
+            response = HandshakeResponse.valueOf(rawHandshakeResponse);
         } catch (IllegalArgumentException ile) {
             response = HandshakeResponse.UNIDENTIFIED;
         }
@@ -115,10 +186,41 @@ public class ActionChannel {
     }
 
     /**
-     * Takes an OutgoingAction and sends a JSON representation to the QuServer.
+     * Reads a single line from the socket a byte at a time, so that nothing after the line is consumed.
+     * Returns null if the server closes the connection first.
+     * @param socketInput
+     * @return line
+     * @throws IOException
+     */
+    private String readResponseLine(InputStream socketInput) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int next;
+        while((next = socketInput.read()) != '\n') {
+            if(next == -1) {
+                return null;
+            }
+            line.write(next);
+        }
+        return line.toString("UTF-8");
+    }
+
+    /**
+     * Takes an OutgoingAction and sends a representation of it in the agreed ActionEncoding to the QuServer.
      * @param outgoingAction
      */
     public void sendOutgoingActionToServer(OutgoingAction outgoingAction) {
+        if(actionEncoding == ActionEncoding.BINARY) {
+            byte[] frame = BinaryActionCodec.encode(outgoingAction.getOutgoingActionType().ordinal(), outgoingAction.getActionInfoObject());
+            synchronized(outgoingActionStream) {
+                try {
+                    outgoingActionStream.write(frame);
+                    outgoingActionStream.flush();
+                } catch (IOException e) {
+                    // As with the PrintWriter, a failed write is left for the ActionChannelListener to notice.
+                }
+            }
+            return;
+        }
         outgoingActionWriter.println(outgoingAction.getActionInfoObject().toString());
         outgoingActionWriter.flush();
     }
@@ -168,6 +270,22 @@ public class ActionChannel {
         return this.isConnected && actionChannelListener.isConnected();
     }
 
+    /**
+     * Returns the ActionEncoding that was agreed with the server.
+     * @return actionEncoding
+     */
+    public ActionEncoding getActionEncoding() {
+        return actionEncoding;
+    }
+
+    /**
+     * Returns the ActionCompression that was agreed with the server.
+     * @return actionCompression
+     */
+    public ActionCompression getActionCompression() {
+        return actionCompression;
+    }
+
     /**
      * Disconnect from the server.
      */
@@ -1,7 +1,13 @@
 package com.quaudio.quclient.server;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -11,16 +17,34 @@ import org.json.JSONObject;
  *
  */
 public class ActionChannelListener implements Runnable{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
     // Is the ActionChannel connected to the QuServer ClientManager?
     private volatile boolean isConnected = true;
     // Reference to the ActionChannel
     private ActionChannel actionChannel;
     // Our BufferedReader with which we listen for IncomingActions from the server
     private BufferedReader socketBufferedReader;
+    // Or, if the server agreed to the BINARY ActionEncoding or to compress actions, the stream from which we read action frames
+    private PushbackInputStream socketInput;
+    // How the frames we read are encoded and compressed.
+    private ActionEncoding actionEncoding = ActionEncoding.JSON;
+    private ActionCompression actionCompression = ActionCompression.NONE;
 
     public ActionChannelListener(ActionChannel actionChannel, BufferedReader socketBufferedReader) {
         this.actionChannel = actionChannel;
         this.socketBufferedReader = socketBufferedReader;
+        start();
+    }
+
+    public ActionChannelListener(ActionChannel actionChannel, InputStream socketInput, ActionEncoding actionEncoding, ActionCompression actionCompression) {
+        this.actionChannel = actionChannel;
+        this.socketInput = new PushbackInputStream(socketInput);
+        this.actionEncoding = actionEncoding;
+        this.actionCompression = actionCompression;
+        start();
+    }
+
+    private void start() {
         // Start the ActionChannelListener in a new thread as it will be blocking when waiting for input from the server.
         Thread actionChannelListenerThread = new Thread(this);
         actionChannelListenerThread.setDaemon(true);
@@ -29,6 +53,10 @@ public class ActionChannelListener implements Runnable{
 
     @Override
     public void run() {
+        if(socketInput != null) {
+            listenForFrames();
+            return;
+        }
         // The infinite loop in which we listen for IncomingActions from the server
         while(true) {
             String rawIncomingActionJSON = null;
@@ -60,6 +88,85 @@ public class ActionChannelListener implements Runnable{
         }
     }
 
+    /**
+     * The infinite loop in which we listen for IncomingAction frames from the server
+     */
+    private void listenForFrames() {
+        while(true) {
+            byte[] frame = null;
+            try {
+                frame = readFrame();
+            } catch (IOException e) {
+                isConnected = false;
+                break;
+            }
+            // A null frame means that the server has closed the connection.
+            if(frame == null) {
+                isConnected = false;
+                break;
+            }
+            try {
+                if(actionEncoding == ActionEncoding.BINARY) {
+                    actionChannel.addIncomingAction(BinaryActionCodec.decodeIncomingAction(frame, 0, frame.length));
+                } else {
+                    actionChannel.addIncomingAction(new IncomingAction(new JSONObject(new String(frame, UTF8))));
+                }
+            } catch (JSONException e) {
+                // The frame doesn't hold an action that we understand, skip it and continue listening.
+            }
+        }
+    }
+
+    /**
+     * Reads the next frame from the server, inflating it first if it was compressed.
+     * Returns the body of a BINARY frame or the line of a JSON frame, or null if the server has closed the connection.
+     * @return frame
+     * @throws IOException
+     */
+    private byte[] readFrame() throws IOException {
+        InputStream frameInput = socketInput;
+        if(actionCompression == ActionCompression.DEFLATE) {
+            int first = socketInput.read();
+            if(first == -1) {
+                return null;
+            }
+            if(first == FrameCompressor.COMPRESSED_FRAME_MARKER) {
+                // The original frame is read out of the inflated bytes just as it would have been read from the socket.
+                frameInput = new ByteArrayInputStream(FrameCompressor.readCompressedFrame(socketInput));
+            } else {
+                socketInput.unread(first);
+            }
+        }
+        if(actionEncoding == ActionEncoding.BINARY) {
+            return BinaryActionCodec.readFrame(frameInput);
+        }
+        return readLine(frameInput);
+    }
+
+    /**
+     * Reads a newline terminated line, returning null if the stream ends before it starts.
+     * @param input
+     * @return line
+     * @throws IOException if the stream fails or ends part way through the line
+     */
+    private static byte[] readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int next;
+        while((next = input.read()) != '\n') {
+            if(next == -1) {
+                if(line.size() == 0) {
+                    return null;
+                }
+                throw new EOFException("stream ended part way through an action");
+            }
+            if(line.size() >= BinaryActionCodec.MAX_FRAME_SIZE) {
+                throw new IOException("action is too big");
+            }
+            line.write(next);
+        }
+        return line.toByteArray();
+    }
+
     /**
      * Returns whether the ActionChannelListener is connected to the server ClientManager
      * @return isConnected
@@ -0,0 +1,13 @@
+package com.quaudio.quclient.server;
+
+/**
+ * Whether the server compresses large action frames on the ActionChannel, agreed during the handshake.
+ * @author Nikolas Howard
+ *
+ */
+public enum ActionCompression {
+    // Every frame is sent as it is.
+    NONE,
+    // Large frames are deflated, see the FrameCompressor.
+    DEFLATE
+}
@@ -0,0 +1,13 @@
+package com.quaudio.quclient.server;
+
+/**
+ * The ways in which actions can be framed on the ActionChannel, agreed during the handshake.
+ * @author Nikolas Howard
+ *
+ */
+public enum ActionEncoding {
+    // Newline delimited JSON, understood by every server.
+    JSON,
+    // Length prefixed frames written by the BinaryActionCodec.
+    BINARY
+}
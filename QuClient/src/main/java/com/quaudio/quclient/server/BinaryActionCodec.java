@@ -0,0 +1,381 @@
+package com.quaudio.quclient.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Encodes and decodes actions when the server has agreed to the BINARY ActionEncoding during our handshake.
+ * A frame is the varint length of its body followed by the body, which is the ordinal of the action type and
+ * then the action info object with each value written as a one byte tag and its data. Integers are zigzag varints,
+ * doubles are 8 bytes and strings are only written out in full the first time they appear in a frame, after that
+ * (as with the keys of every track in a playlist, or a track id that is mentioned more than once) they are sent
+ * as an index into the strings seen so far. The string table belongs to the frame rather than the connection.
+ * This must match the codec of the QuServer, including the ordinals of the action types on either side.
+ * @author Nikolas Howard
+ *
+ */
+public class BinaryActionCodec {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // The largest frame body that we will read, anything bigger is not an action.
+    public static final int MAX_FRAME_SIZE = 8 * 1024 * 1024;
+    // How deeply objects and arrays can be nested, so that a bad frame can't exhaust our stack.
+    private static final int MAX_DEPTH = 32;
+    // The value tags.
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_INTEGER = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_OBJECT = 6;
+    private static final int TAG_ARRAY = 7;
+
+    /**
+     * Encodes an action as a complete frame, ready to be written to the server.
+     * The 'action_type' of the info object is not written, the actionType ordinal is sent in its place.
+     * @param actionType the ordinal of the action type
+     * @param actionInfo
+     * @return frame
+     */
+    public static byte[] encode(int actionType, JSONObject actionInfo) {
+        FrameWriter body = new FrameWriter();
+        body.writeVarint(actionType);
+        body.writeObject(actionInfo, "action_type");
+        // Put the length in front of the body.
+        byte[] frame = new byte[getVarintSize(body.count) + body.count];
+        int offset = writeVarint(frame, 0, body.count);
+        System.arraycopy(body.buffer, 0, frame, offset, body.count);
+        return frame;
+    }
+
+    /**
+     * Decodes a frame body back into an action info object, with 'action_type' set to the name of the action type.
+     * @param body
+     * @param offset
+     * @param length
+     * @param actionTypes the action types, indexed by ordinal
+     * @return action info object
+     * @throws JSONException if the body is not a valid action
+     */
+    public static JSONObject decode(byte[] body, int offset, int length, Enum<?>[] actionTypes) throws JSONException {
+        FrameReader reader = new FrameReader(body, offset, offset + length);
+        long actionType = reader.readVarint();
+        if(actionType < 0 || actionType >= actionTypes.length) {
+            throw new JSONException("unknown action type " + actionType);
+        }
+        JSONObject actionInfo = reader.readObject(0);
+        if(reader.position != reader.end) {
+            throw new JSONException("unexpected bytes after action");
+        }
+        actionInfo.put("action_type", actionTypes[(int) actionType].toString());
+        return actionInfo;
+    }
+
+    /**
+     * Decodes a frame body sent by the server as an IncomingAction.
+     * @param body
+     * @param offset
+     * @param length
+     * @return incoming action
+     * @throws JSONException if the body is not a valid action
+     */
+    public static IncomingAction decodeIncomingAction(byte[] body, int offset, int length) throws JSONException {
+        return new IncomingAction(decode(body, offset, length, IncomingActionType.values()));
+    }
+
+    /**
+     * Reads the next frame body from a stream, blocking until all of it has arrived.
+     * Returns null if the stream ends cleanly between frames.
+     * @param inputStream
+     * @return frame body
+     * @throws IOException if the stream fails, ends part way through a frame or the frame is too big
+     */
+    public static byte[] readFrame(InputStream inputStream) throws IOException {
+        long length = 0;
+        for(int shift = 0; ; shift += 7) {
+            int next = inputStream.read();
+            if(next == -1) {
+                if(shift == 0) {
+                    return null;
+                }
+                throw new EOFException("stream ended in frame header");
+            }
+            if(shift > 28) {
+                throw new IOException("malformed frame header");
+            }
+            length |= (long) (next & 0x7F) << shift;
+            if((next & 0x80) == 0) {
+                break;
+            }
+        }
+        if(length > MAX_FRAME_SIZE) {
+            throw new IOException("frame of " + length + " bytes is too big");
+        }
+        byte[] body = new byte[(int) length];
+        int read = 0;
+        while(read < body.length) {
+            int count = inputStream.read(body, read, body.length - read);
+            if(count == -1) {
+                throw new EOFException("stream ended in frame body");
+            }
+            read += count;
+        }
+        return body;
+    }
+
+    /**
+     * Returns the number of bytes that a non-negative value takes up as a varint.
+     * @param value
+     * @return size
+     */
+    public static int getVarintSize(long value) {
+        int size = 1;
+        while((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes a varint into buffer at offset, returning the offset after it.
+     * @param buffer
+     * @param offset
+     * @param value
+     * @return offset
+     */
+    private static int writeVarint(byte[] buffer, int offset, long value) {
+        while((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Builds up a frame body.
+     */
+    private static class FrameWriter {
+        private byte[] buffer = new byte[256];
+        private int count = 0;
+        // The index of each string that has already been written in this frame.
+        private HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+        private void ensureCapacity(int extra) {
+            if(count + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+            }
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[count++] = (byte) value;
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            count = BinaryActionCodec.writeVarint(buffer, count, value);
+        }
+
+        private void writeString(String value) {
+            // A string we have already written is sent as (index << 1) | 1, a new one as (length << 1) and then its bytes.
+            Integer index = strings.get(value);
+            if(index != null) {
+                writeVarint(((long) index << 1) | 1);
+                return;
+            }
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(UTF8);
+            writeVarint((long) bytes.length << 1);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, count, bytes.length);
+            count += bytes.length;
+        }
+
+        private void writeObject(JSONObject object, String skippedKey) {
+            int size = object.length();
+            if(skippedKey != null && object.has(skippedKey)) {
+                size--;
+            }
+            writeVarint(size);
+            Iterator<?> keys = object.keys();
+            while(keys.hasNext()) {
+                String key = (String) keys.next();
+                if(key.equals(skippedKey)) {
+                    continue;
+                }
+                writeString(key);
+                writeValue(object.opt(key));
+            }
+        }
+
+        private void writeValue(Object value) {
+            if(value == null || value == JSONObject.NULL) {
+                writeByte(TAG_NULL);
+            } else if(value instanceof Boolean) {
+                writeByte(((Boolean) value) ? TAG_TRUE : TAG_FALSE);
+            } else if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                long number = ((Number) value).longValue();
+                writeByte(TAG_INTEGER);
+                // Zigzag, so that small negative numbers stay small.
+                writeVarint((number << 1) ^ (number >> 63));
+            } else if(value instanceof Number) {
+                writeByte(TAG_DOUBLE);
+                long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                ensureCapacity(8);
+                for(int shift = 56; shift >= 0; shift -= 8) {
+                    buffer[count++] = (byte) (bits >>> shift);
+                }
+            } else if(value instanceof JSONObject) {
+                writeByte(TAG_OBJECT);
+                writeObject((JSONObject) value, null);
+            } else if(value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                writeByte(TAG_ARRAY);
+                writeVarint(array.length());
+                for(int i = 0; i < array.length(); i++) {
+                    writeValue(array.opt(i));
+                }
+            } else {
+                // Anything else goes over as its string form, as it would in JSON.
+                writeByte(TAG_STRING);
+                writeString(value.toString());
+            }
+        }
+    }
+
+    /**
+     * Reads back a frame body.
+     */
+    private static class FrameReader {
+        private byte[] buffer;
+        private int position;
+        private int end;
+        // The strings read so far in this frame, by index.
+        private ArrayList<String> strings = new ArrayList<String>();
+
+        private FrameReader(byte[] buffer, int offset, int end) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.end = end;
+        }
+
+        private int readTag() throws JSONException {
+            if(position >= end) {
+                throw new JSONException("action ended unexpectedly");
+            }
+            return buffer[position++];
+        }
+
+        private long readVarint() throws JSONException {
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                int next = readTag();
+                value |= (long) (next & 0x7F) << shift;
+                if((next & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new JSONException("malformed varint");
+        }
+
+        /**
+         * Reads a count and checks that there are at least that many bytes left, as every entry takes at least one.
+         * @return count
+         */
+        private int readCount() throws JSONException {
+            long count = readVarint();
+            if(count < 0 || count > end - position) {
+                throw new JSONException("bad count " + count);
+            }
+            return (int) count;
+        }
+
+        private String readString() throws JSONException {
+            long header = readVarint();
+            if((header & 1) == 1) {
+                long index = header >>> 1;
+                if(index >= strings.size()) {
+                    throw new JSONException("bad string reference " + index);
+                }
+                return strings.get((int) index);
+            }
+            long length = header >>> 1;
+            if(length > end - position) {
+                throw new JSONException("string runs past end of action");
+            }
+            String value = new String(buffer, position, (int) length, UTF8);
+            position += (int) length;
+            strings.add(value);
+            return value;
+        }
+
+        private JSONObject readObject(int depth) throws JSONException {
+            if(depth > MAX_DEPTH) {
+                throw new JSONException("action is nested too deeply");
+            }
+            int size = readCount();
+            JSONObject object = new JSONObject();
+            for(int i = 0; i < size; i++) {
+                String key = readString();
+                object.put(key, readValue(depth));
+            }
+            return object;
+        }
+
+        private Object readValue(int depth) throws JSONException {
+            int tag = readTag();
+            switch(tag) {
+            case TAG_NULL:
+                return JSONObject.NULL;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_INTEGER:
+                long zigzag = readVarint();
+                long number = (zigzag >>> 1) ^ -(zigzag & 1);
+                // Hand back the same types as the JSON parser would.
+                if(number == (int) number) {
+                    return Integer.valueOf((int) number);
+                }
+                return Long.valueOf(number);
+            case TAG_DOUBLE:
+                if(end - position < 8) {
+                    throw new JSONException("action ended unexpectedly");
+                }
+                long bits = 0;
+                for(int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | (buffer[position++] & 0xFF);
+                }
+                return Double.valueOf(Double.longBitsToDouble(bits));
+            case TAG_STRING:
+                return readString();
+            case TAG_OBJECT:
+                return readObject(depth + 1);
+            case TAG_ARRAY:
+                if(depth + 1 > MAX_DEPTH) {
+                    throw new JSONException("action is nested too deeply");
+                }
+                int length = readCount();
+                JSONArray array = new JSONArray();
+                for(int i = 0; i < length; i++) {
+                    array.put(readValue(depth + 1));
+                }
+                return array;
+            default:
+                throw new JSONException("unknown value tag " + tag);
+            }
+        }
+    }
+}
@@ -2,16 +2,19 @@ package com.quaudio.quclient.server;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import com.quaudio.quclient.config.ClientConnectionConfig;
 import com.quaudio.quclient.config.PasswordUtils;
-import com.quaudio.quclient.filetransfer.AudioFileSender;
 import com.quaudio.quclient.filetransfer.FileFormat;
+import com.quaudio.quclient.filetransfer.Upload;
+import com.quaudio.quclient.filetransfer.UploadListener;
+import com.quaudio.quclient.filetransfer.UploadManager;
 import com.quaudio.quclient.netprobe.ReachableQuDevice;
 import com.quaudio.quclient.proxyplaylist.PlayList;
 import com.quaudio.quclient.proxyplaylist.Track;
@@ -49,12 +52,20 @@ public class Device {
     // List of subscribing QuEventListeners who will be updated on events created by the IncomingAction processing thread.
     private ArrayList<QuEventListener> subscribingQuEventListeners = new ArrayList<QuEventListener>();
 
-    // Represents the latest state of our Playlist
-    private JSONObject proxyPlaylist = null;
+    // Represents the latest state of our Playlist, an ordered list of track JSON objects.
+    private final Object proxyPlaylistLock = new Object();
+    private LinkedList<JSONObject> proxyPlaylistTracks = new LinkedList<JSONObject>();
+    // The sequence number of the PlayList version we hold, -1 until we receive our first full PUSH_PLAYLIST.
+    private long proxyPlaylistSequence = -1;
+    // Have we asked the server for a full PUSH_PLAYLIST and not yet received it?
+    private boolean awaitingPlayListSnapshot = false;
 
     // Reference to the last instance of PlayList that was constructed, this is needed as we will have to set
     // the object as dirty the next time that the client receives a PUSH_PLAYLIST IncomingAction from the server
     private PlayList lastPlayList = null;
+    // Sends our uploads, created the first time we upload something.
+    private final Object uploadManagerLock = new Object();
+    private UploadManager uploadManager = null;
 
     /**
      * Fully initialises this instance of Device by actually attempting to connect to the QuServer, populating
@@ -76,7 +87,8 @@ public class Device {
         this.clientConfig = clientConfig;
         // Create an ActionChannel.
         this.actionChannel = new ActionChannel(reachableDevice.getAddress(), reachableDevice.getClientManagerPort(),
-                clientConfig.getClientId(), clientConfig.getClientName(), clientConfig.getAccessPassword());
+                clientConfig.getClientId(), clientConfig.getClientName(), clientConfig.getAccessPassword(), clientConfig.getActionEncoding(),
+                clientConfig.getActionCompression());
 
         // Start a new thread, this will be responsible for processing IncomingActions.
         Thread deviceThread = new Thread(new Runnable() {
@@ -273,11 +285,9 @@ public class Device {
         // Construct a new ordered list to store tracks
         LinkedList<Track> constructedPlayListTracks = new LinkedList<Track>();
         // Populate our list of tracks
-        synchronized(proxyPlaylist) {
+        synchronized(proxyPlaylistLock) {
             try {
-                JSONArray orderedTrackJSONArray = proxyPlaylist.getJSONArray("playlist");
-                for (int trackIndex = 0; trackIndex < orderedTrackJSONArray.length(); trackIndex++) {
-                    JSONObject trackJSON = orderedTrackJSONArray.getJSONObject(trackIndex);
+                for (JSONObject trackJSON : proxyPlaylistTracks) {
                     Track newTrack = new Track(this);
                     newTrack.setTrackId(trackJSON.getString("track_id"));
                     newTrack.setOwnerId(trackJSON.getString("owner_id"));
@@ -285,6 +295,9 @@ public class Device {
                     newTrack.setName(trackJSON.getString("name"));
                     newTrack.setArtist(trackJSON.getString("artist"));
                     newTrack.setAlbum(trackJSON.getString("album"));
+                    // Servers from before seeking was supported don't send these.
+                    newTrack.setDuration(trackJSON.optDouble("duration", 0));
+                    newTrack.setPosition(trackJSON.optDouble("position", 0));
                     // Add the new Track to the list
                     constructedPlayListTracks.add(newTrack);
                 }
@@ -297,27 +310,67 @@ public class Device {
     }
 
     /**
-     * Uploads an audio file to the Qu server.
+     * Queues an audio file to be uploaded to the Qu server, progress is reported to subscribing QuEventListeners.
      * @param audioFile
      * @param format
      * @param name
      * @param artist
      * @param album
+     * @return the queued Upload
      */
-    public void uploadAudioFile(File audioFile, FileFormat format, String name, String artist, String album) {
+    public Upload uploadAudioFile(File audioFile, FileFormat format, String name, String artist, String album) {
+        return getUploadManager().queue(new Upload(audioFile, format, name, artist, album));
+    }
+
+    /**
+     * Queues a batch of audio files to be uploaded to the Qu server, they are sent in the order given.
+     * @param uploads
+     */
+    public void uploadAudioFiles(Collection<Upload> uploads) {
+        getUploadManager().queueAll(uploads);
+    }
+
+    /**
+     * Set how many audio files are uploaded at the same time.
+     * @param concurrentUploads
+     */
+    public void setConcurrentUploads(int concurrentUploads) {
+        getUploadManager().setConcurrentUploads(concurrentUploads);
+    }
+
+    /**
+     * Get the uploads that are queued or being sent.
+     * @return uploads
+     */
+    public List<Upload> getUploads() {
+        return getUploadManager().getUploads();
+    }
+
+    /**
+     * Gets the UploadManager, creating it on first use.
+     * @return uploadManager
+     */
+    private UploadManager getUploadManager() {
         // The user must have fully initialised this object.
         if(!initilised) {
             throw new RuntimeException("Device is not fully initialised, call link()");
         }
-        AudioFileSender audioFileSender = new AudioFileSender(reachableDevice.getAddress(), reachableDevice.getAudioFileReceiverPort());
-        try {
-            audioFileSender.upload(audioFile, clientConfig.getClientId(), format.toString(), name, artist, album);
-        } catch (UnknownHostException e) {
-            // Upload failed, do nothing as this shouldn't effect the user,
-            e.printStackTrace();
-        } catch (IOException e) {
-            // Upload failed, do nothing as this shouldn't effect the user,
-            e.printStackTrace();
+        synchronized(uploadManagerLock) {
+            if(uploadManager == null) {
+                uploadManager = new UploadManager(reachableDevice.getAddress(), reachableDevice.getAudioFileReceiverPort(), clientConfig.getClientId(),
+                        new UploadListener() {
+                    @Override
+                    public void onUploadProgress(Upload upload) {
+                        notifyQuUploadEvent(QuEventType.UPLOAD_PROGRESS, upload);
+                    }
+
+                    @Override
+                    public void onUploadFinished(Upload upload) {
+                        notifyQuUploadEvent(QuEventType.UPLOAD_FINISHED, upload);
+                    }
+                });
+            }
+            return uploadManager;
         }
     }
 
@@ -406,6 +459,13 @@ public class Device {
                     notifyQuEventListeners(QuEventType.PLAYLIST_UPDATED);
                     break;
 
+                case PUSH_PLAYLIST_DELTA:
+                    // Only notify subscribing QuEventListeners if the delta actually changed our PlayList.
+                    if(applyPlayListDelta(incomingAction)) {
+                        notifyQuEventListeners(QuEventType.PLAYLIST_UPDATED);
+                    }
+                    break;
+
                 case PUSH_VOLUME:
                     applyVolumeUpdate(incomingAction);
                     // Notify subscribing QuEventListeners.
@@ -431,18 +491,24 @@ public class Device {
     }
 
     /**
-     * Applies a PlayList state change to this Device.
+     * Applies a full PlayList snapshot to this Device.
      * @param incomingAction
      */
     private void applyPlayListUpdate(IncomingAction playlistUpdateAction) {
-        // Store the JSON representation of our PlayList for the next time the user wants it.
-        if(proxyPlaylist == null) {
-            this.proxyPlaylist = playlistUpdateAction.getActionInfoObject();
-        } else {
-            synchronized(proxyPlaylist) {
-                this.proxyPlaylist = playlistUpdateAction.getActionInfoObject();
+        // Store the tracks of our PlayList for the next time the user wants them.
+        try {
+            JSONObject playlistJSON = playlistUpdateAction.getActionInfoObject();
+            JSONArray orderedTrackJSONArray = playlistJSON.getJSONArray("playlist");
+            LinkedList<JSONObject> tracks = new LinkedList<JSONObject>();
+            for (int trackIndex = 0; trackIndex < orderedTrackJSONArray.length(); trackIndex++) {
+                tracks.add(orderedTrackJSONArray.getJSONObject(trackIndex));
             }
-        }
+            synchronized(proxyPlaylistLock) {
+                this.proxyPlaylistTracks = tracks;
+                this.proxyPlaylistSequence = playlistJSON.optLong("sequence", 0);
+                this.awaitingPlayListSnapshot = false;
+            }
+        } catch (JSONException j) {}
         // We have a new snapshot of the state of the PlayList, if the user has grabbed a PlayList before
         // we need to mark it as dirty to let them know it is out-dated.
         if(this.lastPlayList != null) {
@@ -454,6 +520,100 @@ public class Device {
         }
     }
 
+    /**
+     * Applies the changes described by a PUSH_PLAYLIST_DELTA to our PlayList.
+     * If we have missed a delta we cannot apply this one, so we ask the server for a full PUSH_PLAYLIST instead.
+     * @param playlistDeltaAction
+     * @return whether our PlayList was changed
+     */
+    private boolean applyPlayListDelta(IncomingAction playlistDeltaAction) {
+        boolean snapshotRequired = false;
+        synchronized(proxyPlaylistLock) {
+            try {
+                JSONObject deltaJSON = playlistDeltaAction.getActionInfoObject();
+                long baseSequence = deltaJSON.getLong("base_sequence");
+                long sequence = deltaJSON.getLong("sequence");
+                // We can't apply a delta before our first snapshot, and we already have the changes of any stale delta.
+                if(proxyPlaylistSequence == -1 || sequence <= proxyPlaylistSequence) {
+                    return false;
+                }
+                // Have we missed a delta? If so we need the full PlayList, unless we have already asked for it.
+                if(baseSequence != proxyPlaylistSequence) {
+                    snapshotRequired = !awaitingPlayListSnapshot;
+                    awaitingPlayListSnapshot = true;
+                } else {
+                    JSONArray operations = deltaJSON.getJSONArray("operations");
+                    for (int operationIndex = 0; operationIndex < operations.length(); operationIndex++) {
+                        applyPlayListOperation(operations.getJSONObject(operationIndex));
+                    }
+                    this.proxyPlaylistSequence = sequence;
+                }
+            } catch (JSONException j) {
+                return false;
+            }
+        }
+        if(snapshotRequired) {
+            requestPlayListSnapshot();
+            return false;
+        }
+        // Let the user know that any PlayList they hold is out-dated.
+        if(this.lastPlayList != null) {
+            lastPlayList.setDirty(true);
+        }
+        return true;
+    }
+
+    /**
+     * Applies a single PlayList operation (ADD, REMOVE, STATE, POSITION or UPDATE) to our list of tracks.
+     * Must be called while holding proxyPlaylistLock.
+     * @param operation
+     * @throws JSONException
+     */
+    private void applyPlayListOperation(JSONObject operation) throws JSONException {
+        String operationType = operation.getString("op");
+        if(operationType.equals("ADD")) {
+            int index = Math.min(operation.getInt("index"), proxyPlaylistTracks.size());
+            proxyPlaylistTracks.add(index, operation.getJSONObject("track"));
+            return;
+        }
+        // Every other operation targets an existing track.
+        String trackId = operation.getString("track_id");
+        JSONObject targetTrack = null;
+        for (JSONObject trackJSON : proxyPlaylistTracks) {
+            if(trackJSON.getString("track_id").equals(trackId)) {
+                targetTrack = trackJSON;
+                break;
+            }
+        }
+        if(targetTrack == null) {
+            return;
+        }
+        if(operationType.equals("REMOVE")) {
+            proxyPlaylistTracks.remove(targetTrack);
+        } else if(operationType.equals("STATE")) {
+            targetTrack.put("track_state", operation.getString("track_state"));
+        } else if(operationType.equals("POSITION")) {
+            targetTrack.put("position", operation.getDouble("position"));
+        } else if(operationType.equals("UPDATE")) {
+            // The server has found out more about the track, such as its tags, replace it where it is.
+            proxyPlaylistTracks.set(proxyPlaylistTracks.indexOf(targetTrack), operation.getJSONObject("track"));
+        }
+    }
+
+    /**
+     * Asks the server for a full PUSH_PLAYLIST, used when we have fallen out of sync.
+     */
+    private void requestPlayListSnapshot() {
+        JSONObject requestJSON = new JSONObject();
+        try {
+            requestJSON.put("client_id", this.clientConfig.getClientId());
+        } catch (JSONException j) {}
+        // Send directly, this can happen before the Device is fully initialised.
+        if(actionChannel.isConnected()) {
+            actionChannel.sendOutgoingActionToServer(new OutgoingAction(OutgoingActionType.REQUEST_PLAYLIST, requestJSON));
+        }
+    }
+
     /**
      * Applies a system volume change to this Device.
      * @param incomingAction
@@ -585,6 +745,23 @@ public class Device {
         }
     }
 
+    /**
+     * Notify any subscribing QuEventListeners of the progress of one of our uploads.
+     * @param The type of event
+     * @param upload
+     */
+    private void notifyQuUploadEvent(QuEventType eventType, Upload upload) {
+        synchronized(subscribingQuEventListeners) {
+            for(QuEventListener subscriber : subscribingQuEventListeners) {
+                if(eventType == QuEventType.UPLOAD_PROGRESS) {
+                    subscriber.onQuUploadProgress(this, upload);
+                } else {
+                    subscriber.onQuUploadFinished(this, upload);
+                }
+            }
+        }
+    }
+
     /**
      * Returns true/false depending on if we are connected to the server.
      * @return isConnected
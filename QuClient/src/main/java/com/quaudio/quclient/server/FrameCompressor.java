@@ -0,0 +1,94 @@
+package com.quaudio.quclient.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses the action frames that the server compresses once it has agreed to the DEFLATE ActionCompression.
+ * A compressed frame is a zero byte, which can never start a JSON or BINARY frame, followed by a BINARY style frame
+ * whose body is the varint length of the original frame and then the original frame (newline or length prefix and all)
+ * deflated with a preset dictionary. The dictionary holds the field names and values that every track in a playlist
+ * repeats, so even the first track of a playlist compresses well.
+ * This must match the FrameCompressor of the QuServer, the dictionaries of the two sides must be identical.
+ * @author Nikolas Howard
+ *
+ */
+public class FrameCompressor {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // The first byte of every compressed frame.
+    public static final int COMPRESSED_FRAME_MARKER = 0;
+    // The most common strings go last, as they are then the shortest distance back from the data.
+    // This is the same dictionary that the server compresses with, byte for byte.
+    private static final byte[] DICTIONARY = ("\"action_type\":\"PUSH_PLAYLIST_DELTA\",\"base_sequence\":\"operations\":["
+            + "{\"op\":\"ADD\",\"index\":\"track\":{\"op\":\"REMOVE\",\"op\":\"UPDATE\",\"op\":\"STATE\",\"op\":\"POSITION\","
+            + "\"PUSH_PLAYLIST\",\"sequence\":\"playlist\":[\"STOPPED\",\"PAUSED\",\"PLAYING\",\"UNKNOWN\","
+            + "{\"track_id\":\"\",\"owner_id\":\"\",\"track_state\":\"PENDING\",\"name\":\"\",\"artist\":\"\",\"album\":\"\","
+            + "\"duration\":0,\"position\":0}").getBytes(UTF8);
+
+    /**
+     * Reads the rest of a compressed frame from a stream, once its marker has been read, and returns the original frame.
+     * @param inputStream
+     * @return frame
+     * @throws IOException if the stream fails or ends, or the compressed frame is malformed
+     */
+    public static byte[] readCompressedFrame(InputStream inputStream) throws IOException {
+        byte[] body = BinaryActionCodec.readFrame(inputStream);
+        if(body == null) {
+            throw new EOFException("stream ended in compressed frame");
+        }
+        return decompress(body);
+    }
+
+    /**
+     * Inflates the body of a compressed frame.
+     * @param body
+     * @return frame
+     * @throws IOException if the body is malformed
+     */
+    private static byte[] decompress(byte[] body) throws IOException {
+        int frameLength = 0;
+        int offset = 0;
+        for(int shift = 0; ; shift += 7) {
+            if(offset >= body.length || shift > 28) {
+                throw new IOException("malformed compressed frame");
+            }
+            int next = body[offset++];
+            frameLength |= (next & 0x7F) << shift;
+            if((next & 0x80) == 0) {
+                break;
+            }
+        }
+        if(frameLength < 0 || frameLength > BinaryActionCodec.MAX_FRAME_SIZE) {
+            throw new IOException("compressed frame of " + frameLength + " bytes is too big");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body, offset, body.length - offset);
+            byte[] frame = new byte[frameLength];
+            int inflatedLength = 0;
+            while(inflatedLength < frameLength) {
+                int count = inflater.inflate(frame, inflatedLength, frameLength - inflatedLength);
+                if(count == 0) {
+                    if(inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if(inflater.finished() || inflater.needsInput()) {
+                        throw new IOException("compressed frame is shorter than it claims");
+                    }
+                }
+                inflatedLength += count;
+            }
+            return frame;
+        } catch (DataFormatException e) {
+            throw new IOException("malformed compressed frame", e);
+        } catch (IllegalArgumentException e) {
+            // The frame was compressed with some other dictionary.
+            throw new IOException("malformed compressed frame", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.quaudio.quclient.server;
 
+// The BINARY ActionEncoding sends these by ordinal, so new types only ever go on the end.
 public enum IncomingActionType {
 	PUSH_VOLUME,
 	PUSH_PLAYLIST,
 	PUSH_SETTINGS,
-	PLAY_FAIL
+	PLAY_FAIL,
+	PUSH_PLAYLIST_DELTA
 }
@@ -1,5 +1,6 @@
 package com.quaudio.quclient.server;
 
+// The BINARY ActionEncoding sends these by ordinal, so new types only ever go on the end.
 public enum OutgoingActionType {
 	PLAY,
 	PAUSE,
@@ -10,5 +11,6 @@ public enum OutgoingActionType {
 	UPDATE_VOLUME,
 	UPDATE_SETTINGS,
 	ADMIN_REQUEST,
-	EXIT
+	EXIT,
+	REQUEST_PLAYLIST
 }
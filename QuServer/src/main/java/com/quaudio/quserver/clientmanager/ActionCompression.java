@@ -0,0 +1,13 @@
+package com.quaudio.quserver.clientmanager;
+
+/**
+ * Whether large action frames are compressed on a client connection, agreed during the handshake.
+ * @author Nikolas Howard
+ *
+ */
+public enum ActionCompression {
+	// Every frame is sent as it is.
+	NONE,
+	// Frames above the compression threshold are deflated by the FrameCompressor.
+	DEFLATE
+}
@@ -0,0 +1,13 @@
+package com.quaudio.quserver.clientmanager;
+
+/**
+ * The ways in which actions can be framed on a client connection, agreed during the handshake.
+ * @author Nikolas Howard
+ *
+ */
+public enum ActionEncoding {
+	// Newline delimited JSON, understood by every client.
+	JSON,
+	// Length prefixed frames written by the BinaryActionCodec.
+	BINARY
+}
@@ -0,0 +1,46 @@
+package com.quaudio.quserver.clientmanager;
+
+/**
+ * Keeps a smoothed measure of how long actions take to get through the server, from an IncomingAction being read to 
+ * it being processed and from an OutgoingAction being queued to its writer picking it up. When the network or the 
+ * device is being swamped (by uploads for example) these are the first to suffer.
+ * @author Nikolas Howard
+ *
+ */
+public class ActionLatencyMonitor {
+	private static final ActionLatencyMonitor actionLatencyMonitor = new ActionLatencyMonitor();
+	// The weight given to each new sample.
+	private static final double SMOOTHING = 0.2;
+	// With no recent samples we have nothing to go on, so we assume all is well.
+	private static final long SAMPLE_EXPIRY_NANOS = 2000000000L;
+	private double averageLatencyNanos = 0;
+	private long lastSampleTime = 0;
+	
+	/**
+	 * Get the ActionLatencyMonitor singleton.
+	 * @return actionLatencyMonitor
+	 */
+	public static ActionLatencyMonitor getActionLatencyMonitor() {
+		return actionLatencyMonitor;
+	}
+	
+	/**
+	 * Records how long an action took.
+	 * @param latencyNanos
+	 */
+	public synchronized void recordLatency(long latencyNanos) {
+		averageLatencyNanos += SMOOTHING * (latencyNanos - averageLatencyNanos);
+		lastSampleTime = System.nanoTime();
+	}
+	
+	/**
+	 * Get the smoothed action latency, this is zero if there have been no actions for a while.
+	 * @return latency in milliseconds
+	 */
+	public synchronized double getLatencyMillis() {
+		if(lastSampleTime == 0 || (System.nanoTime() - lastSampleTime) > SAMPLE_EXPIRY_NANOS) {
+			return 0;
+		}
+		return averageLatencyNanos / 1000000.0;
+	}
+}
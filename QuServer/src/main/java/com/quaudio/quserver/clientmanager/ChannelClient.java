@@ -0,0 +1,275 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import org.json.JSONException;
+
+/**
+ * A Client whose connection is serviced by the ClientSelector rather than by its own listener thread.
+ * Reads are framed by the ClientSelector, writes are attempted straight away and any remainder 
+ * is left for the ClientSelector to finish when the channel becomes writable.
+ * @author Nikolas Howard
+ *
+ */
+public class ChannelClient extends Client {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// The initial and maximum size of the buffer into which we read incoming frames.
+	private static final int INITIAL_READ_BUFFER_SIZE = 4096;
+	private static final int MAX_READ_BUFFER_SIZE = 1024 * 1024;
+	// The non-blocking channel for this client.
+	private SocketChannel channel;
+	// The key with which our channel is registered with the ClientSelector.
+	private SelectionKey selectionKey;
+	// The reusable buffer that incoming bytes are read into.
+	private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+	// Buffers that could not be written in full yet, in the order they are to be sent.
+	private LinkedList<ByteBuffer> pendingWrites = new LinkedList<ByteBuffer>();
+	// Has this client completed its handshake?
+	private boolean handshakeComplete = false;
+	// Should the channel be closed once all pending writes have been sent?
+	private boolean closeWhenFlushed = false;
+	// Is the connection alive?
+	private volatile boolean isConnected = true;
+	// The System.nanoTime() at which the connection was accepted.
+	private long connectTime = System.nanoTime();
+	
+	public ChannelClient(SocketChannel channel, SelectionKey selectionKey, OutgoingActionQueue outgoingActionQueue) {
+		super(outgoingActionQueue);
+		this.channel = channel;
+		this.selectionKey = selectionKey;
+	}
+	
+	@Override
+	protected void onOutgoingActionQueued() {
+		synchronized(pendingWrites) {
+			// Ask the ClientSelector to write the action once the channel is writable. This is done while holding the
+			// pendingWrites lock so that we can't miss a flushPendingWrites() that is just about to stop listening for writes.
+			if(isConnected && selectionKey.isValid()) {
+				selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				selectionKey.selector().wakeup();
+			}
+		}
+	}
+	
+	@Override
+	protected void closeConnection() {
+		getOutgoingActionQueue().close();
+		disconnect();
+	}
+	
+	/**
+	 * Writes a line of text to the client without blocking.
+	 * @param line
+	 */
+	public void write(String line) {
+		write(ByteBuffer.wrap((line + "\n").getBytes(UTF8)));
+	}
+	
+	/**
+	 * Writes as much of the buffer as the channel will take right now, leaving the rest 
+	 * to be written by the ClientSelector when the channel becomes writable.
+	 * @param buffer
+	 */
+	public void write(ByteBuffer buffer) {
+		synchronized(pendingWrites) {
+			if(!isConnected) {
+				return;
+			}
+			// We can only write directly if nothing is waiting ahead of us.
+			if(pendingWrites.isEmpty()) {
+				try {
+					channel.write(buffer);
+				} catch (IOException e) {
+					disconnect();
+					return;
+				}
+			}
+			if(buffer.hasRemaining()) {
+				pendingWrites.add(buffer);
+				// Ask the ClientSelector to tell us when we can write some more.
+				selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				selectionKey.selector().wakeup();
+			}
+		}
+	}
+	
+	/**
+	 * Called by the ClientSelector when the channel becomes writable.
+	 * Writes as many pending buffers, and then queued OutgoingActions, as the channel will take.
+	 */
+	void flushPendingWrites() {
+		synchronized(pendingWrites) {
+			try {
+				while(true) {
+					if(pendingWrites.isEmpty()) {
+						// Move on to the next queued action, if there is one.
+						OutgoingAction outgoingAction = getOutgoingActionQueue().poll();
+						if(outgoingAction == null) {
+							break;
+						}
+						// Wrap rather than copy the shared frame, each client gets its own position over the same bytes.
+						byte[] frame = getFrame(outgoingAction);
+						pendingWrites.add(ByteBuffer.wrap(frame));
+						getOutgoingActionQueue().getStats().recordWritten(frame.length);
+					}
+					ByteBuffer buffer = pendingWrites.getFirst();
+					channel.write(buffer);
+					if(buffer.hasRemaining()) {
+						// The socket send buffer is full, wait to be told we can write again.
+						return;
+					}
+					pendingWrites.removeFirst();
+				}
+			} catch (IOException e) {
+				disconnect();
+				return;
+			}
+			// Everything has been written.
+			if(closeWhenFlushed) {
+				disconnect();
+			} else if(selectionKey.isValid()) {
+				selectionKey.interestOps(SelectionKey.OP_READ);
+			}
+		}
+	}
+	
+	/**
+	 * Writes a final line to the client and then closes the connection once it has been sent.
+	 * @param line
+	 */
+	void writeAndClose(String line) {
+		write(line);
+		synchronized(pendingWrites) {
+			if(pendingWrites.isEmpty()) {
+				disconnect();
+			} else {
+				closeWhenFlushed = true;
+			}
+		}
+	}
+	
+	/**
+	 * Called by the ClientSelector when the channel becomes readable.
+	 * Reads what is available and returns each complete frame via the FrameHandler. Frames are newline delimited 
+	 * JSON until the handshake has agreed on the BINARY ActionEncoding, after which they are length prefixed.
+	 * @param frameHandler
+	 */
+	void readFrames(FrameHandler frameHandler) {
+		try {
+			if(channel.read(readBuffer) == -1) {
+				// The client has closed the connection.
+				disconnect();
+				return;
+			}
+		} catch (IOException e) {
+			disconnect();
+			return;
+		}
+		// Find and hand over each complete frame in the buffer.
+		readBuffer.flip();
+		byte[] bytes = readBuffer.array();
+		int frameStart = readBuffer.position();
+		int limit = readBuffer.limit();
+		while(frameStart < limit) {
+			// The encoding is checked for each frame as the handshake frame may have just changed it.
+			if(getActionEncoding() == ActionEncoding.BINARY) {
+				int bodyLength;
+				try {
+					bodyLength = BinaryActionCodec.readFrameLength(bytes, frameStart, limit);
+				} catch (JSONException e) {
+					// We can't find the start of the next frame, so there is no way to carry on.
+					disconnect();
+					return;
+				}
+				if(bodyLength == -1) {
+					break;
+				}
+				int bodyStart = frameStart + BinaryActionCodec.getVarintSize(bodyLength);
+				if(bodyStart + bodyLength > limit) {
+					// Wait for the rest of the body.
+					break;
+				}
+				frameHandler.onFrame(this, bytes, bodyStart, bodyLength);
+				frameStart = bodyStart + bodyLength;
+			} else {
+				int frameEnd = -1;
+				for(int i = frameStart; i < limit; i++) {
+					if(bytes[i] == '\n') {
+						frameEnd = i;
+						break;
+					}
+				}
+				if(frameEnd == -1) {
+					break;
+				}
+				if(isHandshakeComplete()) {
+					// Actions are parsed straight out of the read buffer.
+					frameHandler.onFrame(this, bytes, frameStart, frameEnd - frameStart);
+				} else {
+					frameHandler.onFrame(this, new String(bytes, frameStart, frameEnd - frameStart, UTF8));
+				}
+				frameStart = frameEnd + 1;
+			}
+			// The handler may have closed this client.
+			if(!isConnected) {
+				return;
+			}
+		}
+		readBuffer.position(frameStart);
+		readBuffer.compact();
+		// If the buffer is full without holding a complete frame then it will need to grow.
+		if(!readBuffer.hasRemaining()) {
+			if(readBuffer.capacity() >= MAX_READ_BUFFER_SIZE) {
+				// The client is sending us something far bigger than any action, drop it.
+				disconnect();
+				return;
+			}
+			ByteBuffer biggerBuffer = ByteBuffer.allocate(readBuffer.capacity() * 2);
+			readBuffer.flip();
+			biggerBuffer.put(readBuffer);
+			readBuffer = biggerBuffer;
+		}
+	}
+	
+	/**
+	 * Closes the channel and marks this client as disconnected.
+	 */
+	void disconnect() {
+		isConnected = false;
+		selectionKey.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {}
+	}
+	
+	long getConnectTime() {
+		return connectTime;
+	}
+	
+	boolean isHandshakeComplete() {
+		return handshakeComplete;
+	}
+
+	void setHandshakeComplete(boolean handshakeComplete) {
+		this.handshakeComplete = handshakeComplete;
+	}
+	
+	@Override
+	public boolean isConnected() {
+		return isConnected;
+	}
+	
+	/**
+	 * Receives complete frames read from a ChannelClient.
+	 */
+	interface FrameHandler {
+		// The connection request.
+		void onFrame(ChannelClient client, String frame);
+		// An action, encoded as the client's ActionEncoding. The bytes are only valid until the call returns.
+		void onFrame(ChannelClient client, byte[] frame, int offset, int length);
+	}
+}
@@ -1,8 +1,13 @@
 package com.quaudio.quserver.clientmanager;
 
-import java.io.BufferedReader;
-import java.io.PrintWriter;
-import java.util.LinkedList;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.RejectedExecutionException;
+import com.quaudio.quserver.server.Log;
+import com.quaudio.quserver.server.ServerEventQueue;
+import com.quaudio.quserver.server.ServerEventType;
+import com.quaudio.quserver.server.TaskExecutor;
 
 /**
  * 
@@ -11,78 +16,133 @@ import java.util.LinkedList;
  */
 public class Client {
 	// Queue of pending outgoing actions that are to be sent to this client.
-	private LinkedList<OutgoingAction> outgoingActionQueue = new LinkedList<OutgoingAction>();
-	// Queue of pending incoming actions that are to be processed by the server.
-	private LinkedList<IncomingAction> incomingActionQueue = new LinkedList<IncomingAction>();
+	private OutgoingActionQueue outgoingActionQueue;
 	// Is the connection alive?
 	private volatile boolean isConnected = true;
-	// The PrintWriter responsible for sending action JSON to this client
-	private PrintWriter outgoingActionPrintWriter;
+	// Was this client disconnected by us for falling behind?
+	private volatile boolean isEvicted = false;
+	// The ClientActionWriter that is run on the TaskExecutor to send our queued actions to this client, only while there are some
+	private ClientActionWriter clientActionWriter;
+	// Has start() been called? Nothing is written before then, as the handshake response goes out first.
+	private volatile boolean isStarted = false;
 	// The ClientActionListener that runs in its own thread listening for actions from this client
 	private ClientActionListener clientActionListener;
 	// Is this a new client? (will require a welcome package)
 	private boolean isNewClient = true;
+	// How actions are framed on this connection, as agreed during the handshake.
+	private volatile ActionEncoding actionEncoding = ActionEncoding.JSON;
+	// Whether frames of at least compressionThreshold bytes are compressed, as agreed during the handshake.
+	private volatile ActionCompression actionCompression = ActionCompression.NONE;
+	private volatile int compressionThreshold = FrameCompressor.DEFAULT_THRESHOLD;
 	
-	public Client(BufferedReader actionReader, PrintWriter actionWriter) {
-		// Set the outgoingActionPrintWriter with which we will be sending all OutgoingActions
-		outgoingActionPrintWriter = actionWriter;
-		// Initialise and start clientActionListener
-		clientActionListener = new ClientActionListener(this, actionReader);
-		Thread clientActionListenerThread = new Thread(clientActionListener);
-		clientActionListenerThread.setDaemon(true);
-		clientActionListenerThread.start();
+	/**
+	 * Creates a client that reads its actions from actionInput, framed as the given ActionEncoding.
+	 * @param socket
+	 * @param actionInput
+	 * @param actionStream
+	 * @param actionEncoding
+	 * @param outgoingActionQueue
+	 * @param incomingActionQueue
+	 */
+	public Client(Socket socket, InputStream actionInput, OutputStream actionStream, ActionEncoding actionEncoding, 
+			OutgoingActionQueue outgoingActionQueue, IncomingActionQueue incomingActionQueue) {
+		this.outgoingActionQueue = outgoingActionQueue;
+		this.actionEncoding = actionEncoding;
+		// Initialise clientActionWriter and clientActionListener, they are started once the client has been accepted.
+		clientActionWriter = new ClientActionWriter(this, socket, actionStream);
+		clientActionListener = new ClientActionListener(actionInput, actionEncoding, incomingActionQueue);
+	}
+	
+	/**
+	 * Used by subclasses that service their connection by some other means.
+	 * @param outgoingActionQueue
+	 */
+	protected Client(OutgoingActionQueue outgoingActionQueue) {
+		this.outgoingActionQueue = outgoingActionQueue;
+	}
+	
+	/**
+	 * Starts the clientActionListener, the clientActionWriter is started whenever there is something to write.
+	 */
+	public void start() {
+		try {
+			TaskExecutor.getTaskExecutor().execute(clientActionListener);
+		} catch (RejectedExecutionException e) {
+			// There are no threads left to service this client with, regard it as disconnected.
+			Log.log(Log.MessageType.ERROR, "CLIENT_MANAGER", "no thread available to service client");
+			isConnected = false;
+			clientActionWriter.close();
+			return;
+		}
+		isStarted = true;
+		// Write anything that was queued for us while the handshake was being answered.
+		onOutgoingActionQueued();
 	}
 	
 	/**
 	 * Queues a pending OutgoingAction that is to be sent to the client. 
+	 * This never blocks, if the client has fallen too far behind it is evicted instead.
 	 * @param outgoingAction
 	 */
 	public void queuePendingOutgoingAction(OutgoingAction outgoingAction) {
-		synchronized(outgoingActionQueue) {
-			outgoingActionQueue.add(outgoingAction);
+		if(!outgoingActionQueue.offer(outgoingAction)) {
+			evict();
+			return;
 		}
+		onOutgoingActionQueued();
 	}
 	
 	/**
-	 * Called by the clientActionListener when we get a valid IncomingAction
-	 * @param newIncomingAction
+	 * Called after an OutgoingAction has been queued, starts the clientActionWriter unless it is already draining our queue.
+	 * Subclasses that service their connection by some other means override this to be told there is something to write.
 	 */
-	public void queueIncomingAction(IncomingAction newIncomingAction) {
-		synchronized(incomingActionQueue) {
-			incomingActionQueue.add(newIncomingAction);
+	protected void onOutgoingActionQueued() {
+		if(!isStarted || !outgoingActionQueue.startDrain()) {
+			return;
+		}
+		try {
+			TaskExecutor.getTaskExecutor().execute(clientActionWriter);
+		} catch (RejectedExecutionException e) {
+			// There is no thread to write with, regard the client as disconnected.
+			Log.log(Log.MessageType.ERROR, "CLIENT_MANAGER", "no thread available to write to client");
+			closeConnection();
+			ServerEventQueue.getEventQueue().post(ServerEventType.CLIENT_DISCONNECTED);
 		}
 	}
 	
 	/**
-	 * Sends all pending OutgoingActions to the client and clears the list.
-	 */
-	public void sendPendingOutgoingActions() {
-		synchronized(outgoingActionQueue) {
-			// Send each pending OutgoingAction to the client.
-			for(OutgoingAction currentAction : outgoingActionQueue){
-				outgoingActionPrintWriter.println(currentAction.getActionInfoObject().toString());
-				outgoingActionPrintWriter.flush();
-			}
-			// Clear the list of OutgoingActions
-			outgoingActionQueue.clear();
+	 * Evicts this client if it has left an OutgoingAction unread for too long.
+	 * @return whether the client was evicted
+	 */
+	public boolean evictIfFallenBehind() {
+		if(outgoingActionQueue.hasFallenBehind()) {
+			evict();
+			return true;
 		}
+		return false;
 	}
 	
 	/**
-	 * Gets all pending IncomingActions that was sent by the client and clears the list.
-	 * @return incomingActionList
-	 */
-	public LinkedList<IncomingAction> getPendingIncomingActions() {
-		LinkedList<IncomingAction> incomingActionList = new LinkedList<IncomingAction>();
-		synchronized(incomingActionQueue) {
-			// Copy all pending actions.
-			for(IncomingAction currentAction : incomingActionQueue){
-				incomingActionList.add(currentAction);
-			}
-			// Clear the list of IncomingActions
-			incomingActionQueue.clear();
+	 * Disconnects a client that is not keeping up with the actions we are sending it.
+	 */
+	protected void evict() {
+		if(isEvicted) {
+			return;
 		}
-		return incomingActionList;
+		isEvicted = true;
+		Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "evicting slow client (" + outgoingActionQueue.getStats() + ")");
+		closeConnection();
+		// Wake the server loop so that this client is tidied up.
+		ServerEventQueue.getEventQueue().post(ServerEventType.CLIENT_DISCONNECTED);
+	}
+	
+	/**
+	 * Closes the connection to the client.
+	 */
+	protected void closeConnection() {
+		isConnected = false;
+		outgoingActionQueue.close();
+		clientActionWriter.close();
 	}
 	
 	/**
@@ -90,7 +150,67 @@ public class Client {
 	 * @return isConnected
 	 */
 	public boolean isConnected() {
-		return isConnected && clientActionListener.isConnected();
+		return isConnected && clientActionListener.isConnected() && clientActionWriter.isConnected();
+	}
+	
+	/**
+	 * Returns true if this client was disconnected for falling behind.
+	 * @return isEvicted
+	 */
+	public boolean isEvicted() {
+		return isEvicted;
+	}
+	
+	/**
+	 * Get the queue of OutgoingActions waiting to be written to this client.
+	 * @return outgoingActionQueue
+	 */
+	public OutgoingActionQueue getOutgoingActionQueue() {
+		return outgoingActionQueue;
+	}
+
+	/**
+	 * Get the ActionEncoding with which actions are framed on this connection.
+	 * @return actionEncoding
+	 */
+	public ActionEncoding getActionEncoding() {
+		return actionEncoding;
+	}
+	
+	protected void setActionEncoding(ActionEncoding actionEncoding) {
+		this.actionEncoding = actionEncoding;
+	}
+	
+	/**
+	 * Get the ActionCompression agreed for this connection.
+	 * @return actionCompression
+	 */
+	public ActionCompression getActionCompression() {
+		return actionCompression;
+	}
+	
+	/**
+	 * Sets the ActionCompression for this connection, frames of at least compressionThreshold bytes will be compressed.
+	 * @param actionCompression
+	 * @param compressionThreshold
+	 */
+	protected void setActionCompression(ActionCompression actionCompression, int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+		this.actionCompression = actionCompression;
+	}
+	
+	/**
+	 * Get the frame that is written to this client for an OutgoingAction, in our ActionEncoding and compressed if it is big enough.
+	 * The frame is shared with every other client that the action is sent to and must not be modified.
+	 * @param outgoingAction
+	 * @return frame
+	 */
+	public byte[] getFrame(OutgoingAction outgoingAction) {
+		byte[] frame = outgoingAction.getEncodedFrame(actionEncoding);
+		if(actionCompression == ActionCompression.DEFLATE && frame.length >= compressionThreshold) {
+			return outgoingAction.getCompressedFrame(actionEncoding);
+		}
+		return frame;
 	}
 
 	/**
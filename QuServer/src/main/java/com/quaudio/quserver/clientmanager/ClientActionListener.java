@@ -1,63 +1,135 @@
 package com.quaudio.quserver.clientmanager;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import org.json.JSONException;
-import org.json.JSONObject;
 import com.quaudio.quserver.clientmanager.IncomingAction;
+import com.quaudio.quserver.server.ServerEventQueue;
+import com.quaudio.quserver.server.ServerEventType;
 
 /**
- * 
+ *
  * @author Nikolas Howard
  *
  */
 public class ClientActionListener implements Runnable {
-	// The BufferedReader with which we are reading JSON representing IncomingActions from the client.
-	private BufferedReader actionReader;
+	// The initial and maximum size of the buffer into which we read newline delimited JSON actions.
+	private static final int INITIAL_LINE_BUFFER_SIZE = 4096;
+	private static final int MAX_LINE_BUFFER_SIZE = 1024 * 1024;
+	// The stream from which we are reading the IncomingActions sent by the client.
+	private InputStream actionInput;
+	// How the client frames its actions.
+	private ActionEncoding actionEncoding;
 	// Is the connection alive?
 	private volatile boolean isConnected = true;
-	// A reference to the actual client
-	private Client client;
-	
-	public ClientActionListener(Client client, BufferedReader actionReader) {
-		this.actionReader = actionReader;
-		this.client = client;
+	// The server-wide queue that our IncomingActions are pushed into.
+	private IncomingActionQueue incomingActionQueue;
+	// Reads each JSON action straight out of our line buffer.
+	private IncomingActionParser actionParser = new IncomingActionParser();
+	// The reusable buffer that JSON actions are read into, the bytes from lineStart to lineLimit have not been parsed yet.
+	private byte[] lineBuffer = new byte[INITIAL_LINE_BUFFER_SIZE];
+	private int lineStart = 0;
+	private int lineLimit = 0;
+
+	public ClientActionListener(InputStream actionInput, ActionEncoding actionEncoding, IncomingActionQueue incomingActionQueue) {
+		this.actionInput = actionInput;
+		this.actionEncoding = actionEncoding;
+		this.incomingActionQueue = incomingActionQueue;
 	}
 
 	@Override
 	public void run() {
+		if(actionEncoding == ActionEncoding.BINARY) {
+			listenForFrames();
+			return;
+		}
 		// Listen for client IncomingAction JSON forever
 		while(true) {
 			try {
 				// Wait for input from the client
-				String rawIncomingActionJSON = actionReader.readLine();
-				
-				// Attempt to construct a IncomingAction JSON object using the raw input.
-				JSONObject incomingActionJSONObject = null;
+				int lineEnd = readLine();
+				if(lineEnd == -1) {
+					// The stream has ended, we must have disconnected
+					throw new IOException("client disconnected");
+				}
 				try {
-					if(rawIncomingActionJSON != null) {
-						// Attempt to create a JSONObject using the read input
-						incomingActionJSONObject = new JSONObject(rawIncomingActionJSON);
-						// We were able to create a valid JSONObject, now make our IncomingAction
-						IncomingAction newIncomingAction = new IncomingAction(incomingActionJSONObject);
-						// Pass the new IncomingAction to the ActionChannel to be processed at a later time
-						client.queueIncomingAction(newIncomingAction);
-					} else {
-						// We shouldn't have got a null value from our BufferedReader, we must have disconnected
-						throw new IOException("client disconnected");
-					}
+					// Pass the new IncomingAction to the server, this also wakes the server loop.
+					incomingActionQueue.offer(actionParser.parse(lineBuffer, lineStart, lineEnd - lineStart));
 				} catch (JSONException e) {
-					// The raw JSON string that the client has sent us doesn't seem to be valid JSON.
+					// The raw JSON that the client has sent us doesn't seem to be valid JSON.
 					// Just do nothing and continue listening.
 				}
+				lineStart = lineEnd + 1;
 			} catch(IOException e) {
 				// We have had a connection error, mark this listener as disconnected
 				isConnected = false;
+				// Wake the server loop so that this client is tidied up.
+				ServerEventQueue.getEventQueue().post(ServerEventType.CLIENT_DISCONNECTED);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Waits until the line buffer holds a complete line starting at lineStart, returning the index of its newline.
+	 * Returns -1 if the stream ends first.
+	 * @return line end
+	 * @throws IOException if the stream fails or the line is far bigger than any action
+	 */
+	private int readLine() throws IOException {
+		int scanFrom = lineStart;
+		while(true) {
+			for(int i = scanFrom; i < lineLimit; i++) {
+				if(lineBuffer[i] == '\n') {
+					return i;
+				}
+			}
+			// We need more. Move what we have to the front of the buffer to make room for it, growing the buffer if it is full.
+			if(lineStart > 0) {
+				System.arraycopy(lineBuffer, lineStart, lineBuffer, 0, lineLimit - lineStart);
+				lineLimit -= lineStart;
+				lineStart = 0;
+			}
+			if(lineLimit == lineBuffer.length) {
+				if(lineBuffer.length >= MAX_LINE_BUFFER_SIZE) {
+					throw new IOException("client sent an action that is far too big");
+				}
+				byte[] biggerBuffer = new byte[lineBuffer.length * 2];
+				System.arraycopy(lineBuffer, 0, biggerBuffer, 0, lineLimit);
+				lineBuffer = biggerBuffer;
+			}
+			scanFrom = lineLimit;
+			int count = actionInput.read(lineBuffer, lineLimit, lineBuffer.length - lineLimit);
+			if(count == -1) {
+				return -1;
+			}
+			lineLimit += count;
+		}
+	}
+
+	/**
+	 * Listen for client IncomingAction frames forever.
+	 */
+	private void listenForFrames() {
+		while(true) {
+			try {
+				byte[] frame = BinaryActionCodec.readFrame(actionInput);
+				if(frame == null) {
+					throw new IOException("client disconnected");
+				}
+				try {
+					incomingActionQueue.offer(BinaryActionCodec.decodeIncomingAction(frame, 0, frame.length));
+				} catch (JSONException e) {
+					// The frame was the right length but its contents make no sense, skip it and continue listening.
+				}
+			} catch(IOException e) {
+				isConnected = false;
+				ServerEventQueue.getEventQueue().post(ServerEventType.CLIENT_DISCONNECTED);
 				break;
 			}
 		}
 	}
-	
+
 	public boolean isConnected() {
 		return isConnected;
 	}
@@ -0,0 +1,68 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Writes the OutgoingActions queued for a client to its socket, so that a client that is 
+ * slow to read only ever blocks its own writer. The writer only runs while there is something to write, 
+ * the Client starts it on the TaskExecutor whenever an action is queued for a client whose queue was idle.
+ * @author Nikolas Howard
+ *
+ */
+public class ClientActionWriter implements Runnable {
+	// The client we are writing to.
+	private Client client;
+	// The client socket, and the stream that encoded action frames are written to.
+	private Socket socket;
+	private OutputStream actionStream;
+	// Is the connection alive?
+	private volatile boolean isConnected = true;
+	
+	public ClientActionWriter(Client client, Socket socket, OutputStream actionStream) {
+		this.client = client;
+		this.socket = socket;
+		this.actionStream = actionStream;
+	}
+
+	@Override
+	public void run() {
+		OutgoingActionQueue queue = client.getOutgoingActionQueue();
+		try {
+			while(true) {
+				OutgoingAction outgoingAction = queue.poll();
+				if(outgoingAction == null) {
+					// Only push the data out once we have caught up, so a burst goes out together.
+					actionStream.flush();
+					if(queue.finishDrain()) {
+						return;
+					}
+					continue;
+				}
+				byte[] frame = client.getFrame(outgoingAction);
+				actionStream.write(frame);
+				queue.getStats().recordWritten(frame.length);
+			}
+		} catch (IOException e) {
+			// The ClientActionListener will notice the broken connection too, but we may get there first.
+			// The queue is left claimed, there is no point starting another writer on a broken connection.
+			isConnected = false;
+		}
+	}
+	
+	public boolean isConnected() {
+		return isConnected;
+	}
+	
+	/**
+	 * Closes the client socket, which will stop both the writer and the listener.
+	 * The socket is closed rather than the stream as the stream may be locked by a write that is blocked on a full send buffer.
+	 */
+	void close() {
+		isConnected = false;
+		try {
+			socket.close();
+		} catch (IOException e) {}
+	}
+}
@@ -0,0 +1,12 @@
+package com.quaudio.quserver.clientmanager;
+
+/**
+ * How the ClientManager services client connections.
+ * BLOCKING uses a listener thread per client, SELECTOR multiplexes every client on a single I/O thread.
+ * @author Nikolas Howard
+ *
+ */
+public enum ClientIOMode {
+	BLOCKING,
+	SELECTOR
+}
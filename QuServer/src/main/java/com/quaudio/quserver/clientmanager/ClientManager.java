@@ -1,20 +1,31 @@
 package com.quaudio.quserver.clientmanager;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.json.JSONException;
 import org.json.JSONObject;
 import com.quaudio.quserver.server.Log;
 import com.quaudio.quserver.server.Server;
+import com.quaudio.quserver.server.ServerEventQueue;
+import com.quaudio.quserver.server.ServerEventType;
 
 /**
  * 
@@ -22,14 +33,58 @@ import com.quaudio.quserver.server.Server;
  *
  */
 public class ClientManager implements Runnable {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	private ServerSocket clientManagerServerSocket = null;
-	private HashMap<String, Client> clients = new HashMap<String, Client>();
+	private ClientSelector clientSelector = null;
+	// How long a connecting client has to send its connection request.
+	static final long HANDSHAKE_TIMEOUT_MS = 5000;
+	// The longest connection request we will read, a real one is a few hundred bytes.
+	static final int MAX_REQUEST_SIZE = 64 * 1024;
+	// The number of handshakes that are read in parallel, and the number that can be waiting for a thread.
+	private static final int HANDSHAKE_THREADS = 4;
+	private static final int HANDSHAKE_QUEUE_SIZE = 64;
+	// Reads connection requests off the accept thread (BLOCKING mode only).
+	private ThreadPoolExecutor handshakeExecutor = null;
+	private HandshakeStats handshakeStats = new HandshakeStats();
+	// The defaults for how many actions each client can have waiting, how long they can wait and what happens when a client falls behind.
+	public static final int DEFAULT_OUTGOING_QUEUE_LIMIT = 256;
+	public static final long DEFAULT_OUTGOING_MAX_LAG_MS = 10000;
+	private int outgoingQueueLimit = DEFAULT_OUTGOING_QUEUE_LIMIT;
+	private long outgoingMaxLag = DEFAULT_OUTGOING_MAX_LAG_MS;
+	private OutgoingQueuePolicy outgoingQueuePolicy = OutgoingQueuePolicy.MERGE_LATEST;
+	// Will we agree to the BINARY ActionEncoding if a client asks for it?
+	private boolean binaryActionsEnabled = true;
+	// Will we agree to the DEFLATE ActionCompression if a client asks for it, and how big must a frame be before it is compressed?
+	private boolean actionCompressionEnabled = true;
+	private int compressionThreshold = FrameCompressor.DEFAULT_THRESHOLD;
+	private ClientRegistry clients = new ClientRegistry();
+	// The IncomingActions of every client, waiting to be processed by the server loop.
+	private IncomingActionQueue incomingActions = new IncomingActionQueue();
 	private Object newcomersBoolLock = new Object();
 	private volatile boolean hasNewcomers = false;
 	
 	public ClientManager(int port) {
+		this(port, ClientIOMode.BLOCKING);
+	}
+	
+	public ClientManager(int port, ClientIOMode ioMode) {
+		// Properties may not be initialised if we are running in the context of a unit/integration test.
+		if(Server.properties != null) {
+			outgoingQueueLimit = Server.properties.getOutgoingQueueLimit();
+			outgoingMaxLag = Server.properties.getOutgoingMaxLag();
+			outgoingQueuePolicy = Server.properties.getOutgoingQueuePolicy();
+			binaryActionsEnabled = Server.properties.isBinaryActionsEnabled();
+			actionCompressionEnabled = Server.properties.isActionCompressionEnabled();
+			compressionThreshold = Server.properties.getCompressionThreshold();
+		}
 		try {
-			clientManagerServerSocket = new ServerSocket(port);
+			if(ioMode == ClientIOMode.SELECTOR) {
+				// All clients will be multiplexed on the ClientSelector thread.
+				clientSelector = new ClientSelector(this, port);
+			} else {
+				clientManagerServerSocket = new ServerSocket(port);
+				handshakeExecutor = createHandshakeExecutor();
+			}
 		} catch (IOException e) {
 			// If this fails they quit the app.
 			Log.log(Log.MessageType.CRITICAL, "CLIENT_MANAGER", "failed to initialise ClientManager server socket");
@@ -38,31 +93,69 @@ public class ClientManager implements Runnable {
 		}
 	}
 	
+	/**
+	 * Creates the bounded executor on which blocking handshakes are read.
+	 * @return handshake executor
+	 */
+	private ThreadPoolExecutor createHandshakeExecutor() {
+		ThreadFactory handshakeThreadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread handshakeThread = new Thread(runnable, "handshake");
+				handshakeThread.setDaemon(true);
+				return handshakeThread;
+			}
+		};
+		return new ThreadPoolExecutor(HANDSHAKE_THREADS, HANDSHAKE_THREADS, 0, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<Runnable>(HANDSHAKE_QUEUE_SIZE), handshakeThreadFactory);
+	}
+	
+	/**
+	 * Creates the queue that will hold the OutgoingActions waiting to be written to a new client.
+	 * @return outgoing action queue
+	 */
+	OutgoingActionQueue createOutgoingActionQueue() {
+		return new OutgoingActionQueue(outgoingQueueLimit, outgoingMaxLag, outgoingQueuePolicy);
+	}
+	
 	/**
 	 * Carry out processing on client map.
+	 * Each client writes its own OutgoingActions, so all we need to do here is tidy up.
 	 * @param server 
 	 */
 	public void process(Server server) {
-		synchronized(clients) {
-			// Remove any disconnected clients from map and allow each client object
-			// to send any OutgoingActions that it has been queueing
-			Iterator<Map.Entry<String,Client>> iter = clients.entrySet().iterator();
-			while (iter.hasNext()) {
-			    Map.Entry<String,Client> entry = iter.next();
-			    if(!entry.getValue().isConnected()){
-			    	// Remove if disconnected.
-			    	Log.log(Log.MessageType.INFO, "CLIENT_MANAGER", "client '" + entry.getKey() + "' disconnected");
-			        iter.remove();
-			    } else {
-			    	// Client is still connected, now is a good time to allow the client 
-			    	// object to fire off its queued OutgoingActions.
-			    	entry.getValue().sendPendingOutgoingActions();
-			    }
-			}
+		// Evict any clients that have fallen behind and remove any disconnected clients from the registry.
+		for(Map.Entry<String,Client> entry : clients.entries()) {
+		    Client client = entry.getValue();
+		    if(client.isConnected() && client.evictIfFallenBehind()) {
+		    	Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "client '" + entry.getKey() + "' fell too far behind");
+		    }
+		    if(!client.isConnected() && clients.remove(entry.getKey(), client)){
+		    	// Removed as disconnected.
+		    	Log.log(Log.MessageType.INFO, "CLIENT_MANAGER", "client '" + entry.getKey() + "' disconnected (" 
+		    			+ client.getOutgoingActionQueue().getStats() + ")");
+		    }
+		}
+	}
+	
+	/**
+	 * Returns the outgoing queue counters of each connected client.
+	 * @return map of client id to stats
+	 */
+	public Map<String, OutgoingQueueStats> getOutgoingQueueStats() {
+		HashMap<String, OutgoingQueueStats> stats = new HashMap<String, OutgoingQueueStats>();
+		for(Map.Entry<String,Client> entry : clients.entries()) {
+			stats.put(entry.getKey(), entry.getValue().getOutgoingActionQueue().getStats());
 		}
+		return stats;
 	}
 	
 	public void start() {
+		// In SELECTOR mode the ClientSelector does all of the work.
+		if(clientSelector != null) {
+			clientSelector.start();
+			return;
+		}
 		// The ClientManager needs to be started on its own thread.
 		Thread clientManagerThread = new Thread(this);
 		clientManagerThread.setDaemon(true);
@@ -71,68 +164,149 @@ public class ClientManager implements Runnable {
 
 	@Override
 	public void run() {
-		// Forever listen for and handle incoming connection requests
+		// Forever listen for incoming connection requests, handing each off to be handshaken so that
+		// a slow client cannot stop others from joining.
 		while(true) {
-			boolean gotSocket = true;
 			Socket senderSocket = null;
 			try {
 				senderSocket = clientManagerServerSocket.accept();
 			} catch (IOException e) {
 				// If we get an IOException here then just log it as an unsuccesful connection.
-				gotSocket = false;
 				Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "failed to get connecting client socket");
+				continue;
 			}
-			// Only continue if we successfully grabbed a Socket.
-			if(gotSocket) {
+			if(Log.isEnabled(Log.MessageType.INFO)) {
 				Log.log(Log.MessageType.INFO, "CLIENT_MANAGER", "got connection request from client at '" + senderSocket.getRemoteSocketAddress().toString() + "'");
+			}
+			final Socket acceptedSocket = senderSocket;
+			final long acceptTime = System.nanoTime();
+			try {
+				handshakeExecutor.execute(new Runnable() {
+					@Override
+					public void run() { handshake(acceptedSocket, acceptTime); }
+				});
+			} catch (RejectedExecutionException e) {
+				// Too many handshakes are already pending, turn this one away.
+				handshakeStats.recordRejected();
+				Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "too many pending handshakes, dropping connection");
+				closeSocket(acceptedSocket);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the connection request from a newly accepted socket and processes it.
+	 * Run on the handshake executor. The client must send its request before the handshake deadline.
+	 * @param senderSocket
+	 * @param acceptTime the System.nanoTime() at which the socket was accepted
+	 */
+	private void handshake(Socket senderSocket, long acceptTime) {
+		// The deadline runs from when the connection was accepted, so time spent waiting for a handshake thread counts.
+		long remainingTime = HANDSHAKE_TIMEOUT_MS - ((System.nanoTime() - acceptTime) / 1000000);
+		if(remainingTime <= 0) {
+			handshakeStats.recordTimeout();
+			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "handshake timed out before it could be read");
+			closeSocket(senderSocket);
+			return;
+		}
 		
-				// Get the clients request JSON and determine if they will be added as a new Client
-				BufferedReader connectionRequestJSONReader = null;
-				try {
-					connectionRequestJSONReader = new BufferedReader(new InputStreamReader(senderSocket.getInputStream()));
-				} catch (IOException e) {
-					// Failed to set up reader from resquest JSON
-					Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "failed to set up JSON request reader");
-					// Continue and begin listening for new connection request.
-					continue;
-				}
-				
-				// We are expecting the client to be sending a connection request as a JSON string.
-				// Read it from the socket and process it.
-				String rawRequestJSON = null;
-				try {
-					rawRequestJSON = connectionRequestJSONReader.readLine();
-				} catch (IOException e) {
-					// Failed to read resquest JSON
-					Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "failed to read resquest JSON");
-					// Continue and begin listening for new connection request.
-					continue;
-				}
-				
-				// Convert raw request JSON to a JSON object
-				JSONObject requestJSON = null;
-				try {
-					requestJSON = new JSONObject(rawRequestJSON);
-				} catch (JSONException jsonException) {
-					// The raw request JSON is invalid
-					Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "the raw request JSON is invalid");
-					// Continue and begin listening for new connection request.
-					continue;
-				}
-				
-				// We have our JSON request object, now determine whether we will be accepting the requester as a new client.
-				processConnectionRequest(requestJSON, senderSocket, connectionRequestJSONReader);
+		// We are expecting the client to be sending a connection request as a JSON string.
+		// Read it from the socket and process it.
+		String rawRequestJSON = null;
+		try {
+			rawRequestJSON = readRequestLine(senderSocket, acceptTime);
+		} catch (SocketTimeoutException e) {
+			// The client did not send its request in time.
+			handshakeStats.recordTimeout();
+			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "timed out waiting for request JSON");
+			closeSocket(senderSocket);
+			return;
+		} catch (IOException e) {
+			// Failed to read resquest JSON
+			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "failed to read resquest JSON");
+			closeSocket(senderSocket);
+			return;
+		}
+		
+		// Convert raw request JSON to a JSON object
+		JSONObject requestJSON = null;
+		try {
+			if(rawRequestJSON == null) {
+				throw new JSONException("client disconnected before sending request");
 			}
+			requestJSON = new JSONObject(rawRequestJSON);
+			
+			// We have our JSON request object, now determine whether we will be accepting the requester as a new client.
+			// Accepted clients can take as long as they like between actions.
+			senderSocket.setSoTimeout(0);
+			boolean accepted = processConnectionRequest(requestJSON, senderSocket);
+			handshakeStats.recordCompleted(System.nanoTime() - acceptTime);
+			if(!accepted) {
+				closeSocket(senderSocket);
+			}
+		} catch (JSONException jsonException) {
+			// The raw request JSON is invalid
+			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "the raw request JSON is invalid");
+			closeSocket(senderSocket);
+		} catch (IOException e) {
+			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "failed to reset client socket timeout");
+			closeSocket(senderSocket);
 		}
 	}
 	
+	/**
+	 * Reads the newline terminated connection request from a socket, returning null if the client disconnects first.
+	 * The socket timeout is cut down before every read so that the whole request has to arrive by the handshake 
+	 * deadline, however slowly the client trickles it in. Nothing past the newline is read, that belongs to the Client.
+	 * @param socket
+	 * @param acceptTime the System.nanoTime() at which the socket was accepted
+	 * @return request
+	 * @throws SocketTimeoutException if the deadline passes
+	 * @throws IOException if the request is too long or the read fails
+	 */
+	private String readRequestLine(Socket socket, long acceptTime) throws IOException {
+		InputStream input = socket.getInputStream();
+		ByteArrayOutputStream request = new ByteArrayOutputStream(512);
+		while(true) {
+			long remainingTime = HANDSHAKE_TIMEOUT_MS - ((System.nanoTime() - acceptTime) / 1000000);
+			if(remainingTime <= 0) {
+				throw new SocketTimeoutException("handshake deadline passed");
+			}
+			socket.setSoTimeout((int) remainingTime);
+			int next = input.read();
+			if(next == -1) {
+				return null;
+			}
+			if(next == '\n') {
+				break;
+			}
+			if(request.size() >= MAX_REQUEST_SIZE) {
+				throw new IOException("connection request too long");
+			}
+			request.write(next);
+		}
+		String requestLine = new String(request.toByteArray(), UTF8);
+		// As BufferedReader.readLine() would have, accept a CRLF line ending.
+		return requestLine.endsWith("\r") ? requestLine.substring(0, requestLine.length() - 1) : requestLine;
+	}
+	
+	/**
+	 * Quietly close a socket that we are giving up on.
+	 * @param socket
+	 */
+	private void closeSocket(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {}
+	}
+	
 	/**
 	 * Processes a connection request and sends a response to the client, returns true if connection is accepted.
 	 * @param requestJSON
 	 * @param senderSocket
-	 * @return
+	 * @return accepted
 	 */
-	public void processConnectionRequest(JSONObject requestJSON, Socket senderSocket, BufferedReader reader) {
+	public boolean processConnectionRequest(JSONObject requestJSON, Socket senderSocket) {
 		PrintWriter responseWriter = null;
 
 		try {
@@ -140,24 +314,136 @@ public class ClientManager implements Runnable {
 		} catch (IOException e) {
 			// If we weren't able to to create our PrintWriter then just deny the connection request
 			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "unable to initialise response PrintWriter");
-			return;
+			return false;
 		}
-		// Firstly, check if the client is already present in the Client map
-		// If so then respond with CLIENT_ALREADY_CONNECTED
-		boolean clientConnected = false;
-		synchronized(clients) {
-			if(clients.containsKey(requestJSON.getString("client_id"))) {
-				clientConnected = true;
+		// Determine whether we will accept this request.
+		String response = reviewConnectionRequest(requestJSON);
+		ActionEncoding actionEncoding = negotiateActionEncoding(requestJSON);
+		ActionCompression actionCompression = negotiateActionCompression(requestJSON);
+		Client client = null;
+		if(response.equals("ACCEPTED")) {
+			// Actions are written as pre-encoded frames, so the client writes to the raw stream rather than our PrintWriter.
+			OutputStream actionStream;
+			try {
+				actionStream = new BufferedOutputStream(senderSocket.getOutputStream());
+				// The client waits for our response before sending any actions, so the request reader can't have buffered any of them.
+				// JSON actions are read into the listener's own line buffer, BINARY frames are read a few bytes at a time.
+				InputStream actionInput = senderSocket.getInputStream();
+				if(actionEncoding == ActionEncoding.BINARY) {
+					actionInput = new BufferedInputStream(actionInput);
+				}
+				client = new Client(senderSocket, actionInput, actionStream, actionEncoding, createOutgoingActionQueue(), incomingActions);
+				client.setActionCompression(actionCompression, compressionThreshold);
+			} catch (IOException e) {
+				return false;
+			}
+			// Another connection with the same client id may have beaten us to it.
+			if(!clients.register(requestJSON.getString("client_id"), client)) {
+				response = "CLIENT_ALREADY_CONNECTED";
 			}
 		}
-		// Is the client already connected?
-		if(clientConnected) {
-			// This client is already connected, send the appropriate response to the client
-			responseWriter.println("CLIENT_ALREADY_CONNECTED");
-			responseWriter.flush();
-			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "client is already connected");
+		// Let the client know.
+		responseWriter.println(response.equals("ACCEPTED") ? getAcceptedResponse(actionEncoding, actionCompression) : response);
+		responseWriter.flush();
+		if(!response.equals("ACCEPTED")) {
+			return false;
+		}
+		
+		// The client has been added to our registry, now it can start listening and writing.
+		client.start();
+		clientAdded(requestJSON.getString("client_id"), actionEncoding, actionCompression);
+		return true;
+	}
+	
+	/**
+	 * Processes a connection request that was read by the ClientSelector and sends a response to the client, 
+	 * adding it to our clients list if the connection is accepted.
+	 * @param requestJSON
+	 * @param client
+	 */
+	public void processConnectionRequest(JSONObject requestJSON, ChannelClient client) {
+		// Whatever the outcome, the client will be getting a response.
+		handshakeStats.recordCompleted(System.nanoTime() - client.getConnectTime());
+		String response;
+		try {
+			response = reviewConnectionRequest(requestJSON);
+		} catch (JSONException e) {
+			// The request is missing something we need.
+			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "the raw request JSON is invalid");
+			client.disconnect();
 			return;
 		}
+		if(!response.equals("ACCEPTED")) {
+			// Let the client know why and hang up.
+			client.writeAndClose(response);
+			return;
+		}
+		// Another connection with the same client id may have beaten us to it.
+		if(!clients.register(requestJSON.getString("client_id"), client)) {
+			client.writeAndClose("CLIENT_ALREADY_CONNECTED");
+			return;
+		}
+		ActionEncoding actionEncoding = negotiateActionEncoding(requestJSON);
+		ActionCompression actionCompression = negotiateActionCompression(requestJSON);
+		// Any frames that follow the request will be read in the agreed encoding.
+		client.setActionEncoding(actionEncoding);
+		client.setActionCompression(actionCompression, compressionThreshold);
+		client.write(getAcceptedResponse(actionEncoding, actionCompression));
+		client.setHandshakeComplete(true);
+		clientAdded(requestJSON.getString("client_id"), actionEncoding, actionCompression);
+	}
+	
+	/**
+	 * Picks the ActionEncoding for a client, which will be BINARY if the client asked for it and we allow it.
+	 * @param requestJSON
+	 * @return action encoding
+	 */
+	private ActionEncoding negotiateActionEncoding(JSONObject requestJSON) {
+		if(binaryActionsEnabled && ActionEncoding.BINARY.toString().equals(requestJSON.optString("action_encoding"))) {
+			return ActionEncoding.BINARY;
+		}
+		return ActionEncoding.JSON;
+	}
+	
+	/**
+	 * Picks the ActionCompression for a client, which will be DEFLATE if the client asked for it and we allow it.
+	 * @param requestJSON
+	 * @return action compression
+	 */
+	private ActionCompression negotiateActionCompression(JSONObject requestJSON) {
+		if(actionCompressionEnabled && ActionCompression.DEFLATE.toString().equals(requestJSON.optString("action_compression"))) {
+			return ActionCompression.DEFLATE;
+		}
+		return ActionCompression.NONE;
+	}
+	
+	/**
+	 * Gets the response sent to an accepted client, e.g. 'ACCEPTED:BINARY' or 'ACCEPTED:JSON:DEFLATE'.
+	 * Clients that asked for neither always get a plain 'ACCEPTED'.
+	 * @param actionEncoding
+	 * @param actionCompression
+	 * @return response
+	 */
+	private static String getAcceptedResponse(ActionEncoding actionEncoding, ActionCompression actionCompression) {
+		if(actionCompression != ActionCompression.NONE) {
+			return "ACCEPTED:" + actionEncoding + ":" + actionCompression;
+		}
+		return actionEncoding == ActionEncoding.JSON ? "ACCEPTED" : "ACCEPTED:" + actionEncoding;
+	}
+	
+	/**
+	 * Determines whether a connection request should be accepted.
+	 * Returns the response to send to the client, which will be 'ACCEPTED' if the request is accepted.
+	 * @param requestJSON
+	 * @return response
+	 */
+	private String reviewConnectionRequest(JSONObject requestJSON) {
+		// Firstly, check if the client is already present in the registry
+		// If so then respond with CLIENT_ALREADY_CONNECTED. This is checked again when the client is registered.
+		if(clients.contains(requestJSON.getString("client_id"))) {
+			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "client is already connected");
+			return "CLIENT_ALREADY_CONNECTED";
+		}
 		
 		// Next we need to check that the requester has supplied the correct access password (if we require one)
 		// Check that the server properties file has been initialised.
@@ -165,10 +451,8 @@ public class ClientManager implements Runnable {
 			String accessPassword = Server.properties.getAccessPassword();
 			if(accessPassword != "" && !requestJSON.getString("access_password").equals(accessPassword)) {
 				// An access password is required, but the client has supplied an incorrect one, notify the user and decline
-				responseWriter.println("WRONG_ACCESS_PASSWORD");
-				responseWriter.flush();
 				Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "client supplied incorrect access password");
-				return;
+				return "WRONG_ACCESS_PASSWORD";
 			}
 		} else {
 			// Properties have not been properly initialised, this may be due to this method being
@@ -176,24 +460,35 @@ public class ClientManager implements Runnable {
 			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "Server properties not initalised, cannot get access password");
 		}
 		
-		// It seems that we can't find a reason to decline this request, accept and notify the client
-		responseWriter.println("ACCEPTED");
-		responseWriter.flush();
-		Log.log(Log.MessageType.INFO, "CLIENT_MANAGER", "accepted client '" + requestJSON.getString("client_id")  + "'");
-		
-		// Initialise a new client
-		Client acceptedClient = new Client(reader, responseWriter);
-		
-		// Add the client to our clients list.
-		synchronized(clients) {
-			clients.put(requestJSON.getString("client_id"), acceptedClient);
-		}
+		// It seems that we can't find a reason to decline this request.
+		return "ACCEPTED";
+	}
+	
+	/**
+	 * Called once an accepted client has been added to our registry.
+	 * @param clientId
+	 * @param actionEncoding
+	 * @param actionCompression
+	 */
+	private void clientAdded(String clientId, ActionEncoding actionEncoding, ActionCompression actionCompression) {
+		Log.log(Log.MessageType.INFO, "CLIENT_MANAGER", "accepted client '" + clientId + "' (" + actionEncoding + " actions"
+				+ (actionCompression == ActionCompression.NONE ? "" : ", " + actionCompression) + ")");
 		
 		// Set a flag to show that the ClientManager has a new client. This indicates that important 
 		// information should be re-broadcast
 		synchronized(newcomersBoolLock) {
 			hasNewcomers = true;
 		}
+		// Wake the server loop so that the welcome package is sent straight away.
+		ServerEventQueue.getEventQueue().post(ServerEventType.CLIENT_CONNECTED);
+	}
+	
+	/**
+	 * Returns the counters describing how handshakes are being handled.
+	 * @return handshakeStats
+	 */
+	public HandshakeStats getHandshakeStats() {
+		return handshakeStats;
 	}
 	
 	/**
@@ -214,10 +509,8 @@ public class ClientManager implements Runnable {
 	 * @param outgoingAction
 	 */
 	public void queueOutgoingAction(OutgoingAction outgoingAction) {
-		synchronized(clients) {
-			for(Client client : clients.values()) {
-				client.queuePendingOutgoingAction(outgoingAction);
-			}
+		for(Client client : clients.snapshot()) {
+			client.queuePendingOutgoingAction(outgoingAction);
 		}
 	}
 	
@@ -226,14 +519,12 @@ public class ClientManager implements Runnable {
 	 * @param outgoingActions
 	 */
 	public void sendWelcomePackages(ArrayList<OutgoingAction> outgoingActions) {
-		synchronized(clients) {
-			for(Client client : clients.values()) {
-				// Only send the package if the client is newly connected.
-				if(client.isNewClient()) {
-					// Queue each OutgoingAction that we need to send to the new client
-					for(OutgoingAction outgoingAction : outgoingActions) {
-						client.queuePendingOutgoingAction(outgoingAction);
-					}
+		for(Client client : clients.snapshot()) {
+			// Only send the package if the client is newly connected.
+			if(client.isNewClient()) {
+				// Queue each OutgoingAction that we need to send to the new client
+				for(OutgoingAction outgoingAction : outgoingActions) {
+					client.queuePendingOutgoingAction(outgoingAction);
 				}
 			}
 		}
@@ -245,29 +536,47 @@ public class ClientManager implements Runnable {
 	 * @param outgoingAction
 	 */
 	public void queueOutgoingAction(String clientId, OutgoingAction outgoingAction) {
-		synchronized(clients) {
-			if(clients.containsKey(clientId)){
-				clients.get(clientId).queuePendingOutgoingAction(outgoingAction);
-			}
+		Client client = clients.get(clientId);
+		if(client != null) {
+			client.queuePendingOutgoingAction(outgoingAction);
 		}
 	}
 	
 	/**
-	 * Gets all pending IncomingActions from all client objects.
+	 * Takes the oldest IncomingAction sent by any client, or returns null if there are none.
+	 * @return incoming action
+	 */
+	public IncomingAction pollIncomingAction() {
+		return incomingActions.poll();
+	}
+	
+	/**
+	 * Must be called before draining the IncomingActions with pollIncomingAction(), so that the server loop is woken for any sent after.
+	 */
+	public void clearIncomingActionSignal() {
+		incomingActions.clearSignal();
+	}
+	
+	/**
+	 * Gets all pending IncomingActions that were sent by clients, removing them from the queue.
+	 * The server loop uses pollIncomingAction() instead, to avoid creating a list each time.
 	 * @return incomingActionList
 	 */
 	public LinkedList<IncomingAction> getPendingIncomingActions() {
-		// Our list that will hold all IncomingActions from all connected clients.
 		LinkedList<IncomingAction> incomingActionList = new LinkedList<IncomingAction>();
-		synchronized(clients) {
-			// Copy all pending actions.
-			for(Client currentClient : clients.values()){
-				// Don't bother collecting IncomingActions from disconnected clients.
-				if(currentClient.isConnected()) {
-					incomingActionList.addAll(currentClient.getPendingIncomingActions());
-				}
-			}
+		incomingActions.clearSignal();
+		IncomingAction incomingAction;
+		while((incomingAction = incomingActions.poll()) != null) {
+			incomingActionList.add(incomingAction);
 		}
 		return incomingActionList;
 	}
+	
+	/**
+	 * Get the server-wide queue of IncomingActions.
+	 * @return incoming action queue
+	 */
+	IncomingActionQueue getIncomingActionQueue() {
+		return incomingActions;
+	}
 }
@@ -0,0 +1,84 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The connected clients, keyed on client id.
+ * Lookups, registration and removal go through a ConcurrentHashMap, while broadcasts iterate over a 
+ * copy-on-write snapshot array, so accepting a client, broadcasting and draining incoming actions
+ * never have to wait on each other.
+ * @author Nikolas Howard
+ *
+ */
+public class ClientRegistry {
+	private static final Client[] NO_CLIENTS = new Client[0];
+	private final ConcurrentHashMap<String, Client> clients = new ConcurrentHashMap<String, Client>();
+	// A copy of the registered clients, replaced whenever a client is registered or removed.
+	private volatile Client[] snapshot = NO_CLIENTS;
+	// Held while rebuilding the snapshot so that concurrent changes can't leave it holding an older view.
+	private final Object snapshotLock = new Object();
+	
+	/**
+	 * Registers a client, unless a client with the same id is already registered.
+	 * @param clientId
+	 * @param client
+	 * @return whether the client was registered
+	 */
+	public boolean register(String clientId, Client client) {
+		if(clients.putIfAbsent(clientId, client) != null) {
+			return false;
+		}
+		rebuildSnapshot();
+		return true;
+	}
+	
+	/**
+	 * Removes a client, but only if it is still the client registered with this id.
+	 * @param clientId
+	 * @param client
+	 * @return whether the client was removed
+	 */
+	public boolean remove(String clientId, Client client) {
+		if(!clients.remove(clientId, client)) {
+			return false;
+		}
+		rebuildSnapshot();
+		return true;
+	}
+	
+	public Client get(String clientId) {
+		return clients.get(clientId);
+	}
+	
+	public boolean contains(String clientId) {
+		return clients.containsKey(clientId);
+	}
+	
+	public int size() {
+		return clients.size();
+	}
+	
+	/**
+	 * Get the registered clients for iteration, the array must not be modified.
+	 * @return clients
+	 */
+	public Client[] snapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * Get the registered clients with their ids, a weakly consistent view that can be iterated while clients come and go.
+	 * @return entries
+	 */
+	public Set<Map.Entry<String, Client>> entries() {
+		return clients.entrySet();
+	}
+	
+	private void rebuildSnapshot() {
+		synchronized(snapshotLock) {
+			snapshot = clients.values().toArray(NO_CLIENTS);
+		}
+	}
+}
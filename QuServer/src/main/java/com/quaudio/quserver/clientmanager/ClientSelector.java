@@ -0,0 +1,155 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import org.json.JSONException;
+import org.json.JSONObject;
+import com.quaudio.quserver.server.Log;
+import com.quaudio.quserver.server.ServerEventQueue;
+import com.quaudio.quserver.server.ServerEventType;
+
+/**
+ * Services every client connection on a single thread using a non-blocking Selector.
+ * Used by the ClientManager when running in SELECTOR mode.
+ * @author Nikolas Howard
+ *
+ */
+public class ClientSelector implements Runnable, ChannelClient.FrameHandler {
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private ClientManager clientManager;
+	// How often we look for clients that have not completed their handshake in time.
+	private static final long HANDSHAKE_SWEEP_INTERVAL_MS = 1000;
+	private long lastHandshakeSweep = System.currentTimeMillis();
+	// Reads JSON actions straight out of each client's read buffer, all of which happens on our thread.
+	private IncomingActionParser actionParser = new IncomingActionParser();
+	
+	public ClientSelector(ClientManager clientManager, int port) throws IOException {
+		this.clientManager = clientManager;
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+	
+	public void start() {
+		// The ClientSelector needs to be started on its own thread.
+		Thread clientSelectorThread = new Thread(this);
+		clientSelectorThread.setDaemon(true);
+		clientSelectorThread.start();
+	}
+
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				selector.select(HANDSHAKE_SWEEP_INTERVAL_MS);
+			} catch (IOException e) {
+				Log.log(Log.MessageType.ERROR, "CLIENT_SELECTOR", "selector failed, no longer servicing clients");
+				return;
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if(!key.isValid()) {
+					continue;
+				}
+				if(key.isAcceptable()) {
+					acceptConnection();
+					continue;
+				}
+				ChannelClient client = (ChannelClient) key.attachment();
+				if(key.isReadable()) {
+					client.readFrames(this);
+				}
+				if(key.isValid() && key.isWritable()) {
+					client.flushPendingWrites();
+				}
+				// Let the server loop tidy up after a handshaken client that has gone away.
+				if(!client.isConnected() && client.isHandshakeComplete()) {
+					ServerEventQueue.getEventQueue().post(ServerEventType.CLIENT_DISCONNECTED);
+				}
+			}
+			// Drop any connections that are taking too long to send their connection request.
+			if((System.currentTimeMillis() - lastHandshakeSweep) >= HANDSHAKE_SWEEP_INTERVAL_MS) {
+				sweepExpiredHandshakes();
+				lastHandshakeSweep = System.currentTimeMillis();
+			}
+		}
+	}
+	
+	/**
+	 * Disconnects any connection that has not completed its handshake before the handshake deadline.
+	 */
+	private void sweepExpiredHandshakes() {
+		long now = System.nanoTime();
+		for(SelectionKey key : selector.keys()) {
+			ChannelClient client = (ChannelClient) key.attachment();
+			if(client == null || client.isHandshakeComplete() || !client.isConnected()) {
+				continue;
+			}
+			if(((now - client.getConnectTime()) / 1000000) >= ClientManager.HANDSHAKE_TIMEOUT_MS) {
+				clientManager.getHandshakeStats().recordTimeout();
+				Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "timed out waiting for request JSON");
+				client.disconnect();
+			}
+		}
+	}
+	
+	/**
+	 * Accepts a pending connection and registers it for reads.
+	 */
+	private void acceptConnection() {
+		try {
+			SocketChannel channel = serverChannel.accept();
+			if(channel == null) {
+				return;
+			}
+			if(Log.isEnabled(Log.MessageType.INFO)) {
+				Log.log(Log.MessageType.INFO, "CLIENT_MANAGER", "got connection request from client at '" + channel.socket().getRemoteSocketAddress().toString() + "'");
+			}
+			channel.configureBlocking(false);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new ChannelClient(channel, key, clientManager.createOutgoingActionQueue()));
+		} catch (IOException e) {
+			// If we get an IOException here then just log it as an unsuccesful connection.
+			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "failed to get connecting client socket");
+		}
+	}
+
+	@Override
+	public void onFrame(ChannelClient client, String frame) {
+		// The first frame a client sends is its connection request.
+		JSONObject frameJSON = null;
+		try {
+			frameJSON = new JSONObject(frame);
+		} catch (JSONException e) {
+			// The client has sent us something that isn't valid JSON.
+			Log.log(Log.MessageType.WARNING, "CLIENT_MANAGER", "the raw request JSON is invalid");
+			client.disconnect();
+			return;
+		}
+		clientManager.processConnectionRequest(frameJSON, client);
+	}
+	
+	@Override
+	public void onFrame(ChannelClient client, byte[] frame, int offset, int length) {
+		// This is an IncomingAction, queue it and wake the server loop.
+		try {
+			if(client.getActionEncoding() == ActionEncoding.BINARY) {
+				clientManager.getIncomingActionQueue().offer(BinaryActionCodec.decodeIncomingAction(frame, offset, length));
+			} else {
+				clientManager.getIncomingActionQueue().offer(actionParser.parse(frame, offset, length));
+			}
+		} catch (JSONException e) {
+			// The client has sent us something that isn't a valid action.
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses action frames for clients that agreed to the DEFLATE ActionCompression during their handshake.
+ * A compressed frame is a zero byte, which can never start a JSON or BINARY frame, followed by a BINARY style frame
+ * whose body is the varint length of the original frame and then the original frame (newline or length prefix and all)
+ * deflated with a preset dictionary. The dictionary holds the field names and values that every track in a playlist
+ * repeats, so even the first track of a playlist compresses well.
+ * The QuClient has a matching FrameCompressor, the dictionaries of the two sides must be identical.
+ * @author Nikolas Howard
+ *
+ */
+public class FrameCompressor {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// The first byte of every compressed frame.
+	public static final int COMPRESSED_FRAME_MARKER = 0;
+	// Frames smaller than this many bytes are sent as they are.
+	public static final int DEFAULT_THRESHOLD = 1024;
+	// The most common strings go last, as they are then the shortest distance back from the data.
+	// Package-private so the tests can inflate frames the way a client does, the server itself never reads one.
+	static final byte[] DICTIONARY = ("\"action_type\":\"PUSH_PLAYLIST_DELTA\",\"base_sequence\":\"operations\":["
+			+ "{\"op\":\"ADD\",\"index\":\"track\":{\"op\":\"REMOVE\",\"op\":\"UPDATE\",\"op\":\"STATE\",\"op\":\"POSITION\","
+			+ "\"PUSH_PLAYLIST\",\"sequence\":\"playlist\":[\"STOPPED\",\"PAUSED\",\"PLAYING\",\"UNKNOWN\","
+			+ "{\"track_id\":\"\",\"owner_id\":\"\",\"track_state\":\"PENDING\",\"name\":\"\",\"artist\":\"\",\"album\":\"\","
+			+ "\"duration\":0,\"position\":0}").getBytes(UTF8);
+
+	/**
+	 * Compresses a frame, returning null if the compressed frame would be no smaller.
+	 * @param frame
+	 * @return compressed frame
+	 */
+	public static byte[] compress(byte[] frame) {
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setDictionary(DICTIONARY);
+			deflater.setInput(frame);
+			deflater.finish();
+			// There is no point in keeping any more deflated data than the frame we started with.
+			byte[] deflated = new byte[frame.length];
+			int deflatedLength = 0;
+			while(!deflater.finished() && deflatedLength < deflated.length) {
+				deflatedLength += deflater.deflate(deflated, deflatedLength, deflated.length - deflatedLength);
+			}
+			int bodyLength = BinaryActionCodec.getVarintSize(frame.length) + deflatedLength;
+			int compressedLength = 1 + BinaryActionCodec.getVarintSize(bodyLength) + bodyLength;
+			if(!deflater.finished() || compressedLength >= frame.length) {
+				return null;
+			}
+			byte[] compressed = new byte[compressedLength];
+			compressed[0] = COMPRESSED_FRAME_MARKER;
+			int offset = BinaryActionCodec.writeVarint(compressed, 1, bodyLength);
+			offset = BinaryActionCodec.writeVarint(compressed, offset, frame.length);
+			System.arraycopy(deflated, 0, compressed, offset, deflatedLength);
+			return compressed;
+		} finally {
+			deflater.end();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how client handshakes are being handled by the ClientManager.
+ * Latency is measured from the moment a connection is accepted until the handshake response is sent.
+ * @author Nikolas Howard
+ *
+ */
+public class HandshakeStats {
+	// Handshakes that resulted in a response being sent to the client.
+	private final AtomicLong completedHandshakes = new AtomicLong();
+	// Handshakes abandoned because the client did not send its request in time.
+	private final AtomicLong timedOutHandshakes = new AtomicLong();
+	// Connections turned away because too many handshakes were already pending.
+	private final AtomicLong rejectedHandshakes = new AtomicLong();
+	// Total and maximum latency of completed handshakes, in nanoseconds.
+	private final AtomicLong totalLatency = new AtomicLong();
+	private final AtomicLong maxLatency = new AtomicLong();
+	
+	/**
+	 * Record a handshake that was completed.
+	 * @param latency in nanoseconds
+	 */
+	public void recordCompleted(long latency) {
+		completedHandshakes.incrementAndGet();
+		totalLatency.addAndGet(latency);
+		// Update our maximum, another thread may be doing the same.
+		long currentMax = maxLatency.get();
+		while(latency > currentMax && !maxLatency.compareAndSet(currentMax, latency)) {
+			currentMax = maxLatency.get();
+		}
+	}
+	
+	public void recordTimeout() {
+		timedOutHandshakes.incrementAndGet();
+	}
+	
+	public void recordRejected() {
+		rejectedHandshakes.incrementAndGet();
+	}
+	
+	public long getCompletedHandshakes() {
+		return completedHandshakes.get();
+	}
+	
+	public long getTimedOutHandshakes() {
+		return timedOutHandshakes.get();
+	}
+	
+	public long getRejectedHandshakes() {
+		return rejectedHandshakes.get();
+	}
+	
+	/**
+	 * Get the average latency of completed handshakes.
+	 * @return average latency in milliseconds
+	 */
+	public double getAverageLatencyMillis() {
+		long completed = completedHandshakes.get();
+		return completed == 0 ? 0 : (totalLatency.get() / (double) completed) / 1000000.0;
+	}
+	
+	/**
+	 * Get the highest latency of any completed handshake.
+	 * @return maximum latency in milliseconds
+	 */
+	public double getMaxLatencyMillis() {
+		return maxLatency.get() / 1000000.0;
+	}
+	
+	@Override
+	public String toString() {
+		return "completed=" + getCompletedHandshakes() + " timeouts=" + getTimedOutHandshakes() + " rejected=" + getRejectedHandshakes() 
+				+ " avg=" + String.format("%.2f", getAverageLatencyMillis()) + "ms max=" + String.format("%.2f", getMaxLatencyMillis()) + "ms";
+	}
+}
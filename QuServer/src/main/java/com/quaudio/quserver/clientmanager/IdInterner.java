@@ -0,0 +1,54 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands back a single shared instance for each client and track id, so that the many actions that name
+ * the same track don't each hold their own copy of its id, and comparing against the id of a track we
+ * already know about usually succeeds on the first (identity) check of String.equals().
+ * The table is simply emptied once it is full, ids only need to be shared while they are in use.
+ * @author Nikolas Howard
+ *
+ */
+public class IdInterner {
+	// The number of ids we hold on to before starting again.
+	static final int MAX_IDS = 4096;
+	private static final IdInterner idInterner = new IdInterner();
+	private final ConcurrentHashMap<String, String> ids = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Get the IdInterner singleton.
+	 * @return idInterner
+	 */
+	public static IdInterner getIdInterner() {
+		return idInterner;
+	}
+
+	/**
+	 * Returns the shared instance of an id, null if the id is null.
+	 * @param id
+	 * @return interned id
+	 */
+	public String intern(String id) {
+		if(id == null) {
+			return null;
+		}
+		String interned = ids.get(id);
+		if(interned != null) {
+			return interned;
+		}
+		if(ids.size() >= MAX_IDS) {
+			ids.clear();
+		}
+		interned = ids.putIfAbsent(id, id);
+		return interned == null ? id : interned;
+	}
+
+	/**
+	 * Get the number of ids currently held.
+	 * @return size
+	 */
+	int size() {
+		return ids.size();
+	}
+}
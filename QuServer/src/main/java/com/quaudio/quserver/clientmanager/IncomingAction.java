@@ -1,30 +1,118 @@
 package com.quaudio.quserver.clientmanager;
 
+import java.util.HashMap;
 import org.json.JSONObject;
-import com.quaudio.quserver.clientmanager.Action;
 import com.quaudio.quserver.clientmanager.IncomingActionType;
 
 /**
- * Represents an action sent by the client
+ * Represents an action sent by the client.
+ * An IncomingAction is decoded in full on the thread that reads it from the client and cannot be changed
+ * afterwards, so the server loop only ever reads fields rather than looking anything up in the JSON.
+ * Fields that the client did not send are null (or NaN/-1 for numbers).
  * @author Nikolas Howard
  *
  */
-public class IncomingAction extends Action {
-	
+public class IncomingAction {
+	// The action types by name, so that decoding an unknown type doesn't cost us an exception.
+	private static final HashMap<String, IncomingActionType> ACTION_TYPES = new HashMap<String, IncomingActionType>();
+	static {
+		for(IncomingActionType actionType : IncomingActionType.values()) {
+			ACTION_TYPES.put(actionType.toString(), actionType);
+		}
+	}
+	// When this action was read from the client, used to measure how long actions wait to be processed.
+	private final long receivedAt = System.nanoTime();
+	private final IncomingActionType type;
+	// The client and track ids are interned, as the same few ids turn up over and over again.
+	private final String clientId;
+	private final String trackId;
+	// The position to skip to (SKIP).
+	private final double position;
+	// The new volume (UPDATE_VOLUME).
+	private final int volumeLevel;
+	// The new settings (UPDATE_SETTINGS), a password of '?' means it is not to be changed.
+	private final String deviceName;
+	private final String accessPassword;
+	private final String superPassword;
+
+	/**
+	 * Decodes an IncomingAction from the JSON sent by a client.
+	 * @param infoObject
+	 */
 	public IncomingAction(JSONObject infoObject) {
-		this.actionInfoObject = infoObject;
+		this(getIncomingActionType(infoObject.optString("action_type", null)),
+				infoObject.optString("client_id", null),
+				infoObject.optString("track_id", null),
+				infoObject.optDouble("position", Double.NaN),
+				infoObject.optInt("volume_level", -1),
+				infoObject.optString("device_name", null),
+				infoObject.optString("access_password", null),
+				infoObject.optString("super_password", null));
+	}
+
+	public IncomingAction(IncomingActionType type, String clientId, String trackId, double position, int volumeLevel,
+			String deviceName, String accessPassword, String superPassword) {
+		this.type = type == null ? IncomingActionType.UNKNOWN : type;
+		this.clientId = IdInterner.getIdInterner().intern(clientId);
+		this.trackId = IdInterner.getIdInterner().intern(trackId);
+		this.position = position;
+		this.volumeLevel = volumeLevel;
+		this.deviceName = deviceName;
+		this.accessPassword = accessPassword;
+		this.superPassword = superPassword;
+	}
+
+	/**
+	 * Get the IncomingActionType with the given name, 'UNKNOWN' if we have no knowledge of it.
+	 * @param name
+	 * @return IncomingActionType
+	 */
+	public static IncomingActionType getIncomingActionType(String name) {
+		IncomingActionType actionType = name == null ? null : ACTION_TYPES.get(name);
+		return actionType == null ? IncomingActionType.UNKNOWN : actionType;
+	}
+
+	/**
+	 * Get the System.nanoTime() at which this action was read from the client.
+	 * @return receivedAt
+	 */
+	public long getReceivedAt() {
+		return receivedAt;
 	}
-	
+
 	/**
 	 * Get the IncomingActionType of this Action.
 	 * @return IncomingActionType
 	 */
 	public IncomingActionType getIncomingActionType() {
-		try {
-			return IncomingActionType.valueOf(this.getActionInfoObject().getString("action_type"));
-		} catch (IllegalArgumentException e) {
-			// We have no knowledge of this action type, return 'UNKNOWN'
-			return IncomingActionType.UNKNOWN;
-		}
+		return type;
+	}
+
+	public String getClientId() {
+		return clientId;
+	}
+
+	public String getTrackId() {
+		return trackId;
+	}
+
+	public double getPosition() {
+		return position;
+	}
+
+	public int getVolumeLevel() {
+		return volumeLevel;
+	}
+
+	public String getDeviceName() {
+		return deviceName;
+	}
+
+	public String getAccessPassword() {
+		return accessPassword;
+	}
+
+	public String getSuperPassword() {
+		return superPassword;
 	}
 }
@@ -0,0 +1,463 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.nio.charset.Charset;
+import org.json.JSONException;
+
+/**
+ * Reads IncomingActions straight out of the UTF-8 bytes of a JSON action frame.
+ * Only the fields that an IncomingAction has are picked out, keys are matched byte for byte and numbers are parsed
+ * in place, so unlike building a JSONObject nothing is allocated for the keys, the values we don't want or the
+ * structure of the object. Ids are looked up in a small cache by their bytes, so an id we have seen recently
+ * doesn't even need a new String. Each parser is reused for every frame read by one thread and is not thread safe.
+ * As with the org.json parser, unquoted and single quoted values are accepted.
+ * @author Nikolas Howard
+ *
+ */
+public class IncomingActionParser {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// How deeply nested a value that we are skipping over can be.
+	private static final int MAX_DEPTH = 32;
+	// The number of recently seen ids that we keep, must be a power of two.
+	private static final int ID_CACHE_SIZE = 256;
+	// The longest id that we will cache.
+	private static final int MAX_CACHED_ID_LENGTH = 64;
+	// The fields we know about.
+	private static final int FIELD_NONE = -1;
+	private static final int FIELD_ACTION_TYPE = 0;
+	private static final int FIELD_CLIENT_ID = 1;
+	private static final int FIELD_TRACK_ID = 2;
+	private static final int FIELD_POSITION = 3;
+	private static final int FIELD_VOLUME_LEVEL = 4;
+	private static final int FIELD_DEVICE_NAME = 5;
+	private static final int FIELD_ACCESS_PASSWORD = 6;
+	private static final int FIELD_SUPER_PASSWORD = 7;
+	private static final String[] FIELD_NAMES = { "action_type", "client_id", "track_id", "position", "volume_level",
+		"device_name", "access_password", "super_password" };
+	private static final byte[][] FIELD_NAME_BYTES = new byte[FIELD_NAMES.length][];
+	// The names of the action types, by ordinal.
+	private static final byte[][] ACTION_TYPE_NAME_BYTES = new byte[IncomingActionType.values().length][];
+	// Powers of ten that can be represented exactly by a double.
+	private static final double[] EXACT_POWERS_OF_TEN = new double[23];
+	static {
+		for(int i = 0; i < FIELD_NAMES.length; i++) {
+			FIELD_NAME_BYTES[i] = FIELD_NAMES[i].getBytes(UTF8);
+		}
+		for(IncomingActionType actionType : IncomingActionType.values()) {
+			ACTION_TYPE_NAME_BYTES[actionType.ordinal()] = actionType.toString().getBytes(UTF8);
+		}
+		EXACT_POWERS_OF_TEN[0] = 1;
+		for(int i = 1; i < EXACT_POWERS_OF_TEN.length; i++) {
+			EXACT_POWERS_OF_TEN[i] = EXACT_POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+	// Recently seen ids, and their bytes, by hash.
+	private final byte[][] cachedIdBytes = new byte[ID_CACHE_SIZE][];
+	private final String[] cachedIds = new String[ID_CACHE_SIZE];
+	// The frame being parsed.
+	private byte[] buffer;
+	private int index;
+	private int end;
+	// Where the last string or literal read starts and ends, and whether it held any escapes.
+	private int tokenStart;
+	private int tokenEnd;
+	private boolean tokenEscaped;
+	// The fields of the action being parsed.
+	private IncomingActionType type;
+	private String clientId;
+	private String trackId;
+	private double position;
+	private int volumeLevel;
+	private String deviceName;
+	private String accessPassword;
+	private String superPassword;
+
+	/**
+	 * Parses the JSON object in buffer from offset to offset + length as an IncomingAction.
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return incoming action
+	 * @throws JSONException if the bytes do not hold a JSON object
+	 */
+	public IncomingAction parse(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.index = offset;
+		this.end = offset + length;
+		type = IncomingActionType.UNKNOWN;
+		clientId = null;
+		trackId = null;
+		position = Double.NaN;
+		volumeLevel = -1;
+		deviceName = null;
+		accessPassword = null;
+		superPassword = null;
+		try {
+			skipWhitespace();
+			expect('{');
+			skipWhitespace();
+			if(peek() == '}') {
+				index++;
+			} else {
+				while(true) {
+					int field = readKey();
+					skipWhitespace();
+					expect(':');
+					skipWhitespace();
+					readValue(field);
+					skipWhitespace();
+					int next = next();
+					if(next == '}') {
+						break;
+					}
+					if(next != ',') {
+						throw new JSONException("expected ',' or '}' at " + (index - 1));
+					}
+					skipWhitespace();
+				}
+			}
+			skipWhitespace();
+			if(index != end) {
+				throw new JSONException("unexpected bytes after action");
+			}
+			return new IncomingAction(type, clientId, trackId, position, volumeLevel, deviceName, accessPassword, superPassword);
+		} finally {
+			// Don't hang on to the caller's buffer.
+			this.buffer = null;
+		}
+	}
+
+	/**
+	 * Reads a key and returns the field it names, FIELD_NONE if it isn't one of ours.
+	 * @return field
+	 */
+	private int readKey() {
+		int quote = peek();
+		if(quote == '"' || quote == '\'') {
+			readString();
+		} else {
+			readLiteral();
+		}
+		if(tokenEscaped) {
+			String key = decodeString();
+			for(int i = 0; i < FIELD_NAMES.length; i++) {
+				if(FIELD_NAMES[i].equals(key)) {
+					return i;
+				}
+			}
+			return FIELD_NONE;
+		}
+		return match(FIELD_NAME_BYTES);
+	}
+
+	/**
+	 * Reads the value of a field, keeping it if it is one of ours.
+	 * @param field
+	 */
+	private void readValue(int field) {
+		int first = peek();
+		if(first == '{' || first == '[') {
+			// None of our fields are objects or arrays.
+			skipStructure();
+			return;
+		}
+		boolean quoted = first == '"' || first == '\'';
+		if(quoted) {
+			readString();
+		} else {
+			readLiteral();
+			if(isLiteral("null")) {
+				// The same as not sending the field at all.
+				return;
+			}
+		}
+		switch(field) {
+		case FIELD_ACTION_TYPE:
+			if(tokenEscaped) {
+				type = IncomingAction.getIncomingActionType(decodeString());
+			} else {
+				int ordinal = match(ACTION_TYPE_NAME_BYTES);
+				type = ordinal == FIELD_NONE ? IncomingActionType.UNKNOWN : IncomingActionType.values()[ordinal];
+			}
+			break;
+		case FIELD_CLIENT_ID:
+			clientId = readId();
+			break;
+		case FIELD_TRACK_ID:
+			trackId = readId();
+			break;
+		case FIELD_POSITION:
+			position = readNumber(quoted, Double.NaN);
+			break;
+		case FIELD_VOLUME_LEVEL:
+			double level = readNumber(quoted, Double.NaN);
+			volumeLevel = Double.isNaN(level) ? -1 : (int) level;
+			break;
+		case FIELD_DEVICE_NAME:
+			deviceName = decodeString();
+			break;
+		case FIELD_ACCESS_PASSWORD:
+			accessPassword = decodeString();
+			break;
+		case FIELD_SUPER_PASSWORD:
+			superPassword = decodeString();
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Reads a quoted string, leaving tokenStart/tokenEnd around its contents.
+	 */
+	private void readString() {
+		int quote = next();
+		tokenStart = index;
+		tokenEscaped = false;
+		while(true) {
+			int next = next();
+			if(next == quote) {
+				tokenEnd = index - 1;
+				return;
+			}
+			if(next == '\\') {
+				tokenEscaped = true;
+				next();
+			} else if(next == '\n' || next == '\r') {
+				throw new JSONException("unterminated string");
+			}
+		}
+	}
+
+	/**
+	 * Reads an unquoted value (a number, true, false, null or anything else the org.json parser would take as a string).
+	 */
+	private void readLiteral() {
+		tokenStart = index;
+		tokenEscaped = false;
+		while(index < end) {
+			int next = buffer[index];
+			if(next == ',' || next == ':' || next == '}' || next == ']' || next == '"' || next == '\'' || (next >= 0 && next <= ' ')) {
+				break;
+			}
+			index++;
+		}
+		tokenEnd = index;
+		if(tokenEnd == tokenStart) {
+			throw new JSONException("missing value at " + index);
+		}
+	}
+
+	/**
+	 * Skips over an object or array that we have no use for.
+	 */
+	private void skipStructure() {
+		int depth = 0;
+		do {
+			int next = peek();
+			if(next == '"' || next == '\'') {
+				readString();
+				continue;
+			}
+			index++;
+			if(next == '{' || next == '[') {
+				if(++depth > MAX_DEPTH) {
+					throw new JSONException("action is nested too deeply");
+				}
+			} else if(next == '}' || next == ']') {
+				depth--;
+			}
+		} while(depth > 0);
+	}
+
+	/**
+	 * Returns the index of the entry of names that the last token matches, FIELD_NONE if none do.
+	 * @param names
+	 * @return index
+	 */
+	private int match(byte[][] names) {
+		int length = tokenEnd - tokenStart;
+		for(int i = 0; i < names.length; i++) {
+			byte[] name = names[i];
+			if(name.length != length) {
+				continue;
+			}
+			int j = 0;
+			while(j < length && name[j] == buffer[tokenStart + j]) {
+				j++;
+			}
+			if(j == length) {
+				return i;
+			}
+		}
+		return FIELD_NONE;
+	}
+
+	private boolean isLiteral(String literal) {
+		int length = tokenEnd - tokenStart;
+		if(length != literal.length()) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(buffer[tokenStart + i] != literal.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the last token as an id, from the cache if we have seen it recently.
+	 * @return id
+	 */
+	private String readId() {
+		int length = tokenEnd - tokenStart;
+		if(tokenEscaped || length > MAX_CACHED_ID_LENGTH) {
+			return IdInterner.getIdInterner().intern(decodeString());
+		}
+		int hash = 0;
+		for(int i = tokenStart; i < tokenEnd; i++) {
+			hash = 31 * hash + buffer[i];
+		}
+		int slot = (hash ^ (hash >>> 16)) & (ID_CACHE_SIZE - 1);
+		byte[] cached = cachedIdBytes[slot];
+		if(cached != null && cached.length == length) {
+			int j = 0;
+			while(j < length && cached[j] == buffer[tokenStart + j]) {
+				j++;
+			}
+			if(j == length) {
+				return cachedIds[slot];
+			}
+		}
+		String id = IdInterner.getIdInterner().intern(new String(buffer, tokenStart, length, UTF8));
+		byte[] idBytes = new byte[length];
+		System.arraycopy(buffer, tokenStart, idBytes, 0, length);
+		cachedIdBytes[slot] = idBytes;
+		cachedIds[slot] = id;
+		return id;
+	}
+
+	/**
+	 * Gets the last token as a number, or defaultValue if it isn't one (as org.json's optDouble() would).
+	 * @param quoted whether the token was a string
+	 * @param defaultValue
+	 * @return number
+	 */
+	private double readNumber(boolean quoted, double defaultValue) {
+		if(!quoted || !tokenEscaped) {
+			// The common case, a plain decimal that fits in a long, can be worked out without allocating anything.
+			int i = tokenStart;
+			boolean negative = i < tokenEnd && buffer[i] == '-';
+			if(negative) {
+				i++;
+			}
+			long mantissa = 0;
+			int digits = 0;
+			int fractionDigits = 0;
+			boolean inFraction = false;
+			for(; i < tokenEnd; i++) {
+				int next = buffer[i];
+				if(next >= '0' && next <= '9') {
+					mantissa = mantissa * 10 + (next - '0');
+					digits++;
+					if(inFraction) {
+						fractionDigits++;
+					}
+				} else if(next == '.' && !inFraction) {
+					inFraction = true;
+				} else {
+					break;
+				}
+			}
+			if(i == tokenEnd && digits > 0 && digits <= 15 && fractionDigits < EXACT_POWERS_OF_TEN.length) {
+				// Both parts are exact, so the division is correctly rounded.
+				double value = mantissa / EXACT_POWERS_OF_TEN[fractionDigits];
+				return negative ? -value : value;
+			}
+		}
+		try {
+			return Double.parseDouble(decodeString());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Decodes the last token as a String, undoing any escapes.
+	 * @return string
+	 */
+	private String decodeString() {
+		if(!tokenEscaped) {
+			return new String(buffer, tokenStart, tokenEnd - tokenStart, UTF8);
+		}
+		// Escapes are rare, so we just let a StringBuilder deal with them.
+		String raw = new String(buffer, tokenStart, tokenEnd - tokenStart, UTF8);
+		StringBuilder decoded = new StringBuilder(raw.length());
+		for(int i = 0; i < raw.length(); i++) {
+			char next = raw.charAt(i);
+			if(next != '\\') {
+				decoded.append(next);
+				continue;
+			}
+			char escaped = raw.charAt(++i);
+			switch(escaped) {
+			case 'b':
+				decoded.append('\b');
+				break;
+			case 't':
+				decoded.append('\t');
+				break;
+			case 'n':
+				decoded.append('\n');
+				break;
+			case 'f':
+				decoded.append('\f');
+				break;
+			case 'r':
+				decoded.append('\r');
+				break;
+			case 'u':
+				if(i + 4 >= raw.length()) {
+					throw new JSONException("bad unicode escape");
+				}
+				try {
+					decoded.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+				} catch (NumberFormatException e) {
+					throw new JSONException("bad unicode escape");
+				}
+				i += 4;
+				break;
+			default:
+				// Quotes, slashes and anything else stand for themselves.
+				decoded.append(escaped);
+				break;
+			}
+		}
+		return decoded.toString();
+	}
+
+	private void skipWhitespace() {
+		while(index < end && buffer[index] <= ' ' && buffer[index] >= 0) {
+			index++;
+		}
+	}
+
+	private int peek() {
+		if(index >= end) {
+			throw new JSONException("action ended unexpectedly");
+		}
+		return buffer[index];
+	}
+
+	private int next() {
+		int next = peek();
+		index++;
+		return next;
+	}
+
+	private void expect(char expected) {
+		if(next() != expected) {
+			throw new JSONException("expected '" + expected + "' at " + (index - 1));
+		}
+	}
+}
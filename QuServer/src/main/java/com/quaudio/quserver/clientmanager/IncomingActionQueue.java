@@ -0,0 +1,51 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import com.quaudio.quserver.server.ServerEventQueue;
+import com.quaudio.quserver.server.ServerEventType;
+
+/**
+ * The single server-wide queue of IncomingActions.
+ * Every client listener (and the ClientSelector) pushes straight into this queue without taking a lock, 
+ * and the server loop is the only thing that takes actions out of it.
+ * @author Nikolas Howard
+ *
+ */
+public class IncomingActionQueue {
+	private final ConcurrentLinkedQueue<IncomingAction> actions = new ConcurrentLinkedQueue<IncomingAction>();
+	// Whether the server loop has been woken for actions it hasn't started draining yet.
+	private final AtomicBoolean signalled = new AtomicBoolean(false);
+	
+	/**
+	 * Queues an IncomingAction and wakes the server loop so that it is processed straight away.
+	 * The loop is only woken once per drain, not for every action.
+	 * @param incomingAction
+	 */
+	public void offer(IncomingAction incomingAction) {
+		actions.offer(incomingAction);
+		if(!signalled.get() && signalled.compareAndSet(false, true)) {
+			ServerEventQueue.getEventQueue().post(ServerEventType.INCOMING_ACTION);
+		}
+	}
+	
+	/**
+	 * Called by the server loop before it drains the queue, so that any action queued from now on wakes it again.
+	 */
+	public void clearSignal() {
+		signalled.set(false);
+	}
+	
+	/**
+	 * Takes the oldest IncomingAction, or returns null if there are none.
+	 * Should only be called by the server loop.
+	 * @return incoming action
+	 */
+	public IncomingAction poll() {
+		return actions.poll();
+	}
+	
+	public boolean isEmpty() {
+		return actions.isEmpty();
+	}
+}
@@ -1,5 +1,6 @@
 package com.quaudio.quserver.clientmanager;
 
+// The BINARY ActionEncoding sends these by ordinal, so new types only ever go on the end (before UNKNOWN).
 public enum IncomingActionType {
 	PLAY,
 	PAUSE,
@@ -11,5 +12,6 @@ public enum IncomingActionType {
 	UPDATE_SETTINGS,
 	ADMIN_REQUEST,
 	EXIT, 
+	REQUEST_PLAYLIST,
 	UNKNOWN
 }
@@ -1,5 +1,6 @@
 package com.quaudio.quserver.clientmanager;
 
+import java.nio.charset.Charset;
 import org.json.JSONObject;
 import com.quaudio.quserver.clientmanager.Action;
 import com.quaudio.quserver.clientmanager.OutgoingActionType;
@@ -10,11 +11,22 @@ import com.quaudio.quserver.clientmanager.OutgoingActionType;
  *
  */
 public class OutgoingAction extends Action {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// The type of this action, kept so it doesn't have to be read back out of the info object.
+	private final OutgoingActionType type;
+	// The newline terminated UTF-8 frame for this action, encoded once and shared by every client it is sent to.
+	private volatile byte[] encodedFrame = null;
+	// The same for clients that use the BINARY ActionEncoding.
+	private volatile byte[] encodedBinaryFrame = null;
+	// The compressed forms of the above, for clients that use the DEFLATE ActionCompression.
+	private volatile byte[] compressedFrame = null;
+	private volatile byte[] compressedBinaryFrame = null;
 	
 	public OutgoingAction(OutgoingActionType type, JSONObject infoObject) {
 		// Set the action type in the JSON object.
 		infoObject.put("action_type", type.toString());
 		this.actionInfoObject = infoObject;
+		this.type = type;
 	}
 	
 	/**
@@ -22,6 +34,79 @@ public class OutgoingAction extends Action {
 	 * @return OutgoingActionType
 	 */
 	public OutgoingActionType getOutgoingActionType() {
-		return OutgoingActionType.valueOf(this.getActionInfoObject().getString("action_type"));
+		return type;
+	}
+	
+	/**
+	 * Get the newline terminated UTF-8 frame that is written to a client socket for this action.
+	 * The frame is encoded the first time it is needed and the same array is then written to every 
+	 * client, so the action info object must not be altered once the action has been queued, and
+	 * the returned array must not be modified.
+	 * @return encoded frame
+	 */
+	public byte[] getEncodedFrame() {
+		byte[] frame = encodedFrame;
+		if(frame == null) {
+			synchronized(this) {
+				frame = encodedFrame;
+				if(frame == null) {
+					frame = (this.getActionInfoObject().toString() + "\n").getBytes(UTF8);
+					encodedFrame = frame;
+				}
+			}
+		}
+		return frame;
+	}
+	
+	/**
+	 * Get the frame that is written to a client socket for this action in the given ActionEncoding.
+	 * As with getEncodedFrame(), each encoding is only done once and the returned array is shared.
+	 * @param encoding
+	 * @return encoded frame
+	 */
+	public byte[] getEncodedFrame(ActionEncoding encoding) {
+		if(encoding != ActionEncoding.BINARY) {
+			return getEncodedFrame();
+		}
+		byte[] frame = encodedBinaryFrame;
+		if(frame == null) {
+			synchronized(this) {
+				frame = encodedBinaryFrame;
+				if(frame == null) {
+					frame = BinaryActionCodec.encode(getOutgoingActionType().ordinal(), this.getActionInfoObject());
+					encodedBinaryFrame = frame;
+				}
+			}
+		}
+		return frame;
+	}
+	
+	/**
+	 * Get the frame in the given ActionEncoding compressed by the FrameCompressor, or the uncompressed 
+	 * frame if compressing it doesn't make it any smaller. As with the uncompressed frames, the compression 
+	 * is only done once however many clients the action is sent to, and the returned array is shared.
+	 * @param encoding
+	 * @return compressed frame
+	 */
+	public byte[] getCompressedFrame(ActionEncoding encoding) {
+		byte[] frame = encoding == ActionEncoding.BINARY ? compressedBinaryFrame : compressedFrame;
+		if(frame == null) {
+			synchronized(this) {
+				frame = encoding == ActionEncoding.BINARY ? compressedBinaryFrame : compressedFrame;
+				if(frame == null) {
+					byte[] uncompressedFrame = getEncodedFrame(encoding);
+					frame = FrameCompressor.compress(uncompressedFrame);
+					if(frame == null) {
+						frame = uncompressedFrame;
+					}
+					if(encoding == ActionEncoding.BINARY) {
+						compressedBinaryFrame = frame;
+					} else {
+						compressedFrame = frame;
+					}
+				}
+			}
+		}
+		return frame;
 	}
 }
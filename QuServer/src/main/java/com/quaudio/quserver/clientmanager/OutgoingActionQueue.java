@@ -0,0 +1,164 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.util.ArrayDeque;
+
+/**
+ * The bounded queue of OutgoingActions waiting to be written to a single client.
+ * Actions are queued by the server loop and taken by whatever writes to the client socket, 
+ * so a client that is slow to read can never hold up the server loop or other clients.
+ * @author Nikolas Howard
+ *
+ */
+public class OutgoingActionQueue {
+	// The queued actions, oldest first.
+	private final ArrayDeque<QueuedAction> actions = new ArrayDeque<QueuedAction>();
+	// The number of actions that can be queued before the policy kicks in.
+	private final int capacity;
+	// How long the oldest action can be left waiting before we consider the client to have fallen behind.
+	private final long maxLagNanos;
+	private final OutgoingQueuePolicy policy;
+	private final OutgoingQueueStats stats = new OutgoingQueueStats();
+	// Has the queue been closed? (the client is gone)
+	private boolean closed = false;
+	// Is a writer draining the queue? There is never more than one, so that frames are written in order.
+	private boolean draining = false;
+	
+	public OutgoingActionQueue(int capacity, long maxLagMillis, OutgoingQueuePolicy policy) {
+		this.capacity = capacity;
+		this.maxLagNanos = maxLagMillis * 1000000L;
+		this.policy = policy;
+	}
+	
+	/**
+	 * Queues an OutgoingAction, merging or dropping according to our policy.
+	 * Returns false if the client has fallen so far behind that it should be evicted.
+	 * @param outgoingAction
+	 * @return whether the client is keeping up
+	 */
+	public synchronized boolean offer(OutgoingAction outgoingAction) {
+		if(closed) {
+			return true;
+		}
+		// Replace an older action that this one supersedes, the client only ever needs the latest.
+		OutgoingActionType type = outgoingAction.getOutgoingActionType();
+		if(policy != OutgoingQueuePolicy.QUEUE_ALL && isMergeable(type)) {
+			for(QueuedAction queuedAction : actions) {
+				if(queuedAction.action.getOutgoingActionType() == type) {
+					queuedAction.action = outgoingAction;
+					stats.recordMerged();
+					return true;
+				}
+			}
+		}
+		if(actions.size() >= capacity) {
+			if(policy != OutgoingQueuePolicy.MERGE_AND_DROP) {
+				return false;
+			}
+			// A dropped delta is not lost for good, the client will notice the gap and ask for the full PlayList.
+			stats.recordDropped();
+			return !hasFallenBehind();
+		}
+		actions.add(new QueuedAction(outgoingAction, System.nanoTime()));
+		stats.recordQueued(actions.size());
+		return true;
+	}
+	
+	/**
+	 * Takes the next OutgoingAction without waiting, returns null if there are none.
+	 * @return next action
+	 */
+	public synchronized OutgoingAction poll() {
+		QueuedAction next = actions.poll();
+		if(next == null) {
+			return null;
+		}
+		// How long actions wait here tells us how well clients are being kept up to date.
+		ActionLatencyMonitor.getActionLatencyMonitor().recordLatency(System.nanoTime() - next.queuedAt);
+		return next.action;
+	}
+	
+	/**
+	 * Claims the queue for a writer if it has actions waiting and no writer is draining it already.
+	 * Returns true if the caller should start a writer, which must call finishDrain() once it has written everything.
+	 * @return whether a writer should be started
+	 */
+	public synchronized boolean startDrain() {
+		if(draining || closed || actions.isEmpty()) {
+			return false;
+		}
+		draining = true;
+		return true;
+	}
+	
+	/**
+	 * Releases the queue once the writer has found it empty. Returns false, keeping the queue claimed, 
+	 * if an action was queued since the writer last looked, in which case the writer should carry on.
+	 * @return whether the writer is done
+	 */
+	public synchronized boolean finishDrain() {
+		if(!actions.isEmpty() && !closed) {
+			return false;
+		}
+		draining = false;
+		return true;
+	}
+	
+	/**
+	 * Returns true if the oldest queued action has been waiting longer than our lag limit.
+	 * @return hasFallenBehind
+	 */
+	public synchronized boolean hasFallenBehind() {
+		QueuedAction oldest = actions.peek();
+		return oldest != null && (System.nanoTime() - oldest.queuedAt) > maxLagNanos;
+	}
+	
+	public synchronized boolean isEmpty() {
+		return actions.isEmpty();
+	}
+	
+	public synchronized int size() {
+		return actions.size();
+	}
+	
+	/**
+	 * Throws away any queued actions.
+	 */
+	public synchronized void close() {
+		closed = true;
+		actions.clear();
+	}
+	
+	public OutgoingQueueStats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * Returns true if a newer action of this type makes any queued one redundant.
+	 * PUSH_PLAYLIST_DELTA is never merged, each one builds on the last.
+	 * @param type
+	 * @return isMergeable
+	 */
+	private static boolean isMergeable(OutgoingActionType type) {
+		switch(type) {
+		case PUSH_PLAYLIST:
+		case PUSH_VOLUME:
+		case PUSH_SETTINGS:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * An OutgoingAction and the time at which it was first queued.
+	 */
+	private static class QueuedAction {
+		private OutgoingAction action;
+		private final long queuedAt;
+		
+		private QueuedAction(OutgoingAction action, long queuedAt) {
+			this.action = action;
+			this.queuedAt = queuedAt;
+		}
+	}
+}
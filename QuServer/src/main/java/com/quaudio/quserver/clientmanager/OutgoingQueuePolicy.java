@@ -0,0 +1,15 @@
+package com.quaudio.quserver.clientmanager;
+
+/**
+ * How a client's outgoing action queue behaves when the client is not keeping up.
+ * @author Nikolas Howard
+ *
+ */
+public enum OutgoingQueuePolicy {
+	// Queue every action, evicting the client if its queue fills up.
+	QUEUE_ALL,
+	// Replace any queued PUSH_PLAYLIST, PUSH_VOLUME or PUSH_SETTINGS with a newer one, evicting the client if its queue still fills up.
+	MERGE_LATEST,
+	// As MERGE_LATEST, but drop new actions while the queue is full, only evicting the client once it falls too far behind.
+	MERGE_AND_DROP
+}
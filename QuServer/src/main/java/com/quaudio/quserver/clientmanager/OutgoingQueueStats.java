@@ -0,0 +1,74 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how well a single client is keeping up with the actions we send it.
+ * @author Nikolas Howard
+ *
+ */
+public class OutgoingQueueStats {
+	// Actions that were accepted onto the queue.
+	private final AtomicLong queuedActions = new AtomicLong();
+	// Queued actions that were replaced by a newer action of the same type.
+	private final AtomicLong mergedActions = new AtomicLong();
+	// Actions that were thrown away because the queue was full.
+	private final AtomicLong droppedActions = new AtomicLong();
+	// Actions, and their bytes, that were handed to the client socket.
+	private final AtomicLong writtenActions = new AtomicLong();
+	private final AtomicLong writtenBytes = new AtomicLong();
+	// The deepest the queue has been.
+	private final AtomicLong peakDepth = new AtomicLong();
+	
+	void recordQueued(int depth) {
+		queuedActions.incrementAndGet();
+		// Update our peak, the writer may be updating other counters at the same time.
+		long currentPeak = peakDepth.get();
+		while(depth > currentPeak && !peakDepth.compareAndSet(currentPeak, depth)) {
+			currentPeak = peakDepth.get();
+		}
+	}
+	
+	void recordMerged() {
+		mergedActions.incrementAndGet();
+	}
+	
+	void recordDropped() {
+		droppedActions.incrementAndGet();
+	}
+	
+	void recordWritten(int bytes) {
+		writtenActions.incrementAndGet();
+		writtenBytes.addAndGet(bytes);
+	}
+	
+	public long getQueuedActions() {
+		return queuedActions.get();
+	}
+	
+	public long getMergedActions() {
+		return mergedActions.get();
+	}
+	
+	public long getDroppedActions() {
+		return droppedActions.get();
+	}
+	
+	public long getWrittenActions() {
+		return writtenActions.get();
+	}
+	
+	public long getWrittenBytes() {
+		return writtenBytes.get();
+	}
+	
+	public long getPeakDepth() {
+		return peakDepth.get();
+	}
+	
+	@Override
+	public String toString() {
+		return "queued=" + getQueuedActions() + " merged=" + getMergedActions() + " dropped=" + getDroppedActions() 
+				+ " written=" + getWrittenActions() + " bytes=" + getWrittenBytes() + " peak=" + getPeakDepth();
+	}
+}
@@ -1,6 +1,8 @@
 package com.quaudio.quserver.filetransfer;
 
+import com.quaudio.quserver.media.AudioAnalysis;
 import com.quaudio.quserver.media.FileFormat;
+import com.quaudio.quserver.media.SeekIndex;
 
 /**
  * Nikolas Howard
@@ -14,6 +16,12 @@ public class AudioFile {
 	private String artist;
 	private String name;
 	private FileFormat fileFormat;
+	// The hex SHA-256 of the file, null if the client didn't send one.
+	private String contentHash;
+	// Where decoding can start from when seeking, built by the PlaybackEngine when the file is uploaded.
+	private volatile SeekIndex seekIndex;
+	// What the AudioAnalyser found out about the file, null until it has been analysed.
+	private volatile AudioAnalysis analysis;
 	
 	public String getId() {
 		return id;
@@ -57,4 +65,22 @@ public class AudioFile {
 	public void setFileFormat(FileFormat fileFormat) {
 		this.fileFormat = fileFormat;
 	}
+	public String getContentHash() {
+		return contentHash;
+	}
+	public void setContentHash(String contentHash) {
+		this.contentHash = contentHash;
+	}
+	public SeekIndex getSeekIndex() {
+		return seekIndex;
+	}
+	public void setSeekIndex(SeekIndex seekIndex) {
+		this.seekIndex = seekIndex;
+	}
+	public AudioAnalysis getAnalysis() {
+		return analysis;
+	}
+	public void setAnalysis(AudioAnalysis analysis) {
+		this.analysis = analysis;
+	}
 }
@@ -1,10 +1,18 @@
 package com.quaudio.quserver.filetransfer;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
+import com.quaudio.quserver.media.AudioAnalyser;
+import com.quaudio.quserver.media.PlaybackEngine;
 import com.quaudio.quserver.server.Log;
+import com.quaudio.quserver.server.Server;
+import com.quaudio.quserver.server.ServerEventQueue;
+import com.quaudio.quserver.server.ServerEventType;
+import com.quaudio.quserver.server.TaskExecutor;
 
 /**
  * 
@@ -12,12 +20,43 @@ import com.quaudio.quserver.server.Log;
  *
  */
 public class AudioFileReceiver implements Runnable {
-	private ServerSocket audioFileReceiverServerSocket = null;
-	private LinkedList<AudioFile> pendingUploadedAudioFiles = new LinkedList<AudioFile>();
+	// The default number of bytes moved from an upload socket to disk in one go.
+	public static final int DEFAULT_UPLOAD_BUFFER_SIZE = 256 * 1024;
+	private ServerSocketChannel audioFileReceiverServerChannel = null;
+	private LinkedList<PendingUpload> pendingUploads = new LinkedList<PendingUpload>();
+	private int uploadBufferSize = DEFAULT_UPLOAD_BUFFER_SIZE;
+	private UploadScheduler uploadScheduler;
+	private ContentStore contentStore = null;
+	private BandwidthShaper bandwidthShaper;
+	private AudioAnalyser audioAnalyser;
 	
 	public AudioFileReceiver(int port) {	
+		int uploadWorkers = UploadScheduler.DEFAULT_WORKERS;
+		int uploadQueueSize = UploadScheduler.DEFAULT_QUEUE_SIZE;
+		int uploadClientLimit = UploadScheduler.DEFAULT_CLIENT_LIMIT;
+		long uploadRateLimit = BandwidthShaper.DEFAULT_RATE_LIMIT;
+		long uploadClientRateLimit = BandwidthShaper.DEFAULT_CLIENT_RATE_LIMIT;
+		long uploadLatencyTarget = BandwidthShaper.DEFAULT_LATENCY_TARGET_MS;
+		int analysisWorkers = AudioAnalyser.DEFAULT_WORKERS;
+		int analysisQueueSize = AudioAnalyser.DEFAULT_QUEUE_SIZE;
+		// Properties may not be initialised if we are running in the context of a unit/integration test.
+		if(Server.properties != null) {
+			uploadBufferSize = Server.properties.getUploadBufferSize();
+			uploadWorkers = Server.properties.getUploadWorkers();
+			uploadQueueSize = Server.properties.getUploadQueueSize();
+			uploadClientLimit = Server.properties.getUploadClientLimit();
+			uploadRateLimit = Server.properties.getUploadRateLimit();
+			uploadClientRateLimit = Server.properties.getUploadClientRateLimit();
+			uploadLatencyTarget = Server.properties.getUploadLatencyTarget();
+			analysisWorkers = Server.properties.getAnalysisWorkers();
+			analysisQueueSize = Server.properties.getAnalysisQueueSize();
+		}
+		bandwidthShaper = new BandwidthShaper(uploadRateLimit, uploadClientRateLimit, uploadLatencyTarget);
+		uploadScheduler = new UploadScheduler(uploadWorkers, uploadQueueSize, uploadClientLimit, bandwidthShaper);
+		audioAnalyser = new AudioAnalyser(analysisWorkers, analysisQueueSize);
 		try {
-			audioFileReceiverServerSocket = new ServerSocket(port);
+			audioFileReceiverServerChannel = ServerSocketChannel.open();
+			audioFileReceiverServerChannel.socket().bind(new InetSocketAddress(port));
 		} catch (IOException e) {
 			// If this fails they quit the app.
 			Log.log(Log.MessageType.CRITICAL, "AUDIO_FILE_RECEIVER", "failed to initialise AudioFileReceiver server socket");
@@ -31,6 +70,8 @@ public class AudioFileReceiver implements Runnable {
 		Thread audioFileReceiverThread = new Thread(this);
 		audioFileReceiverThread.setDaemon(true);
 		audioFileReceiverThread.start();
+		// Keep uploads from crowding out actions.
+		bandwidthShaper.start();
 	}
 
 	@Override
@@ -38,9 +79,9 @@ public class AudioFileReceiver implements Runnable {
 		// Forever listen for and handle incoming uploads
 		while(true) {
 			boolean gotSocket = true;
-			Socket senderSocket = null;
+			SocketChannel senderChannel = null;
 			try {
-				senderSocket = audioFileReceiverServerSocket.accept();
+				senderChannel = audioFileReceiverServerChannel.accept();
 			} catch (IOException e) {
 				// If we get an IOException here then just log it as an unsuccesful connection.
 				gotSocket = false;
@@ -49,32 +90,68 @@ public class AudioFileReceiver implements Runnable {
 			// Only continue if we successfully grabbed a Socket.
 			if(gotSocket) {
 				Log.log(Log.MessageType.INFO, "AUDIO_FILE_RECEIVER", "established connection with client at '" 
-						+ senderSocket.getRemoteSocketAddress().toString() + "'");
-				// Handling of individual upload requests are intensive and must happed on independent thread.
-				Thread dataTransferThread = new Thread(new DataTransfer(senderSocket, this));
-				dataTransferThread.setDaemon(true);
-				dataTransferThread.start();
+						+ senderChannel.socket().getRemoteSocketAddress().toString() + "'");
+				// Reading the upload info happens on its own thread, the upload itself is then run by the UploadScheduler.
+				try {
+					TaskExecutor.getTaskExecutor().execute(new DataTransfer(senderChannel, this, uploadBufferSize));
+				} catch (RejectedExecutionException e) {
+					// There are no threads left to handle this upload with, drop it.
+					Log.log(Log.MessageType.WARNING, "AUDIO_FILE_RECEIVER", "no thread available for upload, dropping connection");
+					try {
+						senderChannel.close();
+					} catch (IOException closeException) {}
+				}
 			}
 		}
 	}
 	
+	public UploadScheduler getUploadScheduler() {
+		return uploadScheduler;
+	}
+	
+	public BandwidthShaper getBandwidthShaper() {
+		return bandwidthShaper;
+	}
+	
+	public AudioAnalyser getAudioAnalyser() {
+		return audioAnalyser;
+	}
+	
+	public synchronized ContentStore getContentStore() {
+		// Created on first use as the upload directory comes from the properties.
+		if(contentStore == null) {
+			contentStore = new ContentStore(Server.properties.getUploadDirectory());
+		}
+		return contentStore;
+	}
+	
 	public void addAudioFile(AudioFile audioFile) {
-		Log.log(Log.MessageType.INFO, "AUDIO_FILE_RECEIVER", "adding '" + audioFile.getName() + "'");
-		synchronized(pendingUploadedAudioFiles) {
-			pendingUploadedAudioFiles.add(audioFile);
+		addAudioFile(audioFile, audioFile);
+	}
+	
+	/**
+	 * Adds a stored AudioFile to the playlist for an upload, which may be a different upload of the same content.
+	 * The track is given the id and owner of the upload, so the same content can be in the playlist more than once.
+	 * @param storedAudioFile
+	 * @param uploadedAudioFile
+	 */
+	public void addAudioFile(AudioFile storedAudioFile, AudioFile uploadedAudioFile) {
+		Log.log(Log.MessageType.INFO, "AUDIO_FILE_RECEIVER", "adding '" + storedAudioFile.getName() + "'");
+		// Index the file while we are still on the upload worker, so seeking in it never has to.
+		PlaybackEngine.getPlaybackEngine().getSeekIndex(storedAudioFile);
+		// The track goes into the playlist now, what the analysis finds out about it follows later.
+		audioAnalyser.analyse(storedAudioFile);
+		synchronized(pendingUploads) {
+			pendingUploads.add(new PendingUpload(storedAudioFile, uploadedAudioFile.getId(), uploadedAudioFile.getOwnerId()));
 		}
+		// Wake the server loop so that the file is added to the playlist straight away.
+		ServerEventQueue.getEventQueue().post(ServerEventType.UPLOAD_COMPLETE);
 	}
 	
-	public AudioFile getNextUpload() {
-		AudioFile audioFile = null;
-		synchronized(pendingUploadedAudioFiles) {
-			// Only continue if we have at least one finished upload.
-			if(pendingUploadedAudioFiles.size() > 0) {
-				audioFile = pendingUploadedAudioFiles.iterator().next();
-			}
-			// Remove this AudioFile from the list.
-			pendingUploadedAudioFiles.remove(audioFile);
+	public PendingUpload getNextUpload() {
+		synchronized(pendingUploads) {
+			// Null if there are no finished uploads.
+			return pendingUploads.poll();
 		}
-		return audioFile;
 	}
 }
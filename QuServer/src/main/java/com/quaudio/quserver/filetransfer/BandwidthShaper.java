@@ -0,0 +1,136 @@
+package com.quaudio.quserver.filetransfer;
+
+import java.util.HashMap;
+import com.quaudio.quserver.clientmanager.ActionLatencyMonitor;
+import com.quaudio.quserver.server.Log;
+
+/**
+ * Shares out the bandwidth available for uploads. There is a budget for all uploads and a budget for each client, 
+ * and the overall budget is adjusted to keep actions moving quickly: whenever action latency goes over its target 
+ * the budget is halved, and while it stays under it the budget creeps back up towards the configured limit.
+ * @author Nikolas Howard
+ *
+ */
+public class BandwidthShaper {
+	// The default limits in bytes per second and the default action latency we try to stay under.
+	public static final long DEFAULT_RATE_LIMIT = 4 * 1024 * 1024;
+	public static final long DEFAULT_CLIENT_RATE_LIMIT = 2 * 1024 * 1024;
+	public static final long DEFAULT_LATENCY_TARGET_MS = 150;
+	// We never throttle uploads below this, they still need to finish eventually.
+	private static final long MIN_RATE = 64 * 1024;
+	// How often the overall budget is adjusted.
+	private static final long ADJUST_INTERVAL_MS = 500;
+	// The budget is increased by this fraction of the limit each time latency is fine.
+	private static final double INCREASE_FRACTION = 0.05;
+	private final long rateLimit;
+	private final long clientRateLimit;
+	private final long latencyTargetMillis;
+	private final TokenBucket globalBucket;
+	private final HashMap<String, TokenBucket> clientBuckets = new HashMap<String, TokenBucket>();
+	
+	/**
+	 * @param rateLimit the most bytes per second for all uploads, zero or less for no limit
+	 * @param clientRateLimit the most bytes per second for each client, zero or less for no limit
+	 * @param latencyTargetMillis the action latency we try to stay under, zero or less to turn off adjustment
+	 */
+	public BandwidthShaper(long rateLimit, long clientRateLimit, long latencyTargetMillis) {
+		this.rateLimit = rateLimit;
+		this.clientRateLimit = clientRateLimit;
+		this.latencyTargetMillis = latencyTargetMillis;
+		this.globalBucket = new TokenBucket(rateLimit, null);
+	}
+	
+	/**
+	 * Starts adjusting the overall budget on its own thread.
+	 */
+	public void start() {
+		// Without a limit to work down from or a target to aim for there is nothing to adjust.
+		if(rateLimit <= 0 || latencyTargetMillis <= 0) {
+			return;
+		}
+		Thread shaperThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(true) {
+					try {
+						Thread.sleep(ADJUST_INTERVAL_MS);
+					} catch (InterruptedException e) {
+						return;
+					}
+					adjust(ActionLatencyMonitor.getActionLatencyMonitor().getLatencyMillis());
+				}
+			}
+		});
+		shaperThread.setDaemon(true);
+		shaperThread.start();
+	}
+	
+	/**
+	 * Gets the bucket that a client's uploads take their tokens from, it takes from the overall bucket too.
+	 * @param clientId
+	 * @return client bucket
+	 */
+	public TokenBucket getClientBucket(String clientId) {
+		synchronized(clientBuckets) {
+			TokenBucket clientBucket = clientBuckets.get(clientId);
+			if(clientBucket == null) {
+				clientBucket = new TokenBucket(clientRateLimit, globalBucket);
+				clientBuckets.put(clientId, clientBucket);
+			}
+			return clientBucket;
+		}
+	}
+	
+	/**
+	 * Forgets a client's bucket, called once the client has no uploads left so that we don't keep one for every client ever seen.
+	 * @param clientId
+	 */
+	public void removeClientBucket(String clientId) {
+		synchronized(clientBuckets) {
+			clientBuckets.remove(clientId);
+		}
+	}
+	
+	/**
+	 * Get the number of clients that have a bucket.
+	 * @return client bucket count
+	 */
+	int getClientBucketCount() {
+		synchronized(clientBuckets) {
+			return clientBuckets.size();
+		}
+	}
+	
+	/**
+	 * Adjusts the overall budget based on the current action latency.
+	 * @param latencyMillis
+	 */
+	void adjust(double latencyMillis) {
+		long currentRate = globalBucket.getRate();
+		long newRate;
+		if(latencyMillis > latencyTargetMillis) {
+			// Back off hard so that actions get through.
+			newRate = Math.max(MIN_RATE, currentRate / 2);
+		} else {
+			// Things are fine, give uploads a bit more.
+			newRate = Math.min(rateLimit, currentRate + (long) (rateLimit * INCREASE_FRACTION));
+		}
+		if(newRate != currentRate) {
+			if(newRate < currentRate) {
+				if(Log.isEnabled(Log.MessageType.INFO)) {
+					Log.log(Log.MessageType.INFO, "BANDWIDTH_SHAPER", "action latency " + String.format("%.0f", latencyMillis) 
+							+ "ms, upload budget cut to " + (newRate / 1024) + "KB/s");
+				}
+			}
+			globalBucket.setRate(newRate);
+		}
+	}
+	
+	/**
+	 * Get the current budget for all uploads.
+	 * @return bytes per second
+	 */
+	public long getRate() {
+		return globalBucket.getRate();
+	}
+}
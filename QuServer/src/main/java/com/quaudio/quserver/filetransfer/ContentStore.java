@@ -0,0 +1,117 @@
+package com.quaudio.quserver.filetransfer;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Stores uploads in the upload directory by the SHA-256 of their content, so that a file uploaded by several
+ * clients is only stored once and the AudioFile created for the first upload is reused for the rest.
+ * A file being received is named '<hash>.part' and is renamed to '<hash>' once it is complete and verified, 
+ * which lets an interrupted upload carry on from where it stopped.
+ * @author Nikolas Howard
+ *
+ */
+public class ContentStore {
+	public static final String PART_FILE_EXTENSION = ".part";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private final String directory;
+	// The AudioFile for each complete file we have stored, by content hash.
+	private final HashMap<String, AudioFile> storedAudioFiles = new HashMap<String, AudioFile>();
+	// The content hashes currently being received, only one upload of any content may run at a time.
+	private final HashSet<String> receiving = new HashSet<String>();
+	
+	public ContentStore(String directory) {
+		this.directory = directory;
+	}
+	
+	/**
+	 * Gets the AudioFile of a complete file with the given content hash, or null if we don't have one.
+	 * A complete file that is on disk from before a restart is adopted using the given AudioFile.
+	 * @param contentHash
+	 * @param uploadedAudioFile the AudioFile describing the upload we are checking for
+	 * @return stored AudioFile or null
+	 */
+	public synchronized AudioFile getStoredAudioFile(String contentHash, AudioFile uploadedAudioFile) {
+		AudioFile storedAudioFile = storedAudioFiles.get(contentHash);
+		if(storedAudioFile == null && getStoredFile(contentHash).isFile()) {
+			uploadedAudioFile.setPath(getStoredFile(contentHash).getPath());
+			storedAudioFiles.put(contentHash, uploadedAudioFile);
+			storedAudioFile = uploadedAudioFile;
+		}
+		return storedAudioFile;
+	}
+	
+	/**
+	 * Claims the right to receive the content with the given hash, returns false if it is already being received.
+	 * @param contentHash
+	 * @return whether the claim was successful
+	 */
+	public synchronized boolean claim(String contentHash) {
+		return receiving.add(contentHash);
+	}
+	
+	/**
+	 * Releases a claim made with claim().
+	 * @param contentHash
+	 */
+	public synchronized void release(String contentHash) {
+		receiving.remove(contentHash);
+	}
+	
+	/**
+	 * Moves a verified part file into place and records its AudioFile.
+	 * @param audioFile
+	 * @return the stored AudioFile
+	 */
+	public synchronized AudioFile store(AudioFile audioFile) {
+		String contentHash = audioFile.getContentHash();
+		File storedFile = getStoredFile(contentHash);
+		if(!getPartFile(contentHash).renameTo(storedFile)) {
+			throw new RuntimeException("failed to move '" + contentHash + PART_FILE_EXTENSION + "' into place");
+		}
+		audioFile.setPath(storedFile.getPath());
+		storedAudioFiles.put(contentHash, audioFile);
+		return audioFile;
+	}
+	
+	public File getPartFile(String contentHash) {
+		return new File(directory, contentHash + PART_FILE_EXTENSION);
+	}
+	
+	public File getStoredFile(String contentHash) {
+		return new File(directory, contentHash);
+	}
+	
+	/**
+	 * Checks that a content hash sent by a client is a hex SHA-256, anything else could be used to escape the upload directory.
+	 * @param contentHash
+	 * @return whether the hash is valid
+	 */
+	public static boolean isValidHash(String contentHash) {
+		if(contentHash == null || contentHash.length() != 64) {
+			return false;
+		}
+		for(int i = 0; i < contentHash.length(); i++) {
+			char c = contentHash.charAt(i);
+			if(!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Converts a digest to lower case hex, as used for content hashes.
+	 * @param digest
+	 * @return hex string
+	 */
+	public static String toHex(byte[] digest) {
+		char[] hex = new char[digest.length * 2];
+		for(int i = 0; i < digest.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+			hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+		}
+		return new String(hex);
+	}
+}
@@ -1,120 +1,462 @@
 package com.quaudio.quserver.filetransfer;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.Socket;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.UUID;
+import org.json.JSONException;
 import org.json.JSONObject;
+import com.quaudio.quserver.clientmanager.IdInterner;
 import com.quaudio.quserver.media.FileFormat;
 import com.quaudio.quserver.server.Log;
 import com.quaudio.quserver.server.Server;
 
 /**
- * 
+ * Receives a single upload: a line of audio file info JSON followed by the file itself.
+ * The file is moved from the socket to disk with FileChannel.transferFrom, so the bytes never pass through our own buffers.
+ * Once the info has been read the upload is handed to the UploadScheduler, the client is sent a line of status JSON
+ * telling it either that we are ready for the file or that we are busy and when to try again.
+ * Clients that send a content hash upload the file in verified chunks that can be resumed, and don't upload it at all
+ * if the ContentStore already has it.
  * @author Nikolas Howard
  *
  */
 public class DataTransfer implements Runnable{
-	private Socket senderSocket = null;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// The longest audio file info JSON we will accept.
+	private static final int MAX_INFO_JSON_LENGTH = 64 * 1024;
+	// The length of the SHA-256 sent after each chunk.
+	private static final int CHUNK_HASH_LENGTH = 32;
+	// The largest chunk a client may send. This is part of the upload protocol, the QuClient's chunk size must not be 
+	// bigger, so unlike the buffer size it is not something the server can be configured with.
+	public static final int MAX_CHUNK_SIZE = 64 * 1024;
+	private SocketChannel senderChannel = null;
 	private AudioFileReceiver audioFileReceiver = null;
-	
-	public DataTransfer(Socket senderSocket, AudioFileReceiver receiver) {
-		this.senderSocket = senderSocket;
+	// The most bytes moved from the socket to disk in one go.
+	private int bufferSize;
+	// What we learned from the audio file info JSON, kept for the upload worker.
+	private AudioFile audioFile = null;
+	private ByteBuffer headerBuffer = null;
+	private long announcedLength = -1;
+
+	public DataTransfer(SocketChannel senderChannel, AudioFileReceiver receiver, int bufferSize) {
+		this.senderChannel = senderChannel;
 		this.audioFileReceiver = receiver;
+		this.bufferSize = bufferSize;
 	}
 
 	@Override
 	public void run() {
 		Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "starting...");
-		// Firstly, the client will be sending us a JSON object (as a string) containing the audio file information
-		BufferedReader audioFileInfoReader = null;
-		boolean gotFileInfo = true;
+		boolean scheduled = false;
 		try {
-			audioFileInfoReader = new BufferedReader(new InputStreamReader(senderSocket.getInputStream()));
-		} catch (IOException e) {
-			// We failed in creating a reader, don't continue
-			gotFileInfo = false;
-			e.printStackTrace();
-		}
-		
-		// Check we actually got the JSON without error.
-		if(gotFileInfo) {
-			try {
-				// Read the JSON.
-				Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "reading audio file info JSON from input stream...");
-				String rawAudiofileJSON = audioFileInfoReader.readLine();
-				JSONObject audioFileInfoJSON = new JSONObject(rawAudiofileJSON);
-				String uploadDirectory = Server.properties.getUploadDirectory();
-				
-				// Initialise a new AudioFile object and populate it using the received JSON.
-				AudioFile audioFile = new AudioFile();
-				audioFile.setOwnerId(audioFileInfoJSON.getString("client_id"));
-				audioFile.setName(audioFileInfoJSON.getString("name"));
-				audioFile.setArtist(audioFileInfoJSON.getString("artist"));
-				audioFile.setAlbum(audioFileInfoJSON.getString("album"));
-				audioFile.setFileFormat(FileFormat.valueOf(audioFileInfoJSON.getString("format")));
-				audioFile.setId(UUID.randomUUID().toString());
-				audioFile.setPath(uploadDirectory + "/" + audioFile.getId());
-				
-				Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "created AudioFile object...");
-				
-				// Create physical file in the uploads directory
-				File physicalAudioFile = new File(audioFile.getPath());
-				// Attempt to create the file on the FileSystem.
-				if(!physicalAudioFile.createNewFile()) {
-					// We failed in creating the file, throw an exception.
-					throw new RuntimeException("failed to create file '" + audioFile.getId() + "' in directory '" + uploadDirectory + "'");
+			// Firstly, the client will be sending us a JSON object (as a string) containing the audio file information.
+			// Anything that arrived after the JSON line is the start of the file and is left in headerBuffer.
+			Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "reading audio file info JSON from channel...");
+			headerBuffer = ByteBuffer.allocate(Math.min(bufferSize, MAX_INFO_JSON_LENGTH));
+			String rawAudiofileJSON = readInfoLine(senderChannel, headerBuffer);
+			JSONObject audioFileInfoJSON = new JSONObject(rawAudiofileJSON);
+			String uploadDirectory = Server.properties.getUploadDirectory();
+
+			// Initialise a new AudioFile object and populate it using the received JSON.
+			audioFile = new AudioFile();
+			audioFile.setOwnerId(audioFileInfoJSON.getString("client_id"));
+			audioFile.setName(audioFileInfoJSON.getString("name"));
+			audioFile.setArtist(audioFileInfoJSON.getString("artist"));
+			audioFile.setAlbum(audioFileInfoJSON.getString("album"));
+			audioFile.setFileFormat(FileFormat.valueOf(audioFileInfoJSON.getString("format")));
+			// Interned, so that actions naming this track will usually share the very same id.
+			audioFile.setId(IdInterner.getIdInterner().intern(UUID.randomUUID().toString()));
+			audioFile.setPath(uploadDirectory + "/" + audioFile.getId());
+			// Newer clients tell us how big the file is, -1 if we don't know.
+			announcedLength = audioFileInfoJSON.optLong("file_length", -1);
+			// Clients that send the hash of the file upload it in verified chunks, older clients send it in one go.
+			String contentHash = audioFileInfoJSON.optString("content_hash", null);
+			if(contentHash != null) {
+				if(!ContentStore.isValidHash(contentHash)) {
+					throw new JSONException("invalid content hash");
 				}
-				
-				Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "created file '" + audioFile.getId() + "' in directory '" + uploadDirectory + "'");
-				
-				// Create FileOutputStream for writing to our file
-				FileOutputStream fos = new FileOutputStream(physicalAudioFile);
-				InputStream inputStream = null;
-				byte[] bytes = new byte[1024];
-				boolean uploadComplete = false;
-				int count;
-				
-		        try {
-					// Get the sockets InputStream
-					inputStream = senderSocket.getInputStream();
-					// Read bytes from stream and write them to disk.
-				 	try {
-				 		Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "reading audio file from socket and writing to file...");
-						while ((count = inputStream.read(bytes)) > 0) {
-							fos.write(bytes, 0, count);
-						}
-						Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "upload complete!");
-						uploadComplete = true;
-					} catch (IOException e) {
-						// The possibility of getting an IOException here is very high.
-						// Users can potentially cancel an upload or disconnect from the network/device. 
-						Log.log(Log.MessageType.WARNING, "DATA_TRANSFER", "upload failed!");
-					} finally {
-						fos.close();
+				audioFile.setContentHash(contentHash);
+			}
+
+			Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "created AudioFile object...");
+
+			// If we already have this file then there is nothing to upload, reuse the AudioFile we already have.
+			if(contentHash != null && sendIfDuplicate()) {
+				return;
+			}
+
+			// Wait for a free upload worker, unless the client already has enough uploads on the go or the queue is full.
+			UploadScheduler uploadScheduler = audioFileReceiver.getUploadScheduler();
+			scheduled = uploadScheduler.schedule(audioFile.getOwnerId(), new Runnable() {
+				@Override
+				public void run() {
+					if(audioFile.getContentHash() != null) {
+						receiveChunkedFile();
+					} else {
+						receiveFile();
 					}
-				} catch (IOException e) {
-					Log.log(Log.MessageType.WARNING, "DATA_TRANSFER", "failed to get socket inputstream");
 				}
-		        // If the upload has completed then we are done, if it wasn't for some reason then do nothing.
-		        if(uploadComplete) {
-		        	// --------------------------------------------------
-					// TODO Extend by getting and comparing file checksum.
-					// --------------------------------------------------
-					// The upload is complete, add the AudioFile object to the list of pending files for processing.
-					audioFileReceiver.addAudioFile(audioFile);
-		        }
+			});
+			if(!scheduled) {
+				long retryAfter = uploadScheduler.getRetryAfterMillis();
+				Log.log(Log.MessageType.WARNING, "DATA_TRANSFER", "upload scheduler busy, telling client '" 
+						+ audioFile.getOwnerId() + "' to retry after " + retryAfter + "ms");
+				sendStatus(new JSONObject().put("status", "BUSY").put("retry_after", retryAfter));
+			}
+		} catch (JSONException e) {
+			// The client sent us info we can't use.
+			Log.log(Log.MessageType.ERROR, "DATA_TRANSFER", "invalid audio file info JSON");
+		} catch (IOException e) {
+			// We had a networking issue while fetching our JSON.
+			Log.log(Log.MessageType.ERROR, "DATA_TRANSFER", "failed to get audio file info JSON");
+		} finally {
+			// A scheduled upload closes the channel itself once a worker has received it.
+			if(!scheduled) {
+				try {
+					senderChannel.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Receives the file itself, this is run by an upload worker once the upload has been scheduled.
+	 */
+	private void receiveFile() {
+		try {
+			// Let the client know that we are ready for the file.
+			sendStatus(new JSONObject().put("status", "ACCEPTED"));
+			String uploadDirectory = Server.properties.getUploadDirectory();
+
+			// Create physical file in the uploads directory
+			File physicalAudioFile = new File(audioFile.getPath());
+			// Attempt to create the file on the FileSystem.
+			if(!physicalAudioFile.createNewFile()) {
+				// We failed in creating the file, throw an exception.
+				throw new RuntimeException("failed to create file '" + audioFile.getId() + "' in directory '" + uploadDirectory + "'");
+			}
+
+			Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "created file '" + audioFile.getId() + "' in directory '" + uploadDirectory + "'");
+
+			boolean uploadComplete = false;
+			RandomAccessFile audioFileWriter = new RandomAccessFile(physicalAudioFile, "rw");
+			try {
+				Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "transferring audio file from socket to file...");
+				transferToFile(senderChannel, headerBuffer, audioFileWriter, announcedLength, bufferSize, getBucket());
+				Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "upload complete!");
+				uploadComplete = true;
 			} catch (IOException e) {
-				// We had a networking issue while fetching our JSON.
-				Log.log(Log.MessageType.ERROR, "DATA_TRANSFER", "failed to get audio file info JSON");
-			} catch (RuntimeException e) {
-				// Most likely an issue with creating the file on disk.
-				Log.log(Log.MessageType.ERROR, "DATA_TRANSFER", e.getMessage());
+				// The possibility of getting an IOException here is very high.
+				// Users can potentially cancel an upload or disconnect from the network/device.
+				Log.log(Log.MessageType.WARNING, "DATA_TRANSFER", "upload failed!");
+			} finally {
+				audioFileWriter.close();
+			}
+	        // If the upload has completed then we are done, if it wasn't then tidy up the partial file.
+	        if(uploadComplete) {
+	        	// --------------------------------------------------
+				// TODO Extend by getting and comparing file checksum.
+				// --------------------------------------------------
+				// The upload is complete, add the AudioFile object to the list of pending files for processing.
+				audioFileReceiver.addAudioFile(audioFile);
+	        } else {
+	        	physicalAudioFile.delete();
+	        }
+		} catch (IOException e) {
+			// The client went away before we could tell it to start or we couldn't create the file.
+			Log.log(Log.MessageType.ERROR, "DATA_TRANSFER", "failed to receive audio file");
+		} catch (RuntimeException e) {
+			// Most likely an issue with creating the file on disk.
+			Log.log(Log.MessageType.ERROR, "DATA_TRANSFER", e.getMessage());
+		} finally {
+			try {
+				senderChannel.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Receives a file as a series of verified chunks, this is run by an upload worker once the upload has been scheduled.
+	 * The file is received into a part file named after its content hash, if the client has already sent us some of 
+	 * it then we tell the client where to carry on from. The part file is only moved into the ContentStore once the 
+	 * hash of the whole file matches.
+	 */
+	private void receiveChunkedFile() {
+		String contentHash = audioFile.getContentHash();
+		ContentStore contentStore = audioFileReceiver.getContentStore();
+		boolean claimed = false;
+		RandomAccessFile partFileWriter = null;
+		try {
+			// Another client may be sending us the same file right now, let them finish and check back later.
+			claimed = contentStore.claim(contentHash);
+			if(!claimed) {
+				sendStatus(new JSONObject().put("status", "BUSY").put("retry_after", audioFileReceiver.getUploadScheduler().getRetryAfterMillis()));
+				return;
+			}
+			// The same file may have been completed while we were waiting for a worker.
+			if(sendIfDuplicate()) {
+				return;
+			}
+			File partFile = contentStore.getPartFile(contentHash);
+			partFileWriter = new RandomAccessFile(partFile, "rw");
+			long offset = partFileWriter.length();
+			if(announcedLength >= 0 && offset > announcedLength) {
+				// This can't be what we have been sent before, start again.
+				partFileWriter.setLength(0);
+				offset = 0;
+			}
+			// The hash of the whole file has to include whatever we received last time.
+			MessageDigest fileDigest = createDigest();
+			updateDigest(fileDigest, partFileWriter.getChannel(), offset, bufferSize);
+			Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "receiving '" + contentHash + "' in chunks from offset " + offset);
+			sendStatus(new JSONObject().put("status", "ACCEPTED").put("offset", offset));
+			long fileLength = receiveChunks(senderChannel, headerBuffer, partFileWriter.getChannel(), offset, fileDigest, MAX_CHUNK_SIZE, getBucket());
+			partFileWriter.close();
+			partFileWriter = null;
+			if((announcedLength >= 0 && fileLength != announcedLength) || !contentHash.equals(ContentStore.toHex(fileDigest.digest()))) {
+				// Every chunk was fine but the file as a whole is not what we were promised, it can't be resumed either.
+				Log.log(Log.MessageType.WARNING, "DATA_TRANSFER", "upload of '" + contentHash + "' does not match its content hash");
+				partFile.delete();
+				sendStatus(new JSONObject().put("status", "FAILED"));
+				return;
+			}
+			AudioFile storedAudioFile = contentStore.store(audioFile);
+			Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "upload complete!");
+			sendStatus(new JSONObject().put("status", "COMPLETE"));
+			audioFileReceiver.addAudioFile(storedAudioFile);
+		} catch (IOException e) {
+			// The client went away or sent us a bad chunk, keep what we have so that it can carry on later.
+			Log.log(Log.MessageType.WARNING, "DATA_TRANSFER", "upload of '" + contentHash + "' interrupted, it can be resumed");
+		} catch (RuntimeException e) {
+			// Most likely an issue with the file on disk.
+			Log.log(Log.MessageType.ERROR, "DATA_TRANSFER", e.getMessage());
+		} finally {
+			if(partFileWriter != null) {
+				try {
+					partFileWriter.close();
+				} catch (IOException e) {}
+			}
+			if(claimed) {
+				contentStore.release(contentHash);
+			}
+			try {
+				senderChannel.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * If the file being uploaded is already in the ContentStore then tell the client and add the stored AudioFile.
+	 * @return whether the file was a duplicate
+	 * @throws IOException
+	 */
+	private boolean sendIfDuplicate() throws IOException {
+		AudioFile storedAudioFile = audioFileReceiver.getContentStore().getStoredAudioFile(audioFile.getContentHash(), audioFile);
+		if(storedAudioFile == null) {
+			return false;
+		}
+		Log.log(Log.MessageType.INFO, "DATA_TRANSFER", "already have '" + audioFile.getContentHash() + "', skipping upload");
+		sendStatus(new JSONObject().put("status", "DUPLICATE"));
+		// The content is shared, the track is still this client's upload.
+		audioFileReceiver.addAudioFile(storedAudioFile, audioFile);
+		return true;
+	}
+
+	/**
+	 * Gets the bucket that limits how fast we receive from this client.
+	 * @return bucket
+	 */
+	private TokenBucket getBucket() {
+		return audioFileReceiver.getBandwidthShaper().getClientBucket(audioFile.getOwnerId());
+	}
+
+	/**
+	 * Writes a line of status JSON back to the client.
+	 * @param status
+	 * @throws IOException
+	 */
+	private void sendStatus(JSONObject status) throws IOException {
+		ByteBuffer statusBuffer = ByteBuffer.wrap((status.toString() + "\n").getBytes(UTF8));
+		while(statusBuffer.hasRemaining()) {
+			senderChannel.write(statusBuffer);
+		}
+	}
+
+	/**
+	 * Reads the newline terminated audio file info line from the channel.
+	 * The buffer is left holding (between position and limit) any bytes read after the line.
+	 * @param channel
+	 * @param buffer
+	 * @return info line
+	 * @throws IOException
+	 */
+	public static String readInfoLine(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		int scanned = 0;
+		while(true) {
+			// Look for the end of the line in anything we have not checked yet.
+			for(; scanned < buffer.position(); scanned++) {
+				if(buffer.get(scanned) == '\n') {
+					String line = new String(buffer.array(), 0, scanned, UTF8);
+					// Leave only what came after the line.
+					buffer.limit(buffer.position());
+					buffer.position(scanned + 1);
+					return line;
+				}
+			}
+			if(!buffer.hasRemaining()) {
+				throw new IOException("audio file info JSON is too long");
+			}
+			if(channel.read(buffer) == -1) {
+				throw new IOException("client disconnected before sending audio file info JSON");
+			}
+		}
+	}
+
+	/**
+	 * Moves the rest of an upload from the channel to the file, returning the number of bytes written.
+	 * Any bytes already read from the channel are taken from alreadyRead first. If the length of the file has been
+	 * announced the file is grown to that length up front and the transfer fails if fewer bytes arrive, otherwise
+	 * the transfer runs until the sender closes the connection.
+	 * @param source
+	 * @param alreadyRead
+	 * @param target
+	 * @param announcedLength the announced file length, or -1 if not known
+	 * @param chunkSize the most bytes to transfer in one go
+	 * @param bucket limits how fast we read from the channel, null for no limit
+	 * @return bytes written
+	 * @throws IOException
+	 */
+	public static long transferToFile(ReadableByteChannel source, ByteBuffer alreadyRead, RandomAccessFile target,
+			long announcedLength, int chunkSize, TokenBucket bucket) throws IOException {
+		FileChannel fileChannel = target.getChannel();
+		if(announcedLength > 0) {
+			// Set the final size now rather than letting the file grow a chunk at a time.
+			target.setLength(announcedLength);
+		}
+		long position = 0;
+		while(alreadyRead.hasRemaining()) {
+			position += fileChannel.write(alreadyRead, position);
+		}
+		while(announcedLength < 0 || position < announcedLength) {
+			long chunk = announcedLength < 0 ? chunkSize : Math.min(chunkSize, announcedLength - position);
+			if(bucket != null) {
+				// Wait for our share of the bandwidth, this may be less than a whole chunk.
+				chunk = bucket.acquire(chunk);
+			}
+			// A blocking source only gives us nothing once the sender has finished.
+			long transferred = fileChannel.transferFrom(source, position, chunk);
+			if(transferred <= 0) {
+				break;
+			}
+			position += transferred;
+		}
+		if(announcedLength >= 0 && position != announcedLength) {
+			throw new IOException("expected " + announcedLength + " bytes but got " + position);
+		}
+		return position;
+	}
+
+	/**
+	 * Receives chunks from the channel and writes them to the file from the given offset, returning the final file length.
+	 * Each chunk is an int length, that many bytes, then the 32 byte SHA-256 of those bytes. A length of zero ends the upload.
+	 * A chunk is only written once its hash has been checked, so the file only ever holds chunks we know are good.
+	 * @param source
+	 * @param alreadyRead bytes already read from the channel, used first
+	 * @param target
+	 * @param offset where in the file the first chunk goes
+	 * @param fileDigest digest of the whole file, updated with each chunk
+	 * @param maxChunkSize the largest chunk we will accept
+	 * @param bucket limits how fast we read from the channel, null for no limit
+	 * @return file length
+	 * @throws IOException
+	 */
+	public static long receiveChunks(ReadableByteChannel source, ByteBuffer alreadyRead, FileChannel target, long offset,
+			MessageDigest fileDigest, int maxChunkSize, TokenBucket bucket) throws IOException {
+		ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+		ByteBuffer chunkBuffer = ByteBuffer.allocate(maxChunkSize);
+		ByteBuffer hashBuffer = ByteBuffer.allocate(CHUNK_HASH_LENGTH);
+		MessageDigest chunkDigest = createDigest();
+		long position = offset;
+		while(true) {
+			lengthBuffer.clear();
+			readFully(source, alreadyRead, lengthBuffer);
+			int chunkLength = lengthBuffer.getInt(0);
+			if(chunkLength == 0) {
+				break;
+			}
+			if(chunkLength < 0 || chunkLength > maxChunkSize) {
+				throw new IOException("chunk of " + chunkLength + " bytes is not allowed");
+			}
+			if(bucket != null) {
+				// Wait for our share of the bandwidth before reading the chunk and its hash.
+				bucket.acquireFully(chunkLength + CHUNK_HASH_LENGTH);
+			}
+			chunkBuffer.clear();
+			chunkBuffer.limit(chunkLength);
+			readFully(source, alreadyRead, chunkBuffer);
+			hashBuffer.clear();
+			readFully(source, alreadyRead, hashBuffer);
+			chunkDigest.update(chunkBuffer.array(), 0, chunkLength);
+			if(!MessageDigest.isEqual(chunkDigest.digest(), hashBuffer.array())) {
+				throw new IOException("chunk at " + position + " does not match its hash");
+			}
+			chunkBuffer.flip();
+			while(chunkBuffer.hasRemaining()) {
+				position += target.write(chunkBuffer, position);
+			}
+			fileDigest.update(chunkBuffer.array(), 0, chunkLength);
+		}
+		// Anything past the end is left over from an earlier, different attempt.
+		target.truncate(position);
+		return position;
+	}
+
+	/**
+	 * Fills the buffer, taking bytes from alreadyRead before reading from the channel.
+	 */
+	private static void readFully(ReadableByteChannel source, ByteBuffer alreadyRead, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining() && alreadyRead.hasRemaining()) {
+			buffer.put(alreadyRead.get());
+		}
+		while(buffer.hasRemaining()) {
+			if(source.read(buffer) == -1) {
+				throw new IOException("client disconnected part way through a chunk");
+			}
+		}
+	}
+
+	/**
+	 * Adds the first length bytes of a file to a digest.
+	 */
+	private static void updateDigest(MessageDigest digest, FileChannel file, long length, int bufferSize) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+		long position = 0;
+		while(position < length) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), length - position));
+			int read = file.read(buffer, position);
+			if(read == -1) {
+				break;
 			}
+			digest.update(buffer.array(), 0, read);
+			position += read;
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM has to support SHA-256.
+			throw new RuntimeException(e);
 		}
 	}
 }
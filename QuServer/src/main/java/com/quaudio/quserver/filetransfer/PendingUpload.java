@@ -0,0 +1,31 @@
+package com.quaudio.quserver.filetransfer;
+
+/**
+ * A finished upload waiting to be added to the playlist. When the content was already stored the AudioFile is the
+ * stored one, shared with any other upload of the same content, while the track id and owner are this upload's own.
+ * @author Nikolas Howard
+ *
+ */
+public class PendingUpload {
+	private final AudioFile audioFile;
+	private final String trackId;
+	private final String ownerId;
+
+	public PendingUpload(AudioFile audioFile, String trackId, String ownerId) {
+		this.audioFile = audioFile;
+		this.trackId = trackId;
+		this.ownerId = ownerId;
+	}
+
+	public AudioFile getAudioFile() {
+		return audioFile;
+	}
+
+	public String getTrackId() {
+		return trackId;
+	}
+
+	public String getOwnerId() {
+		return ownerId;
+	}
+}
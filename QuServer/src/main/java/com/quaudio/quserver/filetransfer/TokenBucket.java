@@ -0,0 +1,107 @@
+package com.quaudio.quserver.filetransfer;
+
+/**
+ * Limits the rate at which bytes are received. Tokens (bytes) are added at a steady rate up to a small burst and 
+ * each read has to take tokens for what it reads first. A bucket can have a parent, in which case tokens must be 
+ * taken from both, which lets each client have its own budget inside the budget for all uploads.
+ * @author Nikolas Howard
+ *
+ */
+public class TokenBucket {
+	// How much can be taken in one go, as a fraction of a second's worth of tokens.
+	private static final double BURST_SECONDS = 0.25;
+	// The smallest burst we allow, so that tiny rates still move a useful amount at a time.
+	private static final long MIN_BURST = 16 * 1024;
+	private final TokenBucket parent;
+	// Bytes per second, zero or less means no limit.
+	private long rate;
+	private long burst;
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+	
+	public TokenBucket(long rate, TokenBucket parent) {
+		this.parent = parent;
+		setRate(rate);
+		this.tokens = burst;
+	}
+	
+	/**
+	 * Takes up to the requested number of tokens, waiting for them if needed, and returns how many were taken.
+	 * Less than requested is only ever returned when the request is bigger than the burst.
+	 * @param requested
+	 * @return tokens taken
+	 */
+	public long acquire(long requested) {
+		long taken = take(requested);
+		if(parent != null) {
+			long parentTaken = parent.take(taken);
+			// The parent may allow less in one go, give back what we can't use.
+			refund(taken - parentTaken);
+			taken = parentTaken;
+		}
+		return taken;
+	}
+	
+	/**
+	 * Takes exactly the requested number of tokens, however many waits that needs.
+	 * @param requested
+	 */
+	public void acquireFully(long requested) {
+		while(requested > 0) {
+			requested -= acquire(requested);
+		}
+	}
+	
+	/**
+	 * Change the rate of this bucket, zero or less means no limit.
+	 * @param rate bytes per second
+	 */
+	public synchronized void setRate(long rate) {
+		refill();
+		this.rate = rate;
+		this.burst = rate <= 0 ? Long.MAX_VALUE : Math.max(MIN_BURST, (long) (rate * BURST_SECONDS));
+		tokens = Math.min(tokens, burst);
+		// Anyone waiting should work out their wait again.
+		notifyAll();
+	}
+	
+	public synchronized long getRate() {
+		return rate;
+	}
+	
+	private synchronized long take(long requested) {
+		while(true) {
+			if(rate <= 0) {
+				return requested;
+			}
+			refill();
+			long wanted = Math.min(requested, burst);
+			if(tokens >= wanted) {
+				tokens -= wanted;
+				return wanted;
+			}
+			long waitMillis = Math.max(1, (long) ((wanted - tokens) * 1000 / rate));
+			try {
+				wait(waitMillis);
+			} catch (InterruptedException e) {
+				// Let whoever interrupted us find out, but don't hold up the transfer.
+				Thread.currentThread().interrupt();
+				return wanted;
+			}
+		}
+	}
+	
+	private synchronized void refund(long unused) {
+		if(unused > 0 && rate > 0) {
+			tokens = Math.min(burst, tokens + unused);
+		}
+	}
+	
+	private void refill() {
+		long now = System.nanoTime();
+		if(rate > 0) {
+			tokens = Math.min(burst, tokens + ((now - lastRefill) * rate) / 1000000000.0);
+		}
+		lastRefill = now;
+	}
+}
@@ -0,0 +1,141 @@
+package com.quaudio.quserver.filetransfer;
+
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs uploads on a small fixed pool of low priority workers so that a burst of uploads can't starve playback.
+ * Uploads wait on a bounded queue, each client can only have so many uploads queued or running at once, 
+ * and anything over those limits is turned away so the client can retry later.
+ * @author Nikolas Howard
+ *
+ */
+public class UploadScheduler {
+	// The defaults for the number of workers, the number of uploads that can wait for one and the number each client can have.
+	public static final int DEFAULT_WORKERS = 2;
+	public static final int DEFAULT_QUEUE_SIZE = 8;
+	public static final int DEFAULT_CLIENT_LIMIT = 2;
+	// The bounds on how long we tell a busy client to wait before retrying.
+	private static final long MIN_RETRY_AFTER_MS = 1000;
+	private static final long MAX_RETRY_AFTER_MS = 60000;
+	private final ThreadPoolExecutor workers;
+	private final int workerCount;
+	private final int clientLimit;
+	// The number of uploads each client has queued or running.
+	private final HashMap<String, Integer> clientUploads = new HashMap<String, Integer>();
+	private final UploadStats stats = new UploadStats();
+	// Told when a client has no uploads left so it can let go of the client's bucket, may be null.
+	private final BandwidthShaper bandwidthShaper;
+	
+	public UploadScheduler(int workerCount, int queueSize, int clientLimit) {
+		this(workerCount, queueSize, clientLimit, null);
+	}
+	
+	public UploadScheduler(int workerCount, int queueSize, int clientLimit, BandwidthShaper bandwidthShaper) {
+		this.workerCount = workerCount;
+		this.clientLimit = clientLimit;
+		this.bandwidthShaper = bandwidthShaper;
+		ThreadFactory workerThreadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread workerThread = new Thread(runnable, "upload");
+				workerThread.setDaemon(true);
+				// Playback matters more than getting an upload done a little sooner.
+				workerThread.setPriority(Thread.MIN_PRIORITY);
+				return workerThread;
+			}
+		};
+		workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<Runnable>(queueSize), workerThreadFactory);
+	}
+	
+	/**
+	 * Queues an upload to be run by a worker. Returns false if the client already has as many uploads as it is 
+	 * allowed or the queue is full, in which case the client should be told to retry after getRetryAfterMillis().
+	 * @param clientId
+	 * @param upload
+	 * @return whether the upload was admitted
+	 */
+	public boolean schedule(final String clientId, final Runnable upload) {
+		synchronized(clientUploads) {
+			Integer uploads = clientUploads.get(clientId);
+			if(uploads != null && uploads >= clientLimit) {
+				stats.recordBusy();
+				return false;
+			}
+			final long admitTime = System.nanoTime();
+			try {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						long startTime = System.nanoTime();
+						stats.recordStarted(startTime - admitTime);
+						try {
+							upload.run();
+						} finally {
+							stats.recordFinished(System.nanoTime() - startTime);
+							uploadFinished(clientId);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Every worker is busy and the queue is full.
+				stats.recordBusy();
+				return false;
+			}
+			clientUploads.put(clientId, uploads == null ? 1 : uploads + 1);
+			stats.recordAdmitted(workers.getQueue().size());
+			return true;
+		}
+	}
+	
+	/**
+	 * Estimates how long a turned away client should wait before trying again, 
+	 * based on how much is queued and how long uploads have been taking.
+	 * @return retry after in milliseconds
+	 */
+	public long getRetryAfterMillis() {
+		double averageReceive = stats.getAverageReceiveMillis();
+		long estimate = (long) (((getQueueDepth() + 1) * averageReceive) / workerCount);
+		return Math.max(MIN_RETRY_AFTER_MS, Math.min(MAX_RETRY_AFTER_MS, estimate));
+	}
+	
+	/**
+	 * Get the number of admitted uploads waiting for a worker.
+	 * @return queue depth
+	 */
+	public int getQueueDepth() {
+		return workers.getQueue().size();
+	}
+	
+	/**
+	 * Get the number of uploads being received right now.
+	 * @return active uploads
+	 */
+	public int getActiveUploads() {
+		return workers.getActiveCount();
+	}
+	
+	public UploadStats getStats() {
+		return stats;
+	}
+	
+	private void uploadFinished(String clientId) {
+		synchronized(clientUploads) {
+			Integer uploads = clientUploads.get(clientId);
+			if(uploads == null || uploads <= 1) {
+				clientUploads.remove(clientId);
+				// Nothing can be admitted for this client while we hold the lock, so its bucket is no longer in use.
+				if(bandwidthShaper != null) {
+					bandwidthShaper.removeClientBucket(clientId);
+				}
+			} else {
+				clientUploads.put(clientId, uploads - 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.quaudio.quserver.filetransfer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how uploads are being admitted and scheduled by the UploadScheduler.
+ * Wait time is measured from the moment an upload is admitted until a worker starts receiving it.
+ * @author Nikolas Howard
+ *
+ */
+public class UploadStats {
+	// Uploads that were given a place on the queue.
+	private final AtomicLong admittedUploads = new AtomicLong();
+	// Uploads that were told we are busy and to retry later.
+	private final AtomicLong busyResponses = new AtomicLong();
+	// Uploads that a worker has started on.
+	private final AtomicLong startedUploads = new AtomicLong();
+	// Uploads that a worker has finished with, successfully or not.
+	private final AtomicLong finishedUploads = new AtomicLong();
+	// Total and maximum time spent waiting on the queue, in nanoseconds.
+	private final AtomicLong totalWait = new AtomicLong();
+	private final AtomicLong maxWait = new AtomicLong();
+	// Total time workers have spent receiving uploads, in nanoseconds.
+	private final AtomicLong totalReceiveTime = new AtomicLong();
+	// The deepest the queue has been.
+	private final AtomicLong peakQueueDepth = new AtomicLong();
+	
+	void recordAdmitted(int queueDepth) {
+		admittedUploads.incrementAndGet();
+		updateMax(peakQueueDepth, queueDepth);
+	}
+	
+	void recordBusy() {
+		busyResponses.incrementAndGet();
+	}
+	
+	void recordStarted(long wait) {
+		startedUploads.incrementAndGet();
+		totalWait.addAndGet(wait);
+		updateMax(maxWait, wait);
+	}
+	
+	void recordFinished(long receiveTime) {
+		finishedUploads.incrementAndGet();
+		totalReceiveTime.addAndGet(receiveTime);
+	}
+	
+	public long getAdmittedUploads() {
+		return admittedUploads.get();
+	}
+	
+	public long getBusyResponses() {
+		return busyResponses.get();
+	}
+	
+	public long getFinishedUploads() {
+		return finishedUploads.get();
+	}
+	
+	public long getPeakQueueDepth() {
+		return peakQueueDepth.get();
+	}
+	
+	/**
+	 * Get the average time an admitted upload waited for a worker.
+	 * @return average wait in milliseconds
+	 */
+	public double getAverageWaitMillis() {
+		long started = startedUploads.get();
+		return started == 0 ? 0 : (totalWait.get() / (double) started) / 1000000.0;
+	}
+	
+	/**
+	 * Get the longest time an admitted upload waited for a worker.
+	 * @return maximum wait in milliseconds
+	 */
+	public double getMaxWaitMillis() {
+		return maxWait.get() / 1000000.0;
+	}
+	
+	/**
+	 * Get the average time a worker spends receiving an upload.
+	 * @return average receive time in milliseconds
+	 */
+	public double getAverageReceiveMillis() {
+		long finished = finishedUploads.get();
+		return finished == 0 ? 0 : (totalReceiveTime.get() / (double) finished) / 1000000.0;
+	}
+	
+	private static void updateMax(AtomicLong max, long value) {
+		// Another thread may be doing the same.
+		long currentMax = max.get();
+		while(value > currentMax && !max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "admitted=" + getAdmittedUploads() + " busy=" + getBusyResponses() + " finished=" + getFinishedUploads() 
+				+ " peakQueue=" + getPeakQueueDepth() + " avgWait=" + String.format("%.2f", getAverageWaitMillis()) 
+				+ "ms maxWait=" + String.format("%.2f", getMaxWaitMillis()) + "ms";
+	}
+}
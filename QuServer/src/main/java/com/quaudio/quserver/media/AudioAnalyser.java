@@ -0,0 +1,151 @@
+package com.quaudio.quserver.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import com.quaudio.quserver.filetransfer.AudioFile;
+import com.quaudio.quserver.server.Log;
+import com.quaudio.quserver.server.ServerEventQueue;
+import com.quaudio.quserver.server.ServerEventType;
+
+/**
+ * Analyses uploaded audio files on a small pool of low priority workers: reads their tags, then decodes them once 
+ * to find their duration, format and loudness. The results are saved next to the file, named after its content hash 
+ * where it has one, so a file is only ever analysed once. Analysed files are handed back to the server loop which 
+ * updates the PlayList with what we found.
+ * @author Nikolas Howard
+ *
+ */
+public class AudioAnalyser {
+	public static final int DEFAULT_WORKERS = 1;
+	public static final int DEFAULT_QUEUE_SIZE = 32;
+	private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+	private final ThreadPoolExecutor workers;
+	// Analysed files waiting for the server loop.
+	private final LinkedList<AudioFile> analysedAudioFiles = new LinkedList<AudioFile>();
+	
+	public AudioAnalyser(int workerCount, int queueSize) {
+		ThreadFactory workerThreadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread workerThread = new Thread(runnable, "analysis");
+				workerThread.setDaemon(true);
+				// Decoding a whole file must never get in the way of playback.
+				workerThread.setPriority(Thread.MIN_PRIORITY);
+				return workerThread;
+			}
+		};
+		workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<Runnable>(queueSize), workerThreadFactory);
+	}
+	
+	/**
+	 * Queues an audio file to be analysed, files that already have been are skipped.
+	 * @param audioFile
+	 */
+	public void analyse(final AudioFile audioFile) {
+		if(audioFile.getAnalysis() != null || audioFile.getPath() == null) {
+			return;
+		}
+		try {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					AudioAnalysis analysis = getAnalysis(audioFile);
+					if(analysis != null) {
+						audioFile.setAnalysis(analysis);
+						synchronized(analysedAudioFiles) {
+							analysedAudioFiles.add(audioFile);
+						}
+						// Wake the server loop so that clients hear about it straight away.
+						ServerEventQueue.getEventQueue().post(ServerEventType.ANALYSIS_COMPLETE);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The track still plays, it just won't be loudness matched.
+			Log.log(Log.MessageType.WARNING, "AUDIO_ANALYSER", "too many files waiting, not analysing '" + audioFile.getName() + "'");
+		}
+	}
+	
+	/**
+	 * Get the next file that has been analysed since this was last called, null if there isn't one.
+	 * @return audioFile
+	 */
+	public AudioFile getNextAnalysed() {
+		synchronized(analysedAudioFiles) {
+			return analysedAudioFiles.poll();
+		}
+	}
+	
+	/**
+	 * Gets the analysis of an audio file from beside the file, or works it out and saves it there if this is the first time.
+	 * @param audioFile
+	 * @return analysis, null if the file couldn't be decoded
+	 */
+	AudioAnalysis getAnalysis(AudioFile audioFile) {
+		File analysisFile = getAnalysisFile(audioFile);
+		if(analysisFile.exists()) {
+			try {
+				return AudioAnalysis.load(analysisFile);
+			} catch (IOException e) {
+				Log.log(Log.MessageType.WARNING, "AUDIO_ANALYSER", "analysing '" + audioFile.getName() + "' again, the saved analysis is unreadable");
+			}
+		}
+		AudioAnalysis analysis;
+		try {
+			analysis = analyseFile(audioFile);
+		} catch (IOException | RuntimeException e) {
+			Log.log(Log.MessageType.ERROR, "AUDIO_ANALYSER", "failed to analyse '" + audioFile.getName() + "'");
+			return null;
+		}
+		try {
+			analysis.save(analysisFile);
+		} catch (IOException e) {
+			Log.log(Log.MessageType.WARNING, "AUDIO_ANALYSER", "failed to save analysis of '" + audioFile.getName() + "'");
+		}
+		return analysis;
+	}
+	
+	/**
+	 * Get where the analysis of an audio file is kept, named after its content hash if it has one.
+	 * @param audioFile
+	 * @return analysis file
+	 */
+	static File getAnalysisFile(AudioFile audioFile) {
+		File file = new File(audioFile.getPath());
+		if(audioFile.getContentHash() != null) {
+			return new File(file.getParentFile(), audioFile.getContentHash() + AudioAnalysis.FILE_EXTENSION);
+		}
+		return new File(file.getPath() + AudioAnalysis.FILE_EXTENSION);
+	}
+	
+	/**
+	 * Reads the tags of an audio file and decodes the whole thing once, measuring it as it goes.
+	 */
+	private AudioAnalysis analyseFile(AudioFile audioFile) throws IOException {
+		long startTime = System.currentTimeMillis();
+		TagReader tags = new TagReader(new File(audioFile.getPath()), audioFile.getFileFormat());
+		PcmStream stream = PlaybackEngine.getPlaybackEngine().open(audioFile);
+		try {
+			float sampleRate = stream.getFormat().getSampleRate();
+			int channels = stream.getFormat().getChannels();
+			LoudnessMeter meter = new LoudnessMeter(sampleRate, channels);
+			byte[] buffer = new byte[DECODE_BUFFER_SIZE];
+			int read;
+			while((read = stream.read(buffer, 0, buffer.length)) > 0) {
+				meter.process(buffer, 0, read);
+			}
+			Log.log(Log.MessageType.INFO, "AUDIO_ANALYSER", "analysed '" + audioFile.getName() + "' in " + (System.currentTimeMillis() - startTime) + "ms");
+			return new AudioAnalysis(tags.getTitle(), tags.getArtist(), tags.getAlbum(), meter.getFrames() / (double) sampleRate, 
+					sampleRate, channels, meter.getGain(), meter.getPeak());
+		} finally {
+			stream.close();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.quaudio.quserver.media;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * What the AudioAnalyser found out about an audio file, saved as JSON so it is only worked out once.
+ * @author Nikolas Howard
+ *
+ */
+public class AudioAnalysis {
+	public static final String FILE_EXTENSION = ".meta";
+	private static final int VERSION = 1;
+	// From the file's tags, null if it didn't have them.
+	private final String title;
+	private final String artist;
+	private final String album;
+	// In seconds.
+	private final double duration;
+	private final float sampleRate;
+	private final int channels;
+	// The ReplayGain style gain in dB that brings the track to the reference loudness, and its loudest sample.
+	private final double trackGain;
+	private final double trackPeak;
+	
+	public AudioAnalysis(String title, String artist, String album, double duration, float sampleRate, int channels, double trackGain, double trackPeak) {
+		this.title = title;
+		this.artist = artist;
+		this.album = album;
+		this.duration = duration;
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		this.trackGain = trackGain;
+		this.trackPeak = trackPeak;
+	}
+	
+	public String getTitle() {
+		return title;
+	}
+	
+	public String getArtist() {
+		return artist;
+	}
+	
+	public String getAlbum() {
+		return album;
+	}
+	
+	public double getDuration() {
+		return duration;
+	}
+	
+	public float getSampleRate() {
+		return sampleRate;
+	}
+	
+	public int getChannels() {
+		return channels;
+	}
+	
+	public double getTrackGain() {
+		return trackGain;
+	}
+	
+	public double getTrackPeak() {
+		return trackPeak;
+	}
+	
+	/**
+	 * Reads an analysis saved by save().
+	 * @param analysisFile
+	 * @return analysis
+	 * @throws IOException if the file can't be read or is from a different version
+	 */
+	public static AudioAnalysis load(File analysisFile) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(analysisFile), "UTF-8");
+		try {
+			JSONObject analysisJSON = new JSONObject(new JSONTokener(reader));
+			if(analysisJSON.optInt("version") != VERSION) {
+				throw new IOException("'" + analysisFile.getName() + "' is from a different version");
+			}
+			return new AudioAnalysis(analysisJSON.optString("title", null), analysisJSON.optString("artist", null), 
+					analysisJSON.optString("album", null), analysisJSON.getDouble("duration"), (float) analysisJSON.getDouble("sample_rate"), 
+					analysisJSON.getInt("channels"), analysisJSON.getDouble("track_gain"), analysisJSON.getDouble("track_peak"));
+		} catch (JSONException e) {
+			throw new IOException("'" + analysisFile.getName() + "' is not a valid analysis", e);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Saves this analysis so that it doesn't have to be worked out again.
+	 * @param analysisFile
+	 * @throws IOException
+	 */
+	public void save(File analysisFile) throws IOException {
+		JSONObject analysisJSON = new JSONObject();
+		analysisJSON.put("version", VERSION);
+		analysisJSON.putOpt("title", title);
+		analysisJSON.putOpt("artist", artist);
+		analysisJSON.putOpt("album", album);
+		analysisJSON.put("duration", duration);
+		analysisJSON.put("sample_rate", sampleRate);
+		analysisJSON.put("channels", channels);
+		analysisJSON.put("track_gain", trackGain);
+		analysisJSON.put("track_peak", trackPeak);
+		Writer writer = new OutputStreamWriter(new FileOutputStream(analysisFile), "UTF-8");
+		try {
+			writer.write(analysisJSON.toString());
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.quaudio.quserver.media;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decodes audio files of a particular FileFormat into PCM for the PlaybackEngine.
+ * @author Nikolas Howard
+ *
+ */
+public interface AudioDecoder {
+
+	/**
+	 * Opens an audio file as a stream of signed 16 bit little endian PCM, decoding from the given byte offset.
+	 * @param file
+	 * @param offset 0, or an offset taken from the file's SeekIndex
+	 * @return stream
+	 * @throws IOException if the file can't be read or decoded
+	 */
+	public PcmStream open(File file, long offset) throws IOException;
+}
@@ -0,0 +1,557 @@
+package com.quaudio.quserver.media;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import com.quaudio.quserver.server.Log;
+
+/**
+ * Plays tracks through a single audio line, there is one of these in the PlaybackEngine. A decoder thread reads the 
+ * current track into a PcmRingBuffer and a playback thread feeds the line from it, so a slow read never reaches the line. 
+ * The line is opened once and kept open, it is only drained and reopened if a track has a different format.
+ * <p>
+ * The next track can be lined up with setNext(), when the current track ends its successor's audio goes into the 
+ * buffer straight after it so there is no gap between them. Where one track ends and another starts is passed to the 
+ * playback thread as a marker at that position in the buffer, so tracks are told they have started and finished when 
+ * their audio actually reaches the line.
+ * @author Nikolas Howard
+ *
+ */
+public class AudioOutput {
+	// Room for around a second and a half of CD quality audio.
+	private static final int RING_BUFFER_SIZE = 256 * 1024;
+	// The most bytes the decoder reads and the playback thread writes to the line in one go.
+	private static final int DECODE_BUFFER_SIZE = 16 * 1024;
+	private static final int WRITE_BUFFER_SIZE = 4 * 1024;
+	// If the line has less than this left to play and we have nothing for it, we have underrun.
+	private static final int LOW_WATER_MILLIS = 20;
+	// How much silence we give the line when we underrun, rather than let it run dry and click.
+	private static final int UNDERRUN_SILENCE_MILLIS = 10;
+	// The most a track's loudness gain can cut or boost it by, in dB.
+	private static final double MIN_TRACK_GAIN = -20;
+	private static final double MAX_TRACK_GAIN = 12;
+	// How long either thread waits for the other when the buffer is full or empty.
+	private static final long SPIN_WAIT_NANOS = 1000000L;
+	// The track being decoded and the track lined up to follow it.
+	private Playable currentTrack = null;
+	private Playable nextTrack = null;
+	// The track whose audio is reaching the line, which trails the track being decoded by up to the whole ring buffer.
+	private Playable audibleTrack = null;
+	// An audible track that was stopped after it had all been decoded, what is left of it is skipped by the playback thread.
+	private Playable cutTrack = null;
+	private boolean paused = false;
+	// Moved on whenever the current track is stopped or replaced, anything buffered from before is thrown away.
+	private volatile int generation = 0;
+	private final PcmRingBuffer ringBuffer = new PcmRingBuffer(RING_BUFFER_SIZE);
+	private final ConcurrentLinkedQueue<Marker> markers = new ConcurrentLinkedQueue<Marker>();
+	private final AudioOutputStats stats = new AudioOutputStats();
+	private Thread decoderThread = null;
+	private Thread playbackThread = null;
+	// The line we are writing to and its format, only the playback thread opens and closes it.
+	private volatile SourceDataLine line = null;
+	private AudioFormat lineFormat = null;
+	private byte[] silence = null;
+	// The master volume and whether tracks are played at their analysed loudness, both applied by the playback thread.
+	private volatile double volume = 1.0;
+	private volatile boolean loudnessNormalisation = true;
+	private final GainProcessor gainProcessor = new GainProcessor();
+	
+	AudioOutput() {}
+	
+	/**
+	 * Plays a track, replacing the current track if it is a different one, or resumes it if it is paused.
+	 * @param track
+	 */
+	public synchronized void play(Playable track) {
+		// A track that has all been decoded but can still be heard is resumed, not started again.
+		if(currentTrack != track && audibleTrack != track) {
+			if(currentTrack != null) {
+				// Don't let what is left of the old track play out.
+				flushLine();
+			}
+			currentTrack = track;
+			generation++;
+			if(nextTrack == track) {
+				nextTrack = null;
+			}
+		}
+		if(paused) {
+			paused = false;
+			startLine();
+		}
+		// The threads are started the first time there is something to play.
+		if(playbackThread == null) {
+			decoderThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					decode();
+				}
+			}, "decoder");
+			decoderThread.setDaemon(true);
+			decoderThread.setPriority(Thread.NORM_PRIORITY + 1);
+			decoderThread.start();
+			playbackThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					playback();
+				}
+			}, "playback");
+			playbackThread.setDaemon(true);
+			// Nothing matters more than keeping the audio flowing.
+			playbackThread.setPriority(Thread.MAX_PRIORITY);
+			playbackThread.start();
+		}
+		notifyAll();
+	}
+	
+	/**
+	 * Pauses the given track if it is the one playing, whether it is still being decoded or only its last 
+	 * buffered audio is left to play.
+	 * @param track
+	 * @return whether the track is now paused
+	 */
+	public synchronized boolean pause(Playable track) {
+		if(currentTrack != track && audibleTrack != track) {
+			return false;
+		}
+		if(!paused) {
+			paused = true;
+			stopLine();
+		}
+		return true;
+	}
+	
+	/**
+	 * Stops the given track if it is playing or lined up to play next.
+	 * @param track
+	 */
+	public synchronized void stop(Playable track) {
+		if(currentTrack == track) {
+			currentTrack = null;
+			generation++;
+			flushLine();
+			notifyAll();
+		} else if(audibleTrack == track) {
+			// The next track is already being decoded after it, so only what is left of this one is thrown away.
+			cutTrack = track;
+			notifyAll();
+		}
+		if(nextTrack == track) {
+			nextTrack = null;
+		}
+	}
+	
+	/**
+	 * Throws away whatever has been decoded of the given track and starts again from its current PcmStream, 
+	 * used when the track has been seeked.
+	 * @param track
+	 */
+	public synchronized void restart(Playable track) {
+		if(currentTrack == track) {
+			generation++;
+			flushLine();
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Lines up the track to follow the current track, null if there isn't one.
+	 * @param track
+	 */
+	public synchronized void setNext(Playable track) {
+		nextTrack = track == currentTrack ? null : track;
+	}
+	
+	public synchronized boolean isCurrent(Playable track) {
+		return currentTrack == track;
+	}
+	
+	/**
+	 * Sets the master volume, applied to the audio itself so no mixer has to be touched.
+	 * @param volume a linear factor, 1.0 for full volume
+	 */
+	public void setVolume(double volume) {
+		this.volume = volume;
+	}
+	
+	public double getVolume() {
+		return volume;
+	}
+	
+	/**
+	 * Sets whether each track's analysed gain is applied so that tracks play at the same loudness.
+	 * @param loudnessNormalisation
+	 */
+	public void setLoudnessNormalisation(boolean loudnessNormalisation) {
+		this.loudnessNormalisation = loudnessNormalisation;
+	}
+	
+	public AudioOutputStats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * Get how much decoded audio is waiting to be played, in bytes.
+	 * @return buffered bytes
+	 */
+	public int getBufferedBytes() {
+		return ringBuffer.available();
+	}
+	
+	/**
+	 * Run by the decoder thread, reads the current track into the ring buffer and moves on to the next track when it ends.
+	 */
+	private void decode() {
+		byte[] buffer = new byte[DECODE_BUFFER_SIZE];
+		int decodedGeneration = 0;
+		PcmStream stream = null;
+		while(true) {
+			Playable track;
+			int trackGeneration;
+			synchronized(this) {
+				while(currentTrack == null && generation == decodedGeneration) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				track = currentTrack;
+				trackGeneration = generation;
+				if(trackGeneration != decodedGeneration) {
+					// Taken along with the generation, a track that has been seeked has a new stream.
+					stream = track == null ? null : track.getPcmStream();
+				}
+			}
+			if(trackGeneration != decodedGeneration) {
+				// Everything buffered before here belongs to a track that was stopped, replaced or seeked.
+				decodedGeneration = trackGeneration;
+				publish(new Marker(ringBuffer.getWritten(), trackGeneration, null, track, stream));
+				if(track == null) {
+					continue;
+				}
+			}
+			int read = -1;
+			try {
+				if(stream != null) {
+					read = stream.read(buffer, 0, buffer.length - (buffer.length % stream.getFormat().getFrameSize()));
+				}
+			} catch (IOException | RuntimeException e) {
+				// The stream is closed from under us when a track is seeked or disposed, that is not an error.
+				if(generation == trackGeneration) {
+					Log.log(Log.MessageType.ERROR, "AUDIO_OUTPUT", "error decoding '" + track.getAudioFile().getName() + "'");
+				}
+			}
+			if(read > 0) {
+				writeToBuffer(buffer, read, trackGeneration);
+			} else {
+				stream = trackEnded(track, stream, trackGeneration);
+			}
+		}
+	}
+	
+	/**
+	 * Writes all of the decoded audio into the ring buffer, waiting for room, unless the track is stopped or replaced first.
+	 * @param buffer
+	 * @param length
+	 * @param trackGeneration
+	 */
+	private void writeToBuffer(byte[] buffer, int length, int trackGeneration) {
+		int offset = 0;
+		while(offset < length && generation == trackGeneration) {
+			int written = ringBuffer.write(buffer, offset, length - offset);
+			offset += written;
+			if(written == 0) {
+				LockSupport.parkNanos(SPIN_WAIT_NANOS);
+			}
+		}
+	}
+	
+	/**
+	 * Moves on to the next track once the current one has been decoded, its audio carries on straight after in the buffer.
+	 * @param endedTrack
+	 * @param endedStream
+	 * @param trackGeneration
+	 * @return the stream to decode next
+	 */
+	private PcmStream trackEnded(Playable endedTrack, PcmStream endedStream, int trackGeneration) {
+		Playable startedTrack = null;
+		PcmStream startedStream = null;
+		synchronized(this) {
+			if(currentTrack != endedTrack || generation != trackGeneration) {
+				// Something else is playing now.
+				return endedStream;
+			}
+			currentTrack = nextTrack;
+			nextTrack = null;
+			startedTrack = currentTrack;
+			startedStream = startedTrack == null ? null : startedTrack.getPcmStream();
+		}
+		publish(new Marker(ringBuffer.getWritten(), trackGeneration, endedTrack, startedTrack, startedStream));
+		return startedStream;
+	}
+	
+	private synchronized void setAudible(Playable track) {
+		audibleTrack = track;
+	}
+	
+	private synchronized void clearCut(Playable track) {
+		if(cutTrack == track) {
+			cutTrack = null;
+		}
+	}
+	
+	private synchronized void publish(Marker marker) {
+		markers.add(marker);
+		notifyAll();
+	}
+	
+	/**
+	 * Run by the playback thread, feeds the line from the ring buffer for as long as the server runs.
+	 */
+	private void playback() {
+		byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+		int playedGeneration = 0;
+		// The track whose audio is being written to the line, and whether we have written any of it yet.
+		Playable playingTrack = null;
+		PcmStream playingStream = null;
+		boolean awaitingAudio = false;
+		boolean underrunning = false;
+		while(true) {
+			boolean playbackPaused;
+			int currentGeneration;
+			Playable cut;
+			synchronized(this) {
+				while(generation == playedGeneration && (paused || (currentTrack == null && markers.isEmpty() && ringBuffer.available() == 0))) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				playbackPaused = paused;
+				currentGeneration = generation;
+				cut = cutTrack;
+			}
+			Marker marker = markers.peek();
+			if(currentGeneration != playedGeneration) {
+				// The track was stopped or replaced, skip to wherever the decoder started again.
+				while(marker != null && marker.generation == playedGeneration) {
+					markers.poll();
+					marker = markers.peek();
+				}
+				if(marker == null) {
+					LockSupport.parkNanos(SPIN_WAIT_NANOS);
+					continue;
+				}
+				ringBuffer.skipTo(marker.position);
+				playedGeneration = marker.generation;
+				flushLine();
+			}
+			if(cut != null) {
+				if(cut != playingTrack || currentGeneration != playedGeneration) {
+					// It has already finished or been thrown away.
+					clearCut(cut);
+				} else if(marker != null && marker.endedTrack == cut) {
+					// Skip to where the next track starts, the marker then finishes the track as usual.
+					ringBuffer.skipTo(marker.position);
+					flushLine();
+					clearCut(cut);
+				}
+			}
+			if(marker != null && ringBuffer.getRead() >= marker.position) {
+				markers.poll();
+				if(marker.endedTrack != null) {
+					marker.endedTrack.onPlaybackFinished();
+				}
+				if(marker.stream != null) {
+					prepareLine(marker.stream.getFormat());
+				}
+				if(marker.endedTrack != null && marker.startedTrack != null) {
+					marker.startedTrack.onPlaybackStarted();
+				}
+				playingTrack = marker.startedTrack;
+				playingStream = marker.stream;
+				setAudible(playingTrack);
+				// A track started from cold may take a moment to decode, one following on has been decoded ahead.
+				awaitingAudio = marker.endedTrack == null;
+				continue;
+			}
+			if(playbackPaused) {
+				continue;
+			}
+			// Never read past the next marker, the line may need to change before the audio after it.
+			long length = Math.min(buffer.length, ringBuffer.available());
+			if(marker != null) {
+				length = Math.min(length, marker.position - ringBuffer.getRead());
+			}
+			if(lineFormat != null) {
+				length -= length % lineFormat.getFrameSize();
+			}
+			if(length > 0) {
+				int read = ringBuffer.read(buffer, 0, (int) length);
+				// Without a line the audio is thrown away, as if it was played.
+				if(lineFormat != null) {
+					// The analysis can finish part way through a track, the gain moves smoothly to it when it does.
+					gainProcessor.setTargetGain(volume * getTrackGain(playingTrack));
+					gainProcessor.process(buffer, 0, read);
+					writeToLine(buffer, 0, read);
+					stats.recordPlayed(read);
+				}
+				if(playingStream != null) {
+					playingStream.recordPlayed(read);
+				}
+				awaitingAudio = false;
+				underrunning = false;
+			} else if(playingTrack != null && lineFormat != null && !awaitingAudio && getLineQueuedBytes() < toBytes(lineFormat, LOW_WATER_MILLIS)) {
+				// The decoder hasn't kept up, give the line a little silence rather than let it run dry.
+				if(!underrunning) {
+					underrunning = true;
+					Log.log(Log.MessageType.WARNING, "AUDIO_OUTPUT", "underrun playing '" + playingTrack.getAudioFile().getName() + "'");
+				}
+				writeToLine(silence, 0, silence.length);
+				stats.recordUnderrun(silence.length);
+			} else {
+				LockSupport.parkNanos(SPIN_WAIT_NANOS);
+			}
+		}
+	}
+	
+	/**
+	 * Makes sure the line is open with the given format, returns false if it can't be opened.
+	 * @param format
+	 * @return whether the line is ready
+	 */
+	private boolean prepareLine(AudioFormat format) {
+		if(lineFormat != null && lineFormat.matches(format)) {
+			return true;
+		}
+		if(lineFormat != null) {
+			// The new track has a different format, let the old one finish before switching.
+			drainLine();
+			closeLine();
+			lineFormat = null;
+			stats.recordLineReopen();
+		}
+		try {
+			openLine(format);
+			lineFormat = format;
+			gainProcessor.configure(format.getSampleRate(), format.getChannels());
+			silence = new byte[toBytes(format, UNDERRUN_SILENCE_MILLIS)];
+			return true;
+		} catch (LineUnavailableException e) {
+			Log.log(Log.MessageType.ERROR, "AUDIO_OUTPUT", "failed to open audio line for " + format);
+		} catch (IllegalArgumentException e) {
+			Log.log(Log.MessageType.ERROR, "AUDIO_OUTPUT", "no audio line supports " + format);
+		}
+		return false;
+	}
+	
+	/**
+	 * Get the gain that brings a track to the reference loudness, as a linear factor, 1.0 if it hasn't been analysed.
+	 * @param track
+	 * @return gain
+	 */
+	private double getTrackGain(Playable track) {
+		AudioAnalysis analysis = track == null ? null : track.getAudioFile().getAnalysis();
+		if(!loudnessNormalisation || analysis == null) {
+			return 1.0;
+		}
+		return GainProcessor.toLinear(Math.max(MIN_TRACK_GAIN, Math.min(MAX_TRACK_GAIN, analysis.getTrackGain())));
+	}
+	
+	/**
+	 * Get the number of whole frames' worth of bytes in the given time.
+	 */
+	private static int toBytes(AudioFormat format, int millis) {
+		return Math.max(1, (int) (format.getFrameRate() * millis / 1000)) * format.getFrameSize();
+	}
+	
+	// The line can be closed by the playback thread while the server loop is pausing or stopping, so each of these 
+	// reads the field once rather than checking it and then using it again.
+	protected void openLine(AudioFormat format) throws LineUnavailableException {
+		SourceDataLine newLine = AudioSystem.getSourceDataLine(format);
+		newLine.open(format);
+		newLine.start();
+		line = newLine;
+	}
+	
+	protected void writeToLine(byte[] buffer, int offset, int length) {
+		SourceDataLine currentLine = line;
+		if(currentLine != null) {
+			currentLine.write(buffer, offset, length);
+		}
+	}
+	
+	/**
+	 * Get how many bytes the line has been given but not yet played.
+	 * @return queued bytes
+	 */
+	protected int getLineQueuedBytes() {
+		SourceDataLine currentLine = line;
+		return currentLine == null ? 0 : currentLine.getBufferSize() - currentLine.available();
+	}
+	
+	protected void drainLine() {
+		SourceDataLine currentLine = line;
+		if(currentLine != null) {
+			currentLine.drain();
+		}
+	}
+	
+	protected void closeLine() {
+		SourceDataLine currentLine = line;
+		line = null;
+		if(currentLine != null) {
+			currentLine.close();
+		}
+	}
+	
+	protected void flushLine() {
+		SourceDataLine currentLine = line;
+		if(currentLine != null) {
+			currentLine.flush();
+		}
+	}
+	
+	protected void stopLine() {
+		SourceDataLine currentLine = line;
+		if(currentLine != null) {
+			currentLine.stop();
+		}
+	}
+	
+	protected void startLine() {
+		SourceDataLine currentLine = line;
+		if(currentLine != null) {
+			currentLine.start();
+		}
+	}
+	
+	/**
+	 * A point in the ring buffer where one track's audio ends and another's begins, either because it was played 
+	 * through or because it was stopped or replaced.
+	 */
+	private static class Marker {
+		private final long position;
+		private final int generation;
+		// Null if the track was stopped or replaced rather than played through.
+		private final Playable endedTrack;
+		// Null if nothing follows.
+		private final Playable startedTrack;
+		// The audio that follows, which the line has to be opened for.
+		private final PcmStream stream;
+		
+		Marker(long position, int generation, Playable endedTrack, Playable startedTrack, PcmStream stream) {
+			this.position = position;
+			this.generation = generation;
+			this.endedTrack = endedTrack;
+			this.startedTrack = startedTrack;
+			this.stream = stream;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.quaudio.quserver.media;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how well the AudioOutput is keeping the audio line fed.
+ * @author Nikolas Howard
+ *
+ */
+public class AudioOutputStats {
+	// Times the line was about to run dry with nothing decoded to give it.
+	private final AtomicLong underruns = new AtomicLong();
+	// Bytes of silence written to cover underruns.
+	private final AtomicLong silenceBytes = new AtomicLong();
+	// Bytes of audio written to the line.
+	private final AtomicLong playedBytes = new AtomicLong();
+	// Times the line had to be reopened for a different format.
+	private final AtomicLong lineReopens = new AtomicLong();
+	
+	void recordUnderrun(int silence) {
+		underruns.incrementAndGet();
+		silenceBytes.addAndGet(silence);
+	}
+	
+	void recordPlayed(int bytes) {
+		playedBytes.addAndGet(bytes);
+	}
+	
+	void recordLineReopen() {
+		lineReopens.incrementAndGet();
+	}
+	
+	public long getUnderruns() {
+		return underruns.get();
+	}
+	
+	public long getSilenceBytes() {
+		return silenceBytes.get();
+	}
+	
+	public long getPlayedBytes() {
+		return playedBytes.get();
+	}
+	
+	public long getLineReopens() {
+		return lineReopens.get();
+	}
+	
+	@Override
+	public String toString() {
+		return "underruns=" + getUnderruns() + " silence=" + getSilenceBytes() + " played=" + getPlayedBytes() + " reopens=" + getLineReopens();
+	}
+}
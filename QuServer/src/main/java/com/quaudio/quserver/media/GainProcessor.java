@@ -0,0 +1,102 @@
+package com.quaudio.quserver.media;
+
+/**
+ * Applies a gain to signed 16 bit little endian PCM in place, with a peak limiter so that boosting a quiet track 
+ * can't clip. Changes of gain are smoothed over a few milliseconds so they don't click. Nothing is allocated 
+ * while processing, it runs on the playback thread for every buffer written to the line.
+ * @author Nikolas Howard
+ *
+ */
+public class GainProcessor {
+	// The limiter keeps peaks below this fraction of full scale.
+	private static final double LIMITER_THRESHOLD = 0.95;
+	private static final double RAMP_SECONDS = 0.02;
+	private static final double LIMITER_RELEASE_SECONDS = 0.1;
+	private int channels = 2;
+	private double rampCoefficient;
+	private double releaseCoefficient;
+	private double gain = 1.0;
+	private double targetGain = 1.0;
+	private double limiterGain = 1.0;
+	
+	public GainProcessor() {
+		configure(44100, 2);
+	}
+	
+	/**
+	 * Sets the format of the audio that will be processed.
+	 * @param sampleRate
+	 * @param channels
+	 */
+	public void configure(float sampleRate, int channels) {
+		this.channels = channels;
+		this.rampCoefficient = 1 - Math.exp(-1 / (RAMP_SECONDS * sampleRate));
+		this.releaseCoefficient = 1 - Math.exp(-1 / (LIMITER_RELEASE_SECONDS * sampleRate));
+	}
+	
+	/**
+	 * Sets the gain to move towards, as a linear factor.
+	 * @param targetGain
+	 */
+	public void setTargetGain(double targetGain) {
+		this.targetGain = targetGain;
+	}
+	
+	public double getGain() {
+		return gain;
+	}
+	
+	/**
+	 * Applies the gain to whole frames of audio in place.
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 */
+	public void process(byte[] buffer, int offset, int length) {
+		if(gain == 1.0 && targetGain == 1.0 && limiterGain == 1.0) {
+			// Nothing to do, leave the audio exactly as it is.
+			return;
+		}
+		int frameSize = channels * 2;
+		int end = offset + length - (length % frameSize);
+		for(int position = offset; position < end; position += frameSize) {
+			// Move smoothly towards the target, settling on it once we are close enough.
+			if(gain != targetGain) {
+				gain += (targetGain - gain) * rampCoefficient;
+				if(Math.abs(targetGain - gain) < 0.0001) {
+					gain = targetGain;
+				}
+			}
+			int peak = 0;
+			for(int index = position; index < position + frameSize; index += 2) {
+				peak = Math.max(peak, Math.abs((short) ((buffer[index] & 0xff) | (buffer[index + 1] << 8))));
+			}
+			// Pull the gain down straight away for a peak that would be too loud, and let it back up slowly.
+			if(peak * gain * limiterGain > LIMITER_THRESHOLD * 32768) {
+				limiterGain = LIMITER_THRESHOLD * 32768 / (peak * gain);
+			} else if(limiterGain != 1.0) {
+				limiterGain += (1.0 - limiterGain) * releaseCoefficient;
+				if(limiterGain > 0.9999) {
+					limiterGain = 1.0;
+				}
+			}
+			double frameGain = gain * limiterGain;
+			for(int index = position; index < position + frameSize; index += 2) {
+				int sample = (short) ((buffer[index] & 0xff) | (buffer[index + 1] << 8));
+				long scaled = Math.round(sample * frameGain);
+				int clamped = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, scaled));
+				buffer[index] = (byte) clamped;
+				buffer[index + 1] = (byte) (clamped >> 8);
+			}
+		}
+	}
+	
+	/**
+	 * Converts a gain in dB to a linear factor.
+	 * @param decibels
+	 * @return gain
+	 */
+	public static double toLinear(double decibels) {
+		return Math.pow(10, decibels / 20);
+	}
+}
@@ -0,0 +1,126 @@
+package com.quaudio.quserver.media;
+
+/**
+ * Measures the loudness of a track in one pass over its 16 bit PCM, the way ReplayGain does: the audio is 
+ * high-pass filtered, split into 50ms blocks and the loudness taken as the level that only 5% of blocks are 
+ * louder than. Block levels are counted in a histogram so the whole track never has to be held in memory.
+ * <p>
+ * ReplayGain also applies an equal loudness curve whose filter coefficients are only tabulated for certain sample 
+ * rates, we only apply its 150Hz high-pass stage which can be worked out for any rate.
+ * @author Nikolas Howard
+ *
+ */
+public class LoudnessMeter {
+	// The level of ReplayGain's pink noise reference, a track this loud needs no gain.
+	public static final double REFERENCE_LEVEL = 64.82;
+	// Block levels are counted in hundredths of a dB up to 120dB.
+	private static final int HISTOGRAM_STEPS_PER_DB = 100;
+	private static final int HISTOGRAM_SIZE = 120 * HISTOGRAM_STEPS_PER_DB;
+	private static final double BLOCK_SECONDS = 0.05;
+	private static final double LOUD_BLOCK_FRACTION = 0.05;
+	private static final double HIGH_PASS_HZ = 150;
+	private final int channels;
+	private final int blockFrames;
+	private final int[] histogram = new int[HISTOGRAM_SIZE];
+	// The high-pass filter coefficients and each channel's last two inputs and outputs.
+	private final double b0, b1, b2, a1, a2;
+	private final double[][] filterState;
+	private double blockSum = 0;
+	private int blockFrameCount = 0;
+	private int peakSample = 0;
+	private long frames = 0;
+	
+	public LoudnessMeter(float sampleRate, int channels) {
+		this.channels = channels;
+		this.blockFrames = Math.max(1, (int) Math.ceil(sampleRate * BLOCK_SECONDS));
+		this.filterState = new double[channels][4];
+		// A second order Butterworth high-pass, by the bilinear transform.
+		double k = Math.tan(Math.PI * HIGH_PASS_HZ / sampleRate);
+		double norm = 1 / (1 + Math.sqrt(2) * k + k * k);
+		b0 = norm;
+		b1 = -2 * norm;
+		b2 = norm;
+		a1 = 2 * (k * k - 1) * norm;
+		a2 = (1 - Math.sqrt(2) * k + k * k) * norm;
+	}
+	
+	/**
+	 * Measures some more of the track, in whole frames of signed 16 bit little endian PCM.
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 */
+	public void process(byte[] buffer, int offset, int length) {
+		int frameSize = channels * 2;
+		int end = offset + length - (length % frameSize);
+		for(int position = offset; position < end; position += frameSize) {
+			double frameSum = 0;
+			for(int channel = 0; channel < channels; channel++) {
+				int index = position + channel * 2;
+				int sample = (short) ((buffer[index] & 0xff) | (buffer[index + 1] << 8));
+				peakSample = Math.max(peakSample, Math.abs(sample));
+				double[] state = filterState[channel];
+				double filtered = b0 * sample + b1 * state[0] + b2 * state[1] - a1 * state[2] - a2 * state[3];
+				state[1] = state[0];
+				state[0] = sample;
+				state[3] = state[2];
+				state[2] = filtered;
+				frameSum += filtered * filtered;
+			}
+			blockSum += frameSum / channels;
+			frames++;
+			if(++blockFrameCount == blockFrames) {
+				endBlock();
+			}
+		}
+	}
+	
+	private void endBlock() {
+		double level = 10 * Math.log10(blockSum / blockFrameCount + 1e-37);
+		int step = (int) (level * HISTOGRAM_STEPS_PER_DB);
+		histogram[Math.max(0, Math.min(HISTOGRAM_SIZE - 1, step))]++;
+		blockSum = 0;
+		blockFrameCount = 0;
+	}
+	
+	/**
+	 * Get the loudness of everything measured so far, the level in dB that 95% of blocks are quieter than.
+	 * @return loudness, 0 if nothing has been measured
+	 */
+	public double getLoudness() {
+		long blocks = 0;
+		for(int count : histogram) {
+			blocks += count;
+		}
+		if(blocks == 0) {
+			return 0;
+		}
+		long loudBlocks = (long) Math.ceil(blocks * LOUD_BLOCK_FRACTION);
+		int step = HISTOGRAM_SIZE - 1;
+		for(long counted = histogram[step]; counted < loudBlocks && step > 0; counted += histogram[step]) {
+			step--;
+		}
+		return step / (double) HISTOGRAM_STEPS_PER_DB;
+	}
+	
+	/**
+	 * Get the gain in dB that would bring the track to the reference level, 0 if nothing has been measured.
+	 * @return gain
+	 */
+	public double getGain() {
+		double loudness = getLoudness();
+		return loudness == 0 ? 0 : REFERENCE_LEVEL - loudness;
+	}
+	
+	/**
+	 * Get the loudest sample so far, where 1.0 is full scale.
+	 * @return peak
+	 */
+	public double getPeak() {
+		return peakSample / 32768.0;
+	}
+	
+	public long getFrames() {
+		return frames;
+	}
+}
@@ -0,0 +1,87 @@
+package com.quaudio.quserver.media;
+
+/**
+ * A fixed size ring buffer of PCM bytes for exactly one writing thread and one reading thread. Neither side 
+ * takes a lock, each only moves its own position and reads the other's, so the decoder can never hold up the 
+ * thread feeding the audio line.
+ * @author Nikolas Howard
+ *
+ */
+public class PcmRingBuffer {
+	private final byte[] buffer;
+	// The total number of bytes ever written and read, only changed by the writer and reader respectively.
+	private volatile long written = 0;
+	private volatile long read = 0;
+	
+	public PcmRingBuffer(int capacity) {
+		this.buffer = new byte[capacity];
+	}
+	
+	/**
+	 * Writes as much as there is room for without waiting, returns the number of bytes written. Writer thread only.
+	 * @param source
+	 * @param offset
+	 * @param length
+	 * @return bytes written
+	 */
+	public int write(byte[] source, int offset, int length) {
+		long writePosition = written;
+		int count = (int) Math.min(length, buffer.length - (writePosition - read));
+		int start = (int) (writePosition % buffer.length);
+		int firstPart = Math.min(count, buffer.length - start);
+		System.arraycopy(source, offset, buffer, start, firstPart);
+		System.arraycopy(source, offset + firstPart, buffer, 0, count - firstPart);
+		// Only now can the reader see the new bytes.
+		written = writePosition + count;
+		return count;
+	}
+	
+	/**
+	 * Reads as much as is available without waiting, returns the number of bytes read. Reader thread only.
+	 * @param target
+	 * @param offset
+	 * @param length
+	 * @return bytes read
+	 */
+	public int read(byte[] target, int offset, int length) {
+		long readPosition = read;
+		int count = (int) Math.min(length, written - readPosition);
+		int start = (int) (readPosition % buffer.length);
+		int firstPart = Math.min(count, buffer.length - start);
+		System.arraycopy(buffer, start, target, offset, firstPart);
+		System.arraycopy(buffer, 0, target, offset + firstPart, count - firstPart);
+		// Only now can the writer reuse the space.
+		read = readPosition + count;
+		return count;
+	}
+	
+	/**
+	 * Throws away everything before the given position, which must already have been written. Reader thread only.
+	 * @param position
+	 */
+	public void skipTo(long position) {
+		if(position > read) {
+			read = Math.min(position, written);
+		}
+	}
+	
+	public long getWritten() {
+		return written;
+	}
+	
+	public long getRead() {
+		return read;
+	}
+	
+	/**
+	 * Get the number of bytes waiting to be read.
+	 * @return available
+	 */
+	public int available() {
+		return (int) (written - read);
+	}
+	
+	public int getCapacity() {
+		return buffer.length;
+	}
+}
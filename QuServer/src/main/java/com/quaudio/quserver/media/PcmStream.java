@@ -0,0 +1,123 @@
+package com.quaudio.quserver.media;
+
+import java.io.IOException;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * A stream of decoded 16 bit PCM for a track, as opened by an AudioDecoder. The start of the stream can be decoded ahead of time with prefill() 
+ * so that a track is ready to play the moment the track before it ends.
+ * @author Nikolas Howard
+ *
+ */
+public class PcmStream {
+	private final AudioInputStream decodedStream;
+	// Audio decoded ahead of time, waiting to be read.
+	private byte[] prefillBuffer = null;
+	private boolean prefilled = false;
+	private int prefillStart = 0;
+	private int prefillEnd = 0;
+	// The frame of the track this stream starts at, and how much of it has been written to the audio line.
+	private volatile long startFrame = 0;
+	private volatile long playedBytes = 0;
+	
+	public PcmStream(AudioInputStream decodedStream) {
+		this.decodedStream = decodedStream;
+	}
+	
+	public AudioFormat getFormat() {
+		return decodedStream.getFormat();
+	}
+	
+	/**
+	 * Decodes the given duration of audio ahead of time, does nothing if we already have.
+	 * @param millis
+	 * @throws IOException
+	 */
+	public synchronized void prefill(int millis) throws IOException {
+		if(prefilled) {
+			return;
+		}
+		prefilled = true;
+		AudioFormat format = getFormat();
+		int frameSize = format.getFrameSize();
+		int frames = (int) (format.getFrameRate() * millis / 1000);
+		prefillBuffer = new byte[Math.max(1, frames) * frameSize];
+		while(prefillEnd < prefillBuffer.length) {
+			int read = decodedStream.read(prefillBuffer, prefillEnd, prefillBuffer.length - prefillEnd);
+			if(read == -1) {
+				break;
+			}
+			prefillEnd += read;
+		}
+	}
+	
+	/**
+	 * Reads decoded audio, anything decoded ahead of time comes first. Returns -1 at the end of the track.
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return bytes read
+	 * @throws IOException
+	 */
+	public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+		if(prefillStart < prefillEnd) {
+			int read = Math.min(length, prefillEnd - prefillStart);
+			System.arraycopy(prefillBuffer, prefillStart, buffer, offset, read);
+			prefillStart += read;
+			return read;
+		}
+		// The prefilled audio has all been played, let it go.
+		prefillBuffer = null;
+		return decodedStream.read(buffer, offset, length);
+	}
+	
+	/**
+	 * Sets where in the track this stream starts, for when the decoder was started part way through the file.
+	 * @param startFrame
+	 */
+	void setStartFrame(long startFrame) {
+		this.startFrame = startFrame;
+	}
+	
+	/**
+	 * Decodes and throws away the given number of frames, must be done before anything is read.
+	 * @param frames
+	 * @throws IOException
+	 */
+	synchronized void skipFrames(long frames) throws IOException {
+		int frameSize = getFormat().getFrameSize();
+		long remaining = frames * frameSize;
+		while(remaining > 0) {
+			long skipped = decodedStream.skip(remaining);
+			if(skipped <= 0) {
+				break;
+			}
+			remaining -= skipped;
+		}
+		startFrame += frames - remaining / frameSize;
+	}
+	
+	/**
+	 * Called by the AudioOutput as it writes this stream's audio to the line.
+	 * @param bytes
+	 */
+	void recordPlayed(int bytes) {
+		playedBytes += bytes;
+	}
+	
+	/**
+	 * Get how far through the track playback has got, in seconds.
+	 * @return position
+	 */
+	public double getPosition() {
+		AudioFormat format = getFormat();
+		return (startFrame + playedBytes / format.getFrameSize()) / (double) format.getFrameRate();
+	}
+	
+	public void close() {
+		try {
+			decodedStream.close();
+		} catch (IOException e) {}
+	}
+}
@@ -1,6 +1,8 @@
 package com.quaudio.quserver.media;
 
 import com.quaudio.quserver.filetransfer.AudioFile;
+import com.quaudio.quserver.server.ServerEventQueue;
+import com.quaudio.quserver.server.ServerEventType;
 
 /**
  * 
@@ -9,15 +11,90 @@ import com.quaudio.quserver.filetransfer.AudioFile;
  */
 public abstract class Playable {
 	private AudioFile audioFile;
+	// The same AudioFile can be queued more than once, each time as its own track.
+	private String trackId;
+	private String ownerId;
+	private boolean initialised = false;
+	// Set when a seek has finished, whether or not it worked, so the playlist can tell clients where the track really is.
+	private volatile boolean positionChanged = false;
 	
 	public Playable(AudioFile audioFile) {
+		this(audioFile, audioFile.getId(), audioFile.getOwnerId());
+	}
+	
+	public Playable(AudioFile audioFile, String trackId, String ownerId) {
 		this.audioFile = audioFile;
+		this.trackId = trackId;
+		this.ownerId = ownerId;
 	}
 	
 	public AudioFile getAudioFile() {
 		return audioFile;
 	}
 	
+	public String getTrackId() {
+		return trackId;
+	}
+	
+	public String getOwnerId() {
+		return ownerId;
+	}
+	
+	/**
+	 * Initialises this track if it hasn't been already, the playlist only does this for the tracks coming up soon.
+	 * @param playOnReady
+	 */
+	public void prepare(boolean playOnReady) {
+		if(!initialised) {
+			initialised = true;
+			initialise(playOnReady);
+		} else if(playOnReady) {
+			play();
+		}
+	}
+	
+	public boolean isInitialised() {
+		return initialised;
+	}
+	
+	/**
+	 * Get the decoded audio for this track, null if it has none for the AudioOutput to play.
+	 * @return stream
+	 */
+	public PcmStream getPcmStream() {
+		return null;
+	}
+	
+	/**
+	 * Returns whether the position has changed since the last call, clearing it. Called by the playlist on the server loop.
+	 * @return position changed
+	 */
+	public boolean takePositionChanged() {
+		if(!positionChanged) {
+			return false;
+		}
+		positionChanged = false;
+		return true;
+	}
+	
+	/**
+	 * Lets the playlist know that the position has changed other than by playing, from any thread.
+	 */
+	protected void positionChanged() {
+		positionChanged = true;
+		ServerEventQueue.getEventQueue().post(ServerEventType.TRACK_SEEKED);
+	}
+	
+	/**
+	 * Called by the AudioOutput when it moves straight on to this track from the one before it.
+	 */
+	public void onPlaybackStarted() {}
+	
+	/**
+	 * Called by the AudioOutput when it has played all of this track.
+	 */
+	public void onPlaybackFinished() {}
+	
 	public abstract void initialise(boolean playOnReady);
 	public abstract void play();
 	public abstract void pause();
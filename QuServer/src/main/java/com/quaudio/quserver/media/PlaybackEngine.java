@@ -0,0 +1,145 @@
+package com.quaudio.quserver.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import com.quaudio.quserver.filetransfer.AudioFile;
+import com.quaudio.quserver.server.Log;
+import com.quaudio.quserver.server.Server;
+
+/**
+ * Plays every track through one long lived AudioOutput, decoding each with the AudioDecoder registered for its FileFormat.
+ * @author Nikolas Howard
+ *
+ */
+public class PlaybackEngine {
+	private static final PlaybackEngine playbackEngine = new PlaybackEngine();
+	private final EnumMap<FileFormat, AudioDecoder> decoders = new EnumMap<FileFormat, AudioDecoder>(FileFormat.class);
+	private final AudioOutput audioOutput = new AudioOutput();
+	
+	/**
+	 * Get the PlaybackEngine singleton.
+	 * @return playbackEngine
+	 */
+	public static PlaybackEngine getPlaybackEngine() {
+		return playbackEngine;
+	}
+	
+	private PlaybackEngine() {
+		// The service providers cover everything we have decoders for, a format they can't read fails when opened.
+		AudioDecoder spiDecoder = new SpiAudioDecoder();
+		for(FileFormat format : FileFormat.values()) {
+			decoders.put(format, spiDecoder);
+		}
+		// Properties may not be initialised if we are running in the context of a unit/integration test.
+		if(Server.properties != null) {
+			audioOutput.setLoudnessNormalisation(Server.properties.isLoudnessNormalisationEnabled());
+		}
+	}
+	
+	/**
+	 * Use a different decoder for a FileFormat.
+	 * @param format
+	 * @param decoder
+	 */
+	public synchronized void registerDecoder(FileFormat format, AudioDecoder decoder) {
+		decoders.put(format, decoder);
+	}
+	
+	/**
+	 * Opens an audio file with the decoder for its format.
+	 * @param audioFile
+	 * @return stream
+	 * @throws IOException
+	 */
+	public PcmStream open(AudioFile audioFile) throws IOException {
+		return open(audioFile, 0);
+	}
+	
+	/**
+	 * Opens an audio file with the decoder for its format, starting at the given position in seconds. Decoding starts 
+	 * from the nearest point in the file's SeekIndex before the position, only the audio after that point is decoded and thrown away.
+	 * @param audioFile
+	 * @param position
+	 * @return stream
+	 * @throws IOException
+	 */
+	public PcmStream open(AudioFile audioFile, double position) throws IOException {
+		AudioDecoder decoder;
+		synchronized(this) {
+			decoder = decoders.get(audioFile.getFileFormat());
+		}
+		if(decoder == null) {
+			throw new IOException("no decoder for " + audioFile.getFileFormat());
+		}
+		if(audioFile.getPath() == null) {
+			throw new IOException("'" + audioFile.getName() + "' has no file");
+		}
+		File file = new File(audioFile.getPath());
+		SeekIndex seekIndex = position > 0 ? getSeekIndex(audioFile) : null;
+		if(seekIndex == null) {
+			return decoder.open(file, 0);
+		}
+		long targetFrame = seekIndex.toFrame(position);
+		// Without a sample rate the index can't place the position, so decode from the start.
+		int point = targetFrame < 0 ? 0 : seekIndex.find(targetFrame);
+		PcmStream stream = decoder.open(file, seekIndex.getPointOffset(point));
+		try {
+			if(targetFrame < 0) {
+				targetFrame = seekIndex.toFrame(position, stream.getFormat().getSampleRate());
+				if(targetFrame < 0) {
+					// Better to refuse than to quietly play from the start.
+					throw new IOException("unknown sample rate for '" + audioFile.getName() + "'");
+				}
+			}
+			stream.setStartFrame(seekIndex.getPointFrame(point));
+			stream.skipFrames(targetFrame - seekIndex.getPointFrame(point));
+		} catch (IOException e) {
+			stream.close();
+			throw e;
+		}
+		return stream;
+	}
+	
+	/**
+	 * Gets the SeekIndex for an audio file, loading it from beside the file or building it if this is the first time.
+	 * @param audioFile
+	 * @return index, null if the file has no path
+	 */
+	public SeekIndex getSeekIndex(AudioFile audioFile) {
+		SeekIndex seekIndex = audioFile.getSeekIndex();
+		if(seekIndex != null || audioFile.getPath() == null) {
+			return seekIndex;
+		}
+		File file = new File(audioFile.getPath());
+		File indexFile = new File(audioFile.getPath() + SeekIndex.FILE_EXTENSION);
+		// An index older than its file is for something else that had the same name.
+		if(indexFile.exists() && indexFile.lastModified() >= file.lastModified()) {
+			try {
+				seekIndex = SeekIndex.load(indexFile);
+			} catch (IOException e) {
+				Log.log(Log.MessageType.WARNING, "PLAYBACK_ENGINE", "rebuilding unreadable seek index for '" + audioFile.getName() + "'");
+			}
+		}
+		if(seekIndex == null) {
+			try {
+				seekIndex = SeekIndex.build(file, audioFile.getFileFormat());
+			} catch (IOException e) {
+				Log.log(Log.MessageType.ERROR, "PLAYBACK_ENGINE", "failed to index '" + audioFile.getName() + "'");
+				return null;
+			}
+			try {
+				seekIndex.save(indexFile);
+			} catch (IOException e) {
+				// We can still use it, it will just be built again next time.
+				Log.log(Log.MessageType.WARNING, "PLAYBACK_ENGINE", "failed to save seek index for '" + audioFile.getName() + "'");
+			}
+		}
+		audioFile.setSeekIndex(seekIndex);
+		return seekIndex;
+	}
+	
+	public AudioOutput getAudioOutput() {
+		return audioOutput;
+	}
+}
@@ -11,10 +11,16 @@ import com.quaudio.quserver.server.Log;
 import com.quaudio.quserver.server.Server;
 
 public class Playlist {
+	// The number of tracks after the current track that are initialised ahead of time.
+	private static final int LOOKAHEAD_TRACKS = 2;
 	// The tracks that are currently in the playlist
 	private LinkedList<Playable> tracks = new LinkedList<Playable>();
-	// Has the PlayList been altered (are we required to send a new PUSH_PLAYLIST?)
-	private boolean isPushPlayListPending = false;
+	// The version of the PlayList that clients have been told about, incremented with every PUSH_PLAYLIST_DELTA.
+	private long sequence = 0;
+	// The changes made to the PlayList since the last PUSH_PLAYLIST_DELTA was created.
+	private JSONArray pendingOperations = new JSONArray();
+	// PUSH_PLAYLIST_DELTA actions that have been created but are yet to be broadcast.
+	private LinkedList<OutgoingAction> unsentDeltas = new LinkedList<OutgoingAction>();
 	
 	/**
 	 * Carries out processing on the playlist.
@@ -27,20 +33,33 @@ public class Playlist {
 			if(this.getCurrentTrack().getState() == TrackState.STOPPED) {
 				Log.log(Log.MessageType.INFO, "PLAYLIST", "track '" + this.getCurrentTrack().getAudioFile().getName() + "' finished");
 				this.getCurrentTrack().dispose();
-				tracks.remove(0);
+				Playable finishedTrack = tracks.remove(0);
+				// We need to broadcast change
+				recordRemove(finishedTrack);
+				// Get the tracks coming up ready, and line up the one after the new current track.
+				prepareLookahead();
 				if(tracks.size() > 0) {
-					this.getCurrentTrack().play();
+					// The AudioOutput will normally have moved straight on to the next track already.
+					if(this.getCurrentTrack().getState() != TrackState.PLAYING) {
+						this.getCurrentTrack().play();
+					}
+					recordStateChange(this.getCurrentTrack());
 				}
-				// We need to broadcast change
-				setPushPlayListPending(true);
 			}
 		}
-		// Has the state of the PlayList changed since the last time we broadcast it's state to clients?
-		// If so then we will need to send it again.
-		if(isPushPlayListPending()) {
-			// Queue a new PUSH_PLAYLIST OutgoingAction in the ClientManager to be broadcast to all connected clients
-			server.getClientManager().queueOutgoingAction(this.generatePushPlayListOutgoingAction());
+		// Seeks finish off the server loop, tell everyone where they ended up, or that they didn't happen.
+		for(Playable playable : tracks) {
+			if(playable.takePositionChanged()) {
+				recordPosition(playable);
+			}
+		}
+		// Gather every change made since the last broadcast into a single delta.
+		prepareDelta();
+		// Queue any new PUSH_PLAYLIST_DELTA OutgoingActions in the ClientManager to be broadcast to all connected clients
+		for(OutgoingAction delta : unsentDeltas) {
+			server.getClientManager().queueOutgoingAction(delta);
 		}
+		unsentDeltas.clear();
 	}
 	
 	/**
@@ -50,7 +69,11 @@ public class Playlist {
 	public void processAction(IncomingAction action) {
 		// What type of PlayList IncomingAction is it?
 		// First, get the track id from the IncomingAction.
-		String incomingActionTrackId = action.getActionInfoObject().getString("track_id");
+		String incomingActionTrackId = action.getTrackId();
+		if(incomingActionTrackId == null) {
+			// Every PlayList action is about a track, without one there is nothing we can do.
+			return;
+		}
 		// Process the action depending on its type.
 		switch(action.getIncomingActionType()) {
 		case PLAY:
@@ -61,12 +84,12 @@ public class Playlist {
 			// Get the current track.	
 			Playable currentTrackToPlay = this.getCurrentTrack();
 			// Check that the current track is paused, and that the id's match.
-			if(currentTrackToPlay != null && incomingActionTrackId.equals(currentTrackToPlay.getAudioFile().getId()) 
+			if(currentTrackToPlay != null && incomingActionTrackId.equals(currentTrackToPlay.getTrackId()) 
 					&& (currentTrackToPlay.getState() == TrackState.PAUSED)) {
 				// Conditions are right, play the currently paused track.
 				currentTrackToPlay.play();
 				// We need to broadcast change
-				setPushPlayListPending(true);
+				recordStateChange(currentTrackToPlay);
 			}
 			
 			break;
@@ -78,12 +101,12 @@ public class Playlist {
 			// Get the current track.	
 			Playable currentTrackToPause = this.getCurrentTrack();
 			// Check that the current track is playing, and that the id's match.
-			if(currentTrackToPause != null && incomingActionTrackId.equals(currentTrackToPause.getAudioFile().getId()) 
+			if(currentTrackToPause != null && incomingActionTrackId.equals(currentTrackToPause.getTrackId()) 
 					&& (currentTrackToPause.getState() == TrackState.PLAYING)) {
 				// Conditions are right, pause the currently playing track.
 				currentTrackToPause.pause();
 				// We need to broadcast change
-				setPushPlayListPending(true);
+				recordStateChange(currentTrackToPause);
 			}
 			break;
 		case STOP:
@@ -93,11 +116,11 @@ public class Playlist {
 			// Get the current track.	
 			Playable currentTrackToStop = this.getCurrentTrack();
 			// Check that the id's match.
-			if(currentTrackToStop != null && incomingActionTrackId.equals(currentTrackToStop.getAudioFile().getId())) {
+			if(currentTrackToStop != null && incomingActionTrackId.equals(currentTrackToStop.getTrackId())) {
 				// Conditions are right, stop the currently playing track.
 				currentTrackToStop.stop();
 				// We need to broadcast change
-				setPushPlayListPending(true);
+				recordStateChange(currentTrackToStop);
 			}
 			break;
 		case REMOVE:
@@ -106,18 +129,18 @@ public class Playlist {
 			// If it is not the current track then just remove it.
 			Playable currentTrack = this.getCurrentTrack();
 			// Is the track that we want to remove the current track?
-			if(incomingActionTrackId.equals(currentTrack.getAudioFile().getId())) {
+			if(incomingActionTrackId.equals(currentTrack.getTrackId())) {
 				// Stop the current track, this will in turn remove it.
 				currentTrack.stop();
 				// We need to broadcast change
-				setPushPlayListPending(true);
+				recordStateChange(currentTrack);
 			} else {
 				// We are looking to see if the track we want to remove is elsewhere in the PlayList.
 				int unwantedTrackIndex = -1;
 				// Go through our PlayList looking for a match.
 				for(int i = 0; i < tracks.size(); i++) {
 					// Is this our track?
-					if(incomingActionTrackId.equals(tracks.get(i).getAudioFile().getId())) {
+					if(incomingActionTrackId.equals(tracks.get(i).getTrackId())) {
 						unwantedTrackIndex = i;
 						break;
 					}
@@ -127,22 +150,31 @@ public class Playlist {
 					// Get the track name.
 					String trackName = tracks.get(unwantedTrackIndex).getAudioFile().getName();
 					// Remove the track.
-					tracks.remove(unwantedTrackIndex);
+					Playable unwantedTrack = tracks.remove(unwantedTrackIndex);
+					unwantedTrack.dispose();
+					// A different track may now be coming up.
+					prepareLookahead();
 					Log.log(Log.MessageType.INFO, "PLAYLIST", "removed track '" + trackName + "'");
 					// We need to broadcast change
-					setPushPlayListPending(true);
+					recordRemove(unwantedTrack);
 				}
 			}
 			break;
 		case MOVE:
 			// TODO Finish!
-			// We need to broadcast change
-			setPushPlayListPending(true);
 			break;
 		case SKIP:
-			// TODO Finish!
-			// We need to broadcast change
-			setPushPlayListPending(true);
+			// The track that the user wants to skip through may have left the PlayList since they asked.
+			double position = Double.isNaN(action.getPosition()) ? 0 : action.getPosition();
+			for(Playable trackToSkip : tracks) {
+				if(incomingActionTrackId.equals(trackToSkip.getTrackId())) {
+					// Tracks that haven't started yet will start from this position.
+					trackToSkip.skipTo(position);
+					// We need to broadcast change
+					recordPosition(trackToSkip);
+					break;
+				}
+			}
 			break;
 		default:
 			// Unknown, do nothing.
@@ -151,69 +183,202 @@ public class Playlist {
 	}
 	
 	/**
-	 * Creates and returns a new PUSH_PLAYLIST OutgoingAction.
+	 * Creates and returns a new PUSH_PLAYLIST OutgoingAction, a full snapshot of the PlayList.
+	 * Only needed by clients that are new or have missed a PUSH_PLAYLIST_DELTA, everyone else is kept up to date with deltas.
 	 * @return PUSH_PLAYLIST OutgoingAction
 	 */
 	public OutgoingAction generatePushPlayListOutgoingAction() {
+		// The snapshot has to describe a numbered version of the PlayList, so any changes that 
+		// have not made it into a delta yet need to be given a sequence number first.
+		prepareDelta();
 		JSONObject playListJSONObject = new JSONObject();
 		JSONArray playListJSONArray = new JSONArray();
 		// Go over each track in our PlayList and write the details to our playListJSONArray JSON array
 		for(Playable playable : tracks) {
-			JSONObject trackJSON = new JSONObject();
-			trackJSON.put("track_id", playable.getAudioFile().getId());
-			trackJSON.put("owner_id", playable.getAudioFile().getOwnerId());
-			trackJSON.put("track_state", playable.getState().toString());
-			trackJSON.put("name", playable.getAudioFile().getName());
-			trackJSON.put("artist", playable.getAudioFile().getArtist());
-			trackJSON.put("album", playable.getAudioFile().getAlbum());
 			// Add this track to out JSON array
-			playListJSONArray.put(trackJSON);
+			playListJSONArray.put(createTrackJSON(playable));
 		}
 		// Put our PlayList JSON array in its own object.
 		playListJSONObject.put("playlist", playListJSONArray);
+		playListJSONObject.put("sequence", sequence);
 		return new OutgoingAction(OutgoingActionType.PUSH_PLAYLIST, playListJSONObject);
 	}
+	
+	/**
+	 * Creates the JSON that describes a single track to clients.
+	 * @param playable
+	 * @return track JSON
+	 */
+	private JSONObject createTrackJSON(Playable playable) {
+		JSONObject trackJSON = new JSONObject();
+		TrackState state = playable.getState();
+		trackJSON.put("track_id", playable.getTrackId());
+		trackJSON.put("owner_id", playable.getOwnerId());
+		trackJSON.put("track_state", state == null ? TrackState.UNKNOWN.toString() : state.toString());
+		trackJSON.put("name", playable.getAudioFile().getName());
+		trackJSON.put("artist", playable.getAudioFile().getArtist());
+		trackJSON.put("album", playable.getAudioFile().getAlbum());
+		// Both in seconds, a duration of 0 means we don't know it.
+		trackJSON.put("duration", playable.getDuration());
+		trackJSON.put("position", playable.getPostion());
+		return trackJSON;
+	}
+	
+	/**
+	 * If the PlayList has changed since the last delta was created, gathers those changes into a 
+	 * new PUSH_PLAYLIST_DELTA, moving the PlayList on to the next sequence number.
+	 */
+	private void prepareDelta() {
+		if(pendingOperations.length() == 0) {
+			return;
+		}
+		JSONObject deltaJSONObject = new JSONObject();
+		// Clients can only apply this delta if they are up to date with the base sequence.
+		deltaJSONObject.put("base_sequence", sequence);
+		sequence++;
+		deltaJSONObject.put("sequence", sequence);
+		deltaJSONObject.put("operations", pendingOperations);
+		unsentDeltas.add(new OutgoingAction(OutgoingActionType.PUSH_PLAYLIST_DELTA, deltaJSONObject));
+		pendingOperations = new JSONArray();
+	}
+	
+	/**
+	 * Record that a track was added to the PlayList.
+	 * @param playable
+	 * @param index
+	 */
+	private void recordAdd(Playable playable, int index) {
+		JSONObject operation = new JSONObject();
+		operation.put("op", "ADD");
+		operation.put("index", index);
+		operation.put("track", createTrackJSON(playable));
+		pendingOperations.put(operation);
+	}
+	
+	/**
+	 * Record that a track was removed from the PlayList.
+	 * @param playable
+	 */
+	private void recordRemove(Playable playable) {
+		JSONObject operation = new JSONObject();
+		operation.put("op", "REMOVE");
+		operation.put("track_id", playable.getTrackId());
+		pendingOperations.put(operation);
+	}
+	
+	/**
+	 * Record that the state of a track has changed.
+	 * @param playable
+	 */
+	private void recordStateChange(Playable playable) {
+		TrackState state = playable.getState();
+		JSONObject operation = new JSONObject();
+		operation.put("op", "STATE");
+		operation.put("track_id", playable.getTrackId());
+		operation.put("track_state", state == null ? TrackState.UNKNOWN.toString() : state.toString());
+		pendingOperations.put(operation);
+	}
+
+	/**
+	 * Record that what we know about a track has changed, clients replace the whole track.
+	 * @param playable
+	 */
+	private void recordUpdate(Playable playable) {
+		JSONObject operation = new JSONObject();
+		operation.put("op", "UPDATE");
+		operation.put("track_id", playable.getTrackId());
+		operation.put("track", createTrackJSON(playable));
+		pendingOperations.put(operation);
+	}
+
+	/**
+	 * Record that a track has been skipped to a new position.
+	 * @param playable
+	 */
+	private void recordPosition(Playable playable) {
+		JSONObject operation = new JSONObject();
+		operation.put("op", "POSITION");
+		operation.put("track_id", playable.getTrackId());
+		operation.put("position", playable.getPostion());
+		pendingOperations.put(operation);
+	}
 
 	/**
 	 * Creates a Playable object and adds it to the PlayList.
 	 * @param audioFile
 	 */
 	public void addTrack(AudioFile audioFile){
-		// Initialise a new Playable object.
-		Playable track = null;
-		// The file format will define which subclass of Playable we will need.
-		switch(audioFile.getFileFormat()) {
-		case FLAC:
-			track = new Track_FLAC(audioFile);
-			break;
-		case GP3:
-			track = new Track_3GP(audioFile);
-			break;
-		case MP3:
-			track = new Track_MP3(audioFile);
-			break;
-		case MP4:
-			track = new Track_MP4(audioFile);
-			break;
-		case WAV:
-			track = new Track_WAV(audioFile);
-			break;
-		default:
-			// TODO Error, something is fishy here
-			break;
+		addTrack(audioFile, audioFile.getId(), audioFile.getOwnerId());
+	}
+	
+	/**
+	 * Creates a Playable object for an upload and adds it to the PlayList. The same AudioFile can be added more than
+	 * once, for example when two clients upload the same song, each time under the id and owner of that upload.
+	 * @param audioFile
+	 * @param trackId
+	 * @param ownerId
+	 */
+	public void addTrack(AudioFile audioFile, String trackId, String ownerId){
+		for(Playable existingTrack : tracks) {
+			if(existingTrack.getTrackId().equals(trackId)) {
+				Log.log(Log.MessageType.WARNING, "PLAYLIST", "track '" + trackId + "' is already in the playlist");
+				return;
+			}
 		}
-		// TODO Check if there is an existing track that matches the one that is currently playing, if so 
-		// then don't play it and notify the user who attempted to push it.
+		// Every format is played by the PlaybackEngine.
+		Playable track = new Track(audioFile, trackId, ownerId);
 		tracks.add(track);
 		Log.log(Log.MessageType.INFO, "PLAYLIST", "added track '" + audioFile.getName() + "'");
+		// Only the tracks coming up soon are initialised, there is no point decoding the whole queue.
+		prepareLookahead();
 		// If the track that we have just added is the only track in the playlist, then just start playing it.
 		if(tracks.size() == 1) {
-			track.initialise(true);
-		} else {
-			track.initialise(false);
+			track.prepare(true);
 		}
 		// We need to broadcast change
-		setPushPlayListPending(true);
+		recordAdd(track, tracks.size() - 1);
+	}
+	
+	/**
+	 * Fills in the details of an audio file from its analysis and lets clients know about any of its tracks in the PlayList.
+	 * The name, artist and album from the file's tags are only used where the client that uploaded it didn't give one.
+	 * @param audioFile
+	 */
+	public void updateTrack(AudioFile audioFile) {
+		AudioAnalysis analysis = audioFile.getAnalysis();
+		if(analysis == null) {
+			return;
+		}
+		if(isBlank(audioFile.getName()) && analysis.getTitle() != null) {
+			audioFile.setName(analysis.getTitle());
+		}
+		if(isBlank(audioFile.getArtist()) && analysis.getArtist() != null) {
+			audioFile.setArtist(analysis.getArtist());
+		}
+		if(isBlank(audioFile.getAlbum()) && analysis.getAlbum() != null) {
+			audioFile.setAlbum(analysis.getAlbum());
+		}
+		for(Playable track : tracks) {
+			if(track.getAudioFile() == audioFile) {
+				// We need to broadcast change
+				recordUpdate(track);
+			}
+		}
+	}
+	
+	private static boolean isBlank(String value) {
+		return value == null || value.trim().isEmpty();
+	}
+	
+	/**
+	 * Initialises the current track and the next few so they are decoded ahead of time,
+	 * and lines up the track after the current one to follow it without a gap.
+	 */
+	private void prepareLookahead() {
+		for(int i = 0; i < tracks.size() && i <= LOOKAHEAD_TRACKS; i++) {
+			tracks.get(i).prepare(false);
+		}
+		PlaybackEngine.getPlaybackEngine().getAudioOutput().setNext(tracks.size() > 1 ? tracks.get(1) : null);
 	}
 	
 	/**
@@ -228,20 +393,10 @@ public class Playlist {
 	}
 
 	/**
-	 * Are we due a PUSH_PLAYLIST broadcast?
-	 * @return
-	 */
-	public boolean isPushPlayListPending() {
-		boolean pushPending = this.isPushPlayListPending;
-		this.isPushPlayListPending = false;
-		return pushPending;
-	}
-
-	/**
-	 * Set whether we are due a PUSH_PLAYLIST broadcast?
-	 * @param isPushPlayListPending
+	 * Gets the version of the PlayList that clients have been told about.
+	 * @return sequence
 	 */
-	public void setPushPlayListPending(boolean isPushPlayListPending) {
-		this.isPushPlayListPending = isPushPlayListPending;
+	public long getSequence() {
+		return sequence;
 	}
 }
@@ -0,0 +1,379 @@
+package com.quaudio.quserver.media;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Maps positions in a track to the byte offsets decoding can start from, so seeking only decodes from the nearest 
+ * point before the target instead of from the start of the file. Built once when a file is uploaded and saved next to it.
+ * <p>
+ * MP3 files are indexed by walking their frame headers and WAV files only need their length as the PCM can be skipped 
+ * without decoding. FLAC files only have their length read, they are decoded from the start. Other formats get an index 
+ * with just the start of the file.
+ * @author Nikolas Howard
+ *
+ */
+public class SeekIndex {
+	public static final String FILE_EXTENSION = ".idx";
+	private static final int MAGIC = 0x51494458;
+	// Version 2 no longer has mid-stream FLAC offsets, which could never be opened.
+	private static final int VERSION = 2;
+	// One seek point for every this many MP3 frames, around a fifth of a second.
+	private static final int MP3_FRAMES_PER_POINT = 8;
+	// MP3 frames can borrow bits from the frames before them, so decoding starts a couple of frames early.
+	private static final int MP3_PREROLL_FRAMES = 2;
+	private static final int[][] MP3_BITRATES = {
+		// MPEG 1 layers I, II, III.
+		{ 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+		{ 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+		// MPEG 2 and 2.5 layer I, then layers II and III.
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+		{ 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 }
+	};
+	private static final int[] MP3_SAMPLE_RATES = { 44100, 48000, 32000 };
+	private final float sampleRate;
+	// The length of the track in PCM frames, -1 if we don't know.
+	private final long totalFrames;
+	// How far before a target decoding should start.
+	private final long prerollFrames;
+	// The PCM frame each seek point starts at and the byte offset in the file to decode it from, both ascending.
+	private final long[] pointFrames;
+	private final long[] pointOffsets;
+	
+	SeekIndex(float sampleRate, long totalFrames, long prerollFrames, long[] pointFrames, long[] pointOffsets) {
+		this.sampleRate = sampleRate;
+		this.totalFrames = totalFrames;
+		this.prerollFrames = prerollFrames;
+		this.pointFrames = pointFrames;
+		this.pointOffsets = pointOffsets;
+	}
+	
+	/**
+	 * Get the length of the track in seconds, 0 if we don't know it.
+	 * @return duration
+	 */
+	public double getDuration() {
+		return totalFrames < 0 || sampleRate <= 0 ? 0 : totalFrames / (double) sampleRate;
+	}
+	
+	public float getSampleRate() {
+		return sampleRate;
+	}
+	
+	public long getTotalFrames() {
+		return totalFrames;
+	}
+	
+	/**
+	 * Converts a position in seconds to a PCM frame, kept within the track if we know how long it is.
+	 * @param position
+	 * @return frame, -1 if the index doesn't know the sample rate
+	 */
+	public long toFrame(double position) {
+		return toFrame(position, 0);
+	}
+	
+	/**
+	 * Converts a position in seconds to a PCM frame, using the given sample rate if the index doesn't know it.
+	 * @param position
+	 * @param fallbackSampleRate the rate reported by the decoder, 0 if not known
+	 * @return frame, -1 if neither knows the sample rate
+	 */
+	public long toFrame(double position, float fallbackSampleRate) {
+		float rate = sampleRate > 0 ? sampleRate : fallbackSampleRate;
+		if(rate <= 0) {
+			return -1;
+		}
+		long frame = (long) (Math.max(0, position) * rate);
+		return totalFrames < 0 ? frame : Math.min(frame, totalFrames);
+	}
+	
+	/**
+	 * Finds the last seek point that decoding can start from to reach the given frame.
+	 * @param frame
+	 * @return point
+	 */
+	public int find(long frame) {
+		int point = Arrays.binarySearch(pointFrames, Math.max(0, frame - prerollFrames));
+		// Not an exact match, take the point before where it would go.
+		return point >= 0 ? point : Math.max(0, -point - 2);
+	}
+	
+	public long getPointFrame(int point) {
+		return pointFrames[point];
+	}
+	
+	public long getPointOffset(int point) {
+		return pointOffsets[point];
+	}
+	
+	public int getPointCount() {
+		return pointFrames.length;
+	}
+	
+	/**
+	 * Builds the index for an audio file.
+	 * @param file
+	 * @param format
+	 * @return index
+	 * @throws IOException
+	 */
+	public static SeekIndex build(File file, FileFormat format) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer data = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+			switch(format) {
+			case MP3:
+				return buildMp3(data);
+			case FLAC:
+				return buildFlac(data);
+			case WAV:
+				return buildWav(data);
+			default:
+				return createStartOnly();
+			}
+		} finally {
+			input.close();
+		}
+	}
+	
+	private static SeekIndex createStartOnly() {
+		return new SeekIndex(0, -1, 0, new long[] { 0 }, new long[] { 0 });
+	}
+	
+	/**
+	 * Walks every MP3 frame header, adding a seek point every few frames.
+	 */
+	private static SeekIndex buildMp3(MappedByteBuffer data) {
+		int position = 0;
+		// Skip any ID3v2 tag, its size is stored as four 7 bit bytes.
+		if(data.limit() >= 10 && data.get(0) == 'I' && data.get(1) == 'D' && data.get(2) == '3') {
+			int tagSize = ((data.get(6) & 0x7f) << 21) | ((data.get(7) & 0x7f) << 14) | ((data.get(8) & 0x7f) << 7) | (data.get(9) & 0x7f);
+			position = 10 + tagSize + ((data.get(5) & 0x10) != 0 ? 10 : 0);
+		}
+		LongList frames = new LongList();
+		LongList offsets = new LongList();
+		int sampleRate = 0;
+		long totalFrames = 0;
+		int frameCount = 0;
+		boolean synced = false;
+		while(position + 4 <= data.limit()) {
+			int header = data.getInt(position);
+			int frameLength = getMp3FrameLength(header);
+			// Away from a frame we only trust a header if another follows it, audio data can look like one.
+			if(frameLength > 0 && !synced) {
+				int next = position + frameLength;
+				synced = next + 4 > data.limit() || getMp3FrameLength(data.getInt(next)) > 0;
+			}
+			if(frameLength <= 0 || !synced) {
+				// The ID3v1 tag at the end of the file, we are done.
+				if(data.get(position) == 'T' && data.get(position + 1) == 'A' && data.get(position + 2) == 'G') {
+					break;
+				}
+				synced = false;
+				position++;
+				continue;
+			}
+			if(sampleRate == 0) {
+				sampleRate = getMp3SampleRate(header);
+			}
+			if(frameCount % MP3_FRAMES_PER_POINT == 0) {
+				frames.add(totalFrames);
+				offsets.add(position);
+			}
+			totalFrames += getMp3SamplesPerFrame(header);
+			frameCount++;
+			position += frameLength;
+		}
+		if(frameCount == 0) {
+			return createStartOnly();
+		}
+		return new SeekIndex(sampleRate, totalFrames, MP3_PREROLL_FRAMES * 1152, frames.toArray(), offsets.toArray());
+	}
+	
+	/**
+	 * Get the length in bytes of the MP3 frame with this header, 0 if it isn't a valid header.
+	 * @param header
+	 * @return frame length
+	 */
+	static int getMp3FrameLength(int header) {
+		int version = (header >>> 19) & 3;
+		int layer = (header >>> 17) & 3;
+		int bitrateIndex = (header >>> 12) & 0xf;
+		int sampleRateIndex = (header >>> 10) & 3;
+		if((header >>> 21) != 0x7ff || version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+			return 0;
+		}
+		boolean mpeg1 = version == 3;
+		int padding = (header >>> 9) & 1;
+		int table = mpeg1 ? 3 - layer : (layer == 3 ? 3 : 4);
+		int bitrate = MP3_BITRATES[table][bitrateIndex] * 1000;
+		int sampleRate = getMp3SampleRate(header);
+		if(layer == 3) {
+			// Layer I.
+			return (12 * bitrate / sampleRate + padding) * 4;
+		}
+		return (layer == 1 && !mpeg1 ? 72 : 144) * bitrate / sampleRate + padding;
+	}
+	
+	private static int getMp3SampleRate(int header) {
+		int version = (header >>> 19) & 3;
+		int sampleRate = MP3_SAMPLE_RATES[(header >>> 10) & 3];
+		return version == 3 ? sampleRate : (version == 2 ? sampleRate / 2 : sampleRate / 4);
+	}
+	
+	private static int getMp3SamplesPerFrame(int header) {
+		int layer = (header >>> 17) & 3;
+		if(layer == 3) {
+			return 384;
+		}
+		// Layer III frames are half the length outside of MPEG 1.
+		return layer == 1 && ((header >>> 19) & 3) != 3 ? 576 : 1152;
+	}
+	
+	/**
+	 * Reads the STREAMINFO metadata block of a FLAC file. The SEEKTABLE is not used, a decoder can only open a FLAC 
+	 * stream that starts with its metadata, so decoding always starts from the beginning and only the length is indexed.
+	 */
+	private static SeekIndex buildFlac(MappedByteBuffer data) {
+		if(data.limit() < 8 || data.getInt(0) != 0x664c6143) {
+			// No "fLaC" marker.
+			return createStartOnly();
+		}
+		int position = 4;
+		boolean last = false;
+		while(!last && position + 4 <= data.limit()) {
+			int blockHeader = data.getInt(position);
+			last = (blockHeader >>> 31) != 0;
+			int blockType = (blockHeader >>> 24) & 0x7f;
+			int blockLength = blockHeader & 0xffffff;
+			int blockStart = position + 4;
+			if(blockStart + blockLength > data.limit()) {
+				return createStartOnly();
+			}
+			if(blockType == 0 && blockLength >= 18) {
+				// 20 bits of sample rate, 3 of channels, 5 of bits per sample then 36 of total samples.
+				long streamInfo = data.getLong(blockStart + 10);
+				long totalFrames = streamInfo & 0xfffffffffL;
+				return new SeekIndex((int) (streamInfo >>> 44), totalFrames == 0 ? -1 : totalFrames, 0, new long[] { 0 }, new long[] { 0 });
+			}
+			position = blockStart + blockLength;
+		}
+		return createStartOnly();
+	}
+	
+	/**
+	 * Finds the length of a WAV file's PCM, it can be skipped through without decoding so only the start is indexed.
+	 */
+	private static SeekIndex buildWav(MappedByteBuffer data) {
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		int sampleRate = 0;
+		int blockAlign = 0;
+		int position = 12;
+		while(position + 8 <= data.limit()) {
+			int chunkId = data.order(ByteOrder.BIG_ENDIAN).getInt(position);
+			long chunkLength = data.order(ByteOrder.LITTLE_ENDIAN).getInt(position + 4) & 0xffffffffL;
+			if(chunkId == 0x666d7420 && position + 22 <= data.limit()) {
+				// "fmt "
+				sampleRate = data.getInt(position + 12);
+				blockAlign = data.getShort(position + 20);
+			} else if(chunkId == 0x64617461 && blockAlign > 0) {
+				// "data", which may claim to run on past the end of a file that was cut short.
+				long length = Math.min(chunkLength, data.limit() - position - 8);
+				return new SeekIndex(sampleRate, length / blockAlign, 0, new long[] { 0 }, new long[] { 0 });
+			}
+			// Chunks are padded to an even length.
+			long nextPosition = position + 8 + chunkLength + (chunkLength & 1);
+			if(nextPosition > data.limit()) {
+				break;
+			}
+			position = (int) nextPosition;
+		}
+		return createStartOnly();
+	}
+	
+	/**
+	 * Reads an index saved by save().
+	 * @param indexFile
+	 * @return index
+	 * @throws IOException if the file is not an index or is from a different version
+	 */
+	public static SeekIndex load(File indexFile) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			if(input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException("'" + indexFile.getName() + "' is not a seek index we can read");
+			}
+			float sampleRate = input.readFloat();
+			long totalFrames = input.readLong();
+			long prerollFrames = input.readLong();
+			int pointCount = input.readInt();
+			if(pointCount <= 0) {
+				throw new IOException("'" + indexFile.getName() + "' has no seek points");
+			}
+			long[] pointFrames = new long[pointCount];
+			long[] pointOffsets = new long[pointCount];
+			for(int i = 0; i < pointCount; i++) {
+				pointFrames[i] = input.readLong();
+				pointOffsets[i] = input.readLong();
+			}
+			return new SeekIndex(sampleRate, totalFrames, prerollFrames, pointFrames, pointOffsets);
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Saves this index so that it doesn't have to be built again.
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public void save(File indexFile) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeFloat(sampleRate);
+			output.writeLong(totalFrames);
+			output.writeLong(prerollFrames);
+			output.writeInt(pointFrames.length);
+			for(int i = 0; i < pointFrames.length; i++) {
+				output.writeLong(pointFrames[i]);
+				output.writeLong(pointOffsets[i]);
+			}
+		} finally {
+			output.close();
+		}
+	}
+	
+	/**
+	 * A growable list of longs, to avoid boxing thousands of frame offsets.
+	 */
+	private static class LongList {
+		private long[] values = new long[256];
+		private int size = 0;
+		
+		void add(long value) {
+			if(size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+		
+		long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
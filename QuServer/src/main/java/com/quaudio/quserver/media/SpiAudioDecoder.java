@@ -0,0 +1,51 @@
+package com.quaudio.quserver.media;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Decodes audio files using whichever javax.sound service providers can read them, WAV is built in and 
+ * MP3 and OGG are read by the mp3spi and vorbisspi providers in our libs.
+ * @author Nikolas Howard
+ *
+ */
+public class SpiAudioDecoder implements AudioDecoder {
+
+	@Override
+	public PcmStream open(File file, long offset) throws IOException {
+		try {
+			AudioInputStream sourceStream;
+			if(offset > 0) {
+				// Part way through the file there is no header, the provider has to find the format from the frames.
+				FileInputStream input = new FileInputStream(file);
+				try {
+					input.getChannel().position(offset);
+					sourceStream = AudioSystem.getAudioInputStream(new BufferedInputStream(input));
+				} catch (IOException | UnsupportedAudioFileException e) {
+					input.close();
+					throw e;
+				}
+			} else {
+				sourceStream = AudioSystem.getAudioInputStream(file);
+			}
+			AudioFormat sourceFormat = sourceStream.getFormat();
+			if(sourceFormat.getEncoding() == AudioFormat.Encoding.PCM_SIGNED && sourceFormat.getSampleSizeInBits() == 16 && !sourceFormat.isBigEndian()) {
+				return new PcmStream(sourceStream);
+			}
+			AudioFormat pcmFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sourceFormat.getSampleRate(), 16, 
+					sourceFormat.getChannels(), sourceFormat.getChannels() * 2, sourceFormat.getSampleRate(), false);
+			return new PcmStream(AudioSystem.getAudioInputStream(pcmFormat, sourceStream));
+		} catch (UnsupportedAudioFileException e) {
+			throw new IOException("unsupported audio file '" + file.getName() + "'", e);
+		} catch (IllegalArgumentException e) {
+			// There is no decoder that can give us PCM for this file.
+			throw new IOException("cannot decode '" + file.getName() + "'", e);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.quaudio.quserver.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the title, artist and album from an audio file's tags: ID3v2 or ID3v1 for MP3 and Vorbis comments for FLAC. 
+ * Other formats have their tags left alone.
+ * @author Nikolas Howard
+ *
+ */
+public class TagReader {
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final Charset UTF_16 = Charset.forName("UTF-16");
+	private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private String title = null;
+	private String artist = null;
+	private String album = null;
+	
+	/**
+	 * Reads the tags of an audio file, anything we can't find is left null.
+	 * @param file
+	 * @param format
+	 * @throws IOException
+	 */
+	public TagReader(File file, FileFormat format) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer data = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+			if(format == FileFormat.MP3) {
+				readId3v2(data);
+				// ID3v1 fills in anything the ID3v2 tag didn't have.
+				readId3v1(data);
+			} else if(format == FileFormat.FLAC) {
+				readFlacComments(data);
+			}
+		} finally {
+			input.close();
+		}
+	}
+	
+	public String getTitle() {
+		return title;
+	}
+	
+	public String getArtist() {
+		return artist;
+	}
+	
+	public String getAlbum() {
+		return album;
+	}
+	
+	private void readId3v2(MappedByteBuffer data) {
+		if(data.limit() < 10 || data.get(0) != 'I' || data.get(1) != 'D' || data.get(2) != '3') {
+			return;
+		}
+		int version = data.get(3);
+		int tagEnd = Math.min(data.limit(), 10 + readSyncSafe(data, 6));
+		// Version 2.2 has three letter frame ids and three byte sizes.
+		int headerLength = version == 2 ? 6 : 10;
+		int position = 10;
+		while(position + headerLength <= tagEnd) {
+			String frameId;
+			int frameSize;
+			if(version == 2) {
+				frameId = readAscii(data, position, 3);
+				frameSize = ((data.get(position + 3) & 0xff) << 16) | ((data.get(position + 4) & 0xff) << 8) | (data.get(position + 5) & 0xff);
+			} else {
+				frameId = readAscii(data, position, 4);
+				// Sizes are only sync safe from version 2.4.
+				frameSize = version >= 4 ? readSyncSafe(data, position + 4) : data.getInt(position + 4);
+			}
+			if(frameId.charAt(0) == 0 || frameSize <= 0 || position + headerLength + frameSize > tagEnd) {
+				// Padding, or something we don't understand.
+				break;
+			}
+			int frameStart = position + headerLength;
+			if(frameId.equals("TIT2") || frameId.equals("TT2")) {
+				title = readTextFrame(data, frameStart, frameSize);
+			} else if(frameId.equals("TPE1") || frameId.equals("TP1")) {
+				artist = readTextFrame(data, frameStart, frameSize);
+			} else if(frameId.equals("TALB") || frameId.equals("TAL")) {
+				album = readTextFrame(data, frameStart, frameSize);
+			}
+			position = frameStart + frameSize;
+		}
+	}
+	
+	/**
+	 * Reads an ID3v2 text frame, whose first byte says how the text is encoded.
+	 */
+	private String readTextFrame(MappedByteBuffer data, int start, int length) {
+		Charset charset;
+		switch(data.get(start)) {
+		case 1:
+			charset = UTF_16;
+			break;
+		case 2:
+			charset = UTF_16BE;
+			break;
+		case 3:
+			charset = UTF_8;
+			break;
+		default:
+			charset = ISO_8859_1;
+			break;
+		}
+		return clean(decode(data, start + 1, length - 1, charset));
+	}
+	
+	private void readId3v1(MappedByteBuffer data) {
+		int start = data.limit() - 128;
+		if(start < 0 || data.get(start) != 'T' || data.get(start + 1) != 'A' || data.get(start + 2) != 'G') {
+			return;
+		}
+		if(title == null) {
+			title = clean(decode(data, start + 3, 30, ISO_8859_1));
+		}
+		if(artist == null) {
+			artist = clean(decode(data, start + 33, 30, ISO_8859_1));
+		}
+		if(album == null) {
+			album = clean(decode(data, start + 63, 30, ISO_8859_1));
+		}
+	}
+	
+	private void readFlacComments(MappedByteBuffer data) {
+		if(data.limit() < 8 || data.getInt(0) != 0x664c6143) {
+			return;
+		}
+		int position = 4;
+		boolean last = false;
+		while(!last && position + 4 <= data.limit()) {
+			int blockHeader = data.getInt(position);
+			last = (blockHeader >>> 31) != 0;
+			int blockLength = blockHeader & 0xffffff;
+			int blockStart = position + 4;
+			if(blockStart + blockLength > data.limit()) {
+				return;
+			}
+			if(((blockHeader >>> 24) & 0x7f) == 4) {
+				readVorbisComments(data, blockStart, blockStart + blockLength);
+				return;
+			}
+			position = blockStart + blockLength;
+		}
+	}
+	
+	/**
+	 * Reads a Vorbis comment block, little endian lengths of "KEY=value" strings after the vendor string.
+	 */
+	private void readVorbisComments(MappedByteBuffer data, int start, int end) {
+		ByteBuffer block = data.duplicate();
+		block.order(ByteOrder.LITTLE_ENDIAN);
+		block.limit(end);
+		block.position(start);
+		if(block.remaining() < 8) {
+			return;
+		}
+		int vendorLength = block.getInt();
+		if(vendorLength < 0 || vendorLength > block.remaining() - 4) {
+			return;
+		}
+		block.position(block.position() + vendorLength);
+		int comments = block.getInt();
+		for(int i = 0; i < comments && block.remaining() >= 4; i++) {
+			int length = block.getInt();
+			if(length < 0 || length > block.remaining()) {
+				return;
+			}
+			String comment = decode(data, block.position(), length, UTF_8);
+			block.position(block.position() + length);
+			int separator = comment.indexOf('=');
+			if(separator <= 0) {
+				continue;
+			}
+			String key = comment.substring(0, separator).toUpperCase();
+			String value = clean(comment.substring(separator + 1));
+			if(key.equals("TITLE") && title == null) {
+				title = value;
+			} else if(key.equals("ARTIST") && artist == null) {
+				artist = value;
+			} else if(key.equals("ALBUM") && album == null) {
+				album = value;
+			}
+		}
+	}
+	
+	private static int readSyncSafe(MappedByteBuffer data, int position) {
+		return ((data.get(position) & 0x7f) << 21) | ((data.get(position + 1) & 0x7f) << 14) 
+				| ((data.get(position + 2) & 0x7f) << 7) | (data.get(position + 3) & 0x7f);
+	}
+	
+	private static String readAscii(MappedByteBuffer data, int position, int length) {
+		return decode(data, position, length, ISO_8859_1);
+	}
+	
+	private static String decode(MappedByteBuffer data, int position, int length, Charset charset) {
+		byte[] bytes = new byte[Math.max(0, length)];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = data.get(position + i);
+		}
+		return new String(bytes, charset);
+	}
+	
+	/**
+	 * Trims the padding off a tag value, returns null if nothing is left.
+	 */
+	private static String clean(String value) {
+		int end = value.indexOf('\0');
+		String cleaned = (end >= 0 ? value.substring(0, end) : value).trim();
+		return cleaned.isEmpty() ? null : cleaned;
+	}
+}
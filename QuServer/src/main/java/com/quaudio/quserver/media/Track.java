@@ -0,0 +1,251 @@
+package com.quaudio.quserver.media;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import com.quaudio.quserver.filetransfer.AudioFile;
+import com.quaudio.quserver.server.Log;
+import com.quaudio.quserver.server.ServerEventQueue;
+import com.quaudio.quserver.server.ServerEventType;
+import com.quaudio.quserver.server.TaskExecutor;
+
+/**
+ * A track in the playlist, decoded by the PlaybackEngine whatever its format.
+ * @author Nikolas Howard
+ *
+ */
+public class Track extends Playable {
+	// How much audio is decoded ahead of time so the track can start the moment it is needed.
+	private static final int PREFILL_MILLIS = 2000;
+	// The decoded audio for this track.
+	private volatile PcmStream pcmStream = null;
+	// The state of this track.
+	private volatile TrackState state = TrackState.PENDING;
+	// Where the track starts playing from, in seconds, if it was seeked before it was initialised.
+	private volatile double startPosition = 0;
+	// Counts the seeks asked for, so that a seek finishing late doesn't replace the stream of a later one.
+	private long seekGeneration = 0;
+	// Whether a seek is still opening the track at startPosition.
+	private volatile boolean seeking = false;
+	
+	public Track(AudioFile audioFile) {
+		super(audioFile);
+	}
+	
+	public Track(AudioFile audioFile, String trackId, String ownerId) {
+		super(audioFile, trackId, ownerId);
+	}
+
+	@Override
+	public void initialise(boolean playOnReady) {
+		try {
+			// Open the file with the decoder for its format.
+			pcmStream = PlaybackEngine.getPlaybackEngine().open(this.getAudioFile(), startPosition);
+		} catch (IOException | RuntimeException e) {
+			// We had an error setting up the decoder for this file, just set its state as STOPPED so the playlist dumps it.
+			Log.log(Log.MessageType.ERROR, "TRACK", "error setting up decoder for '" + this.getAudioFile().getName() + "'");
+			stopped();
+			return;
+		}
+		// Decode the start of the track now, rather than when the track before it ends.
+		final PcmStream stream = pcmStream;
+		try {
+			TaskExecutor.getTaskExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						stream.prefill(PREFILL_MILLIS);
+					} catch (IOException e) {
+						Log.log(Log.MessageType.ERROR, "TRACK", "error decoding '" + getAudioFile().getName() + "'");
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The AudioOutput's thread will decode the start of the track as it reads it instead.
+			Log.log(Log.MessageType.WARNING, "TRACK", "unable to prefill '" + this.getAudioFile().getName() + "'");
+		}
+		
+		// Start playing the file if the playlist has requested it
+		if(playOnReady) {
+			play();
+		}
+	}
+	
+	@Override
+	public void play() {
+		// A track that has stopped can't be started again.
+		if(this.state == TrackState.STOPPED) {
+			return;
+		}
+		if(Log.isEnabled(Log.MessageType.INFO)) {
+			Log.log(Log.MessageType.INFO, "TRACK", "play '" + this.getAudioFile().getName() + "'");
+		}
+		// Play this track, whether its the first time or we are un-pausing.
+		PlaybackEngine.getPlaybackEngine().getAudioOutput().play(this);
+		// Set the track state to playing.
+		this.state = TrackState.PLAYING;
+	}
+
+	@Override
+	public void pause() {
+		// The output ignores a track that has already finished playing, which must not be reported as paused.
+		if(PlaybackEngine.getPlaybackEngine().getAudioOutput().pause(this)) {
+			this.state = TrackState.PAUSED;
+		}
+	}
+
+	@Override
+	public void skipTo(final double position) {
+		if(this.state == TrackState.STOPPED) {
+			return;
+		}
+		if(!isInitialised()) {
+			// Open the track at this position when it comes up.
+			startPosition = position;
+			return;
+		}
+		final long seek;
+		synchronized(this) {
+			seek = ++seekGeneration;
+			// Until the seeked stream is in, report the position we are heading for.
+			startPosition = position;
+			seeking = true;
+		}
+		// Opening at a position can mean building the seek index and decoding up to it, so keep it off the server loop.
+		try {
+			TaskExecutor.getTaskExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					seek(position, seek);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			Log.log(Log.MessageType.ERROR, "TRACK", "unable to seek in '" + this.getAudioFile().getName() + "'");
+			seekFinished(seek);
+		}
+	}
+	
+	/**
+	 * Opens the track at the given position and swaps it in for the current stream, unless a later seek or 
+	 * the track being disposed has overtaken it. Runs on the TaskExecutor.
+	 * @param position
+	 * @param seek
+	 */
+	private void seek(double position, long seek) {
+		PcmStream seekedStream;
+		try {
+			// The decoder starts from the nearest seek point, not from the start of the file.
+			seekedStream = PlaybackEngine.getPlaybackEngine().open(this.getAudioFile(), position);
+			seekedStream.prefill(PREFILL_MILLIS);
+		} catch (IOException | RuntimeException e) {
+			Log.log(Log.MessageType.ERROR, "TRACK", "rejected skip in '" + this.getAudioFile().getName() + "' to " + position + ", " + e.getMessage());
+			seekFinished(seek);
+			return;
+		}
+		PcmStream oldStream;
+		synchronized(this) {
+			if(seek != seekGeneration || this.state == TrackState.STOPPED) {
+				oldStream = seekedStream;
+			} else {
+				oldStream = pcmStream;
+				pcmStream = seekedStream;
+				seeking = false;
+			}
+		}
+		if(oldStream != seekedStream) {
+			positionChanged();
+			if(Log.isEnabled(Log.MessageType.INFO)) {
+				Log.log(Log.MessageType.INFO, "TRACK", "skip '" + this.getAudioFile().getName() + "' to " + position);
+			}
+			// Anything already decoded from the old position is thrown away.
+			PlaybackEngine.getPlaybackEngine().getAudioOutput().restart(this);
+		}
+		if(oldStream != null) {
+			oldStream.close();
+		}
+	}
+	
+	/**
+	 * Goes back to reporting the position of the current stream after a failed seek, if no later seek has been asked for.
+	 * @param seek
+	 */
+	private void seekFinished(long seek) {
+		synchronized(this) {
+			if(seek != seekGeneration) {
+				return;
+			}
+			seeking = false;
+		}
+		// The position we said we were heading for was wrong.
+		positionChanged();
+	}
+
+	@Override
+	public void stop() {
+		PlaybackEngine.getPlaybackEngine().getAudioOutput().stop(this);
+		stopped();
+	}
+
+	@Override
+	public void deleteAudioData() {
+		// TODO Delete the file off the disc
+	}
+
+	@Override
+	public TrackState getState() {
+		return this.state;
+	}
+
+	@Override
+	public double getDuration() {
+		// The analysis decodes the whole file so it is exact, until it is done the index will do.
+		AudioAnalysis analysis = this.getAudioFile().getAnalysis();
+		if(analysis != null && analysis.getDuration() > 0) {
+			return analysis.getDuration();
+		}
+		// The index is built when the file is uploaded.
+		SeekIndex seekIndex = this.getAudioFile().getSeekIndex();
+		return seekIndex == null ? 0 : seekIndex.getDuration();
+	}
+
+	@Override
+	public double getPostion() {
+		PcmStream stream = pcmStream;
+		return stream == null || seeking ? startPosition : stream.getPosition();
+	}
+
+	@Override
+	public void dispose() {
+		PlaybackEngine.getPlaybackEngine().getAudioOutput().stop(this);
+		PcmStream stream;
+		synchronized(this) {
+			// Any seek still running throws its stream away rather than swapping it in.
+			seekGeneration++;
+			stream = pcmStream;
+		}
+		if(stream != null) {
+			stream.close();
+		}
+	}
+	
+	@Override
+	public PcmStream getPcmStream() {
+		return pcmStream;
+	}
+	
+	@Override
+	public void onPlaybackStarted() {
+		// The track before us has ended and we are already playing, the playlist catches up when it sees the old track stopped.
+		this.state = TrackState.PLAYING;
+	}
+	
+	@Override
+	public void onPlaybackFinished() {
+		stopped();
+	}
+	
+	private void stopped() {
+		this.state = TrackState.STOPPED;
+		// Wake the server loop so that the playlist moves on to the next track straight away.
+		ServerEventQueue.getEventQueue().post(ServerEventType.TRACK_STOPPED);
+	}
+}
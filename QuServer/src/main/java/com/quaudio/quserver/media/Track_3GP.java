@@ -1,70 +0,0 @@
-package com.quaudio.quserver.media;
-
-import com.quaudio.quserver.filetransfer.AudioFile;
-
-public class Track_3GP extends Playable {
-	
-	public Track_3GP(AudioFile audioFile) {
-		super(audioFile);
-	}
-
-	@Override
-	public void initialise(boolean playOnReady) {
-		// TODO Auto-generated method stub
-		
-	}
-
-	@Override
-	public void play() {
-		// TODO Auto-generated method stub
-		
-	}
-
-	@Override
-	public void pause() {
-		// TODO Auto-generated method stub
-		
-	}
-
-	@Override
-	public void skipTo(double position) {
-		// TODO Auto-generated method stub
-		
-	}
-
-	@Override
-	public void stop() {
-		// TODO Auto-generated method stub
-		
-	}
-
-	@Override
-	public void deleteAudioData() {
-		// TODO Auto-generated method stub
-		
-	}
-
-	@Override
-	public TrackState getState() {
-		// TODO Auto-generated method stub
-		return null;
-	}
-
-	@Override
-	public double getDuration() {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-
-	@Override
-	public double getPostion() {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-
-	@Override
-	public void dispose() {
-		// TODO Auto-generated method stub
-		
-	}
-}
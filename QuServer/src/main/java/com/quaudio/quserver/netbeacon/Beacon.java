@@ -8,10 +8,12 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import com.quaudio.quserver.server.Log;
 import com.quaudio.quserver.server.Server;
+import com.quaudio.quserver.server.TaskExecutor;
 
 /**
  * Listens for probe requests from client NetProbe. 
@@ -49,19 +51,19 @@ public class Beacon {
 	 * Start the beacon.
 	 */
 	public void start() {
-		// Start the probe listener and client receiver in separate threads.
-		Thread probeListenerThread = new Thread(new Runnable() {
-			@Override
-			public void run() { runProbeListener(); }
-		});
-		probeListenerThread.setDaemon(true);
-		probeListenerThread.start();
-		Thread clientReceiverThread = new Thread(new Runnable() {
-			@Override
-			public void run() { runClientReceiver(); }
-		});
-		clientReceiverThread.setDaemon(true);
-		clientReceiverThread.start();
+		// Start the probe listener and client receiver as separate tasks.
+		try {
+			TaskExecutor.getTaskExecutor().execute(new Runnable() {
+				@Override
+				public void run() { runProbeListener(); }
+			});
+			TaskExecutor.getTaskExecutor().execute(new Runnable() {
+				@Override
+				public void run() { runClientReceiver(); }
+			});
+		} catch (RejectedExecutionException e) {
+			Log.log(Log.MessageType.ERROR, "NETPROBE_BEACON", "no thread available to run beacon");
+		}
 	}
 	
 	/**
@@ -94,7 +96,9 @@ public class Beacon {
 				String packetMessage = new String(potentialProbe.getData());
 				if(packetMessage.trim().equals("QU_C_PRB")) {
 					// This is a probe!
-					Log.log(Log.MessageType.INFO, "NETPROBE_BEACON", "got probe from '" + potentialProbe.getAddress().getHostAddress() + "', returning response");
+					if(Log.isEnabled(Log.MessageType.INFO)) {
+						Log.log(Log.MessageType.INFO, "NETPROBE_BEACON", "got probe from '" + potentialProbe.getAddress().getHostAddress() + "', returning response");
+					}
 					// Form our response message.
 					byte[] sendData = "QU_S_RSP".getBytes();
 					// Send our response.
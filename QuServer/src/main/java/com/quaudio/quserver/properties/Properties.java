@@ -13,6 +13,18 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import com.quaudio.quserver.clientmanager.ClientIOMode;
+import com.quaudio.quserver.clientmanager.ClientManager;
+import com.quaudio.quserver.clientmanager.FrameCompressor;
+import com.quaudio.quserver.clientmanager.OutgoingQueuePolicy;
+import com.quaudio.quserver.filetransfer.AudioFileReceiver;
+import com.quaudio.quserver.filetransfer.BandwidthShaper;
+import com.quaudio.quserver.filetransfer.UploadScheduler;
+import com.quaudio.quserver.media.AudioAnalyser;
+import com.quaudio.quserver.server.Log;
+import com.quaudio.quserver.server.TaskExecutor;
+import com.quaudio.quserver.server.ThreadingMode;
 
 /**
  * 
@@ -92,6 +104,110 @@ public class Properties {
 		return Boolean.parseBoolean(node.getTextContent());
 	}
 	
+	public synchronized Log.MessageType getLogLevel() {
+		try {
+			return Log.MessageType.valueOf(getOptionalProperty("LOG_LEVEL", Log.MessageType.INFO.toString()).trim());
+		} catch (IllegalArgumentException e) {
+			// We have no knowledge of this level, log everything.
+			return Log.MessageType.INFO;
+		}
+	}
+	
+	public synchronized int getLogBufferSize() {
+		return Integer.parseInt(getOptionalProperty("LOG_BUFFER_SIZE", "" + Log.DEFAULT_BUFFER_SIZE).trim());
+	}
+	
+	public synchronized ClientIOMode getClientManagerIOMode() {
+		try {
+			return ClientIOMode.valueOf(getOptionalProperty("CM_IO_MODE", ClientIOMode.BLOCKING.toString()).trim());
+		} catch (IllegalArgumentException e) {
+			// We have no knowledge of this mode, stick with the default.
+			return ClientIOMode.BLOCKING;
+		}
+	}
+	
+	public synchronized ThreadingMode getThreadingMode() {
+		try {
+			return ThreadingMode.valueOf(getOptionalProperty("THREAD_MODE", ThreadingMode.VIRTUAL.toString()).trim());
+		} catch (IllegalArgumentException e) {
+			// We have no knowledge of this mode, stick with the default.
+			return ThreadingMode.VIRTUAL;
+		}
+	}
+	
+	public synchronized int getMaxPlatformThreads() {
+		return Integer.parseInt(getOptionalProperty("MAX_PLATFORM_THREADS", "" + TaskExecutor.DEFAULT_MAX_PLATFORM_THREADS).trim());
+	}
+	
+	public synchronized int getUploadBufferSize() {
+		return Integer.parseInt(getOptionalProperty("UPLOAD_BUFFER_SIZE", "" + AudioFileReceiver.DEFAULT_UPLOAD_BUFFER_SIZE).trim());
+	}
+	
+	public synchronized int getUploadWorkers() {
+		return Integer.parseInt(getOptionalProperty("UPLOAD_WORKERS", "" + UploadScheduler.DEFAULT_WORKERS).trim());
+	}
+	
+	public synchronized int getUploadQueueSize() {
+		return Integer.parseInt(getOptionalProperty("UPLOAD_QUEUE_SIZE", "" + UploadScheduler.DEFAULT_QUEUE_SIZE).trim());
+	}
+	
+	public synchronized int getUploadClientLimit() {
+		return Integer.parseInt(getOptionalProperty("UPLOAD_CLIENT_LIMIT", "" + UploadScheduler.DEFAULT_CLIENT_LIMIT).trim());
+	}
+	
+	public synchronized long getUploadRateLimit() {
+		return Long.parseLong(getOptionalProperty("UPLOAD_RATE_LIMIT", "" + BandwidthShaper.DEFAULT_RATE_LIMIT).trim());
+	}
+	
+	public synchronized long getUploadClientRateLimit() {
+		return Long.parseLong(getOptionalProperty("UPLOAD_CLIENT_RATE_LIMIT", "" + BandwidthShaper.DEFAULT_CLIENT_RATE_LIMIT).trim());
+	}
+	
+	public synchronized long getUploadLatencyTarget() {
+		return Long.parseLong(getOptionalProperty("UPLOAD_LATENCY_TARGET_MS", "" + BandwidthShaper.DEFAULT_LATENCY_TARGET_MS).trim());
+	}
+	
+	public synchronized int getAnalysisWorkers() {
+		return Integer.parseInt(getOptionalProperty("ANALYSIS_WORKERS", "" + AudioAnalyser.DEFAULT_WORKERS).trim());
+	}
+	
+	public synchronized int getAnalysisQueueSize() {
+		return Integer.parseInt(getOptionalProperty("ANALYSIS_QUEUE_SIZE", "" + AudioAnalyser.DEFAULT_QUEUE_SIZE).trim());
+	}
+	
+	public synchronized boolean isLoudnessNormalisationEnabled() {
+		return Boolean.parseBoolean(getOptionalProperty("LOUDNESS_NORMALISATION", "true").trim());
+	}
+	
+	public synchronized int getOutgoingQueueLimit() {
+		return Integer.parseInt(getOptionalProperty("OUTGOING_QUEUE_LIMIT", "" + ClientManager.DEFAULT_OUTGOING_QUEUE_LIMIT).trim());
+	}
+	
+	public synchronized long getOutgoingMaxLag() {
+		return Long.parseLong(getOptionalProperty("OUTGOING_MAX_LAG_MS", "" + ClientManager.DEFAULT_OUTGOING_MAX_LAG_MS).trim());
+	}
+	
+	public synchronized boolean isBinaryActionsEnabled() {
+		return Boolean.parseBoolean(getOptionalProperty("BINARY_ACTIONS", "true").trim());
+	}
+	
+	public synchronized boolean isActionCompressionEnabled() {
+		return Boolean.parseBoolean(getOptionalProperty("ACTION_COMPRESSION", "true").trim());
+	}
+	
+	public synchronized int getCompressionThreshold() {
+		return Integer.parseInt(getOptionalProperty("COMPRESSION_THRESHOLD", "" + FrameCompressor.DEFAULT_THRESHOLD).trim());
+	}
+	
+	public synchronized OutgoingQueuePolicy getOutgoingQueuePolicy() {
+		try {
+			return OutgoingQueuePolicy.valueOf(getOptionalProperty("OUTGOING_QUEUE_POLICY", OutgoingQueuePolicy.MERGE_LATEST.toString()).trim());
+		} catch (IllegalArgumentException e) {
+			// We have no knowledge of this policy, stick with the default.
+			return OutgoingQueuePolicy.MERGE_LATEST;
+		}
+	}
+	
 	public synchronized void setUploadDirectory(String uploadDir) {
 		Node node = xmlDoc.getDocumentElement().getElementsByTagName("TEMP_FILE_DIR").item(0);
 		node.setTextContent(uploadDir);
@@ -178,6 +294,20 @@ public class Properties {
 		return false;
 	}
 	
+	/**
+	 * Gets the value of a property that may not be present in older property files.
+	 * @param tagName
+	 * @param defaultValue
+	 * @return value, or defaultValue if the property is missing
+	 */
+	private String getOptionalProperty(String tagName, String defaultValue) {
+		NodeList nodes = xmlDoc.getDocumentElement().getElementsByTagName(tagName);
+		if(nodes.getLength() == 0) {
+			return defaultValue;
+		}
+		return nodes.item(0).getTextContent();
+	}
+	
 	public boolean isOSUnixLike() {
 		if(System.getProperty("os.name").startsWith("Windows")) {
 			return false;
@@ -1,119 +1,267 @@
 package com.quaudio.quserver.server;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.text.DateFormat;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * 
+ * Logging threads only ever add an entry to a lock free ring of preallocated entries, everything else (formatting
+ * the entries and writing them to the console and log file) is done in batches by a flusher thread.
+ * Messages below the LOG_LEVEL are dropped before anything is done with them, callers that build a message
+ * on a busy path can check isEnabled() first so that the message isn't even built.
  * @author Nikolas Howard
  *
  */
 public class Log {
-	private static boolean writeToFile = false;
-	private static boolean writeToConsole = false;
-	private static Object consoleWriteLock = new Object();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	static final String LINE_SEPARATOR = System.getProperty("line.separator");
+	private static final String DATE_TIME_PATTERN = "yyyy:MM:dd HH:mm:ss";
+	// The default number of entries that can be waiting to be written.
+	public static final int DEFAULT_BUFFER_SIZE = 4096;
+	// How long the flusher waits before looking again when there was nothing to write.
+	private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+	// The most entries written in one go.
+	private static final int MAX_BATCH_ENTRIES = 512;
+	// The size above which we don't hang on to the batch builder between flushes.
+	private static final int MAX_RETAINED_BATCH_SIZE = 1024 * 1024;
+	private static volatile boolean writeToFile = false;
+	private static volatile boolean writeToConsole = false;
+	// The ordinal of the lowest MessageType that is logged, nothing is logged until the Log has been initialised.
+	private static volatile int minimumLevel = MessageType.values().length;
+	private static LogRingBuffer pendingLogEntries = null;
 	private static File logFile = null;
-	private static PrintWriter logFileWriter = null;
-	private static DateFormat dateTimeFileFormat = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss");
-	private static DateFormat dateTimeFormat = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss");
-	
-	private static LinkedList<LogEntry> pendingLogEntries = null;
-	
+	private static FileChannel logFileChannel = null;
+	// The formatted date and time of the second that was last logged in, so it is formatted once per second at most.
+	private static volatile CachedDateTime cachedDateTime = new CachedDateTime(Long.MIN_VALUE, "");
+	// Only one thread reads from the ring at a time, this also guards everything that the flusher reuses.
+	private static final Object flushLock = new Object();
+	private static StringBuilder batch = new StringBuilder(8192);
+	private static final CharsetEncoder encoder = UTF8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private static final ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+
 	public enum MessageType {
 		INFO,
 		WARNING,
 		ERROR,
 		CRITICAL
 	}
-	
+
 	public static void initialise() {
 		// Read server properties to determine whether we are logging to console/file
 		writeToConsole = Server.properties.loggingToConsoleEnabled();
-		writeToFile = Server.properties.loggingToConsoleEnabled();
-		
+		writeToFile = Server.properties.loggingToFileEnabled();
+		MessageType logLevel = Server.properties.getLogLevel();
+		pendingLogEntries = new LogRingBuffer(Server.properties.getLogBufferSize());
+
 		// Are we writing log entries to disk?
 		if(writeToFile) {
-			pendingLogEntries = new LinkedList<LogEntry>();
 			// Create a new log file for this session.
-			logFile = new File("logs/" + dateTimeFileFormat.format(new Date()));
-			if(!logFile.exists()) {
-				try {
-					logFile.createNewFile();
-				} catch (IOException e) {
-					// Could not create log file.
-					writeToFile = false;
-					System.out.println("Failed to create session log file!");
+			logFile = new File("logs/" + new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss").format(new Date()));
+			logFile.getAbsoluteFile().getParentFile().mkdirs();
+			try {
+				logFileChannel = new FileOutputStream(logFile, true).getChannel();
+			} catch (IOException e) {
+				// Could not create log file.
+				writeToFile = false;
+				System.out.println("Failed to create session log file!");
+				System.out.println("Logging to file is disabled!");
+			}
+		}
+		if(!writeToConsole && !writeToFile) {
+			return;
+		}
+		// Start the flusher thread, it will write entries out until the server is killed.
+		Thread flusherThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(true) {
+					if(!flush()) {
+						LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+					}
 				}
-				try {
-					logFileWriter = new PrintWriter(new FileWriter(logFile, true));
-				} catch (IOException e) {
-					// Could not create log file writer.
-					writeToFile = false;
-					System.out.println("Failed to create session log file writer!");
+			}
+		}, "log-flusher");
+		flusherThread.setDaemon(true);
+		flusherThread.start();
+		// Make sure nothing is lost if we are stopped.
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				forceWrite();
+			}
+		}));
+		// Only now that everything is set up will messages be accepted.
+		minimumLevel = logLevel.ordinal();
+	}
+
+	/**
+	 * Returns whether messages of the given type are being logged.
+	 * @param messageType
+	 * @return enabled
+	 */
+	public static boolean isEnabled(MessageType messageType) {
+		return messageType.ordinal() >= minimumLevel;
+	}
+
+	public static void log(MessageType messageType, String area, String message) {
+		// Is this level being logged at all?
+		if(messageType.ordinal() < minimumLevel) {
+			return;
+		}
+		// The entry is formatted and written by the flusher.
+		pendingLogEntries.offer(messageType, area, message, System.currentTimeMillis());
+	}
+
+	/**
+	 * Writes all pending log entries now, rather than waiting for the flusher thread.
+	 */
+	public static void appendLogEntriesToFile() {
+		flush();
+	}
+
+	public static boolean writingToFile() {
+		return writeToFile;
+	}
+
+	/**
+	 * Called when we need to write to the log before the server is killed.
+	 * Needed as the flusher thread wont get a chance to write entries that are still pending.
+	 */
+	public static void forceWrite() {
+		flush();
+	}
+
+	/**
+	 * Writes out the pending log entries, returning false if there were none.
+	 * @return wrote entries
+	 */
+	private static boolean flush() {
+		synchronized(flushLock) {
+			if(pendingLogEntries == null) {
+				return false;
+			}
+			long dropped = pendingLogEntries.takeDropped();
+			if(dropped > 0) {
+				LogEntry droppedEntry = new LogEntry();
+				droppedEntry.set(MessageType.WARNING, "LOG", dropped + " log entries were dropped as the log buffer was full",
+						System.currentTimeMillis());
+				droppedEntry.appendComposedEntry(batch);
+				batch.append(LINE_SEPARATOR);
+			}
+			boolean wroteEntries = false;
+			while(true) {
+				pendingLogEntries.drainTo(batch, MAX_BATCH_ENTRIES);
+				if(batch.length() == 0) {
+					break;
 				}
-				if(!writeToFile) {
-					System.out.println("Logging to file is disabled!");
+				writeBatch();
+				wroteEntries = true;
+				if(batch.capacity() > MAX_RETAINED_BATCH_SIZE) {
+					batch = new StringBuilder(8192);
+				} else {
+					batch.setLength(0);
 				}
 			}
+			return wroteEntries;
 		}
 	}
-	
-	public static void log(MessageType messageType, String area, String message) {
-		// Are we writing to the console?
+
+	/**
+	 * Writes the batch to the console and the log file, must be called while holding flushLock.
+	 */
+	private static void writeBatch() {
 		if(writeToConsole) {
-			synchronized(consoleWriteLock) {
-				String composedLogEntry = dateTimeFormat.format(new Date()) + " : " 
-						+ padValue(messageType.toString(), 10) + " : " + padValue(area, 20) + " : " + message;
-				System.out.println(composedLogEntry);
-			}
+			System.out.print(batch);
 		}
-		// Are we writing to file? 
 		if(writeToFile) {
-			LogEntry entry = new LogEntry(messageType, area, message, dateTimeFormat.format(new Date()));
-			synchronized(pendingLogEntries) {
-				pendingLogEntries.add(entry);
+			try {
+				CharBuffer chars = CharBuffer.wrap(batch);
+				encoder.reset();
+				CoderResult result;
+				do {
+					result = encoder.encode(chars, writeBuffer, true);
+					writeBuffer();
+				} while(result.isOverflow());
+				do {
+					result = encoder.flush(writeBuffer);
+					writeBuffer();
+				} while(result.isOverflow());
+			} catch (IOException e) {
+				writeBuffer.clear();
+				writeToFile = false;
+				System.out.println("Failed to write to session log file, logging to file is disabled!");
 			}
 		}
 	}
-	
-	public static void appendLogEntriesToFile() {
-		synchronized(pendingLogEntries) {
-			// Write all pending log entries to the log file.
-			for(LogEntry entry : pendingLogEntries) {
-				logFileWriter.println(entry.getComposedEntry());
-			}
-			logFileWriter.flush();
-			// Clear all log entries for the pending log entries list.
-			pendingLogEntries.clear();
+
+	private static void writeBuffer() throws IOException {
+		writeBuffer.flip();
+		while(writeBuffer.hasRemaining()) {
+			logFileChannel.write(writeBuffer);
 		}
+		writeBuffer.clear();
 	}
-	
-	public static boolean writingToFile() {
-		return writeToFile;
+
+	/**
+	 * Appends the formatted date and time of a currentTimeMillis() to builder. Safe to call from any thread.
+	 * @param builder
+	 * @param time
+	 */
+	static void appendDateTime(StringBuilder builder, long time) {
+		long second = time / 1000;
+		CachedDateTime cached = cachedDateTime;
+		if(cached.second != second) {
+			// SimpleDateFormat isn't thread safe, so it is never shared. This only happens once a second.
+			cached = new CachedDateTime(second, new SimpleDateFormat(DATE_TIME_PATTERN).format(new Date(second * 1000)));
+			cachedDateTime = cached;
+		}
+		builder.append(cached.text);
 	}
-	
+
 	/**
-	 * Called when we need to write to the log before the server is killed.
-	 * Needed as the main server loop wont get a chance to call 'appendLogEntriesToFile()'
+	 * Appends text to builder, padded with spaces to at least the given length.
+	 * @param builder
+	 * @param text
+	 * @param length
 	 */
-	public static void forceWrite() {
-		appendLogEntriesToFile();
+	static void appendPaddedValue(StringBuilder builder, String text, int length) {
+		builder.append(text);
+		for(int i = text.length(); i < length; i++) {
+			builder.append(' ');
+		}
 	}
-	
+
 	public static String padValue(String text, int length) {
 		if(text.length() >= length) {
 			return text;
 		}
-		String paddedValue = text;
-		for(int i = 0; i < (length - text.length()); i++) {
-			paddedValue += " ";
+		StringBuilder paddedValue = new StringBuilder(length);
+		appendPaddedValue(paddedValue, text, length);
+		return paddedValue.toString();
+	}
+
+	/**
+	 * A formatted second, immutable so that it can be shared between threads.
+	 */
+	private static class CachedDateTime {
+		private final long second;
+		private final String text;
+
+		CachedDateTime(long second, String text) {
+			this.second = second;
+			this.text = text;
 		}
-		return paddedValue;
 	}
 }
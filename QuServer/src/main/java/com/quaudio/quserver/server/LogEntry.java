@@ -5,21 +5,64 @@ import com.quaudio.quserver.server.Log.MessageType;
 /**
  * @author Nikolas Howard
  * Represents a log entry.
+ * The Log reuses its entries, filling them in with the time at which they were logged rather than a formatted date.
  */
 public class LogEntry {
 	private MessageType type;
 	private String area;
 	private String message;
 	private String dateTime;
-	
+	// The currentTimeMillis() at which a reused entry was logged, used when there is no dateTime.
+	private long time;
+
 	public LogEntry(MessageType messageType, String area, String message, String dateTime) {
 		this.type = messageType;
 		this.area = area;
 		this.message = message;
 		this.dateTime = dateTime;
 	}
-	
+
+	/**
+	 * Creates an empty entry for the Log to fill in.
+	 */
+	LogEntry() {}
+
+	void set(MessageType messageType, String area, String message, long time) {
+		this.type = messageType;
+		this.area = area;
+		this.message = message;
+		this.dateTime = null;
+		this.time = time;
+	}
+
+	/**
+	 * Drops the strings held by an entry once it has been written, so that they can be collected.
+	 */
+	void clear() {
+		this.area = null;
+		this.message = null;
+	}
+
 	public String getComposedEntry() {
-		return dateTime + " : " + Log.padValue(type.toString(), 10) + " : " + Log.padValue(area, 20) + " : " + message;
+		StringBuilder composedEntry = new StringBuilder(64 + String.valueOf(message).length());
+		appendComposedEntry(composedEntry);
+		return composedEntry.toString();
+	}
+
+	/**
+	 * Appends the composed entry to builder without creating any intermediate strings.
+	 * @param builder
+	 */
+	void appendComposedEntry(StringBuilder builder) {
+		if(dateTime != null) {
+			builder.append(dateTime);
+		} else {
+			Log.appendDateTime(builder, time);
+		}
+		builder.append(" : ");
+		Log.appendPaddedValue(builder, type.toString(), 10);
+		builder.append(" : ");
+		Log.appendPaddedValue(builder, String.valueOf(area), 20);
+		builder.append(" : ").append(message);
 	}
-}
\ No newline at end of file
+}
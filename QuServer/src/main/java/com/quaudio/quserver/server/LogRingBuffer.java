@@ -0,0 +1,111 @@
+package com.quaudio.quserver.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import com.quaudio.quserver.server.Log.MessageType;
+
+/**
+ * A fixed size ring of preallocated LogEntry objects that any number of threads can log into without taking a lock.
+ * Each slot has a sequence number that tells a logging thread when the slot is free and the reader when it has been
+ * filled in, so a thread only ever has to win a compareAndSet on the tail to claim a slot. If the ring is full the
+ * entry is dropped and counted rather than making the logging thread wait.
+ * There must only be one thread reading from the ring at a time.
+ * @author Nikolas Howard
+ *
+ */
+class LogRingBuffer {
+	private final LogEntry[] entries;
+	// For each slot, the position at which it is free to be written to, or that position + 1 once it has been written.
+	private final AtomicLongArray sequences;
+	private final int mask;
+	// The next position to be claimed by a logging thread.
+	private final AtomicLong tail = new AtomicLong();
+	// The next position to be read, only ever touched by the reader.
+	private long head = 0;
+	// The number of entries dropped because the ring was full.
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Creates a ring with room for at least the given number of entries, rounded up to a power of two.
+	 * @param capacity
+	 */
+	LogRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		entries = new LogEntry[size];
+		sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++) {
+			entries[i] = new LogEntry();
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Adds an entry to the ring, returns false if it was full.
+	 * @param type
+	 * @param area
+	 * @param message
+	 * @param time
+	 * @return added
+	 */
+	boolean offer(MessageType type, String area, String message, long time) {
+		long position;
+		while(true) {
+			position = tail.get();
+			long available = sequences.get((int) position & mask) - position;
+			if(available == 0) {
+				if(tail.compareAndSet(position, position + 1)) {
+					break;
+				}
+			} else if(available < 0) {
+				// The reader hasn't got this far round yet.
+				dropped.incrementAndGet();
+				return false;
+			}
+			// Another thread claimed this position first, try the next one.
+		}
+		int slot = (int) position & mask;
+		entries[slot].set(type, area, message, time);
+		// Publish the entry to the reader.
+		sequences.lazySet(slot, position + 1);
+		return true;
+	}
+
+	/**
+	 * Appends up to maxEntries of the oldest entries to builder, one per line, returning the number appended.
+	 * @param builder
+	 * @param maxEntries
+	 * @return count
+	 */
+	int drainTo(StringBuilder builder, int maxEntries) {
+		int count = 0;
+		while(count < maxEntries) {
+			int slot = (int) head & mask;
+			if(sequences.get(slot) != head + 1) {
+				// Either the ring is empty or the next entry is still being written.
+				break;
+			}
+			LogEntry entry = entries[slot];
+			entry.appendComposedEntry(builder);
+			builder.append(Log.LINE_SEPARATOR);
+			entry.clear();
+			// Hand the slot back to the logging threads for their next time round.
+			sequences.lazySet(slot, head + entries.length);
+			head++;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of entries dropped since the last call, resetting the count.
+	 * @return dropped
+	 */
+	long takeDropped() {
+		return dropped.getAndSet(0);
+	}
+
+	int getCapacity() {
+		return entries.length;
+	}
+}
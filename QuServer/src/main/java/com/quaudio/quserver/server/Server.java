@@ -5,12 +5,14 @@ import java.util.UUID;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.quaudio.quserver.clientmanager.ActionLatencyMonitor;
 import com.quaudio.quserver.clientmanager.ClientManager;
 import com.quaudio.quserver.clientmanager.IncomingAction;
 import com.quaudio.quserver.clientmanager.OutgoingAction;
 import com.quaudio.quserver.clientmanager.OutgoingActionType;
 import com.quaudio.quserver.filetransfer.AudioFile;
 import com.quaudio.quserver.filetransfer.AudioFileReceiver;
+import com.quaudio.quserver.filetransfer.PendingUpload;
 import com.quaudio.quserver.media.Playlist;
 import com.quaudio.quserver.netbeacon.Beacon;
 import com.quaudio.quserver.properties.Properties;
@@ -26,6 +28,10 @@ public class Server {
 	private ClientManager clientManager = null;
 	public static Properties properties;
 	private boolean isRunning = true;
+	// The longest time the server loop will wait for an event before doing a pass anyway (flushing logs etc).
+	private static final long HOUSEKEEPING_INTERVAL_MS = 1000;
+	// The most IncomingActions processed in one pass of the server loop.
+	private static final int MAX_INCOMING_ACTION_BATCH = 64;
 	
 	/**
 	 * Entry point.
@@ -74,6 +80,9 @@ public class Server {
 		audioFileReceiver.start();
 		Log.log(Log.MessageType.INFO, "AUDIO_FILE_RECEIVER", "started!");
 		
+		// Playback starts at the master volume that clients are told about.
+		Utils.getUtils().setMasterVolume(Utils.getUtils().getMasterVolume());
+		
 		// Initialise PlayList
 		Log.log(Log.MessageType.INFO, "PLAYLIST", "initialising...");
 		playlist = new Playlist();
@@ -81,7 +90,7 @@ public class Server {
 		
 		// Initialise ClientManager
 		Log.log(Log.MessageType.INFO, "CLIENT_MANAGER", "initialising...");
-		clientManager = new ClientManager(properties.getClientManagerPort());
+		clientManager = new ClientManager(properties.getClientManagerPort(), properties.getClientManagerIOMode());
 		Log.log(Log.MessageType.INFO, "CLIENT_MANAGER", "initialised!");
 		Log.log(Log.MessageType.INFO, "CLIENT_MANAGER", "starting...");
 		clientManager.start();
@@ -94,37 +103,37 @@ public class Server {
 	}
 	
 	/**
-	 * The main server loop
+	 * The main server loop.
+	 * Sleeps until another thread posts an event to the ServerEventQueue, or until the housekeeping interval passes.
 	 */
 	private void systemLoop() {
 		Log.log(Log.MessageType.INFO, "SERVER", "beginning system loop...");
 		while(isRunning) {
+			// Wait for something to happen.
+			try {
+				ServerEventQueue.getEventQueue().take(HOUSEKEEPING_INTERVAL_MS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
 			// Fetch and Process all pending IncomingActions from the ClientManager
 			processIncomingActions();
 			// Check to see if we have any completed file uploads, if so then add them to the playlist
 			addPendingUploadsToPlaylist();
-			// Allow modules to do some processing
-			clientManager.process(this);
+			// Let the playlist know what the AudioAnalyser has found out about any of its tracks.
+			applyCompletedAnalyses();
+			// Allow the playlist to do some processing, this may queue a PUSH_PLAYLIST broadcast.
 			playlist.process(this);
 			// Do we have any new connections? If so then they will need to be sent a welcome package ;)
 			if(clientManager.hasNewClients()) {
 				// We have had at least one newcomer.
 				createAndQueueWelcomePackages();
 			}
+			// Allow the ClientManager to send everything that was queued during this pass.
+			clientManager.process(this);
 			// If we have any changes to the system properties, write them to disk.
 			if(properties.hasChanges()) {
 				properties.write();
 			}
-			// If we are logging to disk we should write pending log entries.
-			if(Log.writingToFile()) {
-				Log.appendLogEntriesToFile();
-			}
-			// Sleep for a bit.
-			try {
-				Thread.sleep(5);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
 		}
 	}
 	
@@ -147,8 +156,15 @@ public class Server {
 	 * Fetch and Process all pending IncomingActions from the ClientManager
 	 */
 	private void processIncomingActions() {
-		// Process each IncomingAction individually
-		for(IncomingAction action : clientManager.getPendingIncomingActions()) {
+		// Process each IncomingAction individually, a batch at a time so that a flood of actions can't hold up everything else.
+		IncomingAction action;
+		int processedActions = 0;
+		// Anything queued from here on wakes the loop again, anything queued before is drained below.
+		clientManager.clearIncomingActionSignal();
+		while(processedActions < MAX_INCOMING_ACTION_BATCH && (action = clientManager.pollIncomingAction()) != null) {
+			processedActions++;
+			// Keep track of how long actions are waiting to be processed.
+			ActionLatencyMonitor.getActionLatencyMonitor().recordLatency(System.nanoTime() - action.getReceivedAt());
 			// What type of action is it?
 			switch(action.getIncomingActionType()) {
 			case PAUSE:	// A client has requested that we pause the currently playing audio file
@@ -161,6 +177,13 @@ public class Server {
 				playlist.processAction(action);
 				break;
 				
+			// A client has missed a PUSH_PLAYLIST_DELTA and needs a full PUSH_PLAYLIST to catch up.
+			case REQUEST_PLAYLIST:
+				if(action.getClientId() != null) {
+					clientManager.queueOutgoingAction(action.getClientId(), playlist.generatePushPlayListOutgoingAction());
+				}
+				break;
+				
 			// A client has requested to become a super user, and has supplied an attempt at the super password
 			case ADMIN_REQUEST:
 				break;
@@ -168,9 +191,9 @@ public class Server {
 			// A super user client has requested to change the system volume.
 			case UPDATE_VOLUME:
 				// Check that this user actually is a super user.
-				if(properties.isSuperUser(action.getActionInfoObject().getString("client_id"))) {
+				if(properties.isSuperUser(action.getClientId()) && action.getVolumeLevel() >= 0) {
 					// Set the system volume.
-					int newVolumeLevel = action.getActionInfoObject().getInt("volume_level");
+					int newVolumeLevel = action.getVolumeLevel();
 					Utils.getUtils().setMasterVolume(newVolumeLevel);
 					// Notify all connected users about the change in volume.
 					JSONObject volumeSetJSON = new JSONObject();
@@ -183,18 +206,20 @@ public class Server {
 			// A super client has supplied updated system settings
 			case UPDATE_SETTINGS:
 				// Updating the server settings is serious business, double check that this user is super.
-				if(!properties.isSuperUser(action.getActionInfoObject().getString("client_id"))) {
+				if(!properties.isSuperUser(action.getClientId())) {
 					Log.log(Log.MessageType.WARNING, "SERVER", "we received an UPDATE_SETTINGS IncomingAction from a non-super user! Ignoring it.");
 					break;
 				}
-				properties.setDeviceName(action.getActionInfoObject().getString("device_name"));
+				if(action.getDeviceName() != null) {
+					properties.setDeviceName(action.getDeviceName());
+				}
 				// Only set the access password if it is not '?' ('?' is sent by the client if they do not want to alter this value)
-				if(!action.getActionInfoObject().getString("access_password").equals("?")) {
-					properties.setAccessPassword(action.getActionInfoObject().getString("access_password"));
+				if(action.getAccessPassword() != null && !action.getAccessPassword().equals("?")) {
+					properties.setAccessPassword(action.getAccessPassword());
 				}
 				// Only set the super password if it is not '?' ('?' is sent by the client if they do not want to alter this value)
-				if(!action.getActionInfoObject().getString("super_password").equals("?")) {
-					properties.setSuperPassword(action.getActionInfoObject().getString("super_password"));
+				if(action.getSuperPassword() != null && !action.getSuperPassword().equals("?")) {
+					properties.setSuperPassword(action.getSuperPassword());
 				}
 				Log.log(Log.MessageType.INFO, "SERVER", "settings updated");
 				// Broadcast a PUSH_SETTINGS action to all clients notifying them of the settings changing
@@ -231,19 +256,34 @@ public class Server {
 				break;
 			}
 		}
+		// If we stopped short then come straight back for the rest once this pass of the loop is done.
+		if(processedActions == MAX_INCOMING_ACTION_BATCH) {
+			ServerEventQueue.getEventQueue().post(ServerEventType.INCOMING_ACTION);
+		}
 	}
 
 	/**
 	 * Adds any pending uploads to the PlayList
 	 */
 	private void addPendingUploadsToPlaylist() {
-		AudioFile pendingUpload = audioFileReceiver.getNextUpload();
+		PendingUpload pendingUpload = audioFileReceiver.getNextUpload();
 		while(pendingUpload != null) {
-			playlist.addTrack(pendingUpload);
+			playlist.addTrack(pendingUpload.getAudioFile(), pendingUpload.getTrackId(), pendingUpload.getOwnerId());
 			pendingUpload = audioFileReceiver.getNextUpload();
 		}
 	}
 	
+	/**
+	 * Updates the PlayList with any audio files that have finished being analysed
+	 */
+	private void applyCompletedAnalyses() {
+		AudioFile analysedAudioFile = audioFileReceiver.getAudioAnalyser().getNextAnalysed();
+		while(analysedAudioFile != null) {
+			playlist.updateTrack(analysedAudioFile);
+			analysedAudioFile = audioFileReceiver.getAudioAnalyser().getNextAnalysed();
+		}
+	}
+	
 	/**
 	 * Returns the ClientManager
 	 * @return clientManager
@@ -0,0 +1,58 @@
+package com.quaudio.quserver.server;
+
+import java.util.EnumSet;
+
+/**
+ * Queue of events which wake the main server loop.
+ * Events of the same type are coalesced, as a single pass of the server loop deals with all pending work of that type.
+ * @author Nikolas Howard
+ *
+ */
+public class ServerEventQueue {
+	private static final ServerEventQueue eventQueue = new ServerEventQueue();
+	// The types of event that have been posted since the server loop last took them.
+	private final EnumSet<ServerEventType> pendingEvents = EnumSet.noneOf(ServerEventType.class);
+	
+	/**
+	 * Use singleton pattern to provide single instance of ServerEventQueue.
+	 * @return eventQueue
+	 */
+	public static ServerEventQueue getEventQueue() {
+		return eventQueue;
+	}
+	
+	/**
+	 * Post an event, waking the server loop if it is waiting.
+	 * Safe to call from any thread.
+	 * @param eventType
+	 */
+	public void post(ServerEventType eventType) {
+		synchronized(pendingEvents) {
+			pendingEvents.add(eventType);
+			pendingEvents.notifyAll();
+		}
+	}
+	
+	/**
+	 * Blocks until at least one event has been posted or the timeout expires, then returns
+	 * and clears the set of pending events. The returned set is empty if we timed out.
+	 * @param timeout in milliseconds
+	 * @return posted events
+	 * @throws InterruptedException
+	 */
+	public EnumSet<ServerEventType> take(long timeout) throws InterruptedException {
+		synchronized(pendingEvents) {
+			long deadline = System.currentTimeMillis() + timeout;
+			while(pendingEvents.isEmpty()) {
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0) {
+					break;
+				}
+				pendingEvents.wait(remaining);
+			}
+			EnumSet<ServerEventType> events = EnumSet.copyOf(pendingEvents);
+			pendingEvents.clear();
+			return events;
+		}
+	}
+}
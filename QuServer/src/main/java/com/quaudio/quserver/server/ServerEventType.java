@@ -0,0 +1,16 @@
+package com.quaudio.quserver.server;
+
+/**
+ * The types of event that can wake the main server loop.
+ * @author Nikolas Howard
+ *
+ */
+public enum ServerEventType {
+	INCOMING_ACTION,
+	UPLOAD_COMPLETE,
+	ANALYSIS_COMPLETE,
+	TRACK_STOPPED,
+	TRACK_SEEKED,
+	CLIENT_CONNECTED,
+	CLIENT_DISCONNECTED
+}
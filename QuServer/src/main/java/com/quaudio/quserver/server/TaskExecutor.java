@@ -0,0 +1,108 @@
+package com.quaudio.quserver.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the server's blocking tasks (client listeners, data transfers, beacon listeners).
+ * When the JVM supports them every task gets its own virtual thread, otherwise tasks are run on a 
+ * bounded pool of platform threads and are rejected once the pool is exhausted.
+ * @author Nikolas Howard
+ *
+ */
+public class TaskExecutor {
+	private static TaskExecutor taskExecutor = null;
+	// The default limit on the number of platform threads, used if the properties do not say otherwise.
+	public static final int DEFAULT_MAX_PLATFORM_THREADS = 128;
+	// How long an idle platform thread is kept around for.
+	private static final long PLATFORM_THREAD_KEEP_ALIVE_SECONDS = 60;
+	private ExecutorService executor;
+	private boolean usingVirtualThreads = false;
+	
+	/**
+	 * Use singleton pattern to provide single instance of TaskExecutor.
+	 * The threading mode is read from the server properties when they are available.
+	 * @return taskExecutor
+	 */
+	public static synchronized TaskExecutor getTaskExecutor() {
+		if(taskExecutor == null) {
+			if(Server.properties != null) {
+				taskExecutor = new TaskExecutor(Server.properties.getThreadingMode(), Server.properties.getMaxPlatformThreads());
+			} else {
+				// Properties have not been initialised, this may be due to us running in the context of a unit/integration test.
+				taskExecutor = new TaskExecutor(ThreadingMode.VIRTUAL, DEFAULT_MAX_PLATFORM_THREADS);
+			}
+		}
+		return taskExecutor;
+	}
+	
+	public TaskExecutor(ThreadingMode threadingMode, int maxPlatformThreads) {
+		if(threadingMode == ThreadingMode.VIRTUAL) {
+			executor = createVirtualThreadExecutor();
+			usingVirtualThreads = executor != null;
+			if(!usingVirtualThreads) {
+				Log.log(Log.MessageType.WARNING, "TASK_EXECUTOR", "virtual threads are not supported by this JVM, using platform threads");
+			}
+		}
+		if(!usingVirtualThreads) {
+			executor = createPlatformThreadExecutor(maxPlatformThreads);
+		}
+		Log.log(Log.MessageType.INFO, "TASK_EXECUTOR", "running tasks on " + (usingVirtualThreads ? "virtual threads" : "at most " + maxPlatformThreads + " platform threads"));
+	}
+	
+	/**
+	 * Run a task.
+	 * @param task
+	 * @throws RejectedExecutionException if we are using platform threads and they are all busy.
+	 */
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+	
+	/**
+	 * Returns true if tasks are being run on virtual threads.
+	 * @return usingVirtualThreads
+	 */
+	public boolean isUsingVirtualThreads() {
+		return usingVirtualThreads;
+	}
+	
+	/**
+	 * Creates an executor that starts a new virtual thread for each task.
+	 * This is looked up reflectively so that the server still runs on JVMs without virtual threads.
+	 * @return executor, or null if virtual threads are not supported.
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method factoryMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factoryMethod.invoke(null);
+		} catch (Exception e) {
+			// Either the method does not exist or virtual threads are a disabled preview feature.
+			return null;
+		}
+	}
+	
+	/**
+	 * Creates an executor of daemon platform threads which rejects tasks once maxThreads are busy.
+	 * @param maxThreads
+	 * @return executor
+	 */
+	private static ExecutorService createPlatformThreadExecutor(int maxThreads) {
+		ThreadFactory daemonThreadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		return new ThreadPoolExecutor(0, maxThreads, PLATFORM_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, 
+				new SynchronousQueue<Runnable>(), daemonThreadFactory);
+	}
+}
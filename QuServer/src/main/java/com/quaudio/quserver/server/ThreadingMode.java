@@ -0,0 +1,12 @@
+package com.quaudio.quserver.server;
+
+/**
+ * How the TaskExecutor runs long lived blocking tasks.
+ * VIRTUAL falls back to PLATFORM when the JVM does not support virtual threads.
+ * @author Nikolas Howard
+ *
+ */
+public enum ThreadingMode {
+	VIRTUAL,
+	PLATFORM
+}
@@ -1,6 +1,7 @@
 package com.quaudio.quserver.server;
 
 import java.io.IOException;
+import com.quaudio.quserver.media.PlaybackEngine;
 import com.quaudio.quserver.quinterface.LEDBehaviour;
 import com.quaudio.quserver.quinterface.LEDColourDefault;
 import com.quaudio.quserver.quinterface.QuInterface;
@@ -42,27 +43,12 @@ public class Utils {
 			// Set the master volume level.
 			masterVolumeLevel = level;
 		}
-		// Check that the server properties file has been initialised.
-		if(Server.properties != null) {
-			// Behave differently based on OS.
-			if(Server.properties.isOSUnixLike()) {
-				// Attempt to set the volume for OS using channel Master
-				try {
-					Runtime.getRuntime().exec("amixer set Master " + level);
-				} catch(IOException e) {}
-				// Attempt to set the volume for OS using channel PCM (Raspberry Pi)
-				try {
-					Runtime.getRuntime().exec("amixer set PCM -- " + level + "%");
-				} catch(IOException e) {}
-				Log.log(Log.MessageType.INFO, "UTILS", "set system master volume to '" + level + "'");
-			} else {
-				// At the moment we have no support for changing volume for a non-Unix like OS.
-				Log.log(Log.MessageType.ERROR, "UTILS", "setting master volume is currently only supported on Unix like OS");
-			}
-		} else {
-			// Properties have not been properly initialised, this may be due to this method being
-			// run in the context of a unit/integration test.
-			Log.log(Log.MessageType.WARNING, "UTILS", "Server properties not initalised, cannot apply change of volume");
+		// The volume is applied to the audio as it is played, which is much cheaper than running amixer every time it changes.
+		// Cubing the level gives a curve closer to how loud it sounds.
+		double fraction = level / 100.0;
+		PlaybackEngine.getPlaybackEngine().getAudioOutput().setVolume(fraction * fraction * fraction);
+		if(Log.isEnabled(Log.MessageType.INFO)) {
+			Log.log(Log.MessageType.INFO, "UTILS", "set master volume to '" + level + "'");
 		}
 	}
 	
@@ -0,0 +1,127 @@
+package com.quaudio.quserver.benchmarks;
+
+import java.nio.charset.Charset;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import com.quaudio.quserver.clientmanager.BinaryActionCodec;
+import com.quaudio.quserver.clientmanager.IncomingActionType;
+import com.quaudio.quserver.clientmanager.OutgoingActionType;
+
+/**
+ * Compares the JSON and BINARY action encodings by the cost of encoding and decoding an action,
+ * and by the number of bytes each puts on the wire, for a small client action, a playlist delta and a full playlist.
+ * Run with: java -cp <test classes>:<classes>:<libs> com.quaudio.quserver.benchmarks.ActionEncodingBenchmark
+ * @author Nikolas Howard
+ *
+ */
+public class ActionEncodingBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int TRACK_COUNT = 500;
+	private static final int WARMUP_ROUNDS = 3;
+	// The number of times each action is encoded and decoded per round, the full playlist is done fewer times.
+	private static final int SMALL_ITERATIONS = 200000;
+	private static final int LARGE_ITERATIONS = 500;
+	// Stops the JIT from throwing the work away.
+	private static long sink = 0;
+
+	public static void main(String[] args) {
+		JSONObject skip = new JSONObject();
+		skip.put("track_id", "3f2a9c4e7b1d");
+		skip.put("position", 93.25);
+		JSONObject delta = createDelta();
+		JSONObject playList = createPlayList();
+		// Warm up every path before measuring any of them.
+		for(int i = 0; i < WARMUP_ROUNDS; i++) {
+			run(IncomingActionType.SKIP, IncomingActionType.values(), skip, SMALL_ITERATIONS, false);
+			run(OutgoingActionType.PUSH_PLAYLIST_DELTA, OutgoingActionType.values(), delta, SMALL_ITERATIONS / 10, false);
+			run(OutgoingActionType.PUSH_PLAYLIST, OutgoingActionType.values(), playList, LARGE_ITERATIONS, false);
+		}
+		run(IncomingActionType.SKIP, IncomingActionType.values(), skip, SMALL_ITERATIONS, true);
+		run(OutgoingActionType.PUSH_PLAYLIST_DELTA, OutgoingActionType.values(), delta, SMALL_ITERATIONS / 10, true);
+		run(OutgoingActionType.PUSH_PLAYLIST, OutgoingActionType.values(), playList, LARGE_ITERATIONS, true);
+		if(sink == 42) {
+			System.out.println(sink);
+		}
+	}
+
+	/**
+	 * Encodes and decodes an action iterations times with each encoding, reporting the results if asked to.
+	 */
+	private static void run(Enum<?> actionType, Enum<?>[] actionTypes, JSONObject actionInfo, int iterations, boolean report) {
+		// JSON, as the server has always done it.
+		long start = System.nanoTime();
+		byte[] jsonFrame = null;
+		for(int i = 0; i < iterations; i++) {
+			jsonFrame = (actionInfo.toString() + "\n").getBytes(UTF8);
+			sink += jsonFrame.length;
+		}
+		long jsonEncode = System.nanoTime() - start;
+		start = System.nanoTime();
+		for(int i = 0; i < iterations; i++) {
+			sink += new JSONObject(new String(jsonFrame, 0, jsonFrame.length - 1, UTF8)).length();
+		}
+		long jsonDecode = System.nanoTime() - start;
+		// BINARY.
+		start = System.nanoTime();
+		byte[] binaryFrame = null;
+		for(int i = 0; i < iterations; i++) {
+			binaryFrame = BinaryActionCodec.encode(actionType.ordinal(), actionInfo);
+			sink += binaryFrame.length;
+		}
+		long binaryEncode = System.nanoTime() - start;
+		int bodyLength = BinaryActionCodec.readFrameLength(binaryFrame, 0, binaryFrame.length);
+		int bodyStart = BinaryActionCodec.getVarintSize(bodyLength);
+		start = System.nanoTime();
+		for(int i = 0; i < iterations; i++) {
+			sink += BinaryActionCodec.decode(binaryFrame, bodyStart, bodyLength, actionTypes).length();
+		}
+		long binaryDecode = System.nanoTime() - start;
+		if(report) {
+			report(actionType.toString(), "JSON", jsonEncode, jsonDecode, iterations, jsonFrame.length);
+			report(actionType.toString(), "BINARY", binaryEncode, binaryDecode, iterations, binaryFrame.length);
+		}
+	}
+
+	private static JSONObject createDelta() {
+		JSONArray operations = new JSONArray();
+		JSONObject stateOperation = new JSONObject();
+		stateOperation.put("op", "STATE");
+		stateOperation.put("track_id", "track_12");
+		stateOperation.put("track_state", "PLAYING");
+		operations.put(stateOperation);
+		JSONObject positionOperation = new JSONObject();
+		positionOperation.put("op", "POSITION");
+		positionOperation.put("track_id", "track_12");
+		positionOperation.put("position", 0.0);
+		operations.put(positionOperation);
+		JSONObject delta = new JSONObject();
+		delta.put("operations", operations);
+		delta.put("sequence", 1234);
+		return delta;
+	}
+
+	private static JSONObject createPlayList() {
+		JSONArray playListJSONArray = new JSONArray();
+		for(int i = 0; i < TRACK_COUNT; i++) {
+			JSONObject trackJSON = new JSONObject();
+			trackJSON.put("track_id", "track_" + i);
+			trackJSON.put("owner_id", "owner_" + (i % 10));
+			trackJSON.put("track_state", "PENDING");
+			trackJSON.put("name", "Track Name " + i);
+			trackJSON.put("artist", "Artist " + (i % 37));
+			trackJSON.put("album", "Album " + (i % 53));
+			trackJSON.put("duration", 180.5 + i);
+			trackJSON.put("position", 0.0);
+			playListJSONArray.put(trackJSON);
+		}
+		JSONObject playListJSONObject = new JSONObject();
+		playListJSONObject.put("playlist", playListJSONArray);
+		playListJSONObject.put("sequence", 1);
+		return playListJSONObject;
+	}
+
+	private static void report(String action, String encoding, long encodeNanos, long decodeNanos, int iterations, int frameBytes) {
+		System.out.println(String.format("%-20s %-7s %10.2f us encode  %10.2f us decode  %8d bytes/frame",
+				action, encoding, (encodeNanos / 1000.0) / iterations, (decodeNanos / 1000.0) / iterations, frameBytes));
+	}
+}
@@ -0,0 +1,90 @@
+package com.quaudio.quserver.benchmarks;
+
+import java.nio.charset.Charset;
+import org.json.JSONObject;
+import com.quaudio.quserver.clientmanager.IncomingAction;
+import com.quaudio.quserver.clientmanager.IncomingActionParser;
+
+/**
+ * Compares the time taken and the garbage created reading JSON IncomingActions from the bytes of a frame, first
+ * the way the server used to (decode a String, build a JSONObject, pick out the fields) and then with the IncomingActionParser.
+ * Run with: java -cp <test classes>:<classes>:<libs> com.quaudio.quserver.benchmarks.ActionParsingBenchmark
+ * @author Nikolas Howard
+ *
+ */
+public class ActionParsingBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// The number of actions read per round, allocation is reported per this many actions.
+	private static final int ACTIONS_PER_ROUND = 10000;
+	private static final int WARMUP_ROUNDS = 50;
+	private static final int MEASURED_ROUNDS = 20;
+	// Stops the JIT from throwing the work away.
+	private static long sink = 0;
+
+	public static void main(String[] args) {
+		// A mix of the actions a client actually sends, skips and volume changes being the most frequent.
+		String[] actions = {
+				"{\"action_type\":\"SKIP\",\"track_id\":\"5f0c3a9e-2b7d-4c1e-9a8f-1d2e3c4b5a69\",\"position\":93.25}",
+				"{\"action_type\":\"UPDATE_VOLUME\",\"volume_level\":42}",
+				"{\"action_type\":\"PLAY\",\"track_id\":\"5f0c3a9e-2b7d-4c1e-9a8f-1d2e3c4b5a69\"}",
+				"{\"action_type\":\"PAUSE\",\"track_id\":\"7a1b2c3d-4e5f-4a6b-8c7d-9e0f1a2b3c4d\"}",
+				"{\"action_type\":\"REQUEST_PLAYLIST\",\"client_id\":\"c0ffee00-1234-4abc-9def-0123456789ab\"}",
+				"{\"action_type\":\"UPDATE_SETTINGS\",\"device_name\":\"Kitchen\",\"access_password\":\"?\",\"super_password\":\"?\"}" };
+		byte[][] frames = new byte[actions.length][];
+		for(int i = 0; i < actions.length; i++) {
+			frames[i] = actions[i].getBytes(UTF8);
+		}
+		IncomingActionParser parser = new IncomingActionParser();
+		for(int i = 0; i < WARMUP_ROUNDS; i++) {
+			readWithJSONObject(frames);
+			readWithParser(parser, frames);
+		}
+		long jsonObjectNanos = 0;
+		long jsonObjectBytes = 0;
+		long parserNanos = 0;
+		long parserBytes = 0;
+		for(int i = 0; i < MEASURED_ROUNDS; i++) {
+			long allocatedBefore = Allocation.currentThreadAllocatedBytes();
+			long start = System.nanoTime();
+			readWithJSONObject(frames);
+			jsonObjectNanos += System.nanoTime() - start;
+			jsonObjectBytes += Allocation.currentThreadAllocatedBytes() - allocatedBefore;
+			allocatedBefore = Allocation.currentThreadAllocatedBytes();
+			start = System.nanoTime();
+			readWithParser(parser, frames);
+			parserNanos += System.nanoTime() - start;
+			parserBytes += Allocation.currentThreadAllocatedBytes() - allocatedBefore;
+		}
+		report("JSONObject", jsonObjectNanos, jsonObjectBytes);
+		report("IncomingActionParser", parserNanos, parserBytes);
+		if(sink == 42) {
+			System.out.println(sink);
+		}
+	}
+
+	private static void readWithJSONObject(byte[][] frames) {
+		for(int i = 0; i < ACTIONS_PER_ROUND; i++) {
+			byte[] frame = frames[i % frames.length];
+			IncomingAction action = new IncomingAction(new JSONObject(new String(frame, 0, frame.length, UTF8)));
+			sink += action.getIncomingActionType().ordinal();
+		}
+	}
+
+	private static void readWithParser(IncomingActionParser parser, byte[][] frames) {
+		for(int i = 0; i < ACTIONS_PER_ROUND; i++) {
+			byte[] frame = frames[i % frames.length];
+			IncomingAction action = parser.parse(frame, 0, frame.length);
+			sink += action.getIncomingActionType().ordinal();
+		}
+	}
+
+	private static void report(String path, long nanos, long allocatedBytes) {
+		if(Allocation.currentThreadAllocatedBytes() == -1) {
+			System.out.println(String.format("%-22s %10.2f ms per %d actions  (allocation not measurable on this JVM)",
+					path, (nanos / 1000000.0) / MEASURED_ROUNDS, ACTIONS_PER_ROUND));
+			return;
+		}
+		System.out.println(String.format("%-22s %10.2f ms per %d actions  %12d bytes allocated per %d actions",
+				path, (nanos / 1000000.0) / MEASURED_ROUNDS, ACTIONS_PER_ROUND, allocatedBytes / MEASURED_ROUNDS, ACTIONS_PER_ROUND));
+	}
+}
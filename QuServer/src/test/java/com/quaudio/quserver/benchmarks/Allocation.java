@@ -0,0 +1,29 @@
+package com.quaudio.quserver.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads the number of bytes allocated by the current thread, where the JVM supports it.
+ * @author Nikolas Howard
+ *
+ */
+final class Allocation {
+	private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+	private Allocation() {}
+
+	/**
+	 * Get the bytes allocated so far by the current thread, or -1 if this JVM cannot tell us.
+	 * @return allocated bytes
+	 */
+	static long currentThreadAllocatedBytes() {
+		if(THREAD_BEAN instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) THREAD_BEAN;
+			if(allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+				return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,138 @@
+package com.quaudio.quserver.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import com.quaudio.quserver.clientmanager.ActionEncoding;
+import com.quaudio.quserver.clientmanager.OutgoingAction;
+import com.quaudio.quserver.clientmanager.OutgoingActionType;
+
+/**
+ * Compares broadcasting a large PUSH_PLAYLIST by serialising it once per client (the old behaviour)
+ * against writing a single pre-encoded frame to every client, and against compressing that frame once
+ * and writing the compressed frame to every client (as for clients that asked for DEFLATE).
+ * Run with: java -cp <test classes>:<classes>:<libs> com.quaudio.quserver.benchmarks.BroadcastEncodingBenchmark
+ * @author Nikolas Howard
+ *
+ */
+public class BroadcastEncodingBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int CLIENT_COUNT = 100;
+	private static final int TRACK_COUNT = 500;
+	private static final int WARMUP_BROADCASTS = 50;
+	private static final int MEASURED_BROADCASTS = 200;
+	// The ways of broadcasting that are measured.
+	private static final int SERIALISE_PER_CLIENT = 0;
+	private static final int SERIALISE_ONCE = 1;
+	private static final int COMPRESS_ONCE = 2;
+
+	public static void main(String[] args) throws IOException {
+		DiscardingOutputStream[] clientStreams = new DiscardingOutputStream[CLIENT_COUNT];
+		for(int i = 0; i < CLIENT_COUNT; i++) {
+			clientStreams[i] = new DiscardingOutputStream();
+		}
+		// Warm up both paths before measuring either.
+		for(int i = 0; i < WARMUP_BROADCASTS; i++) {
+			broadcastPerClient(createPushPlayList(), clientStreams);
+			broadcastEncodedOnce(createPushPlayList(), clientStreams);
+			broadcastCompressedOnce(createPushPlayList(), clientStreams);
+		}
+		report("serialise per client", measure(SERIALISE_PER_CLIENT, clientStreams));
+		report("serialise once", measure(SERIALISE_ONCE, clientStreams));
+		report("compress once", measure(COMPRESS_ONCE, clientStreams));
+	}
+
+	/**
+	 * Times MEASURED_BROADCASTS broadcasts of a fresh PUSH_PLAYLIST, returning {nanos, allocated bytes, bytes written}.
+	 */
+	private static long[] measure(int mode, DiscardingOutputStream[] clientStreams) throws IOException {
+		long writtenBefore = getBytesWritten(clientStreams);
+		long allocatedBefore = Allocation.currentThreadAllocatedBytes();
+		long start = System.nanoTime();
+		for(int i = 0; i < MEASURED_BROADCASTS; i++) {
+			// A new action for every broadcast, as the server does, so nothing is cached between runs.
+			OutgoingAction action = createPushPlayList();
+			if(mode == COMPRESS_ONCE) {
+				broadcastCompressedOnce(action, clientStreams);
+			} else if(mode == SERIALISE_ONCE) {
+				broadcastEncodedOnce(action, clientStreams);
+			} else {
+				broadcastPerClient(action, clientStreams);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = Allocation.currentThreadAllocatedBytes() - allocatedBefore;
+		return new long[] { elapsed, allocated, getBytesWritten(clientStreams) - writtenBefore };
+	}
+
+	private static long getBytesWritten(DiscardingOutputStream[] clientStreams) {
+		long written = 0;
+		for(DiscardingOutputStream clientStream : clientStreams) {
+			written += clientStream.count;
+		}
+		return written;
+	}
+
+	private static void broadcastPerClient(OutgoingAction action, OutputStream[] clientStreams) throws IOException {
+		for(OutputStream clientStream : clientStreams) {
+			clientStream.write((action.getActionInfoObject().toString() + "\n").getBytes(UTF8));
+		}
+	}
+
+	private static void broadcastEncodedOnce(OutgoingAction action, OutputStream[] clientStreams) throws IOException {
+		for(OutputStream clientStream : clientStreams) {
+			clientStream.write(action.getEncodedFrame());
+		}
+	}
+
+	private static void broadcastCompressedOnce(OutgoingAction action, OutputStream[] clientStreams) throws IOException {
+		for(OutputStream clientStream : clientStreams) {
+			clientStream.write(action.getCompressedFrame(ActionEncoding.JSON));
+		}
+	}
+
+	private static OutgoingAction createPushPlayList() {
+		JSONArray playListJSONArray = new JSONArray();
+		for(int i = 0; i < TRACK_COUNT; i++) {
+			JSONObject trackJSON = new JSONObject();
+			trackJSON.put("track_id", "track_" + i);
+			trackJSON.put("owner_id", "owner_" + (i % 10));
+			trackJSON.put("track_state", "PENDING");
+			trackJSON.put("name", "Track Name " + i);
+			trackJSON.put("artist", "Artist " + (i % 37));
+			trackJSON.put("album", "Album " + (i % 53));
+			playListJSONArray.put(trackJSON);
+		}
+		JSONObject playListJSONObject = new JSONObject();
+		playListJSONObject.put("playlist", playListJSONArray);
+		playListJSONObject.put("sequence", 1);
+		return new OutgoingAction(OutgoingActionType.PUSH_PLAYLIST, playListJSONObject);
+	}
+
+	private static void report(String name, long[] result) {
+		double millisPerBroadcast = (result[0] / 1000000.0) / MEASURED_BROADCASTS;
+		String allocated = result[1] < 0 ? "n/a" : ((result[1] / MEASURED_BROADCASTS) / 1024) + " KB";
+		long bytesPerClient = result[2] / MEASURED_BROADCASTS / CLIENT_COUNT;
+		System.out.println(String.format("%-22s %8.3f ms/broadcast  %12s allocated/broadcast  %8d bytes/client  (%d clients x %d tracks)",
+				name, millisPerBroadcast, allocated, bytesPerClient, CLIENT_COUNT, TRACK_COUNT));
+	}
+
+	/**
+	 * Stands in for a client socket, counting bytes rather than sending them.
+	 */
+	private static class DiscardingOutputStream extends OutputStream {
+		private long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
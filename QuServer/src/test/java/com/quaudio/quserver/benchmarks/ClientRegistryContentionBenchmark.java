@@ -0,0 +1,198 @@
+package com.quaudio.quserver.benchmarks;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+import com.quaudio.quserver.clientmanager.Client;
+import com.quaudio.quserver.clientmanager.ClientRegistry;
+import com.quaudio.quserver.clientmanager.IncomingAction;
+import com.quaudio.quserver.clientmanager.OutgoingAction;
+import com.quaudio.quserver.clientmanager.OutgoingActionQueue;
+import com.quaudio.quserver.clientmanager.OutgoingActionType;
+import com.quaudio.quserver.clientmanager.OutgoingQueuePolicy;
+
+/**
+ * Compares the old single-lock HashMap of clients against the ClientRegistry while broadcasts,
+ * client churn (accepts and disconnects) and incoming action draining all run at the same time.
+ * Run with: java -cp <test classes>:<classes>:<libs> com.quaudio.quserver.benchmarks.ClientRegistryContentionBenchmark
+ * @author Nikolas Howard
+ *
+ */
+public class ClientRegistryContentionBenchmark {
+	private static final int RESIDENT_CLIENTS = 100;
+	private static final int BROADCAST_THREADS = 4;
+	private static final int CHURN_THREADS = 2;
+	private static final int DRAIN_THREADS = 2;
+	private static final long RUN_MILLIS = 2000;
+
+	public static void main(String[] args) throws InterruptedException {
+		// Warm up both, then measure.
+		run(new LockedClients(), 500);
+		run(new RegistryClients(), 500);
+		report("synchronized HashMap", run(new LockedClients(), RUN_MILLIS));
+		report("ClientRegistry", run(new RegistryClients(), RUN_MILLIS));
+	}
+
+	/**
+	 * Runs every kind of worker against the clients for the given time, returning {broadcasts, accepts, drains, worst accept nanos}.
+	 */
+	private static long[] run(final Clients clients, long millis) throws InterruptedException {
+		for(int i = 0; i < RESIDENT_CLIENTS; i++) {
+			clients.register("resident_" + i, new BenchmarkClient());
+		}
+		final OutgoingAction action = new OutgoingAction(OutgoingActionType.PUSH_VOLUME, new JSONObject().put("volume_level", 50));
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong broadcasts = new AtomicLong();
+		final AtomicLong accepts = new AtomicLong();
+		final AtomicLong drains = new AtomicLong();
+		final AtomicLong worstAccept = new AtomicLong();
+		int threadCount = BROADCAST_THREADS + CHURN_THREADS + DRAIN_THREADS;
+		final CountDownLatch finished = new CountDownLatch(threadCount);
+		for(int t = 0; t < threadCount; t++) {
+			final int kind = t < BROADCAST_THREADS ? 0 : (t < BROADCAST_THREADS + CHURN_THREADS ? 1 : 2);
+			final int threadIndex = t;
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long iteration = 0;
+					while(running.get()) {
+						if(kind == 0) {
+							clients.broadcast(action);
+							broadcasts.incrementAndGet();
+						} else if(kind == 1) {
+							// A client connecting then going away again.
+							String clientId = "churn_" + threadIndex + "_" + (iteration++);
+							BenchmarkClient client = new BenchmarkClient();
+							long start = System.nanoTime();
+							clients.register(clientId, client);
+							long taken = System.nanoTime() - start;
+							clients.remove(clientId, client);
+							accepts.incrementAndGet();
+							long currentWorst = worstAccept.get();
+							while(taken > currentWorst && !worstAccept.compareAndSet(currentWorst, taken)) {
+								currentWorst = worstAccept.get();
+							}
+						} else {
+							clients.drain();
+							drains.incrementAndGet();
+						}
+					}
+					finished.countDown();
+				}
+			});
+			worker.setDaemon(true);
+			worker.start();
+		}
+		Thread.sleep(millis);
+		running.set(false);
+		finished.await();
+		return new long[] { broadcasts.get() * 1000 / millis, accepts.get() * 1000 / millis, drains.get() * 1000 / millis, worstAccept.get() };
+	}
+
+	private static void report(String name, long[] result) {
+		System.out.println(String.format("%-22s broadcasts/s=%-9d accepts/s=%-9d drains/s=%-9d worst accept=%.3f ms",
+				name, result[0], result[1], result[2], result[3] / 1000000.0));
+	}
+
+	/**
+	 * The operations the ClientManager performs on its clients.
+	 */
+	private interface Clients {
+		void register(String clientId, Client client);
+		void remove(String clientId, Client client);
+		void broadcast(OutgoingAction action);
+		void drain();
+	}
+
+	/**
+	 * How the ClientManager held its clients before the ClientRegistry.
+	 */
+	private static class LockedClients implements Clients {
+		private final HashMap<String, Client> clients = new HashMap<String, Client>();
+
+		public void register(String clientId, Client client) {
+			synchronized(clients) {
+				if(!clients.containsKey(clientId)) {
+					clients.put(clientId, client);
+				}
+			}
+		}
+
+		public void remove(String clientId, Client client) {
+			synchronized(clients) {
+				clients.remove(clientId);
+			}
+		}
+
+		public void broadcast(OutgoingAction action) {
+			synchronized(clients) {
+				for(Client client : clients.values()) {
+					client.queuePendingOutgoingAction(action);
+				}
+			}
+		}
+
+		public void drain() {
+			LinkedList<IncomingAction> incomingActions = new LinkedList<IncomingAction>();
+			synchronized(clients) {
+				for(Client client : clients.values()) {
+					incomingActions.addAll(((BenchmarkClient) client).takeIncomingActions());
+				}
+			}
+		}
+	}
+
+	private static class RegistryClients implements Clients {
+		private final ClientRegistry clients = new ClientRegistry();
+
+		public void register(String clientId, Client client) {
+			clients.register(clientId, client);
+		}
+
+		public void remove(String clientId, Client client) {
+			clients.remove(clientId, client);
+		}
+
+		public void broadcast(OutgoingAction action) {
+			for(Client client : clients.snapshot()) {
+				client.queuePendingOutgoingAction(action);
+			}
+		}
+
+		public void drain() {
+			LinkedList<IncomingAction> incomingActions = new LinkedList<IncomingAction>();
+			for(Client client : clients.snapshot()) {
+				incomingActions.addAll(((BenchmarkClient) client).takeIncomingActions());
+			}
+		}
+	}
+
+	/**
+	 * A client with no connection, its queue merges every PUSH_VOLUME so it never fills.
+	 * It keeps its own locked list of incoming actions, as clients did before the server-wide IncomingActionQueue.
+	 */
+	private static class BenchmarkClient extends Client {
+		private final LinkedList<IncomingAction> incomingActions = new LinkedList<IncomingAction>();
+
+		BenchmarkClient() {
+			super(new OutgoingActionQueue(16, Long.MAX_VALUE / 1000000L, OutgoingQueuePolicy.MERGE_LATEST));
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		LinkedList<IncomingAction> takeIncomingActions() {
+			LinkedList<IncomingAction> taken = new LinkedList<IncomingAction>();
+			synchronized(incomingActions) {
+				taken.addAll(incomingActions);
+				incomingActions.clear();
+			}
+			return taken;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.quaudio.quserver.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import org.json.JSONObject;
+import com.quaudio.quserver.filetransfer.AudioFileReceiver;
+import com.quaudio.quserver.filetransfer.DataTransfer;
+
+/**
+ * Compares receiving an upload with the old 1 KB stream copy against the channel based DataTransfer path,
+ * sending a 50 MB file over loopback to a file in the temp directory.
+ * Run with: java -cp <test classes>:<classes>:<libs> com.quaudio.quserver.benchmarks.UploadThroughputBenchmark [size in MB] [buffer size]
+ * @author Nikolas Howard
+ *
+ */
+public class UploadThroughputBenchmark {
+	private static final int RUNS = 3;
+
+	public static void main(String[] args) throws Exception {
+		int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int bufferSize = args.length > 1 ? Integer.parseInt(args[1]) : AudioFileReceiver.DEFAULT_UPLOAD_BUFFER_SIZE;
+		File source = File.createTempFile("qu-upload-source", ".bin");
+		File target = File.createTempFile("qu-upload-target", ".bin");
+		source.deleteOnExit();
+		target.deleteOnExit();
+		writeRandomFile(source, sizeMB * 1024L * 1024L);
+		for(int run = 0; run <= RUNS; run++) {
+			// The first run of each is a warm up.
+			double legacy = receive(source, target, false, bufferSize);
+			double channel = receive(source, target, true, bufferSize);
+			if(run > 0) {
+				System.out.println(String.format("run %d: stream copy (1 KB) %7.1f MB/s   transferFrom (%d KB) %7.1f MB/s",
+						run, legacy, bufferSize / 1024, channel));
+			}
+		}
+		source.delete();
+		target.delete();
+	}
+
+	/**
+	 * Uploads the source file over loopback and receives it into the target, returning the throughput in MB/s.
+	 */
+	private static double receive(final File source, File target, boolean useChannels, int bufferSize) throws Exception {
+		target.delete();
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		final int port = serverChannel.socket().getLocalPort();
+		Thread sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					send(source, port);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		sender.start();
+		SocketChannel senderChannel = serverChannel.accept();
+		long start = System.nanoTime();
+		long received;
+		if(useChannels) {
+			ByteBuffer headerBuffer = ByteBuffer.allocate(Math.min(bufferSize, 64 * 1024));
+			JSONObject info = new JSONObject(DataTransfer.readInfoLine(senderChannel, headerBuffer));
+			RandomAccessFile targetFile = new RandomAccessFile(target, "rw");
+			try {
+				received = DataTransfer.transferToFile(senderChannel, headerBuffer, targetFile, info.getLong("file_length"), bufferSize, null);
+			} finally {
+				targetFile.close();
+			}
+		} else {
+			received = legacyReceive(senderChannel.socket(), target);
+		}
+		long elapsed = System.nanoTime() - start;
+		senderChannel.close();
+		serverChannel.close();
+		sender.join();
+		return (received / (1024.0 * 1024.0)) / (elapsed / 1000000000.0);
+	}
+
+	/**
+	 * The receive loop DataTransfer used before the channel based path.
+	 */
+	private static long legacyReceive(Socket socket, File target) throws IOException {
+		BufferedReader infoReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		new JSONObject(infoReader.readLine());
+		FileOutputStream fos = new FileOutputStream(target);
+		InputStream inputStream = socket.getInputStream();
+		byte[] bytes = new byte[1024];
+		long received = 0;
+		int count;
+		try {
+			while ((count = inputStream.read(bytes)) > 0) {
+				fos.write(bytes, 0, count);
+				received += count;
+			}
+		} finally {
+			fos.close();
+		}
+		return received;
+	}
+
+	/**
+	 * Sends the info line and file the way AudioFileSender does.
+	 */
+	private static void send(File source, int port) throws IOException {
+		Socket socket = new Socket("127.0.0.1", port);
+		try {
+			OutputStream output = socket.getOutputStream();
+			JSONObject info = new JSONObject().put("client_id", "benchmark").put("name", "n").put("artist", "a")
+					.put("album", "b").put("format", "FLAC").put("file_length", source.length());
+			output.write((info.toString() + "\n").getBytes("UTF-8"));
+			FileInputStream fis = new FileInputStream(source);
+			byte[] bytes = new byte[64 * 1024];
+			int count;
+			try {
+				while ((count = fis.read(bytes)) > 0) {
+					output.write(bytes, 0, count);
+				}
+			} finally {
+				fis.close();
+			}
+			output.flush();
+			socket.shutdownOutput();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static void writeRandomFile(File file, long length) throws IOException {
+		Random random = new Random(42);
+		byte[] block = new byte[1024 * 1024];
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			for(long written = 0; written < length; written += block.length) {
+				random.nextBytes(block);
+				fos.write(block, 0, (int) Math.min(block.length, length - written));
+			}
+		} finally {
+			fos.close();
+		}
+	}
+}
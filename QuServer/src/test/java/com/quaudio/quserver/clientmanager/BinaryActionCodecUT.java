@@ -0,0 +1,116 @@
+package com.quaudio.quserver.clientmanager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+public class BinaryActionCodecUT {
+
+	@Test
+	public void actionSurvivesRoundTrip() throws IOException {
+		JSONObject actionInfo = new JSONObject();
+		actionInfo.put("track_id", "a1b2c3");
+		actionInfo.put("position", 42.5);
+		actionInfo.put("sequence", 7);
+		actionInfo.put("offset", -3);
+		actionInfo.put("big", 1L << 40);
+		actionInfo.put("flag", true);
+		actionInfo.put("nothing", JSONObject.NULL);
+		actionInfo.put("list", new JSONArray().put("a1b2c3").put(new JSONObject().put("owner_id", "caf\u00e9")));
+		OutgoingAction outgoingAction = new OutgoingAction(OutgoingActionType.PUSH_PLAYLIST_DELTA, actionInfo);
+		byte[] frame = outgoingAction.getEncodedFrame(ActionEncoding.BINARY);
+		assertSame("frame should only be encoded once", frame, outgoingAction.getEncodedFrame(ActionEncoding.BINARY));
+		byte[] body = BinaryActionCodec.readFrame(new ByteArrayInputStream(frame));
+		assertEquals(frame.length - BinaryActionCodec.getVarintSize(body.length), body.length);
+		JSONObject decoded = BinaryActionCodec.decode(body, 0, body.length, OutgoingActionType.values());
+		assertEquals("PUSH_PLAYLIST_DELTA", decoded.getString("action_type"));
+		assertEquals("a1b2c3", decoded.getString("track_id"));
+		assertEquals(42.5, decoded.getDouble("position"), 0);
+		assertEquals(7, decoded.get("sequence"));
+		assertEquals(-3, decoded.getInt("offset"));
+		assertEquals(1L << 40, decoded.getLong("big"));
+		assertTrue(decoded.getBoolean("flag"));
+		assertTrue(decoded.isNull("nothing"));
+		assertEquals("a1b2c3", decoded.getJSONArray("list").getString(0));
+		assertEquals("caf\u00e9", decoded.getJSONArray("list").getJSONObject(1).getString("owner_id"));
+	}
+
+	@Test
+	public void repeatedStringsAreOnlySentOnce() {
+		// A playlist repeats the same keys for every track.
+		JSONArray tracks = new JSONArray();
+		for(int i = 0; i < 50; i++) {
+			tracks.put(new JSONObject().put("track_id", "track" + i).put("owner_id", "owner").put("track_state", "QUEUED"));
+		}
+		JSONObject playlist = new JSONObject().put("tracks", tracks);
+		byte[] jsonFrame = new OutgoingAction(OutgoingActionType.PUSH_PLAYLIST, playlist).getEncodedFrame();
+		byte[] binaryFrame = BinaryActionCodec.encode(OutgoingActionType.PUSH_PLAYLIST.ordinal(), playlist);
+		assertTrue("binary frame should be far smaller than JSON (" + binaryFrame.length + " vs " + jsonFrame.length + ")",
+				binaryFrame.length * 2 < jsonFrame.length);
+		int length = BinaryActionCodec.readFrameLength(binaryFrame, 0, binaryFrame.length);
+		JSONObject decoded = BinaryActionCodec.decode(binaryFrame, BinaryActionCodec.getVarintSize(length), length, OutgoingActionType.values());
+		assertEquals("track49", decoded.getJSONArray("tracks").getJSONObject(49).getString("track_id"));
+		assertEquals("QUEUED", decoded.getJSONArray("tracks").getJSONObject(49).getString("track_state"));
+	}
+
+	@Test
+	public void incompleteHeaderIsReportedAndOversizedFramesAreRejected() {
+		// 300 needs two bytes of header.
+		byte[] header = new byte[] { (byte) 0xAC, 0x02 };
+		assertEquals(-1, BinaryActionCodec.readFrameLength(header, 0, 1));
+		assertEquals(300, BinaryActionCodec.readFrameLength(header, 0, 2));
+		byte[] hugeHeader = new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F };
+		try {
+			BinaryActionCodec.readFrameLength(hugeHeader, 0, hugeHeader.length);
+			fail("a frame bigger than MAX_INCOMING_FRAME_SIZE should be rejected");
+		} catch (JSONException e) {}
+		try {
+			BinaryActionCodec.readFrame(new ByteArrayInputStream(hugeHeader));
+			fail("a frame bigger than MAX_INCOMING_FRAME_SIZE should be rejected");
+		} catch (IOException e) {}
+		// 1 MB + 1, turned away before any of the body is allocated.
+		byte[] overLimitHeader = new byte[] { (byte) 0x81, (byte) 0x80, 0x40 };
+		try {
+			BinaryActionCodec.readFrameLength(overLimitHeader, 0, overLimitHeader.length);
+			fail("a frame bigger than MAX_INCOMING_FRAME_SIZE should be rejected");
+		} catch (JSONException e) {}
+		try {
+			BinaryActionCodec.readFrame(new ByteArrayInputStream(overLimitHeader));
+			fail("a frame bigger than MAX_INCOMING_FRAME_SIZE should be rejected");
+		} catch (IOException e) {}
+	}
+
+	@Test
+	public void malformedBodiesAreRejected() {
+		byte[] frame = BinaryActionCodec.encode(IncomingActionType.PLAY.ordinal(), new JSONObject().put("track_id", "a1b2c3"));
+		int length = BinaryActionCodec.readFrameLength(frame, 0, frame.length);
+		int bodyStart = BinaryActionCodec.getVarintSize(length);
+		IncomingAction incomingAction = BinaryActionCodec.decodeIncomingAction(frame, bodyStart, length);
+		assertEquals(IncomingActionType.PLAY, incomingAction.getIncomingActionType());
+		assertEquals("a1b2c3", incomingAction.getTrackId());
+		// Cut short.
+		try {
+			BinaryActionCodec.decodeIncomingAction(frame, bodyStart, length - 1);
+			fail("a truncated body should be rejected");
+		} catch (JSONException e) {}
+		// An action type that doesn't exist.
+		byte[] unknownType = frame.clone();
+		unknownType[bodyStart] = 100;
+		try {
+			BinaryActionCodec.decodeIncomingAction(unknownType, bodyStart, length);
+			fail("an unknown action type should be rejected");
+		} catch (JSONException e) {}
+		// Text is not a frame.
+		byte[] text = "{\"action_type\":\"PLAY\"}".getBytes(Charset.forName("UTF-8"));
+		try {
+			BinaryActionCodec.decodeIncomingAction(text, 0, text.length);
+			fail("JSON text should be rejected");
+		} catch (JSONException e) {}
+	}
+}
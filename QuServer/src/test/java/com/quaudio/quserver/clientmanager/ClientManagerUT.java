@@ -1,19 +1,31 @@
 package com.quaudio.quserver.clientmanager;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.SocketTimeoutException;
 
 public class ClientManagerUT {
 	private int testClientManagerConnectionPort = 50607;
+	private int testSelectorClientManagerConnectionPort = 50608;
+	private int testSlowClientManagerConnectionPort = 50609;
+	private int testBinaryClientManagerConnectionPort = 50610;
+	private int testBinarySelectorClientManagerConnectionPort = 50611;
+	private int testCompressedClientManagerConnectionPort = 50612;
+	private int testCompressedSelectorClientManagerConnectionPort = 50613;
+	private int testTricklingClientManagerConnectionPort = 50614;
 	private int testTimeout = 4000;
 	
 	@Test
@@ -50,4 +62,283 @@ public class ClientManagerUT {
 			}
 		}
 	}
+	
+	@Test
+	public void connectToSelectorClientManager() {
+		// Set up the ClientManager so that it multiplexes clients with a Selector.
+		ClientManager clientManager = new ClientManager(testSelectorClientManagerConnectionPort, ClientIOMode.SELECTOR);
+		clientManager.start();
+		// Construct our request.
+		JSONObject connectionRequest = new JSONObject();
+		connectionRequest.put("client_id", "test_selector_id");
+		// Connect to the ClientManager.
+		Socket clientSocket = null;
+		try {
+			clientSocket = new Socket();
+			clientSocket.connect(new InetSocketAddress("127.0.0.1", testSelectorClientManagerConnectionPort), testTimeout);
+			clientSocket.setSoTimeout(testTimeout);
+			BufferedReader responseReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream())); 
+			PrintWriter responseWriter = new PrintWriter(clientSocket.getOutputStream());
+			// Send our request.
+			responseWriter.println(connectionRequest.toString());
+			responseWriter.flush();
+			// Get the response from the ClientManager.
+			String response = responseReader.readLine();
+			// Ensure that we got the 'ACCEPTED' response.
+			assertTrue("failed to get the expected 'ACCEPTED' response from ClientManager", response.trim().equals("ACCEPTED"));
+			// Send an action and make sure that it is framed and handed over.
+			JSONObject playAction = new JSONObject();
+			playAction.put("action_type", "PLAY");
+			playAction.put("track_id", "test_track_id");
+			responseWriter.println(playAction.toString());
+			responseWriter.flush();
+			int receivedActions = 0;
+			long waitStart = System.currentTimeMillis();
+			while(receivedActions == 0 && (System.currentTimeMillis() - waitStart) < testTimeout) {
+				receivedActions = clientManager.getPendingIncomingActions().size();
+			}
+			assertTrue("the ClientManager did not receive the action we sent", receivedActions == 1);
+		} catch (SocketTimeoutException e) {
+			fail("got socket timeout during connection to ClientManager");
+		} catch (IOException e) {
+			fail("got IOException during connection to ClientManager");
+		} finally {
+			if(clientSocket != null) {
+				try {
+					clientSocket.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+	
+	@Test
+	public void slowClientDoesNotBlockHandshakes() {
+		// Set up the ClientManager.
+		ClientManager clientManager = new ClientManager(testSlowClientManagerConnectionPort);
+		clientManager.start();
+		// Construct our request.
+		JSONObject connectionRequest = new JSONObject();
+		connectionRequest.put("client_id", "test_id_behind_slow_client");
+		Socket slowClientSocket = null;
+		Socket clientSocket = null;
+		try {
+			// Connect a client that never sends its connection request.
+			slowClientSocket = new Socket();
+			slowClientSocket.connect(new InetSocketAddress("127.0.0.1", testSlowClientManagerConnectionPort), testTimeout);
+			// Now connect a well behaved client, which should not have to wait for the slow one.
+			clientSocket = new Socket();
+			clientSocket.connect(new InetSocketAddress("127.0.0.1", testSlowClientManagerConnectionPort), testTimeout);
+			clientSocket.setSoTimeout(testTimeout);
+			BufferedReader responseReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream())); 
+			PrintWriter responseWriter = new PrintWriter(clientSocket.getOutputStream());
+			responseWriter.println(connectionRequest.toString());
+			responseWriter.flush();
+			String response = responseReader.readLine();
+			assertTrue("failed to get the expected 'ACCEPTED' response from ClientManager", response.trim().equals("ACCEPTED"));
+			// The slow client should be dropped once the handshake deadline passes.
+			slowClientSocket.setSoTimeout((int) ClientManager.HANDSHAKE_TIMEOUT_MS + testTimeout);
+			assertTrue("the slow client should have been disconnected", slowClientSocket.getInputStream().read() == -1);
+			assertTrue("the slow client should have been counted as a handshake timeout", clientManager.getHandshakeStats().getTimedOutHandshakes() == 1);
+		} catch (SocketTimeoutException e) {
+			fail("got socket timeout during connection to ClientManager");
+		} catch (IOException e) {
+			fail("got IOException during connection to ClientManager");
+		} finally {
+			try {
+				if(slowClientSocket != null) {
+					slowClientSocket.close();
+				}
+				if(clientSocket != null) {
+					clientSocket.close();
+				}
+			} catch (IOException e) {}
+		}
+	}
+	
+	@Test
+	public void tricklingClientIsDroppedAtDeadline() throws Exception {
+		ClientManager clientManager = new ClientManager(testTricklingClientManagerConnectionPort);
+		clientManager.start();
+		final Socket tricklingSocket = new Socket();
+		try {
+			tricklingSocket.connect(new InetSocketAddress("127.0.0.1", testTricklingClientManagerConnectionPort), testTimeout);
+			long start = System.currentTimeMillis();
+			// Send the request a byte at a time, each well within the socket timeout but never finishing it.
+			Thread trickler = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						OutputStream output = tricklingSocket.getOutputStream();
+						while(true) {
+							output.write('{');
+							output.flush();
+							Thread.sleep(500);
+						}
+					} catch (IOException | InterruptedException e) {}
+				}
+			});
+			trickler.setDaemon(true);
+			trickler.start();
+			tricklingSocket.setSoTimeout((int) ClientManager.HANDSHAKE_TIMEOUT_MS + testTimeout);
+			try {
+				assertEquals("the trickling client should have been disconnected", -1, tricklingSocket.getInputStream().read());
+			} catch (SocketException e) {
+				// Reset by the server, which is just as good.
+			}
+			assertTrue("the trickling client should be dropped at the handshake deadline", 
+					System.currentTimeMillis() - start < ClientManager.HANDSHAKE_TIMEOUT_MS + 2000);
+			assertEquals(1, clientManager.getHandshakeStats().getTimedOutHandshakes());
+		} finally {
+			tricklingSocket.close();
+		}
+	}
+	
+	@Test
+	public void binaryActionsAreNegotiated() {
+		ClientManager clientManager = new ClientManager(testBinaryClientManagerConnectionPort);
+		clientManager.start();
+		exchangeBinaryActions(clientManager, testBinaryClientManagerConnectionPort, "test_binary_id");
+	}
+	
+	@Test
+	public void binaryActionsAreNegotiatedWithSelector() {
+		ClientManager clientManager = new ClientManager(testBinarySelectorClientManagerConnectionPort, ClientIOMode.SELECTOR);
+		clientManager.start();
+		exchangeBinaryActions(clientManager, testBinarySelectorClientManagerConnectionPort, "test_binary_selector_id");
+	}
+	
+	/**
+	 * Connects asking for the BINARY ActionEncoding, then sends an action and reads one back as binary frames.
+	 * @param clientManager
+	 * @param port
+	 * @param clientId
+	 */
+	private void exchangeBinaryActions(ClientManager clientManager, int port, String clientId) {
+		JSONObject connectionRequest = new JSONObject();
+		connectionRequest.put("client_id", clientId);
+		connectionRequest.put("action_encoding", "BINARY");
+		Socket clientSocket = null;
+		try {
+			clientSocket = new Socket();
+			clientSocket.connect(new InetSocketAddress("127.0.0.1", port), testTimeout);
+			clientSocket.setSoTimeout(testTimeout);
+			InputStream clientInput = clientSocket.getInputStream();
+			OutputStream clientOutput = clientSocket.getOutputStream();
+			clientOutput.write((connectionRequest.toString() + "\n").getBytes("UTF-8"));
+			clientOutput.flush();
+			// Read the response a byte at a time, as binary frames will follow it.
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			int next;
+			while((next = clientInput.read()) != '\n' && next != -1) {
+				response.write(next);
+			}
+			assertEquals("ACCEPTED:BINARY", response.toString("UTF-8").trim());
+			// Send an action as a frame.
+			JSONObject playAction = new JSONObject();
+			playAction.put("track_id", "test_track_id");
+			clientOutput.write(BinaryActionCodec.encode(IncomingActionType.PLAY.ordinal(), playAction));
+			clientOutput.flush();
+			IncomingAction incomingAction = null;
+			long waitStart = System.currentTimeMillis();
+			while(incomingAction == null && (System.currentTimeMillis() - waitStart) < testTimeout) {
+				incomingAction = clientManager.pollIncomingAction();
+			}
+			assertNotNull("the ClientManager did not receive the action we sent", incomingAction);
+			assertEquals(IncomingActionType.PLAY, incomingAction.getIncomingActionType());
+			assertEquals("test_track_id", incomingAction.getTrackId());
+			// Actions sent to us should come back as frames too.
+			clientManager.queueOutgoingAction(clientId, new OutgoingAction(OutgoingActionType.PUSH_VOLUME, new JSONObject().put("volume_level", 50)));
+			byte[] frame = BinaryActionCodec.readFrame(clientInput);
+			JSONObject volumeAction = BinaryActionCodec.decode(frame, 0, frame.length, OutgoingActionType.values());
+			assertEquals("PUSH_VOLUME", volumeAction.getString("action_type"));
+			assertEquals(50, volumeAction.getInt("volume_level"));
+		} catch (SocketTimeoutException e) {
+			fail("got socket timeout during connection to ClientManager");
+		} catch (IOException e) {
+			fail("got IOException during connection to ClientManager");
+		} finally {
+			if(clientSocket != null) {
+				try {
+					clientSocket.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+	
+	@Test
+	public void compressedActionsAreNegotiated() {
+		ClientManager clientManager = new ClientManager(testCompressedClientManagerConnectionPort);
+		clientManager.start();
+		receiveCompressedActions(clientManager, testCompressedClientManagerConnectionPort, "test_compressed_id", ActionEncoding.JSON);
+	}
+	
+	@Test
+	public void compressedActionsAreNegotiatedWithSelector() {
+		ClientManager clientManager = new ClientManager(testCompressedSelectorClientManagerConnectionPort, ClientIOMode.SELECTOR);
+		clientManager.start();
+		receiveCompressedActions(clientManager, testCompressedSelectorClientManagerConnectionPort, "test_compressed_selector_id", 
+				ActionEncoding.BINARY);
+	}
+	
+	/**
+	 * Connects asking for compression, then checks that a large action arrives compressed and a small one doesn't.
+	 * @param clientManager
+	 * @param port
+	 * @param clientId
+	 * @param encoding
+	 */
+	private void receiveCompressedActions(ClientManager clientManager, int port, String clientId, ActionEncoding encoding) {
+		JSONObject connectionRequest = new JSONObject();
+		connectionRequest.put("client_id", clientId);
+		connectionRequest.put("action_encoding", encoding.toString());
+		connectionRequest.put("action_compression", "DEFLATE");
+		Socket clientSocket = null;
+		try {
+			clientSocket = new Socket();
+			clientSocket.connect(new InetSocketAddress("127.0.0.1", port), testTimeout);
+			clientSocket.setSoTimeout(testTimeout);
+			InputStream clientInput = clientSocket.getInputStream();
+			OutputStream clientOutput = clientSocket.getOutputStream();
+			clientOutput.write((connectionRequest.toString() + "\n").getBytes("UTF-8"));
+			clientOutput.flush();
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			int next;
+			while((next = clientInput.read()) != '\n' && next != -1) {
+				response.write(next);
+			}
+			assertEquals("ACCEPTED:" + encoding + ":DEFLATE", response.toString("UTF-8").trim());
+			// The client is registered before the response is sent, so we can send to it straight away.
+			JSONArray playList = new JSONArray();
+			for(int i = 0; i < 200; i++) {
+				playList.put(new JSONObject().put("track_id", "track_" + i).put("track_state", "PENDING").put("position", 0));
+			}
+			OutgoingAction playListAction = new OutgoingAction(OutgoingActionType.PUSH_PLAYLIST, new JSONObject().put("playlist", playList));
+			OutgoingAction volumeAction = new OutgoingAction(OutgoingActionType.PUSH_VOLUME, new JSONObject().put("volume_level", 50));
+			clientManager.queueOutgoingAction(clientId, playListAction);
+			clientManager.queueOutgoingAction(clientId, volumeAction);
+			// The playlist is well over the threshold.
+			assertEquals(FrameCompressor.COMPRESSED_FRAME_MARKER, clientInput.read());
+			assertArrayEquals(playListAction.getEncodedFrame(encoding), FrameDecompressor.readCompressedFrame(clientInput));
+			// The volume isn't, so it comes as it is.
+			byte[] volumeFrame = volumeAction.getEncodedFrame(encoding);
+			byte[] received = new byte[volumeFrame.length];
+			int read = 0;
+			while(read < received.length) {
+				int count = clientInput.read(received, read, received.length - read);
+				assertTrue("connection closed early", count != -1);
+				read += count;
+			}
+			assertArrayEquals(volumeFrame, received);
+		} catch (SocketTimeoutException e) {
+			fail("got socket timeout during connection to ClientManager");
+		} catch (IOException e) {
+			fail("got IOException during connection to ClientManager");
+		} finally {
+			if(clientSocket != null) {
+				try {
+					clientSocket.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
 }
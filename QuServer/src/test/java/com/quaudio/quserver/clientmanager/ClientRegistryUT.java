@@ -0,0 +1,41 @@
+package com.quaudio.quserver.clientmanager;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ClientRegistryUT {
+
+	@Test
+	public void duplicateClientIdIsRefused() {
+		ClientRegistry registry = new ClientRegistry();
+		assertTrue(registry.register("client", createClient()));
+		assertFalse("a second client with the same id should be refused", registry.register("client", createClient()));
+		assertEquals(1, registry.size());
+		assertEquals(1, registry.snapshot().length);
+	}
+
+	@Test
+	public void removeOnlyRemovesMatchingClient() {
+		ClientRegistry registry = new ClientRegistry();
+		Client client = createClient();
+		registry.register("client", client);
+		assertFalse(registry.remove("client", createClient()));
+		assertTrue(registry.remove("client", client));
+		assertEquals(0, registry.snapshot().length);
+	}
+
+	@Test
+	public void snapshotIsUnaffectedByLaterChanges() {
+		ClientRegistry registry = new ClientRegistry();
+		registry.register("client_1", createClient());
+		Client[] snapshot = registry.snapshot();
+		registry.register("client_2", createClient());
+		assertEquals(1, snapshot.length);
+		assertEquals(2, registry.snapshot().length);
+	}
+
+	private Client createClient() {
+		return new Client(new OutgoingActionQueue(1, 1000, OutgoingQueuePolicy.MERGE_LATEST)) {};
+	}
+}
@@ -0,0 +1,94 @@
+package com.quaudio.quserver.clientmanager;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class FrameCompressorUT {
+
+	private static OutgoingAction createPlayListAction(int trackCount) {
+		JSONArray playList = new JSONArray();
+		for(int i = 0; i < trackCount; i++) {
+			JSONObject track = new JSONObject();
+			track.put("track_id", "track_" + i);
+			track.put("owner_id", "owner_" + (i % 3));
+			track.put("track_state", "PENDING");
+			track.put("name", "Track " + i);
+			track.put("artist", "Artist " + (i % 7));
+			track.put("album", "Album " + (i % 5));
+			track.put("duration", 180.5 + i);
+			track.put("position", 0);
+			playList.put(track);
+		}
+		JSONObject playListInfo = new JSONObject();
+		playListInfo.put("playlist", playList);
+		playListInfo.put("sequence", 1);
+		return new OutgoingAction(OutgoingActionType.PUSH_PLAYLIST, playListInfo);
+	}
+
+	/**
+	 * Reads a compressed frame back the way a client would, marker first.
+	 */
+	private static byte[] readBack(byte[] compressed) throws IOException {
+		InputStream input = new ByteArrayInputStream(compressed);
+		assertEquals(FrameCompressor.COMPRESSED_FRAME_MARKER, input.read());
+		byte[] frame = FrameDecompressor.readCompressedFrame(input);
+		assertEquals("the whole compressed frame should have been read", -1, input.read());
+		return frame;
+	}
+
+	@Test
+	public void framesSurviveCompression() throws IOException {
+		OutgoingAction playListAction = createPlayListAction(100);
+		for(ActionEncoding encoding : ActionEncoding.values()) {
+			byte[] frame = playListAction.getEncodedFrame(encoding);
+			byte[] compressed = FrameCompressor.compress(frame);
+			assertNotNull(compressed);
+			assertTrue(encoding + " playlist should compress well", compressed.length < frame.length / 2);
+			assertArrayEquals(frame, readBack(compressed));
+		}
+	}
+
+	@Test
+	public void incompressibleFramesAreLeftAlone() {
+		byte[] frame = new byte[2048];
+		new Random(7).nextBytes(frame);
+		assertNull(FrameCompressor.compress(frame));
+		assertNull(FrameCompressor.compress("{}\n".getBytes()));
+	}
+
+	@Test
+	public void compressedFrameIsSharedPerEncoding() throws IOException {
+		OutgoingAction playListAction = createPlayListAction(20);
+		byte[] compressed = playListAction.getCompressedFrame(ActionEncoding.JSON);
+		assertSame("frame should only be compressed once", compressed, playListAction.getCompressedFrame(ActionEncoding.JSON));
+		byte[] compressedBinary = playListAction.getCompressedFrame(ActionEncoding.BINARY);
+		assertSame(compressedBinary, playListAction.getCompressedFrame(ActionEncoding.BINARY));
+		assertArrayEquals(playListAction.getEncodedFrame(ActionEncoding.BINARY), readBack(compressedBinary));
+	}
+
+	@Test
+	public void corruptFramesAreRejected() throws IOException {
+		byte[] compressed = FrameCompressor.compress(createPlayListAction(20).getEncodedFrame());
+		// Damage the deflated data, then cut the frame short.
+		byte[] corrupt = Arrays.copyOf(compressed, compressed.length);
+		for(int i = compressed.length / 2; i < compressed.length; i++) {
+			corrupt[i] = (byte) 0xFF;
+		}
+		try {
+			readBack(corrupt);
+			fail("read back a corrupt frame");
+		} catch (IOException e) {}
+		try {
+			readBack(Arrays.copyOf(compressed, compressed.length - 10));
+			fail("read back a truncated frame");
+		} catch (IOException e) {}
+	}
+}
@@ -0,0 +1,78 @@
+package com.quaudio.quserver.clientmanager;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads compressed frames back the way the QuClient does, so the tests can check what the FrameCompressor wrote.
+ * @author Nikolas Howard
+ *
+ */
+public class FrameDecompressor {
+
+	/**
+	 * Reads the rest of a compressed frame from a stream, once its marker has been read, and returns the original frame.
+	 * @param inputStream
+	 * @return frame
+	 * @throws IOException if the stream fails or ends, or the compressed frame is malformed
+	 */
+	public static byte[] readCompressedFrame(InputStream inputStream) throws IOException {
+		byte[] body = BinaryActionCodec.readFrame(inputStream);
+		if(body == null) {
+			throw new EOFException("stream ended in compressed frame");
+		}
+		return decompress(body);
+	}
+
+	/**
+	 * Inflates the body of a compressed frame.
+	 * @param body
+	 * @return frame
+	 * @throws IOException if the body is malformed
+	 */
+	private static byte[] decompress(byte[] body) throws IOException {
+		int frameLength = 0;
+		int offset = 0;
+		for(int shift = 0; ; shift += 7) {
+			if(offset >= body.length || shift > 28) {
+				throw new IOException("malformed compressed frame");
+			}
+			int next = body[offset++];
+			frameLength |= (next & 0x7F) << shift;
+			if((next & 0x80) == 0) {
+				break;
+			}
+		}
+		if(frameLength < 0 || frameLength > BinaryActionCodec.MAX_FRAME_SIZE) {
+			throw new IOException("compressed frame of " + frameLength + " bytes is too big");
+		}
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(body, offset, body.length - offset);
+			byte[] frame = new byte[frameLength];
+			int inflatedLength = 0;
+			while(inflatedLength < frameLength) {
+				int count = inflater.inflate(frame, inflatedLength, frameLength - inflatedLength);
+				if(count == 0) {
+					if(inflater.needsDictionary()) {
+						inflater.setDictionary(FrameCompressor.DICTIONARY);
+					} else if(inflater.finished() || inflater.needsInput()) {
+						throw new IOException("compressed frame is shorter than it claims");
+					}
+				}
+				inflatedLength += count;
+			}
+			return frame;
+		} catch (DataFormatException e) {
+			throw new IOException("malformed compressed frame", e);
+		} catch (IllegalArgumentException e) {
+			// The frame was compressed with some other dictionary.
+			throw new IOException("malformed compressed frame", e);
+		} finally {
+			inflater.end();
+		}
+	}
+}
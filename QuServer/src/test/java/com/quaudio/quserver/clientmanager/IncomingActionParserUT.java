@@ -0,0 +1,127 @@
+package com.quaudio.quserver.clientmanager;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class IncomingActionParserUT {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static IncomingAction parse(IncomingActionParser parser, String json) {
+		// Pad the frame on both sides, as a frame is usually only a part of a bigger read buffer.
+		byte[] frame = ("xx" + json + "\nyy").getBytes(UTF8);
+		return parser.parse(frame, 2, frame.length - 5);
+	}
+
+	@Test
+	public void fieldsAreParsed() {
+		IncomingActionParser parser = new IncomingActionParser();
+		IncomingAction skip = parse(parser, "{\"action_type\":\"SKIP\",\"track_id\":\"track_1\",\"position\":-12.25}");
+		assertEquals(IncomingActionType.SKIP, skip.getIncomingActionType());
+		assertEquals("track_1", skip.getTrackId());
+		assertEquals(-12.25, skip.getPosition(), 0);
+		assertEquals(-1, skip.getVolumeLevel());
+		assertNull(skip.getClientId());
+		IncomingAction settings = parse(parser, " { \"action_type\" : \"UPDATE_SETTINGS\" , \"device_name\" : \"kitchen\" ,"
+				+ " \"access_password\" : \"?\" , \"super_password\" : \"secret\" , \"volume_level\" : 40 } ");
+		assertEquals(IncomingActionType.UPDATE_SETTINGS, settings.getIncomingActionType());
+		assertEquals("kitchen", settings.getDeviceName());
+		assertEquals("?", settings.getAccessPassword());
+		assertEquals("secret", settings.getSuperPassword());
+		assertEquals(40, settings.getVolumeLevel());
+		// Nothing is carried over from the previous action.
+		assertNull(settings.getTrackId());
+		assertTrue(Double.isNaN(settings.getPosition()));
+	}
+
+	@Test
+	public void escapesAreDecoded() {
+		IncomingActionParser parser = new IncomingActionParser();
+		IncomingAction action = parse(parser, "{\"action_type\":\"UPDATE_SETTINGS\",\"device_name\":\"a \\\"b\\\" \\\\ caf\\u00e9\\n\","
+				+ "\"client_\\u0069d\":\"client_1\"}");
+		assertEquals("a \"b\" \\ caf\u00e9\n", action.getDeviceName());
+		assertEquals("client_1", action.getClientId());
+		// Characters outside of ASCII don't need escaping at all.
+		action = parse(parser, "{\"action_type\":\"UPDATE_SETTINGS\",\"device_name\":\"caf\u00e9\"}");
+		assertEquals("caf\u00e9", action.getDeviceName());
+	}
+
+	@Test
+	public void unknownFieldsAreSkipped() {
+		IncomingActionParser parser = new IncomingActionParser();
+		IncomingAction action = parse(parser, "{\"extra\":{\"track_id\":\"wrong\",\"list\":[1,[2,\"]}\"],{}]},"
+				+ "\"action_type\":\"PLAY\",\"other\":[\"x\"],\"flag\":true,\"track_id\":\"right\",\"client_id\":null}");
+		assertEquals(IncomingActionType.PLAY, action.getIncomingActionType());
+		assertEquals("right", action.getTrackId());
+		assertNull(action.getClientId());
+	}
+
+	@Test
+	public void numbersAreParsedAsOrgJsonWould() {
+		IncomingActionParser parser = new IncomingActionParser();
+		String[] positions = { "0", "7", "12.5", "-0.001", "93.25", "1e3", "2.5E-2", "123456789012345678", "0.1000000000000000055",
+				"\"42.5\"", "'3'", "\"abc\"", "{}" };
+		for(String position : positions) {
+			String json = "{\"action_type\":\"SKIP\",\"position\":" + position + "}";
+			double expected = new IncomingAction(new JSONObject(json)).getPosition();
+			double actual = parse(parser, json).getPosition();
+			assertEquals("position " + position, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+		}
+	}
+
+	@Test
+	public void unknownTypeIsUnknown() {
+		IncomingActionParser parser = new IncomingActionParser();
+		assertEquals(IncomingActionType.UNKNOWN, parse(parser, "{\"action_type\":\"#_UNSUPPORTED_ACTION_#\"}").getIncomingActionType());
+		assertEquals(IncomingActionType.UNKNOWN, parse(parser, "{\"action_type\":\"PLAYS\"}").getIncomingActionType());
+		assertEquals(IncomingActionType.UNKNOWN, parse(parser, "{}").getIncomingActionType());
+	}
+
+	@Test
+	public void malformedActionsAreRejected() {
+		IncomingActionParser parser = new IncomingActionParser();
+		String[] malformed = { "", "[]", "{", "{\"action_type\"}", "{\"action_type\":}", "{\"action_type\":\"PLAY\"",
+				"{\"action_type\":\"PLAY}", "{\"action_type\":\"PLAY\" \"track_id\":\"a\"}", "{\"a\":[1,2}", "{} {}" };
+		for(String json : malformed) {
+			try {
+				parse(parser, json);
+				fail("parsed malformed action " + json);
+			} catch (JSONException e) {}
+		}
+		// The parser is still usable afterwards.
+		assertEquals(IncomingActionType.PLAY, parse(parser, "{\"action_type\":\"PLAY\"}").getIncomingActionType());
+	}
+
+	@Test
+	public void idsAreShared() {
+		IncomingActionParser parser = new IncomingActionParser();
+		IncomingAction first = parse(parser, "{\"action_type\":\"SKIP\",\"track_id\":\"track_7\"}");
+		IncomingAction second = parse(parser, "{\"action_type\":\"PLAY\",\"track_id\":\"track_7\"}");
+		assertSame(first.getTrackId(), second.getTrackId());
+		// Ids are shared with actions decoded any other way too.
+		IncomingAction decoded = new IncomingAction(new JSONObject("{\"action_type\":\"PLAY\",\"track_id\":\"track_7\"}"));
+		assertSame(first.getTrackId(), decoded.getTrackId());
+	}
+
+	@Test
+	public void parserAgreesWithJSONObject() {
+		IncomingActionParser parser = new IncomingActionParser();
+		String[] actions = {
+				"{\"action_type\":\"REQUEST_PLAYLIST\",\"client_id\":\"c1\"}",
+				"{\"action_type\":\"UPDATE_VOLUME\",\"volume_level\":55}",
+				"{'action_type':'PAUSE',track_id:abc}",
+				"{\"action_type\":\"REMOVE_TRACK\",\"track_id\":\"t\\/1\",\"position\":null}" };
+		for(String json : actions) {
+			IncomingAction expected = new IncomingAction(new JSONObject(json));
+			IncomingAction actual = parse(parser, json);
+			assertEquals(json, expected.getIncomingActionType(), actual.getIncomingActionType());
+			assertEquals(json, expected.getClientId(), actual.getClientId());
+			assertEquals(json, expected.getTrackId(), actual.getTrackId());
+			assertEquals(json, expected.getVolumeLevel(), actual.getVolumeLevel());
+			assertEquals(json, Double.doubleToLongBits(expected.getPosition()), Double.doubleToLongBits(actual.getPosition()));
+		}
+	}
+}
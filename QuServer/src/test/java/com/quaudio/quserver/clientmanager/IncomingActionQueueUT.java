@@ -0,0 +1,63 @@
+package com.quaudio.quserver.clientmanager;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import com.quaudio.quserver.server.ServerEventQueue;
+import com.quaudio.quserver.server.ServerEventType;
+
+public class IncomingActionQueueUT {
+
+	@Test
+	public void actionsFromManyProducersAllArriveInOrder() throws InterruptedException {
+		final IncomingActionQueue queue = new IncomingActionQueue();
+		final int producers = 4;
+		final int actionsPerProducer = 1000;
+		Thread[] producerThreads = new Thread[producers];
+		for(int p = 0; p < producers; p++) {
+			final int producer = p;
+			producerThreads[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i = 0; i < actionsPerProducer; i++) {
+						// The producer and index ride along in the client id and volume level.
+						queue.offer(new IncomingAction(new JSONObject().put("client_id", "" + producer).put("volume_level", i)));
+					}
+				}
+			});
+			producerThreads[p].start();
+		}
+		for(Thread producerThread : producerThreads) {
+			producerThread.join();
+		}
+		// Each producer's actions should come out in the order they went in.
+		int[] nextIndex = new int[producers];
+		IncomingAction action;
+		int received = 0;
+		while((action = queue.poll()) != null) {
+			int producer = Integer.parseInt(action.getClientId());
+			assertEquals(nextIndex[producer]++, action.getVolumeLevel());
+			received++;
+		}
+		assertEquals(producers * actionsPerProducer, received);
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void serverLoopIsOnlyWokenOncePerDrain() throws InterruptedException {
+		IncomingActionQueue queue = new IncomingActionQueue();
+		ServerEventQueue eventQueue = ServerEventQueue.getEventQueue();
+		eventQueue.take(0);
+		queue.offer(new IncomingAction(new JSONObject()));
+		queue.offer(new IncomingAction(new JSONObject()));
+		assertTrue(eventQueue.take(0).contains(ServerEventType.INCOMING_ACTION));
+		// The loop hasn't started draining yet, so it doesn't need waking again.
+		queue.offer(new IncomingAction(new JSONObject()));
+		assertFalse(eventQueue.take(0).contains(ServerEventType.INCOMING_ACTION));
+		queue.clearSignal();
+		while(queue.poll() != null);
+		queue.offer(new IncomingAction(new JSONObject()));
+		assertTrue(eventQueue.take(0).contains(ServerEventType.INCOMING_ACTION));
+	}
+}
@@ -1,6 +1,6 @@
 package com.quaudio.quserver.clientmanager;
 
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 import org.json.JSONObject;
 import org.junit.Test;
@@ -31,4 +31,30 @@ public class IncomingActionUT {
 		assertTrue("action type should be 'UNKNOWN' but got type '" + incomingAction.getIncomingActionType() + "'",
 				incomingAction.getIncomingActionType() == IncomingActionType.UNKNOWN);
 	}
+
+	@Test
+	public void fieldsAreDecodedOnce() {
+		JSONObject incomingActionBody = new JSONObject();
+		incomingActionBody.put("action_type", IncomingActionType.SKIP.toString());
+		incomingActionBody.put("track_id", "track_1");
+		incomingActionBody.put("position", 12.5);
+		IncomingAction incomingAction = new IncomingAction(incomingActionBody);
+		// Changing the JSON afterwards makes no difference to the action.
+		incomingActionBody.put("track_id", "track_2");
+		assertEquals(IncomingActionType.SKIP, incomingAction.getIncomingActionType());
+		assertEquals("track_1", incomingAction.getTrackId());
+		assertEquals(12.5, incomingAction.getPosition(), 0);
+		// Anything the client didn't send is left empty.
+		assertNull(incomingAction.getClientId());
+		assertNull(incomingAction.getDeviceName());
+		assertEquals(-1, incomingAction.getVolumeLevel());
+	}
+
+	@Test
+	public void idsAreInterned() {
+		JSONObject first = new JSONObject().put("action_type", "PLAY").put("track_id", new String("interned_track_id"));
+		JSONObject second = new JSONObject().put("action_type", "PAUSE").put("track_id", new String("interned_track_id"));
+		assertSame(new IncomingAction(first).getTrackId(), new IncomingAction(second).getTrackId());
+		assertNull(IdInterner.getIdInterner().intern(null));
+	}
 }
@@ -0,0 +1,70 @@
+package com.quaudio.quserver.clientmanager;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class OutgoingActionQueueUT {
+
+	@Test
+	public void mergesSupersededActions() {
+		OutgoingActionQueue queue = new OutgoingActionQueue(10, 10000, OutgoingQueuePolicy.MERGE_LATEST);
+		queue.offer(createAction(OutgoingActionType.PUSH_VOLUME, 10));
+		queue.offer(createAction(OutgoingActionType.PUSH_PLAYLIST_DELTA, 1));
+		queue.offer(createAction(OutgoingActionType.PUSH_VOLUME, 20));
+		queue.offer(createAction(OutgoingActionType.PUSH_PLAYLIST_DELTA, 2));
+		assertEquals("volume updates should have been merged, deltas kept", 3, queue.size());
+		assertEquals(20, queue.poll().getActionInfoObject().getInt("value"));
+		assertEquals(1, queue.getStats().getMergedActions());
+	}
+
+	@Test
+	public void queueAllKeepsEveryAction() {
+		OutgoingActionQueue queue = new OutgoingActionQueue(10, 10000, OutgoingQueuePolicy.QUEUE_ALL);
+		queue.offer(createAction(OutgoingActionType.PUSH_VOLUME, 10));
+		queue.offer(createAction(OutgoingActionType.PUSH_VOLUME, 20));
+		assertEquals(2, queue.size());
+	}
+
+	@Test
+	public void fullQueueEvictsClient() {
+		OutgoingActionQueue queue = new OutgoingActionQueue(2, 10000, OutgoingQueuePolicy.MERGE_LATEST);
+		assertTrue(queue.offer(createAction(OutgoingActionType.PUSH_PLAYLIST_DELTA, 1)));
+		assertTrue(queue.offer(createAction(OutgoingActionType.PUSH_PLAYLIST_DELTA, 2)));
+		assertFalse("a full queue should mean the client is evicted", queue.offer(createAction(OutgoingActionType.PUSH_PLAYLIST_DELTA, 3)));
+	}
+
+	@Test
+	public void fullQueueDropsUntilClientFallsBehind() throws InterruptedException {
+		OutgoingActionQueue queue = new OutgoingActionQueue(1, 50, OutgoingQueuePolicy.MERGE_AND_DROP);
+		assertTrue(queue.offer(createAction(OutgoingActionType.PUSH_PLAYLIST_DELTA, 1)));
+		assertTrue(queue.offer(createAction(OutgoingActionType.PUSH_PLAYLIST_DELTA, 2)));
+		assertEquals(1, queue.getStats().getDroppedActions());
+		Thread.sleep(100);
+		assertTrue(queue.hasFallenBehind());
+		assertFalse(queue.offer(createAction(OutgoingActionType.PUSH_PLAYLIST_DELTA, 3)));
+	}
+
+	@Test
+	public void onlyOneWriterDrainsTheQueue() {
+		OutgoingActionQueue queue = new OutgoingActionQueue(10, 10000, OutgoingQueuePolicy.QUEUE_ALL);
+		assertFalse("there is nothing to write yet", queue.startDrain());
+		queue.offer(createAction(OutgoingActionType.PUSH_VOLUME, 10));
+		assertTrue(queue.startDrain());
+		queue.offer(createAction(OutgoingActionType.PUSH_VOLUME, 20));
+		assertFalse("the queue is already being drained", queue.startDrain());
+		queue.poll();
+		assertFalse("the writer should carry on while actions are queued", queue.finishDrain());
+		queue.poll();
+		assertTrue(queue.finishDrain());
+		queue.offer(createAction(OutgoingActionType.PUSH_VOLUME, 30));
+		assertTrue("a new action should start a new writer", queue.startDrain());
+	}
+
+	private OutgoingAction createAction(OutgoingActionType type, int value) {
+		JSONObject actionInfo = new JSONObject();
+		actionInfo.put("value", value);
+		return new OutgoingAction(type, actionInfo);
+	}
+}
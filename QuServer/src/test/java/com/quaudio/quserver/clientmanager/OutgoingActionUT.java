@@ -16,4 +16,15 @@ public class OutgoingActionUT {
     			actionType + "' but got type '" + outgoingAction.getOutgoingActionType() + "'", 
     			outgoingAction.getOutgoingActionType() == actionType);
     }
+    
+    @Test
+    public void encodedFrameIsSharedAndNewlineTerminated() {
+    	JSONObject outgoingActionBody = new JSONObject();
+    	outgoingActionBody.put("volume_level", 50);
+    	OutgoingAction outgoingAction = new OutgoingAction(OutgoingActionType.PUSH_VOLUME, outgoingActionBody);
+    	byte[] frame = outgoingAction.getEncodedFrame();
+    	assertSame("frame should only be encoded once", frame, outgoingAction.getEncodedFrame());
+    	String frameText = new String(frame, java.nio.charset.Charset.forName("UTF-8"));
+    	assertEquals(outgoingActionBody.toString() + "\n", frameText);
+    }
 }
@@ -1,5 +1,6 @@
 package com.quaudio.quserver.filetransfer;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -10,17 +11,17 @@ public class AudioFileReceiverUT {
 		// Create an instance of AudioFileReceiver.
 		AudioFileReceiver afReceiver = new AudioFileReceiver(50100);
 		// Attempt to fetch a pending audio file, none exist so we are expecting null.
-		AudioFile nextAudioFile = afReceiver.getNextUpload();
-		assertTrue("was expecting null value as there are no pending uploads", nextAudioFile == null);
+		PendingUpload nextUpload = afReceiver.getNextUpload();
+		assertTrue("was expecting null value as there are no pending uploads", nextUpload == null);
 		// Create an audio file and add it, simulating the completed upload of an audio file.
 		AudioFile realAudioFile = new AudioFile();
 		afReceiver.addAudioFile(realAudioFile);
 		// Attempt to fetch another pending audio file, should get the audio file we created.
-		nextAudioFile = afReceiver.getNextUpload();
-		assertTrue("was expecting the audio file instance we added to the receiver", nextAudioFile == realAudioFile);
+		nextUpload = afReceiver.getNextUpload();
+		assertTrue("was expecting the audio file instance we added to the receiver", nextUpload.getAudioFile() == realAudioFile);
 		// Now that we have fetched the only pending audio file, another call to 'getNextUpload()' should return null.
-		nextAudioFile = afReceiver.getNextUpload();
-		assertTrue("was expecting null value as there are no more pending uploads", nextAudioFile == null);
+		nextUpload = afReceiver.getNextUpload();
+		assertTrue("was expecting null value as there are no more pending uploads", nextUpload == null);
 	}
 	
 	@Test 
@@ -35,9 +36,27 @@ public class AudioFileReceiverUT {
 		afReceiver.addAudioFile(secondAudioFile);
 		afReceiver.addAudioFile(thirdAudioFile);
 		// Get the three added audio files, they should be returned in the order they were added.
-		assertTrue("was expecting the first audio file added", afReceiver.getNextUpload() == firstAudioFile);
-		assertTrue("was expecting the second audio file added", afReceiver.getNextUpload() == secondAudioFile);
-		assertTrue("was expecting the third and last audio file added", afReceiver.getNextUpload() == thirdAudioFile);
+		assertTrue("was expecting the first audio file added", afReceiver.getNextUpload().getAudioFile() == firstAudioFile);
+		assertTrue("was expecting the second audio file added", afReceiver.getNextUpload().getAudioFile() == secondAudioFile);
+		assertTrue("was expecting the third and last audio file added", afReceiver.getNextUpload().getAudioFile() == thirdAudioFile);
 		assertTrue("was expecting null value as there are no more pending uploads", afReceiver.getNextUpload() == null);
 	}
+	
+	@Test 
+	public void duplicateIsQueuedUnderItsOwnUpload() {
+		AudioFileReceiver afReceiver = new AudioFileReceiver(50120);
+		// The stored audio file came from an earlier upload, the second upload has the same content.
+		AudioFile storedAudioFile = new AudioFile();
+		storedAudioFile.setId("stored");
+		storedAudioFile.setOwnerId("first_owner");
+		AudioFile uploadedAudioFile = new AudioFile();
+		uploadedAudioFile.setId("uploaded");
+		uploadedAudioFile.setOwnerId("second_owner");
+		afReceiver.addAudioFile(storedAudioFile, uploadedAudioFile);
+		// The stored content is played, as the track of the second upload.
+		PendingUpload nextUpload = afReceiver.getNextUpload();
+		assertTrue("was expecting the stored audio file", nextUpload.getAudioFile() == storedAudioFile);
+		assertEquals("uploaded", nextUpload.getTrackId());
+		assertEquals("second_owner", nextUpload.getOwnerId());
+	}
 }
@@ -0,0 +1,37 @@
+package com.quaudio.quserver.filetransfer;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BandwidthShaperUT {
+
+	@Test
+	public void highLatencyCutsRate() {
+		BandwidthShaper shaper = new BandwidthShaper(4 * 1024 * 1024, 0, 150);
+		shaper.adjust(500);
+		assertEquals(2 * 1024 * 1024, shaper.getRate());
+		for(int i = 0; i < 20; i++) {
+			shaper.adjust(500);
+		}
+		assertEquals("the rate should bottom out rather than stall uploads", 64 * 1024, shaper.getRate());
+	}
+
+	@Test
+	public void lowLatencyRestoresRateUpToLimit() {
+		BandwidthShaper shaper = new BandwidthShaper(4 * 1024 * 1024, 0, 150);
+		shaper.adjust(500);
+		for(int i = 0; i < 100; i++) {
+			shaper.adjust(10);
+		}
+		assertEquals(4 * 1024 * 1024, shaper.getRate());
+	}
+
+	@Test
+	public void clientsShareOverallBucket() {
+		BandwidthShaper shaper = new BandwidthShaper(1024 * 1024, 512 * 1024, 150);
+		assertSame(shaper.getClientBucket("client"), shaper.getClientBucket("client"));
+		assertNotSame(shaper.getClientBucket("client"), shaper.getClientBucket("other_client"));
+		assertEquals(512 * 1024, shaper.getClientBucket("client").getRate());
+	}
+}
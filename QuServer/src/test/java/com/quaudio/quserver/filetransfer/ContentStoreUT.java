@@ -0,0 +1,64 @@
+package com.quaudio.quserver.filetransfer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Test;
+
+public class ContentStoreUT {
+	private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+	@Test
+	public void storedFileIsReused() throws IOException {
+		ContentStore contentStore = new ContentStore(createDirectory().getPath());
+		AudioFile firstUpload = createAudioFile();
+		assertNull(contentStore.getStoredAudioFile(HASH, firstUpload));
+		assertTrue(contentStore.getPartFile(HASH).createNewFile());
+		contentStore.store(firstUpload);
+		assertFalse(contentStore.getPartFile(HASH).exists());
+		assertEquals(contentStore.getStoredFile(HASH).getPath(), firstUpload.getPath());
+		assertSame("a second upload of the same content should get the first AudioFile", firstUpload, contentStore.getStoredAudioFile(HASH, createAudioFile()));
+	}
+
+	@Test
+	public void storedFileFromBeforeRestartIsAdopted() throws IOException {
+		File directory = createDirectory();
+		Files.write(new File(directory, HASH).toPath(), new byte[] { 1 });
+		ContentStore contentStore = new ContentStore(directory.getPath());
+		AudioFile upload = createAudioFile();
+		assertSame(upload, contentStore.getStoredAudioFile(HASH, upload));
+		assertEquals(new File(directory, HASH).getPath(), upload.getPath());
+	}
+
+	@Test
+	public void contentCanOnlyBeClaimedOnce() {
+		ContentStore contentStore = new ContentStore("temp");
+		assertTrue(contentStore.claim(HASH));
+		assertFalse(contentStore.claim(HASH));
+		contentStore.release(HASH);
+		assertTrue(contentStore.claim(HASH));
+	}
+
+	@Test
+	public void onlyHexSha256IsValid() {
+		assertTrue(ContentStore.isValidHash(HASH));
+		assertFalse(ContentStore.isValidHash("../../etc/passwd"));
+		assertFalse(ContentStore.isValidHash(HASH.toUpperCase()));
+		assertFalse(ContentStore.isValidHash(null));
+		assertEquals("00ff10", ContentStore.toHex(new byte[] { 0, (byte) 0xff, 0x10 }));
+	}
+
+	private File createDirectory() throws IOException {
+		File directory = Files.createTempDirectory("qu-content-store").toFile();
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	private AudioFile createAudioFile() {
+		AudioFile audioFile = new AudioFile();
+		audioFile.setContentHash(HASH);
+		return audioFile;
+	}
+}
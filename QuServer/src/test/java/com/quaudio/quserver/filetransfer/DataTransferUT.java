@@ -0,0 +1,130 @@
+package com.quaudio.quserver.filetransfer;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class DataTransferUT {
+
+	@Test
+	public void fileBytesSentWithInfoLineAreKept() throws IOException {
+		byte[] fileBytes = createFileBytes(100000);
+		ReadableByteChannel upload = createUpload("{\"name\":\"track\"}", fileBytes);
+		ByteBuffer headerBuffer = ByteBuffer.allocate(1024);
+		assertEquals("{\"name\":\"track\"}", DataTransfer.readInfoLine(upload, headerBuffer));
+		File target = File.createTempFile("qu-data-transfer", ".bin");
+		RandomAccessFile targetFile = new RandomAccessFile(target, "rw");
+		try {
+			assertEquals(fileBytes.length, DataTransfer.transferToFile(upload, headerBuffer, targetFile, fileBytes.length, 4096, null));
+		} finally {
+			targetFile.close();
+		}
+		assertArrayEquals(fileBytes, Files.readAllBytes(target.toPath()));
+		target.delete();
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedUploadFails() throws IOException {
+		byte[] fileBytes = createFileBytes(1000);
+		ReadableByteChannel upload = createUpload("{}", fileBytes);
+		ByteBuffer headerBuffer = ByteBuffer.allocate(1024);
+		DataTransfer.readInfoLine(upload, headerBuffer);
+		File target = File.createTempFile("qu-data-transfer", ".bin");
+		target.deleteOnExit();
+		RandomAccessFile targetFile = new RandomAccessFile(target, "rw");
+		try {
+			// We were promised more than we will get.
+			DataTransfer.transferToFile(upload, headerBuffer, targetFile, fileBytes.length + 1, 4096, null);
+		} finally {
+			targetFile.close();
+		}
+	}
+
+	@Test
+	public void chunksAreWrittenFromOffset() throws Exception {
+		byte[] fileBytes = createFileBytes(10000);
+		File target = File.createTempFile("qu-data-transfer", ".part");
+		// Pretend the first 4000 bytes arrived on an earlier attempt.
+		Files.write(target.toPath(), Arrays.copyOf(fileBytes, 4000));
+		MessageDigest fileDigest = MessageDigest.getInstance("SHA-256");
+		fileDigest.update(fileBytes, 0, 4000);
+		RandomAccessFile targetFile = new RandomAccessFile(target, "rw");
+		try {
+			ReadableByteChannel upload = Channels.newChannel(new ByteArrayInputStream(createChunks(fileBytes, 4000, 2500, false)));
+			assertEquals(fileBytes.length, DataTransfer.receiveChunks(upload, ByteBuffer.allocate(0), targetFile.getChannel(), 4000, fileDigest, 4096, null));
+		} finally {
+			targetFile.close();
+		}
+		assertArrayEquals(fileBytes, Files.readAllBytes(target.toPath()));
+		assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(fileBytes), fileDigest.digest());
+		target.delete();
+	}
+
+	@Test
+	public void corruptChunkIsNotWritten() throws Exception {
+		byte[] fileBytes = createFileBytes(5000);
+		File target = File.createTempFile("qu-data-transfer", ".part");
+		RandomAccessFile targetFile = new RandomAccessFile(target, "rw");
+		try {
+			ReadableByteChannel upload = Channels.newChannel(new ByteArrayInputStream(createChunks(fileBytes, 0, 2000, true)));
+			DataTransfer.receiveChunks(upload, ByteBuffer.allocate(0), targetFile.getChannel(), 0, MessageDigest.getInstance("SHA-256"), 4096, null);
+			fail("a chunk that doesn't match its hash should fail the upload");
+		} catch (IOException e) {
+			// Only the chunk before the corrupt one should have been kept.
+			assertEquals(2000, targetFile.length());
+		} finally {
+			targetFile.close();
+			target.delete();
+		}
+	}
+
+	/**
+	 * Frames the file from offset as chunks, corrupting the second chunk if asked.
+	 */
+	private byte[] createChunks(byte[] fileBytes, int offset, int chunkSize, boolean corruptSecondChunk) throws Exception {
+		ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(chunks);
+		int chunkIndex = 0;
+		for(int position = offset; position < fileBytes.length; position += chunkSize, chunkIndex++) {
+			int length = Math.min(chunkSize, fileBytes.length - position);
+			byte[] chunk = Arrays.copyOfRange(fileBytes, position, position + length);
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(chunk);
+			if(corruptSecondChunk && chunkIndex == 1) {
+				chunk[0]++;
+			}
+			output.writeInt(length);
+			output.write(chunk);
+			output.write(hash);
+		}
+		output.writeInt(0);
+		return chunks.toByteArray();
+	}
+
+	private ReadableByteChannel createUpload(String infoLine, byte[] fileBytes) throws IOException {
+		byte[] line = (infoLine + "\n").getBytes("UTF-8");
+		byte[] upload = new byte[line.length + fileBytes.length];
+		System.arraycopy(line, 0, upload, 0, line.length);
+		System.arraycopy(fileBytes, 0, upload, line.length, fileBytes.length);
+		return Channels.newChannel(new ByteArrayInputStream(upload));
+	}
+
+	private byte[] createFileBytes(int length) {
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i * 31);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,38 @@
+package com.quaudio.quserver.filetransfer;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TokenBucketUT {
+
+	@Test
+	public void unlimitedBucketNeverWaits() {
+		TokenBucket bucket = new TokenBucket(0, null);
+		assertEquals(10000000, bucket.acquire(10000000));
+	}
+
+	@Test
+	public void requestsAreCappedAtBurst() {
+		// A quarter of a second's worth at 1MB/s.
+		TokenBucket bucket = new TokenBucket(1024 * 1024, null);
+		assertEquals(256 * 1024, bucket.acquire(10 * 1024 * 1024));
+	}
+
+	@Test
+	public void rateIsEnforced() {
+		TokenBucket bucket = new TokenBucket(400 * 1024, null);
+		long start = System.nanoTime();
+		// The first 100KB is the initial burst, the other 200KB should take around half a second.
+		bucket.acquireFully(300 * 1024);
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+		assertTrue("took " + elapsedMillis + "ms", elapsedMillis >= 400 && elapsedMillis < 2000);
+	}
+
+	@Test
+	public void parentLimitsChild() {
+		TokenBucket parent = new TokenBucket(64 * 1024, null);
+		TokenBucket child = new TokenBucket(0, parent);
+		assertEquals("the child has no limit but the parent's burst is 16KB", 16 * 1024, child.acquire(1024 * 1024));
+	}
+}
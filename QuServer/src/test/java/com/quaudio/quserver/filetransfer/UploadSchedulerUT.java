@@ -0,0 +1,92 @@
+package com.quaudio.quserver.filetransfer;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class UploadSchedulerUT {
+
+	@Test
+	public void clientLimitIsEnforced() throws InterruptedException {
+		UploadScheduler scheduler = new UploadScheduler(1, 4, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		assertTrue(scheduler.schedule("client_1", blockingUpload(release)));
+		assertFalse("a client at its limit should be told we are busy", scheduler.schedule("client_1", blockingUpload(release)));
+		assertTrue("other clients should still be admitted", scheduler.schedule("client_2", blockingUpload(release)));
+		assertEquals(1, scheduler.getStats().getBusyResponses());
+		release.countDown();
+	}
+
+	@Test
+	public void fullQueueIsBusy() {
+		UploadScheduler scheduler = new UploadScheduler(1, 1, 10);
+		CountDownLatch release = new CountDownLatch(1);
+		assertTrue(scheduler.schedule("client", blockingUpload(release)));
+		// The first upload may or may not have reached the worker yet, so fill whatever is left.
+		int admitted = 1;
+		while(scheduler.schedule("client", blockingUpload(release))) {
+			admitted++;
+			assertTrue("queue should have filled", admitted <= 2);
+		}
+		assertTrue(scheduler.getRetryAfterMillis() >= 1000);
+		release.countDown();
+	}
+
+	@Test
+	public void clientCanUploadAgainOnceFinished() throws InterruptedException {
+		UploadScheduler scheduler = new UploadScheduler(1, 1, 1);
+		final CountDownLatch finished = new CountDownLatch(1);
+		assertTrue(scheduler.schedule("client", new Runnable() {
+			@Override
+			public void run() {
+				finished.countDown();
+			}
+		}));
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		// The slot is given back just after the upload itself returns.
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!scheduler.schedule("client", blockingUpload(new CountDownLatch(0))) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, scheduler.getStats().getAdmittedUploads());
+	}
+
+	@Test
+	public void clientBucketIsDroppedAfterLastUpload() throws InterruptedException {
+		final BandwidthShaper shaper = new BandwidthShaper(1024 * 1024, 512 * 1024, 150);
+		UploadScheduler scheduler = new UploadScheduler(1, 1, 1, shaper);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		assertTrue(scheduler.schedule("client", new Runnable() {
+			@Override
+			public void run() {
+				shaper.getClientBucket("client");
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+			}
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals(1, shaper.getClientBucketCount());
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(shaper.getClientBucketCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, shaper.getClientBucketCount());
+	}
+
+	private Runnable blockingUpload(final CountDownLatch release) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+			}
+		};
+	}
+}
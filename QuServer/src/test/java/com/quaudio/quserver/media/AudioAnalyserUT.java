@@ -0,0 +1,74 @@
+package com.quaudio.quserver.media;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import org.junit.Test;
+import com.quaudio.quserver.filetransfer.AudioFile;
+
+public class AudioAnalyserUT {
+
+	@Test
+	public void analysisIsHandedBackAndSavedByHash() throws Exception {
+		File wavFile = createWavFile();
+		AudioFile audioFile = createAudioFile(wavFile);
+		audioFile.setContentHash("ab" + Long.toHexString(System.nanoTime()));
+		File analysisFile = new File(wavFile.getParentFile(), audioFile.getContentHash() + AudioAnalysis.FILE_EXTENSION);
+		analysisFile.deleteOnExit();
+		AudioAnalyser audioAnalyser = new AudioAnalyser(1, 4);
+		audioAnalyser.analyse(audioFile);
+		AudioFile analysedAudioFile = null;
+		for(int i = 0; i < 100 && analysedAudioFile == null; i++) {
+			Thread.sleep(50);
+			analysedAudioFile = audioAnalyser.getNextAnalysed();
+		}
+		assertSame(audioFile, analysedAudioFile);
+		AudioAnalysis analysis = audioFile.getAnalysis();
+		assertEquals(2.0, analysis.getDuration(), 0.0001);
+		assertEquals(8000, analysis.getSampleRate(), 0);
+		assertEquals(1, analysis.getChannels());
+		assertEquals(0.5, analysis.getTrackPeak(), 0.01);
+		assertTrue("the analysis should be saved under the content hash", analysisFile.exists());
+		// Another copy of the same content doesn't need decoding again.
+		AudioAnalysis savedAnalysis = AudioAnalysis.load(analysisFile);
+		assertEquals(analysis.getTrackGain(), savedAnalysis.getTrackGain(), 0.0001);
+		assertNull(savedAnalysis.getTitle());
+	}
+
+	@Test
+	public void undecodableFileHasNoAnalysis() throws IOException {
+		File notAudio = File.createTempFile("qu-analysis", ".wav");
+		notAudio.deleteOnExit();
+		new File(notAudio.getPath() + AudioAnalysis.FILE_EXTENSION).deleteOnExit();
+		assertNull(new AudioAnalyser(1, 1).getAnalysis(createAudioFile(notAudio)));
+	}
+
+	private File createWavFile() throws IOException {
+		// Two seconds of a half scale 400Hz square wave.
+		byte[] pcm = new byte[32000];
+		for(int i = 0; i < 16000; i++) {
+			short sample = (short) ((i / 10) % 2 == 0 ? 16384 : -16384);
+			pcm[i * 2] = (byte) sample;
+			pcm[i * 2 + 1] = (byte) (sample >> 8);
+		}
+		File wavFile = File.createTempFile("qu-analysis", ".wav");
+		wavFile.deleteOnExit();
+		AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), new AudioFormat(8000, 16, 1, true, false), 16000), 
+				AudioFileFormat.Type.WAVE, wavFile);
+		return wavFile;
+	}
+
+	private AudioFile createAudioFile(File file) {
+		AudioFile audioFile = new AudioFile();
+		audioFile.setName("track");
+		audioFile.setFileFormat(FileFormat.WAV);
+		audioFile.setPath(file.getPath());
+		return audioFile;
+	}
+}
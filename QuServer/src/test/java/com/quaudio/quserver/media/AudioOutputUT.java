@@ -0,0 +1,242 @@
+package com.quaudio.quserver.media;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import org.junit.Test;
+import com.quaudio.quserver.filetransfer.AudioFile;
+
+public class AudioOutputUT {
+	private static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+
+	@Test
+	public void nextTrackFollowsWithoutGap() throws Exception {
+		RecordingOutput output = new RecordingOutput();
+		byte[] firstAudio = createAudio(50000, 1);
+		byte[] secondAudio = createAudio(30000, 2);
+		TestTrack firstTrack = new TestTrack(createStream(firstAudio));
+		TestTrack secondTrack = new TestTrack(createStream(secondAudio));
+		// The second track is decoded ahead of time as the playlist would.
+		secondTrack.getPcmStream().prefill(100);
+		output.setNext(secondTrack);
+		output.play(firstTrack);
+		assertTrue(secondTrack.finished.await(5, TimeUnit.SECONDS));
+		assertTrue(firstTrack.finished.await(0, TimeUnit.SECONDS));
+		assertTrue("the second track should have been started by the output", secondTrack.startedByOutput);
+		byte[] expected = Arrays.copyOf(firstAudio, firstAudio.length + secondAudio.length);
+		System.arraycopy(secondAudio, 0, expected, firstAudio.length, secondAudio.length);
+		assertArrayEquals("the second track's audio should follow straight on from the first", expected, output.written.toByteArray());
+		assertEquals("the line should only be opened once", 1, output.linesOpened);
+	}
+
+	@Test
+	public void stoppedTrackIsNotFollowed() throws Exception {
+		RecordingOutput output = new RecordingOutput();
+		TestTrack firstTrack = new TestTrack(createStream(createAudio(50000, 1)));
+		TestTrack secondTrack = new TestTrack(createStream(createAudio(30000, 2)));
+		output.setNext(secondTrack);
+		output.stop(secondTrack);
+		output.play(firstTrack);
+		assertTrue(firstTrack.finished.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertFalse(secondTrack.startedByOutput);
+		assertEquals(50000, output.written.size());
+	}
+
+	@Test
+	public void decodedTrackCanStillBePaused() throws Exception {
+		RecordingOutput output = new RecordingOutput();
+		output.gate = new CountDownLatch(1);
+		TestTrack firstTrack = new TestTrack(createStream(createAudio(50000, 1)));
+		TestTrack secondTrack = new TestTrack(createStream(createAudio(30000, 2)));
+		output.setNext(secondTrack);
+		output.play(firstTrack);
+		awaitDecoded(output, firstTrack);
+		// The first track is still what can be heard, so it is the one that pauses.
+		assertTrue(output.pause(firstTrack));
+		output.gate.countDown();
+		assertFalse(firstTrack.finished.await(200, TimeUnit.MILLISECONDS));
+		output.play(firstTrack);
+		assertTrue(secondTrack.finished.await(5, TimeUnit.SECONDS));
+		assertEquals("resuming should carry on rather than start again", 80000, output.written.size());
+	}
+
+	@Test
+	public void decodedTrackCanStillBeStopped() throws Exception {
+		RecordingOutput output = new RecordingOutput();
+		output.gate = new CountDownLatch(1);
+		TestTrack firstTrack = new TestTrack(createStream(createAudio(50000, 1)));
+		byte[] secondAudio = createAudio(30000, 2);
+		TestTrack secondTrack = new TestTrack(createStream(secondAudio));
+		output.setNext(secondTrack);
+		output.play(firstTrack);
+		awaitDecoded(output, firstTrack);
+		output.stop(firstTrack);
+		output.gate.countDown();
+		assertTrue(secondTrack.finished.await(5, TimeUnit.SECONDS));
+		assertTrue(firstTrack.finished.await(0, TimeUnit.SECONDS));
+		// Only what reached the line before the stop is heard of the first track, all of the second follows it.
+		byte[] written = output.written.toByteArray();
+		assertTrue(written.length < 50000);
+		assertArrayEquals(secondAudio, Arrays.copyOfRange(written, written.length - secondAudio.length, written.length));
+	}
+
+	@Test
+	public void slowDecodingIsCoveredWithSilence() throws Exception {
+		RecordingOutput output = new RecordingOutput();
+		// The line always looks like it is about to run dry.
+		output.lineQueuedBytes = 0;
+		final byte[] audio = createAudio(40000, 3);
+		final CountDownLatch release = new CountDownLatch(1);
+		// Decoding stalls half way through the track.
+		InputStream slowAudio = new SequenceInputStream(new ByteArrayInputStream(audio, 0, 20000), new InputStream() {
+			private final ByteArrayInputStream rest = new ByteArrayInputStream(audio, 20000, 20000);
+
+			@Override
+			public int read() throws IOException {
+				byte[] single = new byte[1];
+				return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return rest.read(b, off, len);
+			}
+		});
+		TestTrack track = new TestTrack(new PcmStream(new AudioInputStream(slowAudio, FORMAT, audio.length / FORMAT.getFrameSize())));
+		output.play(track);
+		Thread.sleep(200);
+		assertTrue("the stall should have been counted", output.getStats().getUnderruns() > 0);
+		release.countDown();
+		assertTrue(track.finished.await(5, TimeUnit.SECONDS));
+		AudioOutputStats stats = output.getStats();
+		assertEquals(audio.length, stats.getPlayedBytes());
+		assertEquals(audio.length + stats.getSilenceBytes(), output.written.size());
+	}
+
+	@Test
+	public void analysedTrackIsPlayedAtItsGain() throws Exception {
+		RecordingOutput output = new RecordingOutput();
+		// A constant level, so that every sample shows the gain once it has settled.
+		byte[] audio = new byte[88200];
+		for(int i = 0; i < audio.length; i += 2) {
+			audio[i + 1] = 0x40;
+		}
+		TestTrack track = new TestTrack(createStream(audio));
+		track.getAudioFile().setAnalysis(new AudioAnalysis(null, null, null, 0.5, 44100, 2, -6.0206, 0.5));
+		output.play(track);
+		assertTrue(track.finished.await(5, TimeUnit.SECONDS));
+		byte[] written = output.written.toByteArray();
+		int lastSample = (short) ((written[written.length - 2] & 0xff) | (written[written.length - 1] << 8));
+		assertEquals(0x2000, lastSample, 2);
+	}
+
+	private void awaitDecoded(AudioOutput output, Playable track) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(output.isCurrent(track) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse("the track should have been decoded", output.isCurrent(track));
+	}
+
+	private PcmStream createStream(byte[] audio) {
+		return new PcmStream(new AudioInputStream(new ByteArrayInputStream(audio), FORMAT, audio.length / FORMAT.getFrameSize()));
+	}
+
+	private byte[] createAudio(int length, int seed) {
+		byte[] audio = new byte[length];
+		for(int i = 0; i < length; i++) {
+			audio[i] = (byte) (i * seed + seed);
+		}
+		return audio;
+	}
+
+	/**
+	 * Records what would have been written to the audio line.
+	 */
+	private static class RecordingOutput extends AudioOutput {
+		private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		private int linesOpened = 0;
+		private volatile int lineQueuedBytes = Integer.MAX_VALUE;
+		// Holds up the line until it is counted down, if set.
+		private volatile CountDownLatch gate = null;
+
+		@Override
+		protected void openLine(AudioFormat format) {
+			linesOpened++;
+		}
+
+		@Override
+		protected void writeToLine(byte[] buffer, int offset, int length) {
+			CountDownLatch currentGate = gate;
+			if(currentGate != null) {
+				try {
+					currentGate.await();
+				} catch (InterruptedException e) {}
+			}
+			written.write(buffer, offset, length);
+		}
+
+		@Override
+		protected int getLineQueuedBytes() {
+			return lineQueuedBytes;
+		}
+
+		@Override
+		protected void drainLine() {}
+
+		@Override
+		protected void closeLine() {}
+	}
+
+	private static class TestTrack extends Playable {
+		private final PcmStream pcmStream;
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private volatile boolean startedByOutput = false;
+
+		TestTrack(PcmStream pcmStream) {
+			super(new AudioFile());
+			this.pcmStream = pcmStream;
+		}
+
+		@Override
+		public PcmStream getPcmStream() {
+			return pcmStream;
+		}
+
+		@Override
+		public void onPlaybackStarted() {
+			startedByOutput = true;
+		}
+
+		@Override
+		public void onPlaybackFinished() {
+			finished.countDown();
+		}
+
+		public void initialise(boolean playOnReady) {}
+		public void play() {}
+		public void pause() {}
+		public void skipTo(double position) {}
+		public void stop() {}
+		public void deleteAudioData() {}
+		public void dispose() {}
+		public TrackState getState() { return null; }
+		public double getDuration() { return 0; }
+		public double getPostion() { return 0; }
+	}
+}
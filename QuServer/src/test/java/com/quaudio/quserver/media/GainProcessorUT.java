@@ -0,0 +1,63 @@
+package com.quaudio.quserver.media;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class GainProcessorUT {
+
+	@Test
+	public void unityGainLeavesAudioAlone() {
+		byte[] audio = createSine(1.0, 4410);
+		byte[] processed = Arrays.copyOf(audio, audio.length);
+		new GainProcessor().process(processed, 0, processed.length);
+		assertArrayEquals(audio, processed);
+	}
+
+	@Test
+	public void gainIsReachedSmoothly() {
+		GainProcessor gainProcessor = new GainProcessor();
+		gainProcessor.setTargetGain(GainProcessor.toLinear(-6));
+		byte[] audio = createSine(0.5, 44100);
+		gainProcessor.process(audio, 0, audio.length);
+		assertEquals(GainProcessor.toLinear(-6), gainProcessor.getGain(), 0);
+		// By the end of the second the sine should be at half its level.
+		assertEquals(0.25, peakOf(audio, audio.length - 4410 * 4, audio.length), 0.005);
+		// And it shouldn't have jumped there, the first few samples are barely changed.
+		assertEquals(0.5 * Math.sin(2 * Math.PI * 1000 * 5 / 44100), sampleAt(audio, 5), 0.01);
+	}
+
+	@Test
+	public void boostedPeaksAreLimited() {
+		GainProcessor gainProcessor = new GainProcessor();
+		gainProcessor.setTargetGain(GainProcessor.toLinear(12));
+		byte[] audio = createSine(0.9, 44100);
+		gainProcessor.process(audio, 0, audio.length);
+		assertTrue("the limiter should keep peaks below full scale", peakOf(audio, 0, audio.length) <= 0.951);
+	}
+
+	private byte[] createSine(double amplitude, int frames) {
+		byte[] pcm = new byte[frames * 4];
+		for(int frame = 0; frame < frames; frame++) {
+			short sample = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * 1000 * frame / 44100));
+			for(int channel = 0; channel < 2; channel++) {
+				pcm[frame * 4 + channel * 2] = (byte) sample;
+				pcm[frame * 4 + channel * 2 + 1] = (byte) (sample >> 8);
+			}
+		}
+		return pcm;
+	}
+
+	private double sampleAt(byte[] pcm, int frame) {
+		return (short) ((pcm[frame * 4] & 0xff) | (pcm[frame * 4 + 1] << 8)) / 32768.0;
+	}
+
+	private double peakOf(byte[] pcm, int start, int end) {
+		double peak = 0;
+		for(int frame = start / 4; frame < end / 4; frame++) {
+			peak = Math.max(peak, Math.abs(sampleAt(pcm, frame)));
+		}
+		return peak;
+	}
+}
@@ -0,0 +1,49 @@
+package com.quaudio.quserver.media;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LoudnessMeterUT {
+
+	@Test
+	public void twiceAsLoudNeedsSixDbLess() {
+		LoudnessMeter quiet = measureSine(0.25, 1000);
+		LoudnessMeter loud = measureSine(0.5, 1000);
+		assertEquals(20 * Math.log10(2), quiet.getGain() - loud.getGain(), 0.05);
+		assertEquals(0.5, loud.getPeak(), 0.001);
+		assertEquals(44100, loud.getFrames());
+	}
+
+	@Test
+	public void lowRumbleIsFilteredOut() {
+		// The same level at 40Hz should measure much quieter than at 1kHz.
+		assertTrue(measureSine(0.5, 40).getLoudness() < measureSine(0.5, 1000).getLoudness() - 10);
+	}
+
+	@Test
+	public void nothingMeasuredNeedsNoGain() {
+		LoudnessMeter meter = new LoudnessMeter(44100, 2);
+		meter.process(new byte[8820], 0, 8820);
+		assertEquals(0, meter.getGain(), 0);
+	}
+
+	/**
+	 * Measures a second of a stereo sine wave, fed in uneven pieces as a decoder would.
+	 */
+	private LoudnessMeter measureSine(double amplitude, double frequency) {
+		byte[] pcm = new byte[44100 * 4];
+		for(int frame = 0; frame < 44100; frame++) {
+			short sample = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * frame / 44100));
+			for(int channel = 0; channel < 2; channel++) {
+				pcm[frame * 4 + channel * 2] = (byte) sample;
+				pcm[frame * 4 + channel * 2 + 1] = (byte) (sample >> 8);
+			}
+		}
+		LoudnessMeter meter = new LoudnessMeter(44100, 2);
+		for(int offset = 0; offset < pcm.length; offset += 4000) {
+			meter.process(pcm, offset, Math.min(4000, pcm.length - offset));
+		}
+		return meter;
+	}
+}
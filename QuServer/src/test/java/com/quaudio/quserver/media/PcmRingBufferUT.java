@@ -0,0 +1,79 @@
+package com.quaudio.quserver.media;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class PcmRingBufferUT {
+
+	@Test
+	public void writesNoMoreThanThereIsRoomFor() {
+		PcmRingBuffer ringBuffer = new PcmRingBuffer(10);
+		assertEquals(10, ringBuffer.write(new byte[16], 0, 16));
+		assertEquals(0, ringBuffer.write(new byte[1], 0, 1));
+		assertEquals(10, ringBuffer.available());
+	}
+
+	@Test
+	public void wrapsAround() {
+		PcmRingBuffer ringBuffer = new PcmRingBuffer(10);
+		byte[] read = new byte[10];
+		ringBuffer.write(new byte[] { 1, 2, 3, 4, 5, 6, 7 }, 0, 7);
+		assertEquals(7, ringBuffer.read(read, 0, 10));
+		// This write runs off the end of the array and back to the start.
+		assertEquals(6, ringBuffer.write(new byte[] { 8, 9, 10, 11, 12, 13 }, 0, 6));
+		assertEquals(6, ringBuffer.read(read, 0, 10));
+		assertArrayEquals(new byte[] { 8, 9, 10, 11, 12, 13 }, Arrays.copyOf(read, 6));
+		assertEquals(13, ringBuffer.getRead());
+		assertEquals(13, ringBuffer.getWritten());
+	}
+
+	@Test
+	public void skipsNoFurtherThanWhatHasBeenWritten() {
+		PcmRingBuffer ringBuffer = new PcmRingBuffer(10);
+		ringBuffer.write(new byte[] { 1, 2, 3, 4 }, 0, 4);
+		ringBuffer.skipTo(3);
+		byte[] read = new byte[10];
+		assertEquals(1, ringBuffer.read(read, 0, 10));
+		assertEquals(4, read[0]);
+		ringBuffer.skipTo(20);
+		assertEquals(4, ringBuffer.getRead());
+	}
+
+	@Test
+	public void producerAndConsumerThreadsSeeEveryByteInOrder() throws Exception {
+		final PcmRingBuffer ringBuffer = new PcmRingBuffer(1000);
+		final int total = 5000000;
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] chunk = new byte[777];
+				int produced = 0;
+				while(produced < total) {
+					int length = Math.min(chunk.length, total - produced);
+					for(int i = 0; i < length; i++) {
+						chunk[i] = (byte) (produced + i);
+					}
+					int offset = 0;
+					while(offset < length) {
+						offset += ringBuffer.write(chunk, offset, length - offset);
+					}
+					produced += length;
+				}
+			}
+		});
+		producer.start();
+		byte[] chunk = new byte[512];
+		int consumed = 0;
+		while(consumed < total) {
+			int read = ringBuffer.read(chunk, 0, chunk.length);
+			for(int i = 0; i < read; i++) {
+				assertEquals((byte) (consumed + i), chunk[i]);
+			}
+			consumed += read;
+		}
+		producer.join();
+		assertEquals(0, ringBuffer.available());
+	}
+}
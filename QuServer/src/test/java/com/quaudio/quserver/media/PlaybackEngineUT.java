@@ -0,0 +1,99 @@
+package com.quaudio.quserver.media;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import org.junit.Test;
+import com.quaudio.quserver.filetransfer.AudioFile;
+
+public class PlaybackEngineUT {
+
+	@Test
+	public void decoderIsChosenByFormat() throws IOException {
+		final PcmStream decodedStream = new PcmStream(new AudioInputStream(new ByteArrayInputStream(new byte[4]), 
+				new AudioFormat(44100, 16, 2, true, false), 1));
+		PlaybackEngine playbackEngine = PlaybackEngine.getPlaybackEngine();
+		playbackEngine.registerDecoder(FileFormat.OGG, new AudioDecoder() {
+			@Override
+			public PcmStream open(File file, long offset) {
+				return decodedStream;
+			}
+		});
+		try {
+			assertSame(decodedStream, playbackEngine.open(createAudioFile(FileFormat.OGG, "track.ogg")));
+		} finally {
+			playbackEngine.registerDecoder(FileFormat.OGG, new SpiAudioDecoder());
+		}
+	}
+
+	@Test
+	public void wavIsDecodedTo16BitPcm() throws IOException {
+		// 8 bit unsigned mono, which has to be converted.
+		AudioFormat format = new AudioFormat(22050, 8, 1, false, false);
+		File wavFile = File.createTempFile("qu-playback", ".wav");
+		wavFile.deleteOnExit();
+		AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(new byte[2205]), format, 2205), AudioFileFormat.Type.WAVE, wavFile);
+		PcmStream stream = PlaybackEngine.getPlaybackEngine().open(createAudioFile(FileFormat.WAV, wavFile.getPath()));
+		try {
+			assertEquals(16, stream.getFormat().getSampleSizeInBits());
+			assertFalse(stream.getFormat().isBigEndian());
+			byte[] buffer = new byte[8192];
+			int total = 0;
+			int read;
+			while((read = stream.read(buffer, 0, buffer.length)) > 0) {
+				total += read;
+			}
+			assertEquals(2205 * 2, total);
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test
+	public void wavIsOpenedPartWayThrough() throws IOException {
+		// One second of 8 kHz mono, each sample holding its own index.
+		AudioFormat format = new AudioFormat(8000, 16, 1, true, false);
+		byte[] pcm = new byte[16000];
+		for(int i = 0; i < 8000; i++) {
+			pcm[i * 2] = (byte) i;
+			pcm[i * 2 + 1] = (byte) (i >> 8);
+		}
+		File wavFile = File.createTempFile("qu-playback", ".wav");
+		wavFile.deleteOnExit();
+		new File(wavFile.getPath() + SeekIndex.FILE_EXTENSION).deleteOnExit();
+		AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), format, 8000), AudioFileFormat.Type.WAVE, wavFile);
+		AudioFile audioFile = createAudioFile(FileFormat.WAV, wavFile.getPath());
+		PcmStream stream = PlaybackEngine.getPlaybackEngine().open(audioFile, 0.25);
+		try {
+			assertEquals(0.25, stream.getPosition(), 0.0001);
+			byte[] sample = new byte[2];
+			assertEquals(2, stream.read(sample, 0, 2));
+			assertEquals(2000, (sample[0] & 0xff) | (sample[1] << 8));
+		} finally {
+			stream.close();
+		}
+		assertEquals(1.0, audioFile.getSeekIndex().getDuration(), 0.0001);
+		assertTrue("the index should be saved next to the file", new File(wavFile.getPath() + SeekIndex.FILE_EXTENSION).exists());
+	}
+
+	@Test(expected = IOException.class)
+	public void unreadableFileFails() throws IOException {
+		File notAudio = File.createTempFile("qu-playback", ".mp3");
+		notAudio.deleteOnExit();
+		PlaybackEngine.getPlaybackEngine().open(createAudioFile(FileFormat.FLAC, notAudio.getPath()));
+	}
+
+	private AudioFile createAudioFile(FileFormat format, String path) {
+		AudioFile audioFile = new AudioFile();
+		audioFile.setName("track");
+		audioFile.setFileFormat(format);
+		audioFile.setPath(path);
+		return audioFile;
+	}
+}
@@ -1,18 +1,144 @@
 package com.quaudio.quserver.media;
 
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.quaudio.quserver.clientmanager.IncomingAction;
+import com.quaudio.quserver.clientmanager.IncomingActionType;
+import com.quaudio.quserver.clientmanager.OutgoingAction;
+import com.quaudio.quserver.filetransfer.AudioFile;
+
 public class PlaylistUT {
-	
+	private Playlist playlist;
+
 	@Before
 	public void setUp() {
-		
+		playlist = new Playlist();
 	}
-	
+
 	@Test
 	public void addTrack() {
-		
+		playlist.addTrack(createAudioFile("track_1"));
+		playlist.addTrack(createAudioFile("track_2"));
+		// Creating a snapshot gathers the two additions into a single delta.
+		OutgoingAction snapshot = playlist.generatePushPlayListOutgoingAction();
+		JSONObject snapshotJSON = snapshot.getActionInfoObject();
+		assertEquals("both additions should be covered by one delta", 1, playlist.getSequence());
+		assertEquals(1, snapshotJSON.getLong("sequence"));
+		assertEquals(2, snapshotJSON.getJSONArray("playlist").length());
+		assertEquals("track_2", snapshotJSON.getJSONArray("playlist").getJSONObject(1).getString("track_id"));
+	}
+
+	@Test
+	public void sameAudioFileIsQueuedForEachUpload() {
+		AudioFile audioFile = createAudioFile("track_1");
+		playlist.addTrack(audioFile);
+		// A second client uploads the same song, the ContentStore hands back the AudioFile already stored.
+		playlist.addTrack(audioFile, "track_2", "second_owner");
+		JSONObject snapshotJSON = playlist.generatePushPlayListOutgoingAction().getActionInfoObject();
+		assertEquals(2, snapshotJSON.getJSONArray("playlist").length());
+		JSONObject secondTrackJSON = snapshotJSON.getJSONArray("playlist").getJSONObject(1);
+		assertEquals("track_2", secondTrackJSON.getString("track_id"));
+		assertEquals("second_owner", secondTrackJSON.getString("owner_id"));
+		assertEquals("owner", snapshotJSON.getJSONArray("playlist").getJSONObject(0).getString("owner_id"));
+	}
+
+	@Test
+	public void unchangedPlaylistKeepsSequence() {
+		playlist.addTrack(createAudioFile("track_1"));
+		playlist.generatePushPlayListOutgoingAction();
+		playlist.generatePushPlayListOutgoingAction();
+		assertEquals(1, playlist.getSequence());
+	}
+
+	@Test
+	public void skipMovesTrackAndIsBroadcast() throws Exception {
+		AudioFile wavAudioFile = createAudioFile("track_2");
+		wavAudioFile.setFileFormat(FileFormat.WAV);
+		wavAudioFile.setPath(createWavFile(4).getPath());
+		playlist.addTrack(createAudioFile("track_1"));
+		playlist.addTrack(wavAudioFile);
+		playlist.generatePushPlayListOutgoingAction();
+		JSONObject skipJSON = new JSONObject();
+		skipJSON.put("action_type", IncomingActionType.SKIP.toString());
+		skipJSON.put("track_id", "track_2");
+		skipJSON.put("position", 1.5);
+		playlist.processAction(new IncomingAction(skipJSON));
+		// The seek, and the index it builds, happen off the server loop.
+		long deadline = System.currentTimeMillis() + 5000;
+		while(wavAudioFile.getSeekIndex() == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		JSONObject trackJSON = playlist.generatePushPlayListOutgoingAction().getActionInfoObject().getJSONArray("playlist").getJSONObject(1);
+		assertEquals(2, playlist.getSequence());
+		assertEquals(4.0, trackJSON.getDouble("duration"), 0.0001);
+		assertEquals(1.5, trackJSON.getDouble("position"), 0.0001);
+	}
+
+	@Test
+	public void failedSkipIsReported() throws Exception {
+		AudioFile wavAudioFile = createAudioFile("track_1");
+		wavAudioFile.setFileFormat(FileFormat.WAV);
+		File wavFile = createWavFile(4);
+		wavAudioFile.setPath(wavFile.getPath());
+		Track track = new Track(wavAudioFile);
+		track.prepare(false);
+		// The file goes missing, so the track can't be opened again to seek in it.
+		assertTrue(wavFile.delete());
+		track.skipTo(1.5);
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!track.takePositionChanged() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals("the track should be back where it really is", 0, track.getPostion(), 0.0001);
+		track.dispose();
 	}
 
+	@Test
+	public void analysedTrackIsUpdated() {
+		AudioFile audioFile = createAudioFile("track_1");
+		audioFile.setAlbum("");
+		playlist.addTrack(audioFile);
+		playlist.generatePushPlayListOutgoingAction();
+		audioFile.setAnalysis(new AudioAnalysis("Tagged name", "Tagged artist", "Tagged album", 180, 44100, 2, -3.5, 0.9));
+		playlist.updateTrack(audioFile);
+		JSONObject trackJSON = playlist.generatePushPlayListOutgoingAction().getActionInfoObject().getJSONArray("playlist").getJSONObject(0);
+		assertEquals(2, playlist.getSequence());
+		// Only the album was left out by the client.
+		assertEquals("track_1", trackJSON.getString("name"));
+		assertEquals("artist", trackJSON.getString("artist"));
+		assertEquals("Tagged album", trackJSON.getString("album"));
+		assertEquals(180, trackJSON.getDouble("duration"), 0);
+	}
+
+	private File createWavFile(int seconds) throws IOException {
+		AudioFormat format = new AudioFormat(8000, 16, 1, true, false);
+		File wavFile = File.createTempFile("qu-playlist", ".wav");
+		wavFile.deleteOnExit();
+		new File(wavFile.getPath() + SeekIndex.FILE_EXTENSION).deleteOnExit();
+		AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(new byte[seconds * 16000]), format, seconds * 8000), 
+				AudioFileFormat.Type.WAVE, wavFile);
+		return wavFile;
+	}
+
+	private AudioFile createAudioFile(String id) {
+		AudioFile audioFile = new AudioFile();
+		audioFile.setId(id);
+		audioFile.setOwnerId("owner");
+		audioFile.setName(id);
+		audioFile.setArtist("artist");
+		audioFile.setAlbum("album");
+		audioFile.setFileFormat(FileFormat.FLAC);
+		return audioFile;
+	}
 }
@@ -0,0 +1,148 @@
+package com.quaudio.quserver.media;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import org.junit.Test;
+
+public class SeekIndexUT {
+	// MPEG 1 layer III, 128 kbit/s at 44.1 kHz, no padding: 417 bytes and 1152 samples a frame.
+	private static final int MP3_HEADER = 0xfffb9000;
+	private static final int MP3_FRAME_LENGTH = 417;
+
+	@Test
+	public void mp3FramesAreIndexed() throws IOException {
+		int tagLength = 100;
+		int frameCount = 100;
+		ByteArrayOutputStream mp3 = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(mp3);
+		// An ID3v2 tag for the index to skip over.
+		output.writeBytes("ID3");
+		output.write(new byte[] { 3, 0, 0, 0, 0, 0, (byte) tagLength });
+		output.write(new byte[tagLength]);
+		for(int i = 0; i < frameCount; i++) {
+			output.writeInt(MP3_HEADER);
+			output.write(new byte[MP3_FRAME_LENGTH - 4]);
+		}
+		output.writeBytes("TAG");
+		output.write(new byte[125]);
+		SeekIndex seekIndex = SeekIndex.build(writeFile(mp3.toByteArray(), ".mp3"), FileFormat.MP3);
+		assertEquals(frameCount * 1152, seekIndex.getTotalFrames());
+		assertEquals(frameCount * 1152 / 44100.0, seekIndex.getDuration(), 0.0001);
+		// A seek point every 8 frames.
+		assertEquals(13, seekIndex.getPointCount());
+		assertEquals(10 + tagLength, seekIndex.getPointOffset(0));
+		assertEquals(10 + tagLength + 8 * MP3_FRAME_LENGTH, seekIndex.getPointOffset(1));
+		assertEquals(8 * 1152, seekIndex.getPointFrame(1));
+		// Decoding starts a couple of frames before the target, so from the point before frame 16.
+		int point = seekIndex.find(16 * 1152 + 10);
+		assertEquals(1, point);
+		assertEquals(0, seekIndex.find(0));
+		assertEquals(12, seekIndex.find(seekIndex.getTotalFrames()));
+	}
+
+	@Test
+	public void junkBetweenMp3FramesIsSkipped() throws IOException {
+		ByteArrayOutputStream mp3 = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(mp3);
+		for(int i = 0; i < 4; i++) {
+			output.writeInt(MP3_HEADER);
+			output.write(new byte[MP3_FRAME_LENGTH - 4]);
+			// Something that looks like the start of a header but isn't followed by a frame.
+			output.write(new byte[] { (byte) 0xff, (byte) 0xfb, 0x10 });
+		}
+		SeekIndex seekIndex = SeekIndex.build(writeFile(mp3.toByteArray(), ".mp3"), FileFormat.MP3);
+		assertEquals(4 * 1152, seekIndex.getTotalFrames());
+	}
+
+	@Test
+	public void flacIsDecodedFromTheStart() throws IOException {
+		ByteArrayOutputStream flac = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(flac);
+		output.writeBytes("fLaC");
+		// STREAMINFO: 44100 Hz, 2 channels, 16 bits, 441000 samples.
+		output.writeInt(34);
+		output.write(new byte[10]);
+		output.writeLong((44100L << 44) | (1L << 41) | (15L << 36) | 441000L);
+		output.write(new byte[16]);
+		// SEEKTABLE, the last block, with two points and a placeholder.
+		output.writeInt(0x83000000 | 54);
+		writeSeekPoint(output, 0, 0);
+		writeSeekPoint(output, 220500, 500000);
+		writeSeekPoint(output, -1L, 0);
+		output.write(new byte[64]);
+		SeekIndex seekIndex = SeekIndex.build(writeFile(flac.toByteArray(), ".flac"), FileFormat.FLAC);
+		assertEquals(10.0, seekIndex.getDuration(), 0.0001);
+		// The seek table's offsets are part way through the stream where no decoder can open it, so they are left out.
+		assertEquals(1, seekIndex.getPointCount());
+		assertEquals(0, seekIndex.getPointOffset(0));
+		assertEquals(0, seekIndex.find(seekIndex.toFrame(7.5)));
+		assertEquals(330750, seekIndex.toFrame(7.5));
+	}
+
+	@Test
+	public void wavLengthIsRead() throws IOException {
+		AudioFormat format = new AudioFormat(8000, 16, 1, true, false);
+		File wavFile = File.createTempFile("qu-seek", ".wav");
+		wavFile.deleteOnExit();
+		AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(new byte[16000]), format, 8000), AudioFileFormat.Type.WAVE, wavFile);
+		SeekIndex seekIndex = SeekIndex.build(wavFile, FileFormat.WAV);
+		assertEquals(1.0, seekIndex.getDuration(), 0.0001);
+		assertEquals(8000, seekIndex.toFrame(5));
+	}
+
+	@Test
+	public void unknownSampleRateIsNotGuessed() {
+		SeekIndex seekIndex = new SeekIndex(0, -1, 0, new long[] { 0 }, new long[] { 0 });
+		assertEquals(-1, seekIndex.toFrame(5));
+		assertEquals(-1, seekIndex.toFrame(5, 0));
+		// The decoder's rate is used when the index doesn't have one, but never over the index's own.
+		assertEquals(220500, seekIndex.toFrame(5, 44100));
+		assertEquals(8000, new SeekIndex(8000, -1, 0, new long[] { 0 }, new long[] { 0 }).toFrame(1, 44100));
+	}
+
+	@Test
+	public void savedIndexLoadsTheSame() throws IOException {
+		SeekIndex seekIndex = new SeekIndex(44100, 1000000, 2304, new long[] { 0, 9216 }, new long[] { 110, 3446 });
+		File indexFile = File.createTempFile("qu-seek", SeekIndex.FILE_EXTENSION);
+		indexFile.deleteOnExit();
+		seekIndex.save(indexFile);
+		SeekIndex loaded = SeekIndex.load(indexFile);
+		assertEquals(seekIndex.getDuration(), loaded.getDuration(), 0);
+		assertEquals(2, loaded.getPointCount());
+		assertEquals(3446, loaded.getPointOffset(1));
+		assertEquals(seekIndex.find(20000), loaded.find(20000));
+	}
+
+	@Test(expected = IOException.class)
+	public void otherFilesAreNotLoaded() throws IOException {
+		SeekIndex.load(writeFile(new byte[64], SeekIndex.FILE_EXTENSION));
+	}
+
+	private void writeSeekPoint(DataOutputStream output, long sample, long offset) throws IOException {
+		output.writeLong(sample);
+		output.writeLong(offset);
+		output.writeShort(4096);
+	}
+
+	private File writeFile(byte[] content, String suffix) throws IOException {
+		File file = File.createTempFile("qu-seek", suffix);
+		file.deleteOnExit();
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(content);
+		} finally {
+			output.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,105 @@
+package com.quaudio.quserver.media;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+public class TagReaderUT {
+
+	@Test
+	public void id3v2FramesAreRead() throws IOException {
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		writeTextFrame(frames, "TIT2", 3, "Caf\u00e9".getBytes("UTF-8"));
+		writeTextFrame(frames, "TPE1", 1, "Artist".getBytes("UTF-16"));
+		ByteArrayOutputStream mp3 = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(mp3);
+		output.writeBytes("ID3");
+		output.write(new byte[] { 3, 0, 0, 0, 0, 0, (byte) (frames.size() + 20) });
+		output.write(frames.toByteArray());
+		// Padding.
+		output.write(new byte[20]);
+		// An ID3v1 tag with an album, the only thing the ID3v2 tag doesn't have.
+		output.writeBytes("TAG");
+		output.write(padded("Old title", 30));
+		output.write(padded("Old artist", 30));
+		output.write(padded("Album", 30));
+		output.write(new byte[35]);
+		TagReader tags = new TagReader(writeFile(mp3.toByteArray(), ".mp3"), FileFormat.MP3);
+		assertEquals("Caf\u00e9", tags.getTitle());
+		assertEquals("Artist", tags.getArtist());
+		assertEquals("Album", tags.getAlbum());
+	}
+
+	@Test
+	public void flacVorbisCommentsAreRead() throws IOException {
+		ByteArrayOutputStream comments = new ByteArrayOutputStream();
+		writeLittleEndianString(comments, "vendor");
+		writeLittleEndianInt(comments, 2);
+		writeLittleEndianString(comments, "title=Song");
+		writeLittleEndianString(comments, "ALBUM=Record");
+		ByteArrayOutputStream flac = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(flac);
+		output.writeBytes("fLaC");
+		output.writeInt(34);
+		output.write(new byte[34]);
+		output.writeInt(0x84000000 | comments.size());
+		output.write(comments.toByteArray());
+		TagReader tags = new TagReader(writeFile(flac.toByteArray(), ".flac"), FileFormat.FLAC);
+		assertEquals("Song", tags.getTitle());
+		assertNull(tags.getArtist());
+		assertEquals("Record", tags.getAlbum());
+	}
+
+	@Test
+	public void untaggedFileHasNoTags() throws IOException {
+		TagReader tags = new TagReader(writeFile(new byte[256], ".mp3"), FileFormat.MP3);
+		assertNull(tags.getTitle());
+		assertNull(tags.getArtist());
+		assertNull(tags.getAlbum());
+	}
+
+	private void writeTextFrame(ByteArrayOutputStream frames, String id, int encoding, byte[] text) throws IOException {
+		DataOutputStream output = new DataOutputStream(frames);
+		output.writeBytes(id);
+		output.writeInt(text.length + 1);
+		output.writeShort(0);
+		output.write(encoding);
+		output.write(text);
+	}
+
+	private byte[] padded(String value, int length) {
+		byte[] bytes = new byte[length];
+		System.arraycopy(value.getBytes(), 0, bytes, 0, value.length());
+		return bytes;
+	}
+
+	private void writeLittleEndianString(ByteArrayOutputStream output, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		writeLittleEndianInt(output, bytes.length);
+		output.write(bytes);
+	}
+
+	private void writeLittleEndianInt(ByteArrayOutputStream output, int value) {
+		output.write(value);
+		output.write(value >> 8);
+		output.write(value >> 16);
+		output.write(value >> 24);
+	}
+
+	private File writeFile(byte[] content, String suffix) throws IOException {
+		File file = File.createTempFile("qu-tags", suffix);
+		file.deleteOnExit();
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(content);
+		} finally {
+			output.close();
+		}
+		return file;
+	}
+}
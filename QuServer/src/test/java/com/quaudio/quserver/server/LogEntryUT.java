@@ -1,5 +1,7 @@
 package com.quaudio.quserver.server;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import org.junit.Test;
 import com.quaudio.quserver.server.Log.MessageType;
 import static org.junit.Assert.*;
@@ -12,4 +14,15 @@ public class LogEntryUT {
         assertEquals(testEntry.getComposedEntry().trim(), "2016:01:01 00:00:00 : INFO       : SERVER               : test entry");
     }
 	
+	@Test
+	public void reusedEntryIsComposedFromItsTime() {
+		LogEntry testEntry = new LogEntry();
+		long time = System.currentTimeMillis();
+		testEntry.set(MessageType.WARNING, "CLIENT_MANAGER", "reused entry", time);
+		String dateTime = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss").format(new Date(time));
+		assertEquals(dateTime + " : WARNING    : CLIENT_MANAGER       : reused entry", testEntry.getComposedEntry());
+		// Values longer than their column are left as they are.
+		assertEquals("A_VERY_LONG_AREA_NAME_INDEED", Log.padValue("A_VERY_LONG_AREA_NAME_INDEED", 20));
+		assertEquals("INFO      ", Log.padValue("INFO", 10));
+	}
 }
@@ -0,0 +1,96 @@
+package com.quaudio.quserver.server;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import org.junit.Test;
+import com.quaudio.quserver.server.Log.MessageType;
+
+public class LogRingBufferUT {
+
+	@Test
+	public void capacityIsRoundedUpToPowerOfTwo() {
+		assertEquals(8, new LogRingBuffer(5).getCapacity());
+		assertEquals(8, new LogRingBuffer(8).getCapacity());
+		assertEquals(4096, new LogRingBuffer(4000).getCapacity());
+	}
+
+	@Test
+	public void entriesAreDrainedInOrder() {
+		LogRingBuffer ringBuffer = new LogRingBuffer(4);
+		// Go round the ring a few times.
+		for(int round = 0; round < 3; round++) {
+			assertTrue(ringBuffer.offer(MessageType.INFO, "SERVER", "first " + round, 0));
+			assertTrue(ringBuffer.offer(MessageType.ERROR, "CLIENT_MANAGER", "second " + round, 0));
+			StringBuilder drained = new StringBuilder();
+			assertEquals(2, ringBuffer.drainTo(drained, 10));
+			String[] lines = drained.toString().split(Log.LINE_SEPARATOR);
+			assertEquals(2, lines.length);
+			assertTrue(lines[0].endsWith(" : INFO       : SERVER               : first " + round));
+			assertTrue(lines[1].endsWith(" : ERROR      : CLIENT_MANAGER       : second " + round));
+			assertEquals(0, ringBuffer.drainTo(drained, 10));
+		}
+	}
+
+	@Test
+	public void fullRingDropsEntries() {
+		LogRingBuffer ringBuffer = new LogRingBuffer(4);
+		for(int i = 0; i < 4; i++) {
+			assertTrue(ringBuffer.offer(MessageType.INFO, "SERVER", "entry " + i, 0));
+		}
+		assertFalse(ringBuffer.offer(MessageType.INFO, "SERVER", "dropped", 0));
+		assertFalse(ringBuffer.offer(MessageType.INFO, "SERVER", "dropped", 0));
+		assertEquals(2, ringBuffer.takeDropped());
+		assertEquals(0, ringBuffer.takeDropped());
+		// Draining only part of the ring frees just that part.
+		assertEquals(1, ringBuffer.drainTo(new StringBuilder(), 1));
+		assertTrue(ringBuffer.offer(MessageType.INFO, "SERVER", "entry 4", 0));
+		assertFalse(ringBuffer.offer(MessageType.INFO, "SERVER", "dropped", 0));
+		StringBuilder drained = new StringBuilder();
+		assertEquals(4, ringBuffer.drainTo(drained, 10));
+		assertTrue(drained.toString().contains("entry 1"));
+		assertTrue(drained.toString().contains("entry 4"));
+		assertFalse(drained.toString().contains("dropped"));
+	}
+
+	@Test
+	public void concurrentEntriesAreAllDrained() throws InterruptedException {
+		final int threadCount = 4;
+		final int entriesPerThread = 20000;
+		final LogRingBuffer ringBuffer = new LogRingBuffer(256);
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			final int thread = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i = 0; i < entriesPerThread; i++) {
+						// Wait for room rather than dropping, we want to see every entry.
+						while(!ringBuffer.offer(MessageType.INFO, "T" + thread, "" + i, 0)) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		HashSet<String> seen = new HashSet<String>();
+		StringBuilder drained = new StringBuilder();
+		long deadline = System.currentTimeMillis() + 20000;
+		while(seen.size() < threadCount * entriesPerThread && System.currentTimeMillis() < deadline) {
+			drained.setLength(0);
+			if(ringBuffer.drainTo(drained, 100) == 0) {
+				Thread.yield();
+				continue;
+			}
+			for(String line : drained.toString().split(Log.LINE_SEPARATOR)) {
+				String[] parts = line.split(" : ");
+				assertTrue("duplicate entry " + line, seen.add(parts[2].trim() + "/" + parts[3]));
+			}
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(threadCount * entriesPerThread, seen.size());
+	}
+}
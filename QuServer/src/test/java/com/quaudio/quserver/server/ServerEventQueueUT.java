@@ -0,0 +1,58 @@
+package com.quaudio.quserver.server;
+
+import static org.junit.Assert.*;
+import java.util.EnumSet;
+import org.junit.Test;
+
+public class ServerEventQueueUT {
+	
+	@Test
+	public void takeCoalescedEvents() throws InterruptedException {
+		ServerEventQueue eventQueue = ServerEventQueue.getEventQueue();
+		// Clear anything that may have been posted by other tests.
+		eventQueue.take(0);
+		// Post the same event a number of times, along with a different event.
+		eventQueue.post(ServerEventType.INCOMING_ACTION);
+		eventQueue.post(ServerEventType.INCOMING_ACTION);
+		eventQueue.post(ServerEventType.UPLOAD_COMPLETE);
+		EnumSet<ServerEventType> events = eventQueue.take(1000);
+		assertTrue("was expecting exactly the two types of event that were posted", events.size() == 2);
+		assertTrue("was expecting an INCOMING_ACTION event", events.contains(ServerEventType.INCOMING_ACTION));
+		assertTrue("was expecting an UPLOAD_COMPLETE event", events.contains(ServerEventType.UPLOAD_COMPLETE));
+	}
+	
+	@Test
+	public void takeTimesOutWhenIdle() throws InterruptedException {
+		ServerEventQueue eventQueue = ServerEventQueue.getEventQueue();
+		// Clear anything that may have been posted by other tests.
+		eventQueue.take(0);
+		// Nothing has been posted, so we should wait for the timeout and get nothing back.
+		long waitStart = System.currentTimeMillis();
+		EnumSet<ServerEventType> events = eventQueue.take(50);
+		assertTrue("was expecting no events as none were posted", events.isEmpty());
+		assertTrue("take() returned before the timeout expired", (System.currentTimeMillis() - waitStart) >= 45);
+	}
+	
+	@Test
+	public void postWakesWaitingThread() throws InterruptedException {
+		final ServerEventQueue eventQueue = ServerEventQueue.getEventQueue();
+		// Clear anything that may have been posted by other tests.
+		eventQueue.take(0);
+		// Post an event from another thread after a short delay.
+		Thread poster = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {}
+				eventQueue.post(ServerEventType.TRACK_STOPPED);
+			}
+		});
+		poster.start();
+		// We should be woken well before our long timeout.
+		long waitStart = System.currentTimeMillis();
+		EnumSet<ServerEventType> events = eventQueue.take(5000);
+		assertTrue("was expecting a TRACK_STOPPED event", events.contains(ServerEventType.TRACK_STOPPED));
+		assertTrue("take() was not woken by the posted event", (System.currentTimeMillis() - waitStart) < 5000);
+	}
+}
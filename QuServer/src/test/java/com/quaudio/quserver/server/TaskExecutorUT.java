@@ -0,0 +1,49 @@
+package com.quaudio.quserver.server;
+
+import static org.junit.Assert.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TaskExecutorUT {
+	
+	@Test
+	public void executeTask() throws InterruptedException {
+		final CountDownLatch taskRun = new CountDownLatch(1);
+		// Whichever threading mode the JVM supports, our task should get run.
+		TaskExecutor taskExecutor = new TaskExecutor(ThreadingMode.VIRTUAL, 2);
+		taskExecutor.execute(new Runnable() {
+			@Override
+			public void run() { taskRun.countDown(); }
+		});
+		assertTrue("the task was never run", taskRun.await(4, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void platformThreadsAreBounded() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable blockingTask = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+			}
+		};
+		TaskExecutor taskExecutor = new TaskExecutor(ThreadingMode.PLATFORM, 2);
+		assertFalse("we asked for platform threads", taskExecutor.isUsingVirtualThreads());
+		// Occupy both of our platform threads.
+		taskExecutor.execute(blockingTask);
+		taskExecutor.execute(blockingTask);
+		// A third task should be rejected rather than creating another thread.
+		try {
+			taskExecutor.execute(blockingTask);
+			fail("was expecting the task to be rejected as all platform threads are busy");
+		} catch (RejectedExecutionException e) {
+			// This is what we expected.
+		} finally {
+			release.countDown();
+		}
+	}
+}